@@ -22,11 +22,12 @@ import android.annotation.SystemApi;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.JsonWriter;
-import android.util.SparseArray;
-import android.util.SparseIntArray;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -36,6 +37,20 @@ import java.util.Objects;
  */
 @SystemApi
 public class CarDiagnosticEvent implements Parcelable {
+    /**
+     * Maximum number of vendor-specific sensors of each type in a frame. Sensors are stored in
+     * arrays indexed by sensor index, so this bounds the memory used by a frame, including frames
+     * read from a parcel.
+     *
+     * @hide
+     */
+    public static final int MAX_VENDOR_SENSORS = 1024;
+
+    private static final int MAX_INT_SENSORS =
+            android.car.diagnostic.IntegerSensorIndex.VENDOR_START + MAX_VENDOR_SENSORS;
+    private static final int MAX_FLOAT_SENSORS =
+            android.car.diagnostic.FloatSensorIndex.VENDOR_START + MAX_VENDOR_SENSORS;
+
     /** Whether this frame represents a live or a freeze frame */
     public final int frameType;
 
@@ -46,16 +61,22 @@ public class CarDiagnosticEvent implements Parcelable {
     public final long timestamp;
 
     /**
-     * Sparse array that contains the mapping of OBD2 diagnostic properties to their values for
-     * integer valued properties
+     * Values of the integer valued OBD2 diagnostic properties, indexed by
+     * {@link android.car.diagnostic.IntegerSensorIndex}. Only the values whose bit is set in
+     * intPresent are in the frame.
      */
-    private final SparseIntArray intValues;
+    private final int[] intValues;
+    private final long[] intPresent;
+    private final int intCount;
 
     /**
-     * Sparse array that contains the mapping of OBD2 diagnostic properties to their values for
-     * float valued properties
+     * Values of the float valued OBD2 diagnostic properties, indexed by
+     * {@link android.car.diagnostic.FloatSensorIndex}. Only the values whose bit is set in
+     * floatPresent are in the frame.
      */
-    private final SparseArray<Float> floatValues;
+    private final float[] floatValues;
+    private final long[] floatPresent;
+    private final int floatCount;
 
     /**
      * Diagnostic Troubleshooting Code (DTC) that was detected and caused this frame to be stored
@@ -63,25 +84,54 @@ public class CarDiagnosticEvent implements Parcelable {
      */
     public final String dtc;
 
+    /**
+     * Reads a frame. The sensors are parceled as a presence bitmap followed by the values of the
+     * present sensors in index order, so that no sensor index is parceled.
+     */
     public CarDiagnosticEvent(Parcel in) {
         frameType = in.readInt();
         timestamp = in.readLong();
-        int len = in.readInt();
-        floatValues = new SparseArray<>(len);
-        for (int i = 0; i < len; ++i) {
-            int key = in.readInt();
-            float value = in.readFloat();
-            floatValues.put(key, value);
-        }
-        len = in.readInt();
-        intValues = new SparseIntArray(len);
-        for (int i = 0; i < len; ++i) {
-            int key = in.readInt();
-            int value = in.readInt();
-            intValues.put(key, value);
+        floatPresent = readBitmap(in, MAX_FLOAT_SENSORS);
+        floatValues = new float[sizeOf(floatPresent)];
+        int count = 0;
+        for (int i = nextPresent(floatPresent, 0); i >= 0; i = nextPresent(floatPresent, i + 1)) {
+            floatValues[i] = in.readFloat();
+            count++;
         }
+        floatCount = count;
+        intPresent = readBitmap(in, MAX_INT_SENSORS);
+        intValues = new int[sizeOf(intPresent)];
+        count = 0;
+        for (int i = nextPresent(intPresent, 0); i >= 0; i = nextPresent(intPresent, i + 1)) {
+            intValues[i] = in.readInt();
+            count++;
+        }
+        intCount = count;
         dtc = (String) in.readValue(String.class.getClassLoader());
-        // version 1 up to here
+        // version 2 up to here
+    }
+
+    /**
+     * Reads a bitmap written by {@link Parcel#writeLongArray(long[])}, rejecting bitmaps of
+     * sensors beyond maxSize before allocating anything for them.
+     */
+    private static long[] readBitmap(Parcel in, int maxSize) {
+        int length = in.readInt();
+        if (length < 0 || length > bitmapSize(maxSize)) {
+            throw new IllegalArgumentException("invalid sensor bitmap length " + length);
+        }
+        long[] bitmap = new long[length];
+        for (int i = 0; i < length; i++) {
+            bitmap[i] = in.readLong();
+        }
+        checkBitmapSize(bitmap, maxSize);
+        return bitmap;
+    }
+
+    private static void checkBitmapSize(long[] bitmap, int maxSize) {
+        if (sizeOf(bitmap) > maxSize) {
+            throw new IllegalArgumentException("sensor index out of range " + (sizeOf(bitmap) - 1));
+        }
     }
 
     @Override
@@ -93,17 +143,13 @@ public class CarDiagnosticEvent implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeInt(frameType);
         dest.writeLong(timestamp);
-        dest.writeInt(floatValues.size());
-        for (int i = 0; i < floatValues.size(); ++i) {
-            int key = floatValues.keyAt(i);
-            dest.writeInt(key);
-            dest.writeFloat(floatValues.get(key));
-        }
-        dest.writeInt(intValues.size());
-        for (int i = 0; i < intValues.size(); ++i) {
-            int key = intValues.keyAt(i);
-            dest.writeInt(key);
-            dest.writeInt(intValues.get(key));
+        dest.writeLongArray(floatPresent);
+        for (int i = nextPresent(floatPresent, 0); i >= 0; i = nextPresent(floatPresent, i + 1)) {
+            dest.writeFloat(floatValues[i]);
+        }
+        dest.writeLongArray(intPresent);
+        for (int i = nextPresent(intPresent, 0); i >= 0; i = nextPresent(intPresent, i + 1)) {
+            dest.writeInt(intValues[i]);
         }
         dest.writeValue(dtc);
     }
@@ -140,19 +186,19 @@ public class CarDiagnosticEvent implements Parcelable {
         jsonWriter.name("timestamp").value(timestamp);
 
         jsonWriter.name("intValues").beginArray();
-        for (int i = 0; i < intValues.size(); ++i) {
+        for (int i = nextPresent(intPresent, 0); i >= 0; i = nextPresent(intPresent, i + 1)) {
             jsonWriter.beginObject();
-            jsonWriter.name("id").value(intValues.keyAt(i));
-            jsonWriter.name("value").value(intValues.valueAt(i));
+            jsonWriter.name("id").value(i);
+            jsonWriter.name("value").value(intValues[i]);
             jsonWriter.endObject();
         }
         jsonWriter.endArray();
 
         jsonWriter.name("floatValues").beginArray();
-        for (int i = 0; i < floatValues.size(); ++i) {
+        for (int i = nextPresent(floatPresent, 0); i >= 0; i = nextPresent(floatPresent, i + 1)) {
             jsonWriter.beginObject();
-            jsonWriter.name("id").value(floatValues.keyAt(i));
-            jsonWriter.name("value").value(floatValues.valueAt(i));
+            jsonWriter.name("id").value(i);
+            jsonWriter.name("value").value(floatValues[i]);
             jsonWriter.endObject();
         }
         jsonWriter.endArray();
@@ -164,6 +210,78 @@ public class CarDiagnosticEvent implements Parcelable {
         jsonWriter.endObject();
     }
 
+    /**
+     * Writes this frame in a stable binary format, for frames stored across platform updates.
+     * The sensors are laid out as in a parcel. The frame can be read back by
+     * {@link #readFrom(DataInput)}.
+     *
+     * @hide
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(frameType);
+        out.writeLong(timestamp);
+        writeBitmap(out, floatPresent);
+        for (int i = nextPresent(floatPresent, 0); i >= 0; i = nextPresent(floatPresent, i + 1)) {
+            out.writeFloat(floatValues[i]);
+        }
+        writeBitmap(out, intPresent);
+        for (int i = nextPresent(intPresent, 0); i >= 0; i = nextPresent(intPresent, i + 1)) {
+            out.writeInt(intValues[i]);
+        }
+        out.writeBoolean(dtc != null);
+        if (dtc != null) {
+            out.writeUTF(dtc);
+        }
+    }
+
+    /**
+     * Reads a frame written by {@link #writeTo(DataOutput)}.
+     *
+     * @throws IOException if the frame cannot be read or is malformed.
+     * @hide
+     */
+    public static CarDiagnosticEvent readFrom(DataInput in) throws IOException {
+        int frameType = in.readInt();
+        long timestamp = in.readLong();
+        long[] floatPresent = readBitmap(in, MAX_FLOAT_SENSORS);
+        float[] floatValues = new float[sizeOf(floatPresent)];
+        for (int i = nextPresent(floatPresent, 0); i >= 0; i = nextPresent(floatPresent, i + 1)) {
+            floatValues[i] = in.readFloat();
+        }
+        long[] intPresent = readBitmap(in, MAX_INT_SENSORS);
+        int[] intValues = new int[sizeOf(intPresent)];
+        for (int i = nextPresent(intPresent, 0); i >= 0; i = nextPresent(intPresent, i + 1)) {
+            intValues[i] = in.readInt();
+        }
+        String dtc = in.readBoolean() ? in.readUTF() : null;
+        return createFromSensorArrays(frameType, timestamp,
+                intValues, intPresent, floatValues, floatPresent, dtc);
+    }
+
+    private static void writeBitmap(DataOutput out, long[] bitmap) throws IOException {
+        out.writeShort(bitmap.length);
+        for (long word : bitmap) {
+            out.writeLong(word);
+        }
+    }
+
+    private static long[] readBitmap(DataInput in, int maxSize) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length > bitmapSize(maxSize)) {
+            throw new IOException("invalid sensor bitmap length " + length);
+        }
+        long[] bitmap = new long[length];
+        for (int i = 0; i < bitmap.length; i++) {
+            bitmap[i] = in.readLong();
+        }
+        try {
+            checkBitmapSize(bitmap, maxSize);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+        return bitmap;
+    }
+
     public static final Parcelable.Creator<CarDiagnosticEvent> CREATOR =
             new Parcelable.Creator<CarDiagnosticEvent>() {
                 public CarDiagnosticEvent createFromParcel(Parcel in) {
@@ -178,13 +296,21 @@ public class CarDiagnosticEvent implements Parcelable {
     private CarDiagnosticEvent(
             int frameType,
             long timestamp,
-            SparseArray<Float> floatValues,
-            SparseIntArray intValues,
+            float[] floatValues,
+            long[] floatPresent,
+            int floatCount,
+            int[] intValues,
+            long[] intPresent,
+            int intCount,
             String dtc) {
         this.frameType = frameType;
         this.timestamp = timestamp;
         this.floatValues = floatValues;
+        this.floatPresent = floatPresent;
+        this.floatCount = floatCount;
         this.intValues = intValues;
+        this.intPresent = intPresent;
+        this.intCount = intCount;
         this.dtc = dtc;
     }
 
@@ -195,8 +321,14 @@ public class CarDiagnosticEvent implements Parcelable {
     public static class Builder {
         private int mType = CarDiagnosticManager.FRAME_TYPE_LIVE;
         private long mTimestamp = 0;
-        private SparseArray<Float> mFloatValues = new SparseArray<>();
-        private SparseIntArray mIntValues = new SparseIntArray();
+        private float[] mFloatValues =
+                new float[android.car.diagnostic.FloatSensorIndex.VENDOR_START];
+        private long[] mFloatPresent = new long[bitmapSize(mFloatValues.length)];
+        private int mFloatCount = 0;
+        private int[] mIntValues =
+                new int[android.car.diagnostic.IntegerSensorIndex.VENDOR_START];
+        private long[] mIntPresent = new long[bitmapSize(mIntValues.length)];
+        private int mIntCount = 0;
         private String mDtc = null;
 
         private Builder(int type) {
@@ -219,15 +351,45 @@ public class CarDiagnosticEvent implements Parcelable {
             return this;
         }
 
-        /** Adds an integer-valued sensor to the frame being built */
+        /**
+         * Adds an integer-valued sensor to the frame being built
+         *
+         * @throws IllegalArgumentException if the sensor index is negative or beyond
+         *         {@link #MAX_VENDOR_SENSORS} vendor-specific sensors.
+         */
         public Builder withIntValue(int key, int value) {
-            mIntValues.put(key, value);
+            checkSensorIndex(key, MAX_INT_SENSORS);
+            if (key >= mIntValues.length) {
+                mIntValues = Arrays.copyOf(mIntValues, grownSize(mIntValues.length, key,
+                        MAX_INT_SENSORS));
+                mIntPresent = Arrays.copyOf(mIntPresent, bitmapSize(mIntValues.length));
+            }
+            if (!isPresent(mIntPresent, key)) {
+                setPresent(mIntPresent, key);
+                mIntCount++;
+            }
+            mIntValues[key] = value;
             return this;
         }
 
-        /** Adds a float-valued sensor to the frame being built */
+        /**
+         * Adds a float-valued sensor to the frame being built
+         *
+         * @throws IllegalArgumentException if the sensor index is negative or beyond
+         *         {@link #MAX_VENDOR_SENSORS} vendor-specific sensors.
+         */
         public Builder withFloatValue(int key, float value) {
-            mFloatValues.put(key, value);
+            checkSensorIndex(key, MAX_FLOAT_SENSORS);
+            if (key >= mFloatValues.length) {
+                mFloatValues = Arrays.copyOf(mFloatValues, grownSize(mFloatValues.length, key,
+                        MAX_FLOAT_SENSORS));
+                mFloatPresent = Arrays.copyOf(mFloatPresent, bitmapSize(mFloatValues.length));
+            }
+            if (!isPresent(mFloatPresent, key)) {
+                setPresent(mFloatPresent, key);
+                mFloatCount++;
+            }
+            mFloatValues[key] = value;
             return this;
         }
 
@@ -239,31 +401,76 @@ public class CarDiagnosticEvent implements Parcelable {
 
         /** Builds and returns the CarDiagnosticEvent */
         public CarDiagnosticEvent build() {
-            return new CarDiagnosticEvent(mType, mTimestamp, mFloatValues, mIntValues, mDtc);
+            int floatSize = sizeOf(mFloatPresent);
+            int intSize = sizeOf(mIntPresent);
+            return new CarDiagnosticEvent(mType, mTimestamp,
+                    Arrays.copyOf(mFloatValues, floatSize),
+                    Arrays.copyOf(mFloatPresent, bitmapSize(floatSize)), mFloatCount,
+                    Arrays.copyOf(mIntValues, intSize),
+                    Arrays.copyOf(mIntPresent, bitmapSize(intSize)), mIntCount,
+                    mDtc);
+        }
+
+        private static void checkSensorIndex(int key, int maxSize) {
+            if (key < 0 || key >= maxSize) {
+                throw new IllegalArgumentException("invalid sensor index " + key);
+            }
+        }
+
+        /** Doubles the size until the key fits, both are bounded by maxSize. */
+        private static int grownSize(int size, int key, int maxSize) {
+            return Math.min(maxSize, Math.max(key + 1, size * 2));
         }
     }
 
     /**
-     * Returns a copy of this CarDiagnosticEvent with all vendor-specific sensors removed.
+     * Creates a frame directly from sensor values indexed by sensor index, taking ownership of
+     * the arrays. Bit (index % 64) of word (index / 64) of a presence bitmap is set if the sensor
+     * at that index is in the frame.
      *
+     * @throws IllegalArgumentException if a sensor is present without a value or beyond
+     *         {@link #MAX_VENDOR_SENSORS} vendor-specific sensors.
      * @hide
      */
-    public CarDiagnosticEvent withVendorSensorsRemoved() {
-        SparseIntArray newIntValues = intValues.clone();
-        SparseArray<Float> newFloatValues = floatValues.clone();
-        for (int i = 0; i < intValues.size(); ++i) {
-            int key = intValues.keyAt(i);
-            if (key >= android.car.diagnostic.IntegerSensorIndex.LAST_SYSTEM) {
-                newIntValues.delete(key);
-            }
+    public static CarDiagnosticEvent createFromSensorArrays(int frameType, long timestamp,
+            int[] intValues, long[] intPresent, float[] floatValues, long[] floatPresent,
+            @Nullable String dtc) {
+        int intSize = sizeOf(intPresent);
+        int floatSize = sizeOf(floatPresent);
+        if (intSize > intValues.length || floatSize > floatValues.length) {
+            throw new IllegalArgumentException("sensor present without a value");
         }
-        for (int i = 0; i < floatValues.size(); ++i) {
-            int key = floatValues.keyAt(i);
-            if (key >= android.car.diagnostic.FloatSensorIndex.LAST_SYSTEM) {
-                newFloatValues.delete(key);
-            }
+        checkBitmapSize(intPresent, MAX_INT_SENSORS);
+        checkBitmapSize(floatPresent, MAX_FLOAT_SENSORS);
+        // Bitmaps are kept trimmed to their last present sensor, see equals().
+        if (intPresent.length != bitmapSize(intSize)) {
+            intPresent = Arrays.copyOf(intPresent, bitmapSize(intSize));
+        }
+        if (floatPresent.length != bitmapSize(floatSize)) {
+            floatPresent = Arrays.copyOf(floatPresent, bitmapSize(floatSize));
         }
-        return new CarDiagnosticEvent(frameType, timestamp, newFloatValues, newIntValues, dtc);
+        return new CarDiagnosticEvent(frameType, timestamp,
+                floatValues, floatPresent, bitCount(floatPresent),
+                intValues, intPresent, bitCount(intPresent),
+                dtc);
+    }
+
+    /**
+     * Returns a copy of this CarDiagnosticEvent with all vendor-specific sensors removed.
+     *
+     * @hide
+     */
+    public CarDiagnosticEvent withVendorSensorsRemoved() {
+        int intSize = Math.min(intValues.length,
+                android.car.diagnostic.IntegerSensorIndex.LAST_SYSTEM);
+        long[] newIntPresent = truncatedBitmap(intPresent, intSize);
+        int floatSize = Math.min(floatValues.length,
+                android.car.diagnostic.FloatSensorIndex.LAST_SYSTEM);
+        long[] newFloatPresent = truncatedBitmap(floatPresent, floatSize);
+        return new CarDiagnosticEvent(frameType, timestamp,
+                Arrays.copyOf(floatValues, floatSize), newFloatPresent, bitCount(newFloatPresent),
+                Arrays.copyOf(intValues, intSize), newIntPresent, bitCount(newIntPresent),
+                dtc);
     }
 
     /** Returns true if this object is a live frame, false otherwise */
@@ -278,8 +485,8 @@ public class CarDiagnosticEvent implements Parcelable {
 
     /** @hide */
     public boolean isEmptyFrame() {
-        boolean empty = (0 == intValues.size());
-        empty &= (0 == floatValues.size());
+        boolean empty = (0 == intCount);
+        empty &= (0 == floatCount);
         if (isFreezeFrame()) empty &= dtc.isEmpty();
         return empty;
     }
@@ -318,33 +525,24 @@ public class CarDiagnosticEvent implements Parcelable {
             return false;
         if (otherEvent.timestamp != timestamp)
             return false;
-        if (otherEvent.intValues.size() != intValues.size())
+        if (otherEvent.intCount != intCount)
             return false;
-        if (otherEvent.floatValues.size() != floatValues.size())
+        if (otherEvent.floatCount != floatCount)
             return false;
         if (!Objects.equals(dtc, otherEvent.dtc))
             return false;
-        for (int i = 0; i < intValues.size(); ++i) {
-            int key = intValues.keyAt(i);
-            int otherKey = otherEvent.intValues.keyAt(i);
-            if (key != otherKey) {
-                return false;
-            }
-            int value = intValues.valueAt(i);
-            int otherValue = otherEvent.intValues.valueAt(i);
-            if (value != otherValue) {
+        // Both bitmaps are trimmed to their last present sensor.
+        if (!Arrays.equals(intPresent, otherEvent.intPresent))
+            return false;
+        if (!Arrays.equals(floatPresent, otherEvent.floatPresent))
+            return false;
+        for (int i = nextPresent(intPresent, 0); i >= 0; i = nextPresent(intPresent, i + 1)) {
+            if (intValues[i] != otherEvent.intValues[i]) {
                 return false;
             }
         }
-        for (int i = 0; i < floatValues.size(); ++i) {
-            int key = floatValues.keyAt(i);
-            int otherKey = otherEvent.floatValues.keyAt(i);
-            if (key != otherKey) {
-                return false;
-            }
-            float value = floatValues.valueAt(i);
-            float otherValue = otherEvent.floatValues.valueAt(i);
-            if (value != otherValue) {
+        for (int i = nextPresent(floatPresent, 0); i >= 0; i = nextPresent(floatPresent, i + 1)) {
+            if (floatValues[i] != otherEvent.floatValues[i]) {
                 return false;
             }
         }
@@ -353,33 +551,33 @@ public class CarDiagnosticEvent implements Parcelable {
 
     @Override
     public int hashCode() {
-        Integer[] intKeys = new Integer[intValues.size()];
-        Integer[] floatKeys = new Integer[floatValues.size()];
-        Integer[] intValues = new Integer[intKeys.length];
-        Float[] floatValues = new Float[floatKeys.length];
-        for (int i = 0; i < intKeys.length; ++i) {
-            intKeys[i] = this.intValues.keyAt(i);
-            intValues[i] = this.intValues.valueAt(i);
-        }
-        for (int i = 0; i < floatKeys.length; ++i) {
-            floatKeys[i] = this.floatValues.keyAt(i);
-            floatValues[i] = this.floatValues.valueAt(i);
-        }
-        int intKeysHash = Objects.hash((Object[])intKeys);
-        int intValuesHash = Objects.hash((Object[])intValues);
-        int floatKeysHash = Objects.hash((Object[])floatKeys);
-        int floatValuesHash = Objects.hash((Object[])floatValues);
-        return Objects.hash(frameType,
-                timestamp,
-                dtc,
-                intKeysHash,
-                intValuesHash,
-                floatKeysHash,
-                floatValuesHash);
+        int hash = Objects.hash(frameType, timestamp, dtc);
+        for (int i = nextPresent(intPresent, 0); i >= 0; i = nextPresent(intPresent, i + 1)) {
+            hash = 31 * hash + i;
+            hash = 31 * hash + intValues[i];
+        }
+        for (int i = nextPresent(floatPresent, 0); i >= 0; i = nextPresent(floatPresent, i + 1)) {
+            hash = 31 * hash + i;
+            // Adding 0 turns -0 into 0, which equals() considers equal.
+            hash = 31 * hash + Float.floatToIntBits(floatValues[i] + 0.0f);
+        }
+        return hash;
     }
 
     @Override
     public String toString() {
+        StringBuilder intString = new StringBuilder("{");
+        for (int i = nextPresent(intPresent, 0); i >= 0; i = nextPresent(intPresent, i + 1)) {
+            if (intString.length() > 1) intString.append(", ");
+            intString.append(i).append('=').append(intValues[i]);
+        }
+        intString.append('}');
+        StringBuilder floatString = new StringBuilder("{");
+        for (int i = nextPresent(floatPresent, 0); i >= 0; i = nextPresent(floatPresent, i + 1)) {
+            if (floatString.length() > 1) floatString.append(", ");
+            floatString.append(i).append('=').append(floatValues[i]);
+        }
+        floatString.append('}');
         return String.format(
                 "%s diagnostic frame {\n"
                         + "\ttimestamp: %d, "
@@ -389,8 +587,8 @@ public class CarDiagnosticEvent implements Parcelable {
                 isLiveFrame() ? "live" : "freeze",
                 timestamp,
                 dtc,
-                intValues.toString(),
-                floatValues.toString());
+                intString,
+                floatString);
     }
 
     /**
@@ -399,7 +597,7 @@ public class CarDiagnosticEvent implements Parcelable {
      */
     public int getSystemIntegerSensor(
             @android.car.diagnostic.IntegerSensorIndex.SensorIndex int sensor, int defaultValue) {
-        return intValues.get(sensor, defaultValue);
+        return isPresent(intPresent, sensor) ? intValues[sensor] : defaultValue;
     }
 
     /**
@@ -408,7 +606,7 @@ public class CarDiagnosticEvent implements Parcelable {
      */
     public float getSystemFloatSensor(
             @android.car.diagnostic.FloatSensorIndex.SensorIndex int sensor, float defaultValue) {
-        return floatValues.get(sensor, defaultValue);
+        return isPresent(floatPresent, sensor) ? floatValues[sensor] : defaultValue;
     }
 
     /**
@@ -416,7 +614,7 @@ public class CarDiagnosticEvent implements Parcelable {
      * Returns defaultValue otherwise.
      */
     public int getVendorIntegerSensor(int sensor, int defaultValue) {
-        return intValues.get(sensor, defaultValue);
+        return isPresent(intPresent, sensor) ? intValues[sensor] : defaultValue;
     }
 
     /**
@@ -424,7 +622,7 @@ public class CarDiagnosticEvent implements Parcelable {
      * Returns defaultValue otherwise.
      */
     public float getVendorFloatSensor(int sensor, float defaultValue) {
-        return floatValues.get(sensor, defaultValue);
+        return isPresent(floatPresent, sensor) ? floatValues[sensor] : defaultValue;
     }
 
     /**
@@ -433,9 +631,8 @@ public class CarDiagnosticEvent implements Parcelable {
      */
     public @Nullable Integer getSystemIntegerSensor(
             @android.car.diagnostic.IntegerSensorIndex.SensorIndex int sensor) {
-        int index = intValues.indexOfKey(sensor);
-        if (index < 0) return null;
-        return intValues.valueAt(index);
+        if (!isPresent(intPresent, sensor)) return null;
+        return intValues[sensor];
     }
 
     /**
@@ -444,9 +641,8 @@ public class CarDiagnosticEvent implements Parcelable {
      */
     public @Nullable Float getSystemFloatSensor(
             @android.car.diagnostic.FloatSensorIndex.SensorIndex int sensor) {
-        int index = floatValues.indexOfKey(sensor);
-        if (index < 0) return null;
-        return floatValues.valueAt(index);
+        if (!isPresent(floatPresent, sensor)) return null;
+        return floatValues[sensor];
     }
 
     /**
@@ -454,9 +650,8 @@ public class CarDiagnosticEvent implements Parcelable {
      * Returns null otherwise.
      */
     public @Nullable Integer getVendorIntegerSensor(int sensor) {
-        int index = intValues.indexOfKey(sensor);
-        if (index < 0) return null;
-        return intValues.valueAt(index);
+        if (!isPresent(intPresent, sensor)) return null;
+        return intValues[sensor];
     }
 
     /**
@@ -464,9 +659,86 @@ public class CarDiagnosticEvent implements Parcelable {
      * Returns null otherwise.
      */
     public @Nullable Float getVendorFloatSensor(int sensor) {
-        int index = floatValues.indexOfKey(sensor);
-        if (index < 0) return null;
-        return floatValues.valueAt(index);
+        if (!isPresent(floatPresent, sensor)) return null;
+        return floatValues[sensor];
+    }
+
+    /**
+     * Returns the index of the first integer sensor present in this frame at or after the given
+     * index, or -1 if there is none.
+     *
+     * @hide
+     */
+    public int nextIntegerSensor(int fromSensor) {
+        return nextPresent(intPresent, fromSensor);
+    }
+
+    /**
+     * Returns the index of the first float sensor present in this frame at or after the given
+     * index, or -1 if there is none.
+     *
+     * @hide
+     */
+    public int nextFloatSensor(int fromSensor) {
+        return nextPresent(floatPresent, fromSensor);
+    }
+
+    // Presence bitmaps: bit (index % 64) of word (index / 64) is set if the sensor is present.
+
+    private static int bitmapSize(int size) {
+        return (size + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    private static boolean isPresent(long[] bitmap, int index) {
+        int word = index / Long.SIZE;
+        return index >= 0 && word < bitmap.length && (bitmap[word] & (1L << index)) != 0;
+    }
+
+    private static void setPresent(long[] bitmap, int index) {
+        bitmap[index / Long.SIZE] |= 1L << index;
+    }
+
+    /** Returns the first present index at or after from, or -1 if there is none. */
+    private static int nextPresent(long[] bitmap, int from) {
+        int word = from / Long.SIZE;
+        if (word >= bitmap.length) {
+            return -1;
+        }
+        long bits = bitmap[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == bitmap.length) {
+                return -1;
+            }
+            bits = bitmap[word];
+        }
+        return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+    }
+
+    /** Returns one more than the last present index, or 0 if there is none. */
+    private static int sizeOf(long[] bitmap) {
+        for (int word = bitmap.length - 1; word >= 0; word--) {
+            if (bitmap[word] != 0) {
+                return word * Long.SIZE + Long.SIZE - Long.numberOfLeadingZeros(bitmap[word]);
+            }
+        }
+        return 0;
+    }
+
+    private static int bitCount(long[] bitmap) {
+        int count = 0;
+        for (long bits : bitmap) {
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+    /** Returns a copy of the bitmap without the indices at or after size, trimmed. */
+    private static long[] truncatedBitmap(long[] bitmap, int size) {
+        long[] truncated = Arrays.copyOf(bitmap, bitmapSize(size));
+        if (size % Long.SIZE != 0) {
+            truncated[truncated.length - 1] &= (1L << size) - 1;
+        }
+        return Arrays.copyOf(truncated, bitmapSize(sizeOf(truncated)));
     }
 
     /**
@@ -64,6 +64,15 @@ public final class CarDiagnosticManager implements CarManagerBase {
         FRAME_TYPE_FREEZE
     };
 
+    /** The maximum number of freeze frames returned by one call to getFreezeFrames(). */
+    public static final int MAX_FREEZE_FRAMES_PER_QUERY = 128;
+
+    /**
+     * The maximum number of values, rows times sensors, returned by one call to
+     * getLiveFrameHistory().
+     */
+    public static final int MAX_LIVE_FRAME_HISTORY_VALUES = 16384;
+
     private static final int MSG_DIAGNOSTIC_EVENTS = 0;
 
     private final ICarDiagnostic mService;
@@ -278,6 +287,66 @@ public final class CarDiagnosticManager implements CarManagerBase {
         return null;
     }
 
+    /**
+     * Retrieve the values of some sensors in the live frames received between two timestamps.
+     * The car service keeps a bounded history of the live frames it receives while any client
+     * listens to live frames, shared by all clients, so that clients need not buffer live
+     * frames themselves.
+     * @param fromTimestamp The timestamp of the oldest frame to include, inclusive.
+     * @param toTimestamp The timestamp of the newest frame to include, inclusive.
+     * @param integerSensors The indices of the integer sensors to return.
+     * @param floatSensors The indices of the float sensors to return.
+     * @param bucketDurationNanos 0 to return the value of each frame, or the duration of the
+     *                            buckets, starting at fromTimestamp, in which the minimum,
+     *                            maximum and average of each sensor are computed. Buckets
+     *                            without frames are omitted.
+     * @return The values, in increasing timestamp order. At most
+     *         {@link #MAX_LIVE_FRAME_HISTORY_VALUES} values are returned, the oldest ones; the
+     *         following values can be retrieved with a query starting after the last timestamp
+     *         returned.
+     * @throws CarNotConnectedException
+     * @throws IllegalArgumentException if bucketDurationNanos is negative.
+     */
+    public @Nullable LiveFrameHistory getLiveFrameHistory(long fromTimestamp, long toTimestamp,
+            int[] integerSensors, int[] floatSensors, long bucketDurationNanos)
+            throws CarNotConnectedException {
+        try {
+            return mService.getLiveFrameHistory(fromTimestamp, toTimestamp, integerSensors,
+                    floatSensors, bucketDurationNanos);
+        } catch (IllegalStateException e) {
+            CarApiUtil.checkCarNotConnectedExceptionFromCarService(e);
+        } catch (RemoteException e) {
+            throw new CarNotConnectedException();
+        }
+        return null;
+    }
+
+    /**
+     * Retrieve the freeze frames stored between two timestamps.
+     * Freeze frames are kept by the car service across reboots, so frames that were cleared from
+     * vehicle memory by other means than clearFreezeFrames() may still be returned.
+     * @param fromTimestamp The timestamp of the oldest frame to return, inclusive.
+     * @param toTimestamp The timestamp of the newest frame to return, inclusive.
+     * @param dtcPrefix Only return frames whose DTC starts with this prefix (e.g. "P01"), or
+     *                  null to return frames regardless of their DTC.
+     * @return The frames in increasing timestamp order. At most
+     *         {@link #MAX_FREEZE_FRAMES_PER_QUERY} frames are returned, the oldest ones; the
+     *         following frames can be retrieved with a query starting after the last timestamp
+     *         returned.
+     * @throws CarNotConnectedException
+     */
+    public List<CarDiagnosticEvent> getFreezeFrames(long fromTimestamp, long toTimestamp,
+            @Nullable String dtcPrefix) throws CarNotConnectedException {
+        try {
+            return mService.getFreezeFrames(fromTimestamp, toTimestamp, dtcPrefix);
+        } catch (IllegalStateException e) {
+            CarApiUtil.checkCarNotConnectedExceptionFromCarService(e);
+        } catch (RemoteException e) {
+            throw new CarNotConnectedException();
+        }
+        return new ArrayList<>();
+    }
+
     /**
      * Clear the freeze frame information from vehicle memory at the given timestamps.
      * @param timestamps A list of timestamps to delete freeze frames at, or an empty array
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.car.diagnostic;
+
+import android.annotation.Nullable;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Values of selected sensors over the live frames received by the car service in a time range.
+ * <p>
+ * Values are either one sample per live frame, or aggregated in buckets of a fixed duration. A
+ * {@link Series} holds the values of one sensor, with the same row order as the timestamps.
+ *
+ * @hide
+ */
+public final class LiveFrameHistory implements Parcelable {
+    private final long mBucketDurationNanos;
+    private final long[] mTimestamps;
+    private final Series[] mIntegerSeries;
+    private final Series[] mFloatSeries;
+
+    /**
+     * Values of a sensor in each row of a {@link LiveFrameHistory}. For a history that is not
+     * downsampled, the minimum, maximum and average of a row are all the value of the sensor in
+     * the frame.
+     */
+    public static final class Series {
+        private final int mSensor;
+        private final int[] mCounts;
+        private final double[] mMin;
+        private final double[] mMax;
+        private final double[] mAverage;
+
+        public Series(int sensor, int[] counts, double[] min, double[] max, double[] average) {
+            if (min.length != counts.length || max.length != counts.length
+                    || average.length != counts.length) {
+                throw new IllegalArgumentException("series columns have different sizes");
+            }
+            mSensor = sensor;
+            mCounts = counts;
+            mMin = min;
+            mMax = max;
+            mAverage = average;
+        }
+
+        /** Returns the sensor index of this series. */
+        public int getSensor() {
+            return mSensor;
+        }
+
+        /** Returns whether the sensor has a value in the given row. */
+        public boolean isPresent(int row) {
+            return mCounts[row] > 0;
+        }
+
+        /** Returns the number of frames in which the sensor was present, in the given row. */
+        public int getCount(int row) {
+            return mCounts[row];
+        }
+
+        public double getMin(int row) {
+            return mMin[row];
+        }
+
+        public double getMax(int row) {
+            return mMax[row];
+        }
+
+        public double getAverage(int row) {
+            return mAverage[row];
+        }
+
+        private void writeToParcel(Parcel out, boolean downsampled) {
+            out.writeInt(mSensor);
+            out.writeIntArray(mCounts);
+            out.writeDoubleArray(mAverage);
+            if (downsampled) {
+                out.writeDoubleArray(mMin);
+                out.writeDoubleArray(mMax);
+            }
+        }
+
+        private static Series readFromParcel(Parcel in, boolean downsampled) {
+            int sensor = in.readInt();
+            int[] counts = in.createIntArray();
+            double[] average = in.createDoubleArray();
+            if (!downsampled) {
+                // A sample is its own minimum, maximum and average.
+                return new Series(sensor, counts, average, average, average);
+            }
+            double[] min = in.createDoubleArray();
+            double[] max = in.createDoubleArray();
+            return new Series(sensor, counts, min, max, average);
+        }
+    }
+
+    /**
+     * @param bucketDurationNanos the duration of the buckets, or 0 for one row per frame.
+     * @param timestamps          the timestamp of each frame, or the start of each bucket.
+     */
+    public LiveFrameHistory(long bucketDurationNanos, long[] timestamps,
+            Series[] integerSeries, Series[] floatSeries) {
+        mBucketDurationNanos = bucketDurationNanos;
+        mTimestamps = timestamps;
+        mIntegerSeries = integerSeries;
+        mFloatSeries = floatSeries;
+    }
+
+    /** Returns the duration of the buckets, or 0 if rows are single frames. */
+    public long getBucketDurationNanos() {
+        return mBucketDurationNanos;
+    }
+
+    public boolean isDownsampled() {
+        return mBucketDurationNanos > 0;
+    }
+
+    /** Returns the number of rows, frames or buckets. */
+    public int size() {
+        return mTimestamps.length;
+    }
+
+    /** Returns the timestamp of the frame, or the start of the bucket, of the given row. */
+    public long getTimestamp(int row) {
+        return mTimestamps[row];
+    }
+
+    /** Returns the values of an integer sensor, or null if it was not requested. */
+    public @Nullable Series getIntegerSensorSeries(int sensor) {
+        return findSeries(mIntegerSeries, sensor);
+    }
+
+    /** Returns the values of a float sensor, or null if it was not requested. */
+    public @Nullable Series getFloatSensorSeries(int sensor) {
+        return findSeries(mFloatSeries, sensor);
+    }
+
+    private static Series findSeries(Series[] series, int sensor) {
+        for (Series s : series) {
+            if (s.mSensor == sensor) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "LiveFrameHistory{ rows: " + mTimestamps.length
+                + ", bucket duration ns: " + mBucketDurationNanos
+                + ", integer sensors: " + mIntegerSeries.length
+                + ", float sensors: " + mFloatSeries.length + "}";
+    }
+
+    public static final Parcelable.Creator<LiveFrameHistory> CREATOR = new
+            Parcelable.Creator<LiveFrameHistory>() {
+                public LiveFrameHistory createFromParcel(Parcel in) {
+                    return new LiveFrameHistory(in);
+                }
+
+                public LiveFrameHistory[] newArray(int size) {
+                    return new LiveFrameHistory[size];
+                }
+            };
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        boolean downsampled = isDownsampled();
+        out.writeLong(mBucketDurationNanos);
+        out.writeLongArray(mTimestamps);
+        writeSeries(out, mIntegerSeries, downsampled);
+        writeSeries(out, mFloatSeries, downsampled);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    private LiveFrameHistory(Parcel in) {
+        mBucketDurationNanos = in.readLong();
+        mTimestamps = in.createLongArray();
+        boolean downsampled = isDownsampled();
+        mIntegerSeries = readSeries(in, downsampled);
+        mFloatSeries = readSeries(in, downsampled);
+    }
+
+    private static void writeSeries(Parcel out, Series[] series, boolean downsampled) {
+        out.writeInt(series.length);
+        for (Series s : series) {
+            s.writeToParcel(out, downsampled);
+        }
+    }
+
+    private static Series[] readSeries(Parcel in, boolean downsampled) {
+        Series[] series = new Series[in.readInt()];
+        for (int i = 0; i < series.length; i++) {
+            series[i] = Series.readFromParcel(in, downsampled);
+        }
+        return series;
+    }
+}
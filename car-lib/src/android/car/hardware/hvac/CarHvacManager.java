@@ -421,6 +421,29 @@ public final class CarHvacManager implements CarManagerBase {
         mMgr.setIntProperty(propertyId, area, val);
     }
 
+    /**
+     * Get the values of several properties in one call, which is faster than getting them one
+     * by one.
+     * @param propertyIds
+     * @param areas area of each property
+     * @return one value per requested property, null if the property is not ready yet
+     * @throws CarNotConnectedException
+     */
+    public List<CarPropertyValue> getProperties(int[] propertyIds, int[] areas)
+            throws CarNotConnectedException {
+        return mMgr.getProperties(propertyIds, areas);
+    }
+
+    /**
+     * Set the values of several properties in one call, which is faster than setting them one
+     * by one.
+     * @param values
+     * @throws CarNotConnectedException
+     */
+    public void setProperties(List<CarPropertyValue> values) throws CarNotConnectedException {
+        mMgr.setProperties(values);
+    }
+
     /** @hide */
     @Override
     public void onCarDisconnected() {
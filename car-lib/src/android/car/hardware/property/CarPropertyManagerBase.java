@@ -28,7 +28,9 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.util.ArraySet;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.GuardedBy;
 
@@ -40,6 +42,9 @@ import java.util.List;
  * @hide
  */
 public class CarPropertyManagerBase {
+    /** Area for {@link #registerCallback(CarPropertyEventCallback, int, int)} matching all areas. */
+    public static final int ALL_AREAS = -1;
+
     private final boolean mDbg;
     private final Handler mHandler;
     private final ICarProperty mService;
@@ -49,6 +54,12 @@ public class CarPropertyManagerBase {
     private ICarPropertyEventListener mListenerToService;
     @GuardedBy("mLock")
     private CarPropertyEventCallback mCallback;
+    /**
+     * Areas by property the callback is registered for, or null if it is registered for all
+     * properties.
+     */
+    @GuardedBy("mLock")
+    private SparseArray<ArraySet<Integer>> mSubscriptions;
 
     private final Object mLock = new Object();
 
@@ -107,12 +118,7 @@ public class CarPropertyManagerBase {
             }
 
             mCallback = callback;
-            mListenerToService = new ICarPropertyEventListener.Stub() {
-                @Override
-                public void onEvent(CarPropertyEvent event) throws RemoteException {
-                    handleEvent(event);
-                }
-            };
+            mListenerToService = createListenerToService();
         }
 
         try {
@@ -125,12 +131,98 @@ public class CarPropertyManagerBase {
         }
     }
 
+    /**
+     * Registers callback for events of the given property and area only, so that events of other
+     * properties are not sent to this process. Can be called repeatedly with the same callback to
+     * receive events of more properties or areas.
+     *
+     * @param area area of the property or {@link #ALL_AREAS}.
+     * @throws IllegalStateException if a different callback, or the same callback for all
+     *         properties, is already registered.
+     */
+    public void registerCallback(CarPropertyEventCallback callback, int propId, int area)
+            throws CarNotConnectedException {
+        ICarPropertyEventListener listenerToService;
+        synchronized (mLock) {
+            if (mCallback != null && (mCallback != callback || mSubscriptions == null)) {
+                throw new IllegalStateException("Callback is already registered.");
+            }
+            if (mCallback == null) {
+                mCallback = callback;
+                mListenerToService = createListenerToService();
+                mSubscriptions = new SparseArray<>();
+            }
+            ArraySet<Integer> areas = mSubscriptions.get(propId);
+            if (areas == null) {
+                areas = new ArraySet<>();
+                mSubscriptions.put(propId, areas);
+            }
+            areas.add(area);
+            listenerToService = mListenerToService;
+        }
+
+        try {
+            mService.registerListenerForProperty(listenerToService, propId, area);
+        } catch (RemoteException ex) {
+            Log.e(mTag, "Could not connect: ", ex);
+            throw new CarNotConnectedException(ex);
+        } catch (IllegalStateException ex) {
+            Car.checkCarNotConnectedExceptionFromCarService(ex);
+        }
+    }
+
+    /**
+     * Stops events of the given property and area registered by
+     * {@link #registerCallback(CarPropertyEventCallback, int, int)}. The callback is unregistered
+     * once no property is left.
+     */
+    public void unregisterCallback(int propId, int area) {
+        ICarPropertyEventListener listenerToService;
+        synchronized (mLock) {
+            ArraySet<Integer> areas = mSubscriptions == null ? null : mSubscriptions.get(propId);
+            if (areas == null || !areas.remove(area)) {
+                Log.w(mTag, "unregisterCallback: property 0x" + toHexString(propId)
+                        + " area 0x" + toHexString(area) + " was not registered");
+                return;
+            }
+            if (areas.isEmpty()) {
+                mSubscriptions.remove(propId);
+            }
+            listenerToService = mListenerToService;
+            if (mSubscriptions.size() == 0) {
+                mCallback = null;
+                mListenerToService = null;
+                mSubscriptions = null;
+            }
+        }
+
+        try {
+            // The service unregisters the listener itself when its last property is removed.
+            mService.unregisterListenerForProperty(listenerToService, propId, area);
+        } catch (RemoteException ex) {
+            Log.e(mTag, "Failed to unregister listener", ex);
+            //ignore
+        } catch (IllegalStateException ex) {
+            Car.hideCarNotConnectedExceptionFromCarService(ex);
+        }
+    }
+
+    private ICarPropertyEventListener createListenerToService() {
+        return new ICarPropertyEventListener.Stub() {
+            @Override
+            public void onEvent(CarPropertyEvent event) throws RemoteException {
+                handleEvent(event);
+            }
+        };
+    }
+
     public void unregisterCallback() {
         ICarPropertyEventListener listenerToService;
         synchronized (mLock) {
             listenerToService = mListenerToService;
             mCallback = null;
             mListenerToService = null;
+            mSubscriptions = null;
         }
 
         if (listenerToService == null) {
@@ -235,6 +327,42 @@ public class CarPropertyManagerBase {
         }
     }
 
+    /**
+     * Returns the values of several properties, read from the vehicle in one batch.
+     *
+     * @param propIds Property IDs to get
+     * @param areas Areas of the properties to get, one per property
+     * @return one value per requested property, null if the property is not ready yet
+     */
+    public List<CarPropertyValue> getProperties(int[] propIds, int[] areas)
+            throws CarNotConnectedException {
+        if (mDbg) {
+            Log.d(mTag, "getProperties, count: " + propIds.length);
+        }
+        try {
+            return mService.getProperties(propIds, areas);
+        } catch (RemoteException e) {
+            Log.e(mTag, "getProperties failed with " + e.toString(), e);
+            throw new CarNotConnectedException(e);
+        }
+    }
+
+    /**
+     * Modifies several properties, written to the vehicle in one batch. Errors are reported like
+     * for {@link #setProperty(Class, int, int, Object)}.
+     */
+    public void setProperties(List<CarPropertyValue> values) throws CarNotConnectedException {
+        if (mDbg) {
+            Log.d(mTag, "setProperties, count: " + values.size());
+        }
+        try {
+            mService.setProperties(values);
+        } catch (RemoteException e) {
+            Log.e(mTag, "setProperties failed with " + e.toString(), e);
+            throw new CarNotConnectedException(e);
+        }
+    }
+
     /**
      * Modifies a property.  If the property modification doesn't occur, an error event shall be
      * generated and propagated back to the application.
@@ -69,19 +69,23 @@ public final class VmsLayer implements Parcelable {
             return false;
         }
         VmsLayer p = (VmsLayer) o;
-        return Objects.equals(p.mType, mType) &&
-            Objects.equals(p.mSubtype, mSubtype) &&
-            Objects.equals(p.mVersion, mVersion);
+        return p.mType == mType &&
+            p.mSubtype == mSubtype &&
+            p.mVersion == mVersion;
     }
 
     /**
-     * Compute a hash code similarly tp {@link android.util.Pair}
+     * Compute a hash code similarly tp {@link android.util.Pair}. Same value as
+     * {@link Objects#hash} of the fields, without boxing them, since layers are looked up for
+     * every routed message.
      *
      * @return a hashcode of the Pair
      */
     @Override
     public int hashCode() {
-        return Objects.hash(mType, mSubtype, mVersion);
+        int result = 31 + mType;
+        result = 31 * result + mSubtype;
+        return 31 * result + mVersion;
     }
 
     @Override
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.car.vms;
+
+import android.car.annotation.FutureFeature;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Arrays;
+
+/**
+ * Traffic of a VMS layer since its first message.
+ *
+ * @hide
+ */
+@FutureFeature
+public final class VmsLayerTrafficStats implements Parcelable {
+    /**
+     * Upper bounds, exclusive, of the buckets of the delivery latency histogram. The last bucket
+     * of the histogram counts the latencies above the last bound.
+     */
+    public static final long[] LATENCY_BUCKET_BOUNDS_MS =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+
+    private final VmsLayer mLayer;
+    private final long mDurationMs;
+    private final long mMessages;
+    private final long mBytes;
+    private final long mFanOut;
+    private final long mDelivered;
+    private final long mDropped;
+    private final long mFailed;
+    private final long[] mLatencyHistogram;
+
+    public VmsLayerTrafficStats(VmsLayer layer, long durationMs, long messages, long bytes,
+            long fanOut, long delivered, long dropped, long failed, long[] latencyHistogram) {
+        if (latencyHistogram.length != LATENCY_BUCKET_BOUNDS_MS.length + 1) {
+            throw new IllegalArgumentException(
+                    "Invalid number of latency buckets: " + latencyHistogram.length);
+        }
+        mLayer = layer;
+        mDurationMs = durationMs;
+        mMessages = messages;
+        mBytes = bytes;
+        mFanOut = fanOut;
+        mDelivered = delivered;
+        mDropped = dropped;
+        mFailed = failed;
+        mLatencyHistogram = latencyHistogram;
+    }
+
+    public VmsLayer getLayer() {
+        return mLayer;
+    }
+
+    /** Returns the time since the first message of the layer. */
+    public long getDurationMs() {
+        return mDurationMs;
+    }
+
+    /** Returns the number of messages published to the layer, by clients or by the HAL. */
+    public long getMessages() {
+        return mMessages;
+    }
+
+    /** Returns the size of the payloads published to the layer. */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public double getMessagesPerSecond() {
+        return perSecond(mMessages);
+    }
+
+    public double getBytesPerSecond() {
+        return perSecond(mBytes);
+    }
+
+    /** Returns the number of subscribers each message was routed to, summed over all messages. */
+    public long getFanOut() {
+        return mFanOut;
+    }
+
+    public double getAverageFanOut() {
+        return mMessages == 0 ? 0 : (double) mFanOut / mMessages;
+    }
+
+    /** Returns the number of messages delivered to subscribers. */
+    public long getDelivered() {
+        return mDelivered;
+    }
+
+    /** Returns the number of messages dropped because a subscriber queue was full. */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    /** Returns the number of messages that could not be delivered to subscribers. */
+    public long getFailed() {
+        return mFailed;
+    }
+
+    /**
+     * Returns the number of delivered messages in each latency bucket, see
+     * {@link #LATENCY_BUCKET_BOUNDS_MS}. The latency of a message goes from its routing to a
+     * subscriber until the binder call delivering it returns.
+     */
+    public long[] getLatencyHistogram() {
+        return mLatencyHistogram.clone();
+    }
+
+    private double perSecond(long count) {
+        return mDurationMs == 0 ? 0 : count * 1000.0 / mDurationMs;
+    }
+
+    @Override
+    public String toString() {
+        return "VmsLayerTrafficStats{ layer: " + mLayer
+                + ", duration ms: " + mDurationMs
+                + ", messages: " + mMessages
+                + ", bytes: " + mBytes
+                + ", fan-out: " + mFanOut
+                + ", delivered: " + mDelivered
+                + ", dropped: " + mDropped
+                + ", failed: " + mFailed
+                + ", latency histogram: " + Arrays.toString(mLatencyHistogram) + "}";
+    }
+
+    public static final Parcelable.Creator<VmsLayerTrafficStats> CREATOR = new
+            Parcelable.Creator<VmsLayerTrafficStats>() {
+                public VmsLayerTrafficStats createFromParcel(Parcel in) {
+                    return new VmsLayerTrafficStats(in);
+                }
+
+                public VmsLayerTrafficStats[] newArray(int size) {
+                    return new VmsLayerTrafficStats[size];
+                }
+            };
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeParcelable(mLayer, flags);
+        out.writeLong(mDurationMs);
+        out.writeLong(mMessages);
+        out.writeLong(mBytes);
+        out.writeLong(mFanOut);
+        out.writeLong(mDelivered);
+        out.writeLong(mDropped);
+        out.writeLong(mFailed);
+        out.writeLongArray(mLatencyHistogram);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    private VmsLayerTrafficStats(Parcel in) {
+        mLayer = in.readParcelable(VmsLayer.class.getClassLoader());
+        mDurationMs = in.readLong();
+        mMessages = in.readLong();
+        mBytes = in.readLong();
+        mFanOut = in.readLong();
+        mDelivered = in.readLong();
+        mDropped = in.readLong();
+        mFailed = in.readLong();
+        mLatencyHistogram = in.createLongArray();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.car.vms;
+
+import android.car.annotation.FutureFeature;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * VMS messages sent in a single binder transaction. The whole batch has to fit into the binder
+ * transaction buffer, so it is meant for many small messages.
+ *
+ * @hide
+ */
+@FutureFeature
+public final class VmsMessageBatch implements Parcelable {
+
+    // The layer of each message.
+    private final List<VmsLayer> mLayers;
+
+    // The payload of each message.
+    private final List<byte[]> mPayloads;
+
+    /**
+     * @throws IllegalArgumentException if the lists have different sizes.
+     */
+    public VmsMessageBatch(List<VmsLayer> layers, List<byte[]> payloads) {
+        if (layers.size() != payloads.size()) {
+            throw new IllegalArgumentException("Got " + layers.size() + " layers for "
+                    + payloads.size() + " payloads");
+        }
+        mLayers = Collections.unmodifiableList(layers);
+        mPayloads = Collections.unmodifiableList(payloads);
+    }
+
+    public int size() {
+        return mLayers.size();
+    }
+
+    public VmsLayer getLayer(int index) {
+        return mLayers.get(index);
+    }
+
+    public byte[] getPayload(int index) {
+        return mPayloads.get(index);
+    }
+
+    public List<VmsLayer> getLayers() {
+        return mLayers;
+    }
+
+    public List<byte[]> getPayloads() {
+        return mPayloads;
+    }
+
+    @Override
+    public String toString() {
+        return "VmsMessageBatch{ Size: " + mLayers.size() + "}";
+    }
+
+    // Parcelable related methods.
+    public static final Parcelable.Creator<VmsMessageBatch> CREATOR =
+            new Parcelable.Creator<VmsMessageBatch>() {
+                public VmsMessageBatch createFromParcel(Parcel in) {
+                    return new VmsMessageBatch(in);
+                }
+
+                public VmsMessageBatch[] newArray(int size) {
+                    return new VmsMessageBatch[size];
+                }
+            };
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        int size = mLayers.size();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            mLayers.get(i).writeToParcel(out, flags);
+            out.writeByteArray(mPayloads.get(i));
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    private VmsMessageBatch(Parcel in) {
+        int size = in.readInt();
+        List<VmsLayer> layers = new ArrayList<>(size);
+        List<byte[]> payloads = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            layers.add(VmsLayer.CREATOR.createFromParcel(in));
+            payloads.add(in.createByteArray());
+        }
+        mLayers = Collections.unmodifiableList(layers);
+        mPayloads = Collections.unmodifiableList(payloads);
+    }
+}
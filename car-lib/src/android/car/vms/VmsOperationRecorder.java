@@ -9,6 +9,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
 /**
  * Records VMS operations using the Android Log.
  *
@@ -16,6 +20,10 @@ import org.json.JSONObject;
  * arguments encoded as JSON text so that the string can be both read as a log message and easily
  * parsed. VmsOperationRecorder is intended to be called after successful state change.
  *
+ * The JSON messages are only built if the log tag is enabled. Every operation is also kept in a
+ * {@link VmsOperationRingBuffer}, which is cheap enough to record into while holding locks, and
+ * is only decoded when dumped.
+ *
  * Access the VmsOperationRecorder using the {@link #get()} method, which returns a singleton
  * instance. Each VMS operation has a corresponding VmsOperationRecorder method. For instance:
  * <pre>{@code
@@ -27,8 +35,11 @@ import org.json.JSONObject;
 @FutureFeature
 public final class VmsOperationRecorder {
     private static final String TAG = "VmsOperationRecorder";
+    private static final int HISTORY_SIZE = 512;
+    private static final int NONE = VmsOperationRingBuffer.NONE;
     private static final VmsOperationRecorder INSTANCE = new VmsOperationRecorder(new Writer());
     private final Writer mWriter;
+    private final VmsOperationRingBuffer mHistory = new VmsOperationRingBuffer(HISTORY_SIZE);
 
     @VisibleForTesting
     public VmsOperationRecorder(Writer writer) {
@@ -43,71 +54,114 @@ public final class VmsOperationRecorder {
     // VMS Client operations.
 
     public void subscribe(VmsLayer layer) {
+        mHistory.record(VmsOperationRingBuffer.OP_SUBSCRIBE, NONE, layer, NONE);
         recordOp("subscribe", layer);
     }
 
     public void unsubscribe(VmsLayer layer) {
+        mHistory.record(VmsOperationRingBuffer.OP_UNSUBSCRIBE, NONE, layer, NONE);
         recordOp("unsubscribe", layer);
     }
 
     public void subscribe(VmsLayer layer, int publisherId) {
+        mHistory.record(VmsOperationRingBuffer.OP_SUBSCRIBE, NONE, layer, publisherId);
         recordOp("subscribe", "publisherId", publisherId, layer);
     }
 
     public void unsubscribe(VmsLayer layer, int publisherId) {
+        mHistory.record(VmsOperationRingBuffer.OP_UNSUBSCRIBE, NONE, layer, publisherId);
         recordOp("unsubscribe", "publisherId", publisherId, layer);
     }
 
     public void startMonitoring() {
+        mHistory.record(VmsOperationRingBuffer.OP_START_MONITORING, NONE, null, NONE);
         recordOp("startMonitoring");
     }
 
     public void stopMonitoring() {
+        mHistory.record(VmsOperationRingBuffer.OP_STOP_MONITORING, NONE, null, NONE);
         recordOp("stopMonitoring");
     }
 
     public void setLayersOffering(VmsLayersOffering layersOffering) {
+        recordOffering(VmsOperationRingBuffer.OP_SET_LAYERS_OFFERING, layersOffering);
         recordOp("setLayersOffering", layersOffering);
     }
 
     public void getPublisherId(int publisherId) {
+        mHistory.record(VmsOperationRingBuffer.OP_GET_PUBLISHER_ID, NONE, null, publisherId);
         recordOp("getPublisherId", "publisherId", publisherId);
     }
 
     // VMS Service operations.
 
     public void addSubscription(int sequenceNumber, VmsLayer layer) {
+        mHistory.record(VmsOperationRingBuffer.OP_ADD_SUBSCRIPTION, sequenceNumber, layer, NONE);
         recordOp("addSubscription", "sequenceNumber", sequenceNumber, layer);
     }
 
     public void removeSubscription(int sequenceNumber, VmsLayer layer) {
+        mHistory.record(VmsOperationRingBuffer.OP_REMOVE_SUBSCRIPTION, sequenceNumber, layer, NONE);
         recordOp("removeSubscription", "sequenceNumber", sequenceNumber, layer);
     }
 
     public void addPromiscuousSubscription(int sequenceNumber) {
+        mHistory.record(VmsOperationRingBuffer.OP_ADD_PROMISCUOUS_SUBSCRIPTION,
+                sequenceNumber, null, NONE);
         recordOp("addPromiscuousSubscription", "sequenceNumber", sequenceNumber);
     }
 
     public void removePromiscuousSubscription(int sequenceNumber) {
+        mHistory.record(VmsOperationRingBuffer.OP_REMOVE_PROMISCUOUS_SUBSCRIPTION,
+                sequenceNumber, null, NONE);
         recordOp("removePromiscuousSubscription", "sequenceNumber", sequenceNumber);
     }
 
     public void addHalSubscription(int sequenceNumber, VmsLayer layer) {
+        mHistory.record(VmsOperationRingBuffer.OP_ADD_HAL_SUBSCRIPTION,
+                sequenceNumber, layer, NONE);
         recordOp("addHalSubscription", "sequenceNumber", sequenceNumber, layer);
     }
 
     public void removeHalSubscription(int sequenceNumber, VmsLayer layer) {
+        mHistory.record(VmsOperationRingBuffer.OP_REMOVE_HAL_SUBSCRIPTION,
+                sequenceNumber, layer, NONE);
         recordOp("removeHalSubscription", "sequenceNumber", sequenceNumber, layer);
     }
 
     public void setPublisherLayersOffering(VmsLayersOffering layersOffering) {
+        recordOffering(VmsOperationRingBuffer.OP_SET_PUBLISHER_LAYERS_OFFERING, layersOffering);
         recordOp("setPublisherLayersOffering", layersOffering);
     }
 
     public void setHalPublisherLayersOffering(VmsLayersOffering layersOffering) {
+        recordOffering(VmsOperationRingBuffer.OP_SET_HAL_PUBLISHER_LAYERS_OFFERING, layersOffering);
         recordOp("setHalPublisherLayersOffering", layersOffering);
     }
 
+    /** Dumps the history of operations. */
+    public void dump(PrintWriter writer) {
+        mHistory.dump(writer);
+    }
+
+    /** Exports the history of operations, see {@link VmsOperationRingBuffer#readFrom}. */
+    public void writeHistoryTo(DataOutputStream out) throws IOException {
+        mHistory.writeTo(out);
+    }
+
+    // Records a history entry for each offered layer, with its number of dependencies in place
+    // of the sequence number.
+    private void recordOffering(int opCode, VmsLayersOffering layersOffering) {
+        if (layersOffering.getDependencies().isEmpty()) {
+            mHistory.record(opCode, 0, null, layersOffering.getPublisherId());
+            return;
+        }
+        for (VmsLayerDependency layerDependency : layersOffering.getDependencies()) {
+            mHistory.record(opCode, layerDependency.getDependencies().size(),
+                    layerDependency.getLayer(), layersOffering.getPublisherId());
+        }
+    }
+
     private void recordOp(String operation) {
         if (isEnabled()) {
             try {
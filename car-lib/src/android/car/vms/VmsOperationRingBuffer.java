@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.car.vms;
+
+import android.car.annotation.FutureFeature;
+import android.os.SystemClock;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size history of VMS operations, recorded as binary records without locking or
+ * allocating. Records are only decoded when dumped or exported. Once the buffer is full, each
+ * record overwrites the oldest one.
+ * <p>
+ * Each record takes {@link #SLOT_SIZE} longs: a stamp, the timestamp, the op code and sequence
+ * number, the layer type and subtype, and the layer version and publisher ID. The stamp is the
+ * index of the record plus one once it is written, and its negation while it is being written,
+ * so readers can skip records that are being overwritten.
+ *
+ * @hide
+ */
+@FutureFeature
+public final class VmsOperationRingBuffer {
+    /** Value of the fields an operation does not have. */
+    public static final int NONE = -1;
+
+    // Op codes, stored in exported files so only add new ones.
+    public static final int OP_SUBSCRIBE = 1;
+    public static final int OP_UNSUBSCRIBE = 2;
+    public static final int OP_START_MONITORING = 3;
+    public static final int OP_STOP_MONITORING = 4;
+    public static final int OP_SET_LAYERS_OFFERING = 5;
+    public static final int OP_GET_PUBLISHER_ID = 6;
+    public static final int OP_ADD_SUBSCRIPTION = 7;
+    public static final int OP_REMOVE_SUBSCRIPTION = 8;
+    public static final int OP_ADD_PROMISCUOUS_SUBSCRIPTION = 9;
+    public static final int OP_REMOVE_PROMISCUOUS_SUBSCRIPTION = 10;
+    public static final int OP_ADD_HAL_SUBSCRIPTION = 11;
+    public static final int OP_REMOVE_HAL_SUBSCRIPTION = 12;
+    public static final int OP_SET_PUBLISHER_LAYERS_OFFERING = 13;
+    public static final int OP_SET_HAL_PUBLISHER_LAYERS_OFFERING = 14;
+
+    private static final String[] OP_NAMES = {
+            null,
+            "subscribe",
+            "unsubscribe",
+            "startMonitoring",
+            "stopMonitoring",
+            "setLayersOffering",
+            "getPublisherId",
+            "addSubscription",
+            "removeSubscription",
+            "addPromiscuousSubscription",
+            "removePromiscuousSubscription",
+            "addHalSubscription",
+            "removeHalSubscription",
+            "setPublisherLayersOffering",
+            "setHalPublisherLayersOffering",
+    };
+
+    // Exported file format: magic, version, number of records, then the records.
+    private static final int FILE_MAGIC = 0x564d534f; // "VMSO"
+    private static final int FILE_VERSION = 1;
+
+    private static final int SLOT_SIZE = 5;
+
+    private final int mCapacity;
+    private final AtomicLongArray mSlots;
+    private final AtomicLong mNextIndex = new AtomicLong();
+
+    /**
+     * @param capacity the number of records kept.
+     */
+    public VmsOperationRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        mCapacity = capacity;
+        mSlots = new AtomicLongArray(capacity * SLOT_SIZE);
+    }
+
+    /**
+     * Records an operation.
+     *
+     * @param opCode         one of the OP_ constants.
+     * @param sequenceNumber the subscription sequence number, or {@link #NONE}.
+     * @param layer          the layer of the operation, or null.
+     * @param publisherId    the publisher ID of the operation, or {@link #NONE}.
+     */
+    public void record(int opCode, int sequenceNumber, VmsLayer layer, int publisherId) {
+        long index = mNextIndex.getAndIncrement();
+        int base = (int) (index % mCapacity) * SLOT_SIZE;
+        mSlots.set(base, -(index + 1));
+        mSlots.set(base + 1, SystemClock.elapsedRealtimeNanos());
+        mSlots.set(base + 2, pack(opCode, sequenceNumber));
+        if (layer != null) {
+            mSlots.set(base + 3, pack(layer.getType(), layer.getSubtype()));
+            mSlots.set(base + 4, pack(layer.getVersion(), publisherId));
+        } else {
+            mSlots.set(base + 3, pack(NONE, NONE));
+            mSlots.set(base + 4, pack(NONE, publisherId));
+        }
+        mSlots.set(base, index + 1);
+    }
+
+    /** Returns the complete records, oldest first. */
+    public List<Record> getRecords() {
+        long end = mNextIndex.get();
+        long start = Math.max(0, end - mCapacity);
+        List<Record> records = new ArrayList<>((int) (end - start));
+        for (long index = start; index < end; index++) {
+            int base = (int) (index % mCapacity) * SLOT_SIZE;
+            long stamp = mSlots.get(base);
+            if (stamp != index + 1) {
+                // Not written yet, or already overwritten.
+                continue;
+            }
+            long timestamp = mSlots.get(base + 1);
+            long opAndSequence = mSlots.get(base + 2);
+            long typeAndSubtype = mSlots.get(base + 3);
+            long versionAndPublisher = mSlots.get(base + 4);
+            if (mSlots.get(base) != stamp) {
+                continue;
+            }
+            records.add(new Record(timestamp, high(opAndSequence), low(opAndSequence),
+                    high(typeAndSubtype), low(typeAndSubtype), high(versionAndPublisher),
+                    low(versionAndPublisher)));
+        }
+        return records;
+    }
+
+    public void dump(PrintWriter writer) {
+        List<Record> records = getRecords();
+        writer.println("VMS operations: " + records.size() + " of " + mNextIndex.get());
+        for (Record record : records) {
+            writer.println("\t" + record);
+        }
+    }
+
+    /** Writes the complete records to a compact binary stream, see {@link #readFrom}. */
+    public void writeTo(DataOutputStream out) throws IOException {
+        List<Record> records = getRecords();
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(records.size());
+        for (Record record : records) {
+            out.writeLong(record.mTimestampNs);
+            out.writeInt(record.mOpCode);
+            out.writeInt(record.mSequenceNumber);
+            out.writeInt(record.mLayerType);
+            out.writeInt(record.mLayerSubtype);
+            out.writeInt(record.mLayerVersion);
+            out.writeInt(record.mPublisherId);
+        }
+        out.flush();
+    }
+
+    /** Reads the records written by {@link #writeTo}, e.g. for replaying them offline. */
+    public static List<Record> readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != FILE_MAGIC) {
+            throw new IOException("Not a VMS operations file");
+        }
+        int version = in.readInt();
+        if (version != FILE_VERSION) {
+            throw new IOException("Unsupported VMS operations file version: " + version);
+        }
+        int size = in.readInt();
+        List<Record> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            records.add(new Record(in.readLong(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readInt(), in.readInt(), in.readInt()));
+        }
+        return records;
+    }
+
+    private static long pack(int high, int low) {
+        return ((long) high << 32) | (low & 0xffffffffL);
+    }
+
+    private static int high(long value) {
+        return (int) (value >>> 32);
+    }
+
+    private static int low(long value) {
+        return (int) value;
+    }
+
+    /** A decoded operation. */
+    public static final class Record {
+        private final long mTimestampNs;
+        private final int mOpCode;
+        private final int mSequenceNumber;
+        private final int mLayerType;
+        private final int mLayerSubtype;
+        private final int mLayerVersion;
+        private final int mPublisherId;
+
+        Record(long timestampNs, int opCode, int sequenceNumber, int layerType,
+                int layerSubtype, int layerVersion, int publisherId) {
+            mTimestampNs = timestampNs;
+            mOpCode = opCode;
+            mSequenceNumber = sequenceNumber;
+            mLayerType = layerType;
+            mLayerSubtype = layerSubtype;
+            mLayerVersion = layerVersion;
+            mPublisherId = publisherId;
+        }
+
+        /** Elapsed realtime of the operation. */
+        public long getTimestampNs() {
+            return mTimestampNs;
+        }
+
+        public int getOpCode() {
+            return mOpCode;
+        }
+
+        public int getSequenceNumber() {
+            return mSequenceNumber;
+        }
+
+        /** Returns the layer of the operation, or null if it has none. */
+        public VmsLayer getLayer() {
+            if (mLayerType == NONE && mLayerSubtype == NONE && mLayerVersion == NONE) {
+                return null;
+            }
+            return new VmsLayer(mLayerType, mLayerSubtype, mLayerVersion);
+        }
+
+        public int getPublisherId() {
+            return mPublisherId;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(mTimestampNs).append(' ');
+            sb.append(mOpCode > 0 && mOpCode < OP_NAMES.length
+                    ? OP_NAMES[mOpCode] : String.valueOf(mOpCode));
+            if (mSequenceNumber != NONE) {
+                sb.append(" sequenceNumber=").append(mSequenceNumber);
+            }
+            VmsLayer layer = getLayer();
+            if (layer != null) {
+                sb.append(" layer=").append(layer);
+            }
+            if (mPublisherId != NONE) {
+                sb.append(" publisherId=").append(mPublisherId);
+            }
+            return sb.toString();
+        }
+    }
+}
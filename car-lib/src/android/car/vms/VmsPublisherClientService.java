@@ -31,6 +31,7 @@ import android.util.Log;
 import com.android.internal.annotations.GuardedBy;
 
 import java.lang.ref.WeakReference;
+import java.util.List;
 
 /**
  * Services that need VMS publisher services need to inherit from this class and also need to be
@@ -50,6 +51,7 @@ import java.lang.ref.WeakReference;
 public abstract class VmsPublisherClientService extends Service {
     private static final boolean DBG = true;
     private static final String TAG = "VmsPublisherClient";
+    private static final int SHARED_MEMORY_POOL_SIZE = 16 * 1024 * 1024;
 
     private final Object mLock = new Object();
 
@@ -58,6 +60,10 @@ public abstract class VmsPublisherClientService extends Service {
     private volatile IVmsPublisherService mVmsPublisherService = null;
     @GuardedBy("mLock")
     private IBinder mToken = null;
+    @GuardedBy("mLock")
+    private VmsSharedMemoryPool mSharedMemoryPool = null;
+    @GuardedBy("mLock")
+    private int mSharedMemoryThreshold;
 
     @Override
     public final IBinder onBind(Intent intent) {
@@ -76,6 +82,12 @@ public abstract class VmsPublisherClientService extends Service {
         return super.onUnbind(intent);
     }
 
+    @Override
+    public void onDestroy() {
+        disableSharedMemoryPayloads();
+        super.onDestroy();
+    }
+
     private void setToken(IBinder token) {
         synchronized (mLock) {
             mToken = token;
@@ -109,6 +121,9 @@ public abstract class VmsPublisherClientService extends Service {
         }
 
         IBinder token = getTokenForPublisherServiceThreadSafe();
+        if (publishShared(token, layer, publisherId, payload)) {
+            return;
+        }
 
         try {
             mVmsPublisherService.publish(token, layer, publisherId, payload);
@@ -117,6 +132,115 @@ public abstract class VmsPublisherClientService extends Service {
         }
     }
 
+    /**
+     * Publishes several messages in a single call to the VmsPublisherService, which is much
+     * cheaper than publishing them one by one. Subscribers receive them in the same order. All
+     * payloads are copied into the same binder transaction, so large payloads should be published
+     * with {@link #publish} instead.
+     *
+     * @param layers      the layer of each message.
+     * @param publisherId the ID that got assigned to the publisher that published the messages by
+     *                    VMS core.
+     * @param payloads    the payload of each message.
+     * @throws IllegalArgumentException if the lists have different sizes.
+     */
+    public final void publishBatch(List<VmsLayer> layers, int publisherId,
+            List<byte[]> payloads) {
+        VmsMessageBatch batch = new VmsMessageBatch(layers, payloads);
+        if (DBG) {
+            Log.d(TAG, "Publishing batch of " + batch.size() + " messages");
+        }
+
+        IBinder token = getTokenForPublisherServiceThreadSafe();
+
+        try {
+            mVmsPublisherService.publishBatch(token, publisherId, batch);
+        } catch (RemoteException e) {
+            Log.e(TAG, "unable to publish batch: " + batch, e);
+        }
+    }
+
+    /**
+     * Publishes payloads of at least {@code thresholdBytes} through shared memory instead of
+     * copying them into the binder transaction of every receiver. Subscribers that did not enable
+     * shared memory payloads still receive a copy. Meant for large payloads such as map tiles.
+     *
+     * @param thresholdBytes the minimum size of payloads sent through shared memory.
+     */
+    public final void enableSharedMemoryPayloads(int thresholdBytes) {
+        if (thresholdBytes <= 0) {
+            throw new IllegalArgumentException("Invalid threshold: " + thresholdBytes);
+        }
+        synchronized (mLock) {
+            if (mSharedMemoryPool == null) {
+                mSharedMemoryPool = new VmsSharedMemoryPool(SHARED_MEMORY_POOL_SIZE);
+            }
+            mSharedMemoryThreshold = thresholdBytes;
+        }
+    }
+
+    /**
+     * Stops publishing payloads through shared memory and frees the shared memory.
+     */
+    public final void disableSharedMemoryPayloads() {
+        VmsSharedMemoryPool pool;
+        synchronized (mLock) {
+            pool = mSharedMemoryPool;
+            mSharedMemoryPool = null;
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Publishes through shared memory if enabled for payloads of this size.
+     *
+     * @return whether the payload was sent.
+     */
+    private boolean publishShared(IBinder token, VmsLayer layer, int publisherId,
+            byte[] payload) {
+        VmsSharedMemoryPool pool;
+        synchronized (mLock) {
+            pool = mSharedMemoryPool;
+            if (pool == null || payload.length < mSharedMemoryThreshold) {
+                return false;
+            }
+        }
+        VmsSharedPayload sharedPayload = pool.write(payload);
+        if (sharedPayload == null) {
+            return false;
+        }
+        try {
+            mVmsPublisherService.publishShared(token, layer, publisherId, sharedPayload,
+                    mVmsPublisherClient);
+        } catch (RemoteException e) {
+            Log.e(TAG, "unable to publish shared payload: " + sharedPayload, e);
+            pool.release(sharedPayload.getId());
+        }
+        return true;
+    }
+
+    private void onSharedPayloadReleased(long payloadId) {
+        VmsSharedMemoryPool pool;
+        synchronized (mLock) {
+            pool = mSharedMemoryPool;
+        }
+        if (pool != null) {
+            pool.release(payloadId);
+        }
+    }
+
+    private void releaseSharedPayloads() {
+        VmsSharedMemoryPool pool;
+        synchronized (mLock) {
+            pool = mSharedMemoryPool;
+        }
+        if (pool != null) {
+            pool.releaseAll();
+        }
+    }
+
     /**
      * Uses the VmsPublisherService binder to set the layers offering.
      *
@@ -218,9 +342,18 @@ public abstract class VmsPublisherClientService extends Service {
             Handler handler = vmsPublisherClientService.mHandler;
             handler.sendMessage(
                     handler.obtainMessage(VmsEventHandler.SET_SERVICE_CALLBACK, service));
+            // A new service does not hold any payloads of the previous one.
+            vmsPublisherClientService.releaseSharedPayloads();
             vmsPublisherClientService.setToken(token);
         }
 
+        @Override
+        public void onSharedPayloadReleased(long payloadId) {
+            VmsPublisherClientService vmsPublisherClientService = mVmsPublisherClientService.get();
+            if (vmsPublisherClientService == null) return;
+            vmsPublisherClientService.onSharedPayloadReleased(payloadId);
+        }
+
         @Override
         public void onVmsSubscriptionChange(VmsSubscriptionState subscriptionState)
                 throws RemoteException {
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.car.vms;
+
+import android.car.annotation.FutureFeature;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Traffic of a VMS publisher since its first message.
+ *
+ * @hide
+ */
+@FutureFeature
+public final class VmsPublisherTrafficStats implements Parcelable {
+    private final int mPublisherId;
+    private final long mDurationMs;
+    private final long mMessages;
+    private final long mBytes;
+    private final long mFanOut;
+
+    public VmsPublisherTrafficStats(int publisherId, long durationMs, long messages, long bytes,
+            long fanOut) {
+        mPublisherId = publisherId;
+        mDurationMs = durationMs;
+        mMessages = messages;
+        mBytes = bytes;
+        mFanOut = fanOut;
+    }
+
+    public int getPublisherId() {
+        return mPublisherId;
+    }
+
+    /** Returns the time since the first message of the publisher. */
+    public long getDurationMs() {
+        return mDurationMs;
+    }
+
+    /** Returns the number of messages published, to all layers. */
+    public long getMessages() {
+        return mMessages;
+    }
+
+    /** Returns the size of the payloads published, to all layers. */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public double getMessagesPerSecond() {
+        return perSecond(mMessages);
+    }
+
+    public double getBytesPerSecond() {
+        return perSecond(mBytes);
+    }
+
+    /** Returns the number of subscribers each message was routed to, summed over all messages. */
+    public long getFanOut() {
+        return mFanOut;
+    }
+
+    public double getAverageFanOut() {
+        return mMessages == 0 ? 0 : (double) mFanOut / mMessages;
+    }
+
+    private double perSecond(long count) {
+        return mDurationMs == 0 ? 0 : count * 1000.0 / mDurationMs;
+    }
+
+    @Override
+    public String toString() {
+        return "VmsPublisherTrafficStats{ publisher ID: " + mPublisherId
+                + ", duration ms: " + mDurationMs
+                + ", messages: " + mMessages
+                + ", bytes: " + mBytes
+                + ", fan-out: " + mFanOut + "}";
+    }
+
+    public static final Parcelable.Creator<VmsPublisherTrafficStats> CREATOR = new
+            Parcelable.Creator<VmsPublisherTrafficStats>() {
+                public VmsPublisherTrafficStats createFromParcel(Parcel in) {
+                    return new VmsPublisherTrafficStats(in);
+                }
+
+                public VmsPublisherTrafficStats[] newArray(int size) {
+                    return new VmsPublisherTrafficStats[size];
+                }
+            };
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeInt(mPublisherId);
+        out.writeLong(mDurationMs);
+        out.writeLong(mMessages);
+        out.writeLong(mBytes);
+        out.writeLong(mFanOut);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    private VmsPublisherTrafficStats(Parcel in) {
+        mPublisherId = in.readInt();
+        mDurationMs = in.readLong();
+        mMessages = in.readLong();
+        mBytes = in.readLong();
+        mFanOut = in.readLong();
+    }
+}
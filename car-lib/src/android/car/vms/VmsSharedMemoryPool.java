@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.car.vms;
+
+import android.os.MemoryFile;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Pool of shared memory regions used by a publisher for {@link VmsSharedPayload}s.
+ *
+ * <p>A region holds one payload at a time and is reused once the VMS service released the payload
+ * written into it. Regions are allocated on demand until the pool reaches its maximum size.
+ */
+final class VmsSharedMemoryPool {
+    private static final String TAG = "VmsSharedMemoryPool";
+    private static final int MIN_REGION_SIZE = 64 * 1024;
+
+    private final int mMaxPoolSize;
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final ArrayList<Region> mFreeRegions = new ArrayList<>();
+    // key: ID of the payload currently stored in the region.
+    @GuardedBy("mLock")
+    private final LongSparseArray<Region> mBusyRegions = new LongSparseArray<>();
+    @GuardedBy("mLock")
+    private int mPoolSize;
+    @GuardedBy("mLock")
+    private long mNextPayloadId;
+
+    VmsSharedMemoryPool(int maxPoolSize) {
+        mMaxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * Writes the payload into a free region.
+     *
+     * @return the shared payload, or {@code null} if no region is available, in which case the
+     *         payload must be sent the regular way.
+     */
+    VmsSharedPayload write(byte[] payload) {
+        Region region;
+        long payloadId;
+        synchronized (mLock) {
+            region = acquireRegionLocked(payload.length);
+            if (region == null) {
+                return null;
+            }
+            payloadId = mNextPayloadId++;
+            mBusyRegions.put(payloadId, region);
+        }
+        try {
+            region.mMemory.writeBytes(payload, 0, 0, payload.length);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write shared payload", e);
+            release(payloadId);
+            return null;
+        }
+        return new VmsSharedPayload(payloadId, payload.length, region.mFd);
+    }
+
+    /** Makes the region of the payload available again. */
+    void release(long payloadId) {
+        synchronized (mLock) {
+            Region region = mBusyRegions.get(payloadId);
+            if (region == null) {
+                Log.w(TAG, "Released unknown shared payload: " + payloadId);
+                return;
+            }
+            mBusyRegions.remove(payloadId);
+            mFreeRegions.add(region);
+        }
+    }
+
+    /** Releases all payloads, used when the VMS service that held them went away. */
+    void releaseAll() {
+        synchronized (mLock) {
+            for (int i = 0; i < mBusyRegions.size(); i++) {
+                mFreeRegions.add(mBusyRegions.valueAt(i));
+            }
+            mBusyRegions.clear();
+        }
+    }
+
+    /** Frees all regions. Payloads that were not released yet stay readable by the receivers. */
+    void close() {
+        synchronized (mLock) {
+            for (Region region : mFreeRegions) {
+                region.close();
+            }
+            for (int i = 0; i < mBusyRegions.size(); i++) {
+                mBusyRegions.valueAt(i).close();
+            }
+            mFreeRegions.clear();
+            mBusyRegions.clear();
+            mPoolSize = 0;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private Region acquireRegionLocked(int length) {
+        // Use the smallest free region that fits.
+        int bestIndex = -1;
+        for (int i = 0; i < mFreeRegions.size(); i++) {
+            int capacity = mFreeRegions.get(i).mCapacity;
+            if (capacity >= length
+                    && (bestIndex < 0 || capacity < mFreeRegions.get(bestIndex).mCapacity)) {
+                bestIndex = i;
+            }
+        }
+        if (bestIndex >= 0) {
+            return mFreeRegions.remove(bestIndex);
+        }
+
+        if (length > mMaxPoolSize) {
+            return null;
+        }
+        int capacity = Math.min(mMaxPoolSize,
+                Math.max(MIN_REGION_SIZE, Integer.highestOneBit(length - 1) << 1));
+        // Free regions are too small, drop them to make room for a larger one.
+        while (mPoolSize + capacity > mMaxPoolSize && !mFreeRegions.isEmpty()) {
+            Region region = mFreeRegions.remove(mFreeRegions.size() - 1);
+            mPoolSize -= region.mCapacity;
+            region.close();
+        }
+        if (mPoolSize + capacity > mMaxPoolSize) {
+            return null;
+        }
+        try {
+            Region region = new Region(capacity);
+            mPoolSize += capacity;
+            return region;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to allocate shared memory region of " + capacity + " bytes", e);
+            return null;
+        }
+    }
+
+    private static final class Region {
+        final int mCapacity;
+        final MemoryFile mMemory;
+        final ParcelFileDescriptor mFd;
+
+        Region(int capacity) throws IOException {
+            mCapacity = capacity;
+            mMemory = new MemoryFile(TAG, capacity);
+            try {
+                mFd = ParcelFileDescriptor.dup(mMemory.getFileDescriptor());
+            } catch (IOException e) {
+                mMemory.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                mFd.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to close shared memory region", e);
+            }
+            mMemory.close();
+        }
+    }
+}
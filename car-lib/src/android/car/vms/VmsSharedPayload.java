@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.car.vms;
+
+import android.car.annotation.FutureFeature;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.IOException;
+
+/**
+ * A VMS message payload stored in a shared memory region. Only the region's file descriptor and
+ * the payload length cross process boundaries, so the payload is not copied into the binder
+ * transaction. Receivers still copy it out of the region with {@link #readPayload()}.
+ *
+ * <p>The region is owned by the publisher and must not be modified until the receiver releases
+ * the payload, see {@link VmsPublisherClientService#enableSharedMemoryPayloads(int)}. The region
+ * is reused for later payloads, so its descriptor cannot be made read-only. Receivers must only
+ * read it, which is why receiving shared payloads requires the VMS subscriber permission.
+ *
+ * @hide
+ */
+@FutureFeature
+public final class VmsSharedPayload implements Parcelable {
+
+    // Identifies the payload towards the party that sent it, used to release it.
+    private final long mId;
+
+    // The payload size in bytes, starting at the beginning of the region.
+    private final int mLength;
+
+    // The shared memory region.
+    private final ParcelFileDescriptor mFd;
+
+    // Whether mFd was created when unparceling, and thus belongs to this payload. Otherwise it is
+    // shared with its creator and the other receivers in this process.
+    private final boolean mOwnsFd;
+
+    public VmsSharedPayload(long id, int length, ParcelFileDescriptor fd) {
+        mId = id;
+        mLength = length;
+        mFd = fd;
+        mOwnsFd = false;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public ParcelFileDescriptor getFileDescriptor() {
+        return mFd;
+    }
+
+    /**
+     * Copies the payload out of the shared memory region.
+     *
+     * @throws IOException if the region cannot be read.
+     */
+    public byte[] readPayload() throws IOException {
+        byte[] payload = new byte[mLength];
+        int read = 0;
+        try {
+            while (read < mLength) {
+                int count = Os.pread(mFd.getFileDescriptor(), payload, read, mLength - read, read);
+                if (count <= 0) {
+                    throw new IOException("Shared payload truncated at " + read + " of "
+                            + mLength + " bytes");
+                }
+                read += count;
+            }
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+        return payload;
+    }
+
+    /**
+     * Closes this process' handle to the region if it was received through binder. The region
+     * itself stays valid until every process closed its handle. Payloads created in this process
+     * share the descriptor of their creator, which stays open.
+     */
+    public void close() {
+        if (!mOwnsFd) {
+            return;
+        }
+        try {
+            mFd.close();
+        } catch (IOException e) {
+            // Nothing can be done about it, the descriptor is gone either way.
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "VmsSharedPayload{ Id: " + mId + ", Length: " + mLength + "}";
+    }
+
+    // Parcelable related methods.
+    public static final Parcelable.Creator<VmsSharedPayload> CREATOR =
+            new Parcelable.Creator<VmsSharedPayload>() {
+                public VmsSharedPayload createFromParcel(Parcel in) {
+                    return new VmsSharedPayload(in);
+                }
+
+                public VmsSharedPayload[] newArray(int size) {
+                    return new VmsSharedPayload[size];
+                }
+            };
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeLong(mId);
+        out.writeInt(mLength);
+        mFd.writeToParcel(out, flags);
+    }
+
+    @Override
+    public int describeContents() {
+        return CONTENTS_FILE_DESCRIPTOR;
+    }
+
+    private VmsSharedPayload(Parcel in) {
+        mId = in.readLong();
+        mLength = in.readInt();
+        mFd = ParcelFileDescriptor.CREATOR.createFromParcel(in);
+        mOwnsFd = true;
+    }
+}
@@ -22,15 +22,15 @@ import android.car.CarNotConnectedException;
 import android.car.annotation.FutureFeature;
 import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
-import android.os.Message;
 import android.os.RemoteException;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
 
-import java.lang.ref.WeakReference;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * API for interfacing with the VmsSubscriberService. It supports a single client callback that can
@@ -45,12 +45,29 @@ public final class VmsSubscriberManager implements CarManagerBase {
     private static final boolean DBG = true;
     private static final String TAG = "VmsSubscriberManager";
 
-    private final Handler mHandler;
+    private final Executor mHandlerExecutor;
     private final IVmsSubscriberService mVmsSubscriberService;
     private final IVmsSubscriberClient mSubscriberManagerClient;
     private final Object mClientCallbackLock = new Object();
     @GuardedBy("mClientCallbackLock")
     private VmsSubscriberClientCallback mClientCallback;
+    @GuardedBy("mClientCallbackLock")
+    private Executor mClientExecutor;
+
+    // Messages received since the last delivery to the client callback was scheduled.
+    private final Object mPendingMessagesLock = new Object();
+    @GuardedBy("mPendingMessagesLock")
+    private ArrayList<VmsLayer> mPendingLayers = new ArrayList<>();
+    @GuardedBy("mPendingMessagesLock")
+    private ArrayList<byte[]> mPendingPayloads = new ArrayList<>();
+    @GuardedBy("mPendingMessagesLock")
+    private boolean mDeliveryScheduled;
+    private final Runnable mDeliverPendingMessages = new Runnable() {
+        @Override
+        public void run() {
+            deliverPendingMessages();
+        }
+    };
 
     /**
      * Interface exposed to VMS subscribers: it is a wrapper of IVmsSubscriberClient.
@@ -68,74 +85,91 @@ public final class VmsSubscriberManager implements CarManagerBase {
     }
 
     /**
-     * Allows to asynchronously dispatch onVmsMessageReceived events.
+     * Client callback which also receives the messages that arrived while the previous ones were
+     * delivered, in a single call. Messages delivered together are not passed to
+     * {@link #onVmsMessageReceived}.
      */
-    private final static class VmsEventHandler extends Handler {
+    public interface VmsSubscriberClientBatchCallback extends VmsSubscriberClientCallback {
         /**
-         * Constants handled in the handler
+         * Called with the messages received since the last call, in the order they were
+         * received.
          */
-        private static final int ON_RECEIVE_MESSAGE_EVENT = 0;
-        private static final int ON_AVAILABILITY_CHANGE_EVENT = 1;
-
-        private final WeakReference<VmsSubscriberManager> mMgr;
-
-        VmsEventHandler(VmsSubscriberManager mgr, Looper looper) {
-            super(looper);
-            mMgr = new WeakReference<>(mgr);
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            VmsSubscriberManager mgr = mMgr.get();
-            switch (msg.what) {
-                case ON_RECEIVE_MESSAGE_EVENT:
-                    if (mgr != null) {
-                        // Parse the message
-                        VmsDataMessage vmsDataMessage = (VmsDataMessage) msg.obj;
-
-                        // Dispatch the parsed message
-                        mgr.dispatchOnReceiveMessage(vmsDataMessage.getLayer(),
-                                vmsDataMessage.getPayload());
-                    }
-                    break;
-                case ON_AVAILABILITY_CHANGE_EVENT:
-                    if (mgr != null) {
-                        // Parse the message
-                        List<VmsLayer> vmsAvailabilityChangeMessage = (List<VmsLayer>) msg.obj;
-
-                        // Dispatch the parsed message
-                        mgr.dispatchOnAvailabilityChangeMessage(vmsAvailabilityChangeMessage);
-                    }
-                    break;
-
-                default:
-                    Log.e(VmsSubscriberManager.TAG, "Event type not handled:  " + msg.what);
-                    break;
-            }
-        }
+        void onVmsMessagesReceived(VmsMessageBatch messages);
     }
 
-    public VmsSubscriberManager(IBinder service, Handler handler) {
+    public VmsSubscriberManager(IBinder service, final Handler handler) {
         mVmsSubscriberService = IVmsSubscriberService.Stub.asInterface(service);
-        mHandler = new VmsEventHandler(this, handler.getLooper());
+        mHandlerExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
         mSubscriberManagerClient = new IVmsSubscriberClient.Stub() {
             @Override
             public void onVmsMessageReceived(VmsLayer layer, byte[] payload)
                     throws RemoteException {
-                // Create the data message
-                VmsDataMessage vmsDataMessage = new VmsDataMessage(layer, payload);
-                mHandler.sendMessage(
-                        mHandler.obtainMessage(
-                                VmsEventHandler.ON_RECEIVE_MESSAGE_EVENT,
-                                vmsDataMessage));
+                boolean scheduleDelivery;
+                synchronized (mPendingMessagesLock) {
+                    mPendingLayers.add(layer);
+                    mPendingPayloads.add(payload);
+                    scheduleDelivery = !mDeliveryScheduled;
+                    mDeliveryScheduled = true;
+                }
+                if (scheduleDelivery) {
+                    getClientExecutor().execute(mDeliverPendingMessages);
+                }
             }
 
             @Override
-            public void onLayersAvailabilityChanged(List<VmsAssociatedLayer> availableLayers) {
-                mHandler.sendMessage(
-                        mHandler.obtainMessage(
-                                VmsEventHandler.ON_AVAILABILITY_CHANGE_EVENT,
-                                availableLayers));
+            public void onVmsSharedMessageReceived(VmsLayer layer, VmsSharedPayload payload)
+                    throws RemoteException {
+                // Copy the payload right away so that the publisher can reuse the region.
+                byte[] bytes = null;
+                try {
+                    bytes = payload.readPayload();
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to read shared payload: " + payload, e);
+                } finally {
+                    payload.close();
+                }
+                try {
+                    mVmsSubscriberService.releaseSharedPayload(this, payload.getId());
+                } catch (RemoteException e) {
+                    Log.e(TAG, "Unable to release shared payload: " + payload, e);
+                }
+                if (bytes != null) {
+                    onVmsMessageReceived(layer, bytes);
+                }
+            }
+
+            @Override
+            public void onVmsMessagesReceived(VmsMessageBatch batch) {
+                boolean scheduleDelivery;
+                synchronized (mPendingMessagesLock) {
+                    mPendingLayers.addAll(batch.getLayers());
+                    mPendingPayloads.addAll(batch.getPayloads());
+                    scheduleDelivery = !mDeliveryScheduled;
+                    mDeliveryScheduled = true;
+                }
+                if (scheduleDelivery) {
+                    getClientExecutor().execute(mDeliverPendingMessages);
+                }
+            }
+
+            @Override
+            public void onLayersAvailabilityChanged(
+                    final List<VmsAssociatedLayer> availableLayers) {
+                final List<VmsLayer> layers = new ArrayList<>(availableLayers.size());
+                for (VmsAssociatedLayer availableLayer : availableLayers) {
+                    layers.add(availableLayer.getVmsLayer());
+                }
+                getClientExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatchOnAvailabilityChangeMessage(layers);
+                    }
+                });
             }
         };
     }
@@ -151,11 +185,29 @@ public final class VmsSubscriberManager implements CarManagerBase {
      */
     public void registerClientCallback(VmsSubscriberClientCallback clientCallback)
             throws CarNotConnectedException {
+        registerClientCallback(mHandlerExecutor, clientCallback);
+    }
+
+    /**
+     * Registers the client callback, like {@link #registerClientCallback(
+     * VmsSubscriberClientCallback)}, but calls it through the given executor instead of the
+     * handler of this manager. This allows processing messages off the main thread.
+     * <p>
+     * Messages received while a delivery is pending are delivered together. If the callback is a
+     * {@link VmsSubscriberClientBatchCallback}, they are passed to it in a single call.
+     *
+     * @param executor       runs the calls to the client callback.
+     * @param clientCallback subscriber callback that will handle onVmsMessageReceived events.
+     * @throws IllegalStateException if the client callback was already set.
+     */
+    public void registerClientCallback(Executor executor,
+            VmsSubscriberClientCallback clientCallback) throws CarNotConnectedException {
         synchronized (mClientCallbackLock) {
             if (mClientCallback != null) {
                 throw new IllegalStateException("Client callback is already configured.");
             }
             mClientCallback = clientCallback;
+            mClientExecutor = executor;
         }
         try {
             mVmsSubscriberService.addVmsSubscriberToNotifications(mSubscriberManagerClient);
@@ -184,6 +236,24 @@ public final class VmsSubscriberManager implements CarManagerBase {
 
         synchronized (mClientCallbackLock) {
             mClientCallback = null;
+            mClientExecutor = null;
+        }
+    }
+
+    /**
+     * Enables receiving large payloads through shared memory, if their publisher supports it.
+     * This keeps large payloads out of binder transactions but does not change how they are
+     * delivered to the client callback: each payload is still copied once out of the shared
+     * memory region before the callback runs.
+     */
+    public void setSharedMemoryPayloadsEnabled(boolean enabled) throws CarNotConnectedException {
+        try {
+            mVmsSubscriberService.setSharedPayloadsEnabled(mSubscriberManagerClient, enabled);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Could not connect: ", e);
+            throw new CarNotConnectedException(e);
+        } catch (IllegalStateException ex) {
+            Car.checkCarNotConnectedExceptionFromCarService(ex);
         }
     }
 
@@ -203,6 +273,38 @@ public final class VmsSubscriberManager implements CarManagerBase {
         }
     }
 
+    /**
+     * Returns the traffic of each layer since its first message, for diagnostics.
+     */
+    public List<VmsLayerTrafficStats> getLayerTrafficStats()
+            throws CarNotConnectedException, IllegalStateException {
+        try {
+            return mVmsSubscriberService.getLayerTrafficStats();
+        } catch (RemoteException e) {
+            Log.e(TAG, "Could not connect: ", e);
+            throw new CarNotConnectedException(e);
+        } catch (IllegalStateException ex) {
+            Car.checkCarNotConnectedExceptionFromCarService(ex);
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns the traffic of each publisher since its first message, for diagnostics.
+     */
+    public List<VmsPublisherTrafficStats> getPublisherTrafficStats()
+            throws CarNotConnectedException, IllegalStateException {
+        try {
+            return mVmsSubscriberService.getPublisherTrafficStats();
+        } catch (RemoteException e) {
+            Log.e(TAG, "Could not connect: ", e);
+            throw new CarNotConnectedException(e);
+        } catch (IllegalStateException ex) {
+            Car.checkCarNotConnectedExceptionFromCarService(ex);
+            throw new IllegalStateException(ex);
+        }
+    }
+
     /**
      * Subscribes to listen to the layer specified.
      *
@@ -311,13 +413,38 @@ public final class VmsSubscriberManager implements CarManagerBase {
         }
     }
 
-    private void dispatchOnReceiveMessage(VmsLayer layer, byte[] payload) {
-        VmsSubscriberClientCallback clientCallback = getClientCallbackThreadSafe();
-        if (clientCallback == null) {
-            Log.e(TAG, "Cannot dispatch received message.");
-            return;
+    /**
+     * Delivers the pending messages until there are none left. Only one delivery runs at a time,
+     * as messages received meanwhile do not schedule another one, so that messages are delivered
+     * in order even if the client executor uses multiple threads.
+     */
+    private void deliverPendingMessages() {
+        while (true) {
+            ArrayList<VmsLayer> layers;
+            ArrayList<byte[]> payloads;
+            synchronized (mPendingMessagesLock) {
+                if (mPendingLayers.isEmpty()) {
+                    mDeliveryScheduled = false;
+                    return;
+                }
+                layers = mPendingLayers;
+                payloads = mPendingPayloads;
+                mPendingLayers = new ArrayList<>();
+                mPendingPayloads = new ArrayList<>();
+            }
+            VmsSubscriberClientCallback clientCallback = getClientCallbackThreadSafe();
+            if (clientCallback == null) {
+                Log.e(TAG, "Cannot dispatch " + layers.size() + " received messages.");
+            } else if (layers.size() > 1
+                    && clientCallback instanceof VmsSubscriberClientBatchCallback) {
+                ((VmsSubscriberClientBatchCallback) clientCallback).onVmsMessagesReceived(
+                        new VmsMessageBatch(layers, payloads));
+            } else {
+                for (int i = 0; i < layers.size(); i++) {
+                    clientCallback.onVmsMessageReceived(layers.get(i), payloads.get(i));
+                }
+            }
         }
-        clientCallback.onVmsMessageReceived(layer, payload);
     }
 
     private void dispatchOnAvailabilityChangeMessage(List<VmsLayer> availableLayers) {
@@ -329,6 +456,16 @@ public final class VmsSubscriberManager implements CarManagerBase {
         clientCallback.onLayersAvailabilityChanged(availableLayers);
     }
 
+    /**
+     * Returns the executor of the client callback, or the handler executor if it is not set,
+     * in which case the dispatched events are dropped.
+     */
+    private Executor getClientExecutor() {
+        synchronized (mClientCallbackLock) {
+            return mClientExecutor != null ? mClientExecutor : mHandlerExecutor;
+        }
+    }
+
     private VmsSubscriberClientCallback getClientCallbackThreadSafe() {
         VmsSubscriberClientCallback clientCallback;
         synchronized (mClientCallbackLock) {
@@ -356,22 +493,4 @@ public final class VmsSubscriberManager implements CarManagerBase {
     @Override
     public void onCarDisconnected() {
     }
-
-    private static final class VmsDataMessage {
-        private final VmsLayer mLayer;
-        private final byte[] mPayload;
-
-        public VmsDataMessage(VmsLayer layer, byte[] payload) {
-            mLayer = layer;
-            mPayload = payload;
-        }
-
-        public VmsLayer getLayer() {
-            return mLayer;
-        }
-
-        public byte[] getPayload() {
-            return mPayload;
-        }
-    }
 }
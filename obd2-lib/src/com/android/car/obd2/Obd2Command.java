@@ -65,6 +65,9 @@ public abstract class Obd2Command<ValueType> {
     private static final HashMap<Integer, OutputSemanticHandler<Float>> SUPPORTED_FLOAT_COMMANDS =
             new HashMap<>();
 
+    /** Number of data bytes in the mode 01 response of a PID, as defined by SAE J1979. */
+    private static final HashMap<Integer, Integer> LIVE_FRAME_DATA_LENGTHS = new HashMap<>();
+
     private static void addSupportedIntegerCommands(
             OutputSemanticHandler<Integer>... integerOutputSemanticHandlers) {
         for (OutputSemanticHandler<Integer> integerOutputSemanticHandler :
@@ -99,6 +102,15 @@ public abstract class Obd2Command<ValueType> {
         return SUPPORTED_FLOAT_COMMANDS.get(pid);
     }
 
+    /**
+     * Returns the number of data bytes that follow a PID in a mode 01 response, or -1 if it is
+     * not known. The PIDs of a multi-PID response can only be told apart if this is known.
+     */
+    public static int getLiveFrameDataLength(int pid) {
+        Integer length = LIVE_FRAME_DATA_LENGTHS.get(pid);
+        return length == null ? -1 : length;
+    }
+
     static {
         addSupportedFloatCommands(
                 new AmbientAirTemperature(),
@@ -117,6 +129,22 @@ public abstract class Obd2Command<ValueType> {
                 new RPM(),
                 new EngineRuntime(),
                 new Speed());
+
+        LIVE_FRAME_DATA_LENGTHS.put(0x03, 2); // fuel system status
+        LIVE_FRAME_DATA_LENGTHS.put(0x04, 1); // calculated engine load
+        LIVE_FRAME_DATA_LENGTHS.put(0x05, 1); // engine coolant temperature
+        LIVE_FRAME_DATA_LENGTHS.put(0x06, 1); // short term fuel trim, bank 1
+        LIVE_FRAME_DATA_LENGTHS.put(0x07, 1); // long term fuel trim, bank 1
+        LIVE_FRAME_DATA_LENGTHS.put(0x08, 1); // short term fuel trim, bank 2
+        LIVE_FRAME_DATA_LENGTHS.put(0x09, 1); // long term fuel trim, bank 2
+        LIVE_FRAME_DATA_LENGTHS.put(0x0A, 1); // fuel pressure
+        LIVE_FRAME_DATA_LENGTHS.put(0x0C, 2); // engine RPM
+        LIVE_FRAME_DATA_LENGTHS.put(0x0D, 1); // vehicle speed
+        LIVE_FRAME_DATA_LENGTHS.put(0x11, 1); // throttle position
+        LIVE_FRAME_DATA_LENGTHS.put(0x1F, 2); // run time since engine start
+        LIVE_FRAME_DATA_LENGTHS.put(0x2F, 1); // fuel tank level
+        LIVE_FRAME_DATA_LENGTHS.put(0x46, 1); // ambient air temperature
+        LIVE_FRAME_DATA_LENGTHS.put(0x5C, 1); // engine oil temperature
     }
 
     protected final int mMode;
@@ -164,6 +192,14 @@ public abstract class Obd2Command<ValueType> {
             }
             return Optional.empty();
         }
+
+        /**
+         * Decodes the data bytes of this command's PID, as split out of a multi-PID response by
+         * {@link Obd2Connection#runLiveFrameRequest(int...)}.
+         */
+        public Optional<ValueType> consume(IntegerArrayStream data) {
+            return mSemanticHandler.consume(data);
+        }
     }
 
     /**
@@ -21,8 +21,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -47,8 +49,22 @@ public class Obd2Connection {
         OutputStream getOutputStream();
     }
 
+    /** The maximum number of PIDs that a single mode 01 request can ask for. */
+    public static final int MAX_PIDS_PER_REQUEST = 6;
+
+    private static final int LIVE_FRAME_RESPONSE_MARKER = 0x41;
+
+    /**
+     * The number of multi-PID requests in a row whose PIDs are answered when queried one at a
+     * time but not together, after which the adapter is assumed not to do multi-PID requests.
+     */
+    private static final int MAX_MULTI_PID_FAILURES = 3;
+
     private final UnderlyingTransport mConnection;
 
+    private boolean mMultiPidRequestsSupported = true;
+    private int mMultiPidFailures = 0;
+
     private static final String[] initCommands =
             new String[] {"ATD", "ATZ", "AT E0", "AT L0", "AT S0", "AT H0", "AT SP 0"};
 
@@ -73,6 +89,8 @@ public class Obd2Connection {
     public boolean reconnect() {
         if (!mConnection.reconnect()) return false;
         runInitCommands();
+        mMultiPidRequestsSupported = true;
+        mMultiPidFailures = 0;
         return true;
     }
 
@@ -167,8 +185,14 @@ public class Obd2Connection {
     }
 
     public int[] run(String command) throws IOException, InterruptedException {
+        String responseValue = runAndProcess(command);
+        if (responseValue.equals("?")) return new int[] {0};
+        return toResponseValues(command, responseValue);
+    }
+
+    /** Runs a command and strips the echo, the long frame markers and the side data. */
+    private String runAndProcess(String command) throws IOException, InterruptedException {
         String responseValue = runImpl(command);
-        String originalResponseValue = responseValue;
         String unspacedCommand = command.replaceAll(" ", "");
         if (responseValue.startsWith(unspacedCommand))
             responseValue = responseValue.substring(unspacedCommand.length());
@@ -189,8 +213,16 @@ public class Obd2Connection {
                         "BUS ERROR",
                         "BUSERROR",
                         "STOPPED");
+        return responseValue;
+    }
+
+    /**
+     * Converts a response processed by {@link #runAndProcess(String)} to its bytes.
+     *
+     * @throws IllegalArgumentException if the response is not valid hex.
+     */
+    private int[] toResponseValues(String command, String responseValue) throws IOException {
         if (responseValue.equals("OK")) return new int[] {1};
-        if (responseValue.equals("?")) return new int[] {0};
         if (responseValue.equals("NODATA")) return new int[] {};
         if (responseValue.equals("UNABLETOCONNECT")) throw new IOException("connection failure");
         if (responseValue.equals("CANERROR")) throw new IOException("CAN bus error");
@@ -200,13 +232,132 @@ public class Obd2Connection {
             Log.e(
                     TAG,
                     String.format(
-                            "conversion error: command: '%s', original response: '%s'"
-                                    + ", processed response: '%s'",
-                            command, originalResponseValue, responseValue));
+                            "conversion error: command: '%s', processed response: '%s'",
+                            command, responseValue));
             throw e;
         }
     }
 
+    /**
+     * Returns whether the adapter is believed to accept mode 01 requests for more than one PID.
+     * This is assumed until such a request is rejected, or until several of them in a row only
+     * get answers when their PIDs are queried one at a time.
+     */
+    public boolean supportsMultiPidRequests() {
+        return mMultiPidRequestsSupported;
+    }
+
+    /**
+     * Queries the current value of up to {@link #MAX_PIDS_PER_REQUEST} PIDs with one mode 01
+     * request, and splits the response into the data bytes of each PID.
+     *
+     * <p>The length of the data of each PID must be known, see {@link
+     * Obd2Command#getLiveFrameDataLength(int)}. PIDs the vehicle did not answer are missing from
+     * the result. If the response to a request for several PIDs answers at most one of them, the
+     * PIDs are queried again one at a time.
+     *
+     * <p>If the adapter rejects a request for several PIDs, an empty map is returned and {@link
+     * #supportsMultiPidRequests()} returns false from then on, in which case the PIDs should be
+     * queried one at a time.
+     */
+    public Map<Integer, IntegerArrayStream> runLiveFrameRequest(int... pids)
+            throws IOException, InterruptedException {
+        if (pids.length == 0 || pids.length > MAX_PIDS_PER_REQUEST) {
+            throw new IllegalArgumentException(pids.length + " is not a valid number of PIDs");
+        }
+        StringBuilder command = new StringBuilder(2 + 2 * pids.length);
+        command.append(String.format("%02X", Obd2Command.LIVE_FRAME));
+        for (int pid : pids) {
+            if (Obd2Command.getLiveFrameDataLength(pid) < 0) {
+                throw new IllegalArgumentException("unknown response length for PID " + pid);
+            }
+            command.append(String.format("%02X", pid));
+        }
+
+        String responseValue = runAndProcess(command.toString());
+        boolean rejected = responseValue.equals("?");
+        int[] response = new int[] {};
+        if (!rejected) {
+            try {
+                response = toResponseValues(command.toString(), responseValue);
+            } catch (IllegalArgumentException e) {
+                // toResponseValues() already logged the response
+                rejected = true;
+            }
+        }
+        if (rejected) {
+            if (pids.length > 1) {
+                Log.w(TAG, "multi-PID request " + command + " rejected");
+                mMultiPidRequestsSupported = false;
+            }
+            return new HashMap<>();
+        }
+        Map<Integer, IntegerArrayStream> result = splitLiveFrameResponse(response, pids);
+        // An empty response means the vehicle has no data. A response that answers at most one
+        // of several PIDs may come from a vehicle that only supports that PID, or from an adapter
+        // that garbled the request, so the PIDs are queried again one at a time.
+        if (pids.length > 1 && response.length > 0 && result.size() <= 1) {
+            return runSinglePidRequests(command.toString(), result, pids);
+        }
+        if (pids.length > 1) {
+            mMultiPidFailures = 0;
+        }
+        return result;
+    }
+
+    private Map<Integer, IntegerArrayStream> runSinglePidRequests(
+            String command, Map<Integer, IntegerArrayStream> multiPidResult, int[] pids)
+            throws IOException, InterruptedException {
+        Map<Integer, IntegerArrayStream> result = new HashMap<>();
+        for (int pid : pids) {
+            result.putAll(runLiveFrameRequest(pid));
+        }
+        if (result.size() > multiPidResult.size()) {
+            mMultiPidFailures++;
+            Log.w(TAG, String.format("multi-PID request %s answered %d PIDs, %d one at a time",
+                    command, multiPidResult.size(), result.size()));
+            if (mMultiPidFailures >= MAX_MULTI_PID_FAILURES) {
+                Log.w(TAG, "disabling multi-PID requests after " + mMultiPidFailures
+                        + " failures");
+                mMultiPidRequestsSupported = false;
+            }
+        } else {
+            mMultiPidFailures = 0;
+        }
+        return result;
+    }
+
+    private static Map<Integer, IntegerArrayStream> splitLiveFrameResponse(
+            int[] response, int[] pids) {
+        Map<Integer, IntegerArrayStream> result = new HashMap<>();
+        IntegerArrayStream stream = new IntegerArrayStream(response);
+        if (!stream.expect(LIVE_FRAME_RESPONSE_MARKER)) return result;
+        while (!stream.isEmpty()) {
+            int pid = stream.consume();
+            if (!contains(pids, pid)) {
+                // when several ECUs answer, each of their responses starts with a marker
+                if (pid == LIVE_FRAME_RESPONSE_MARKER) continue;
+                break;
+            }
+            int length = Obd2Command.getLiveFrameDataLength(pid);
+            if (!stream.hasAtLeast(length)) break;
+            int[] data = new int[length];
+            for (int i = 0; i < length; ++i) {
+                data[i] = stream.consume();
+            }
+            // keep the answer of the first ECU that answered
+            result.putIfAbsent(pid, new IntegerArrayStream(data));
+        }
+        return result;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) return true;
+        }
+        return false;
+    }
+
     static class FourByteBitSet {
         private static final int[] masks =
                 new int[] {
@@ -22,7 +22,11 @@ import android.util.Log;
 import com.android.car.obd2.Obd2Command.LiveFrameCommand;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -33,6 +37,8 @@ public class Obd2LiveFrameGenerator {
     private final Obd2Connection mConnection;
     private final List<LiveFrameCommand<Integer>> mIntegerCommands = new ArrayList<>();
     private final List<LiveFrameCommand<Float>> mFloatCommands = new ArrayList<>();
+    /** The PIDs to query together, at most Obd2Connection.MAX_PIDS_PER_REQUEST at a time. */
+    private final List<int[]> mBatches = new ArrayList<>();
 
     public Obd2LiveFrameGenerator(Obd2Connection connection)
             throws IOException, InterruptedException {
@@ -56,16 +62,80 @@ public class Obd2LiveFrameGenerator {
                                 mFloatCommands.add(
                                         Obd2Command.getLiveFrameCommand(
                                                 Obd2Command.getFloatCommand(pid))));
+        planBatches();
         Log.i(
                 TAG,
                 String.format(
                         "connectionPids = %s\napiIntegerPids=%s\napiFloatPids = %s\n"
-                                + "mIntegerCommands = %s\nmFloatCommands = %s\n",
+                                + "mIntegerCommands = %s\nmFloatCommands = %s\nbatches = %d\n",
                         connectionPids,
                         apiIntegerPids,
                         apiFloatPids,
                         mIntegerCommands,
-                        mFloatCommands));
+                        mFloatCommands,
+                        mBatches.size()));
+    }
+
+    private void planBatches() {
+        List<Integer> pids = new ArrayList<>();
+        for (LiveFrameCommand<Integer> command : mIntegerCommands) {
+            pids.add(command.getPid());
+        }
+        for (LiveFrameCommand<Float> command : mFloatCommands) {
+            pids.add(command.getPid());
+        }
+        // PIDs whose response length is unknown cannot be split out of a multi-PID response
+        pids.removeIf((Integer pid) -> Obd2Command.getLiveFrameDataLength(pid) < 0);
+        Collections.sort(pids);
+        for (int start = 0; start < pids.size(); start += Obd2Connection.MAX_PIDS_PER_REQUEST) {
+            int end = Math.min(pids.size(), start + Obd2Connection.MAX_PIDS_PER_REQUEST);
+            mBatches.add(pids.subList(start, end).stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    /**
+     * Runs the batches of PIDs. The result maps each PID of a batch the adapter accepted to its
+     * data, or to null if the vehicle did not answer it. PIDs missing from the result must be
+     * queried on their own.
+     */
+    private Map<Integer, IntegerArrayStream> runBatches() {
+        Map<Integer, IntegerArrayStream> result = new HashMap<>();
+        for (int[] batch : mBatches) {
+            if (!mConnection.supportsMultiPidRequests()) break;
+            try {
+                Map<Integer, IntegerArrayStream> data = mConnection.runLiveFrameRequest(batch);
+                // a rejected request has no data, the adapter only does single-PID requests
+                if (data.isEmpty() && !mConnection.supportsMultiPidRequests()) break;
+                for (int pid : batch) {
+                    result.put(pid, data.get(pid));
+                }
+            } catch (IOException e) {
+                Log.w(
+                        TAG,
+                        String.format(
+                                "unable to retrieve OBD2 pids %s due to exception: %s",
+                                Arrays.toString(batch), e));
+                // query these entries one at a time
+            } catch (InterruptedException e) {
+                Log.w(
+                        TAG,
+                        String.format(
+                                "interrupted while retrieving OBD2 pids %s",
+                                Arrays.toString(batch)));
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return result;
+    }
+
+    private <T> Optional<T> run(LiveFrameCommand<T> command, Map<Integer, IntegerArrayStream> data)
+            throws IOException, InterruptedException {
+        if (!data.containsKey(command.getPid())) {
+            return command.run(mConnection);
+        }
+        IntegerArrayStream commandData = data.get(command.getPid());
+        return commandData == null ? Optional.empty() : command.consume(commandData);
     }
 
     public JsonWriter generate(JsonWriter jsonWriter) throws IOException {
@@ -73,13 +143,14 @@ public class Obd2LiveFrameGenerator {
     }
 
     public JsonWriter generate(JsonWriter jsonWriter, long timestamp) throws IOException {
+        Map<Integer, IntegerArrayStream> data = runBatches();
         jsonWriter.beginObject();
         jsonWriter.name("type").value(FRAME_TYPE_LIVE);
         jsonWriter.name("timestamp").value(timestamp);
         jsonWriter.name("intValues").beginArray();
         for (LiveFrameCommand<Integer> command : mIntegerCommands) {
             try {
-                Optional<Integer> result = command.run(mConnection);
+                Optional<Integer> result = run(command, data);
                 if (result.isPresent()) {
                     jsonWriter.beginObject();
                     jsonWriter.name("id").value(command.getPid());
@@ -100,7 +171,7 @@ public class Obd2LiveFrameGenerator {
         jsonWriter.name("floatValues").beginArray();
         for (LiveFrameCommand<Float> command : mFloatCommands) {
             try {
-                Optional<Float> result = command.run(mConnection);
+                Optional<Float> result = run(command, data);
                 if (result.isPresent()) {
                     jsonWriter.beginObject();
                     jsonWriter.name("id").value(command.getPid());
@@ -19,10 +19,12 @@ package com.android.car;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.car.Car;
+import android.car.hardware.CarSensorManager;
 import android.car.diagnostic.CarDiagnosticEvent;
 import android.car.diagnostic.CarDiagnosticManager;
 import android.car.diagnostic.ICarDiagnostic;
 import android.car.diagnostic.ICarDiagnosticEventListener;
+import android.car.diagnostic.LiveFrameHistory;
 import android.content.Context;
 import android.os.IBinder;
 import android.os.RemoteException;
@@ -47,6 +49,9 @@ import java.util.concurrent.locks.ReentrantLock;
 /** @hide */
 public class CarDiagnosticService extends ICarDiagnostic.Stub
         implements CarServiceBase, DiagnosticHalService.DiagnosticListener {
+    /** rate of the live frames kept in the history while no client listens to them. */
+    private static final int LIVE_FRAME_HISTORY_RATE = CarSensorManager.SENSOR_RATE_NORMAL;
+
     /** lock to access diagnostic structures */
     private final ReentrantLock mDiagnosticLock = new ReentrantLock();
     /** hold clients callback */
@@ -62,10 +67,13 @@ public class CarDiagnosticService extends ICarDiagnostic.Stub
     @GuardedBy("mDiagnosticLock")
     private final LiveFrameRecord mLiveFrameDiagnosticRecord = new LiveFrameRecord(mDiagnosticLock);
 
-    /** the latest freeze frame data (key: DTC) */
+    /** whether live frames are subscribed to for their history, whatever the clients. */
+    @GuardedBy("mDiagnosticLock")
+    private boolean mLiveFrameHistorySubscribed;
+
+    /** the freeze frames, persisted across boots (key: timestamp) */
     @GuardedBy("mDiagnosticLock")
-    private final FreezeFrameRecord mFreezeFrameDiagnosticRecords = new FreezeFrameRecord(
-        mDiagnosticLock);
+    private final FreezeFrameRecord mFreezeFrameDiagnosticRecords;
 
     private final DiagnosticHalService mDiagnosticHal;
 
@@ -75,9 +83,11 @@ public class CarDiagnosticService extends ICarDiagnostic.Stub
 
     private final CarPermission mDiagnosticClearPermission;
 
-    public CarDiagnosticService(Context context, DiagnosticHalService diagnosticHal) {
+    public CarDiagnosticService(Context context, DiagnosticHalService diagnosticHal,
+            FreezeFrameStore freezeFrameStore) {
         mContext = context;
         mDiagnosticHal = diagnosticHal;
+        mFreezeFrameDiagnosticRecords = new FreezeFrameRecord(mDiagnosticLock, freezeFrameStore);
         mDiagnosticReadPermission = new CarPermission(mContext,
                 Car.PERMISSION_CAR_DIAGNOSTIC_READ_ALL);
         mDiagnosticClearPermission = new CarPermission(mContext,
@@ -89,8 +99,10 @@ public class CarDiagnosticService extends ICarDiagnostic.Stub
         mDiagnosticLock.lock();
         try {
             mDiagnosticHal.setDiagnosticListener(this);
+            mFreezeFrameDiagnosticRecords.open();
             setInitialLiveFrame();
             setInitialFreezeFrames();
+            startLiveFrameHistory();
         } finally {
             mDiagnosticLock.unlock();
         }
@@ -105,13 +117,27 @@ public class CarDiagnosticService extends ICarDiagnostic.Stub
         return liveFrame;
     }
 
+    private void startLiveFrameHistory() {
+        if (mDiagnosticHal.getDiagnosticCapabilities().isLiveFrameSupported()
+                && mDiagnosticHal.isReady()) {
+            mLiveFrameHistorySubscribed = mDiagnosticHal.requestSensorStart(
+                    CarDiagnosticManager.FRAME_TYPE_LIVE, LIVE_FRAME_HISTORY_RATE);
+        }
+    }
+
     private void setInitialFreezeFrames() {
         if(mDiagnosticHal.getDiagnosticCapabilities().isFreezeFrameSupported() &&
             mDiagnosticHal.getDiagnosticCapabilities().isFreezeFrameInfoSupported()) {
             long[] timestamps = mDiagnosticHal.getFreezeFrameTimestamps();
-            if (timestamps != null) {
-                for (long timestamp : timestamps) {
-                    setRecentmostFreezeFrame(mDiagnosticHal.getFreezeFrame(timestamp));
+            if (timestamps != null && timestamps.length > 0) {
+                // timestamps do not keep increasing across boots, so a persisted frame is only
+                // kept if it is the frame the HAL has now, rather than one from a previous boot
+                // at the same timestamp.
+                for (CarDiagnosticEvent freezeFrame : mDiagnosticHal.getFreezeFrames(timestamps)) {
+                    if (freezeFrame != null && !freezeFrame.equals(
+                            mFreezeFrameDiagnosticRecords.getEvent(freezeFrame.timestamp))) {
+                        setRecentmostFreezeFrame(freezeFrame);
+                    }
                 }
             }
         }
@@ -142,7 +168,12 @@ public class CarDiagnosticService extends ICarDiagnostic.Stub
                             diagnosticListeners.release());
             mDiagnosticListeners.clear();
             mLiveFrameDiagnosticRecord.disableIfNeeded();
+            if (mLiveFrameHistorySubscribed) {
+                mDiagnosticHal.requestSensorStop(CarDiagnosticManager.FRAME_TYPE_LIVE);
+                mLiveFrameHistorySubscribed = false;
+            }
             mFreezeFrameDiagnosticRecords.disableIfNeeded();
+            mFreezeFrameDiagnosticRecords.close();
             mClients.clear();
         } finally {
             mDiagnosticLock.unlock();
@@ -374,8 +405,15 @@ public class CarDiagnosticService extends ICarDiagnostic.Stub
         }
         switch (frameType) {
             case CarDiagnosticManager.FRAME_TYPE_LIVE:
-                if (mLiveFrameDiagnosticRecord.disableIfNeeded())
-                    diagnosticHal.requestSensorStop(CarDiagnosticManager.FRAME_TYPE_LIVE);
+                if (mLiveFrameDiagnosticRecord.disableIfNeeded()) {
+                    if (mLiveFrameHistorySubscribed) {
+                        // keep the history going, back at its own rate.
+                        diagnosticHal.requestSensorStart(CarDiagnosticManager.FRAME_TYPE_LIVE,
+                                LIVE_FRAME_HISTORY_RATE);
+                    } else {
+                        diagnosticHal.requestSensorStop(CarDiagnosticManager.FRAME_TYPE_LIVE);
+                    }
+                }
                 break;
             case CarDiagnosticManager.FRAME_TYPE_FREEZE:
                 if (mFreezeFrameDiagnosticRecords.disableIfNeeded())
@@ -438,13 +476,41 @@ public class CarDiagnosticService extends ICarDiagnostic.Stub
         return freezeFrame;
     }
 
+    @Override
+    public LiveFrameHistory getLiveFrameHistory(long fromTimestamp, long toTimestamp,
+            @Nullable int[] integerSensors, @Nullable int[] floatSensors,
+            long bucketDurationNanos) {
+        mDiagnosticReadPermission.assertGranted();
+        if (bucketDurationNanos < 0) {
+            throw new IllegalArgumentException(
+                    "negative bucket duration: " + bucketDurationNanos);
+        }
+        mLiveFrameDiagnosticRecord.lock();
+        LiveFrameHistory history = mLiveFrameDiagnosticRecord.getHistory(fromTimestamp,
+                toTimestamp, integerSensors == null ? new int[0] : integerSensors,
+                floatSensors == null ? new int[0] : floatSensors, bucketDurationNanos);
+        mLiveFrameDiagnosticRecord.unlock();
+        return history;
+    }
+
+    @Override
+    public List<CarDiagnosticEvent> getFreezeFrames(long fromTimestamp, long toTimestamp,
+            @Nullable String dtcPrefix) {
+        mDiagnosticReadPermission.assertGranted();
+        mFreezeFrameDiagnosticRecords.lock();
+        List<CarDiagnosticEvent> freezeFrames = mFreezeFrameDiagnosticRecords.getEvents(
+                fromTimestamp, toTimestamp, dtcPrefix);
+        mFreezeFrameDiagnosticRecords.unlock();
+        return freezeFrames;
+    }
+
     @Override
     public boolean clearFreezeFrames(long... timestamps) {
         mDiagnosticClearPermission.assertGranted();
         if (mDiagnosticHal.getDiagnosticCapabilities().isFreezeFrameClearSupported()) {
             mFreezeFrameDiagnosticRecords.lock();
             mDiagnosticHal.clearFreezeFrames(timestamps);
-            mFreezeFrameDiagnosticRecords.clearEvents();
+            mFreezeFrameDiagnosticRecords.clearEvents(timestamps);
             mFreezeFrameDiagnosticRecords.unlock();
             return true;
         }
@@ -586,6 +652,13 @@ public class CarDiagnosticService extends ICarDiagnostic.Stub
         /** Store the most recent live-frame. */
         CarDiagnosticEvent mLastEvent = null;
 
+        /**
+         * Store the recent live-frames, shared by all clients. They are recorded whenever they
+         * arrive, the service subscribes to them at LIVE_FRAME_HISTORY_RATE while none listens.
+         */
+        private final LiveFrameHistoryBuffer mHistory =
+                new LiveFrameHistoryBuffer(LiveFrameHistoryBuffer.DEFAULT_CAPACITY);
+
         LiveFrameRecord(ReentrantLock lock) {
             super(lock);
         }
@@ -603,50 +676,76 @@ public class CarDiagnosticService extends ICarDiagnostic.Stub
             Objects.requireNonNull(newEvent);
             if((null == mLastEvent) || mLastEvent.isEarlierThan(newEvent))
                 mLastEvent = newEvent;
+            mHistory.record(newEvent);
             return mLastEvent;
         }
 
         CarDiagnosticEvent getLastEvent() {
             return mLastEvent;
         }
+
+        LiveFrameHistory getHistory(long fromTimestamp, long toTimestamp, int[] integerSensors,
+                int[] floatSensors, long bucketDurationNanos) {
+            return mHistory.query(fromTimestamp, toTimestamp, integerSensors, floatSensors,
+                    bucketDurationNanos, CarDiagnosticManager.MAX_LIVE_FRAME_HISTORY_VALUES);
+        }
+
+        void dump(PrintWriter writer) {
+            mHistory.dump(writer);
+        }
     }
 
     private static class FreezeFrameRecord extends DiagnosticRecord {
-        /** Store the timestamp --> freeze frame mapping. */
-        HashMap<Long, CarDiagnosticEvent> mEvents = new HashMap<>();
+        /** Store the timestamp --> freeze frame mapping, persisted across boots. */
+        private final FreezeFrameStore mStore;
 
-        FreezeFrameRecord(ReentrantLock lock) {
+        FreezeFrameRecord(ReentrantLock lock, FreezeFrameStore store) {
             super(lock);
+            mStore = store;
+        }
+
+        void open() {
+            mStore.open();
+        }
+
+        void close() {
+            mStore.close();
         }
 
         @Override
         boolean disableIfNeeded() {
+            // frames are kept while no one listens to them, they are history of the vehicle.
             if (!mEnabled) return false;
             mEnabled = false;
-            clearEvents();
             return true;
         }
 
-        void clearEvents() {
-            mEvents.clear();
+        void clearEvents(long... timestamps) {
+            mStore.remove(timestamps);
         }
 
         @Override
         CarDiagnosticEvent update(@NonNull CarDiagnosticEvent newEvent) {
-            mEvents.put(newEvent.timestamp, newEvent);
+            mStore.add(newEvent);
             return newEvent;
         }
 
         long[] getFreezeFrameTimestamps() {
-            return mEvents.keySet().stream().mapToLong(Long::longValue).toArray();
+            return mStore.getTimestamps();
         }
 
         CarDiagnosticEvent getEvent(long timestamp) {
-            return mEvents.get(timestamp);
+            return mStore.get(timestamp);
+        }
+
+        List<CarDiagnosticEvent> getEvents(long fromTimestamp, long toTimestamp,
+                @Nullable String dtcPrefix) {
+            return mStore.getFreezeFrames(fromTimestamp, toTimestamp, dtcPrefix,
+                    CarDiagnosticManager.MAX_FREEZE_FRAMES_PER_QUERY);
         }
 
-        Iterable<CarDiagnosticEvent> getEvents() {
-            return mEvents.values();
+        void dump(PrintWriter writer) {
+            mStore.dump(writer);
         }
     }
 
@@ -658,8 +757,8 @@ public class CarDiagnosticService extends ICarDiagnostic.Stub
             writer.println("last live frame event: ");
             writer.println(mLiveFrameDiagnosticRecord.getLastEvent());
         }
-        writer.println("freeze frame events: ");
-        mFreezeFrameDiagnosticRecords.getEvents().forEach(writer::println);
+        mLiveFrameDiagnosticRecord.dump(writer);
+        mFreezeFrameDiagnosticRecords.dump(writer);
         writer.println("**clients**");
         try {
             for (DiagnosticClient client : mClients) {
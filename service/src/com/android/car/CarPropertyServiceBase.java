@@ -20,16 +20,23 @@ import android.car.Car;
 import android.car.hardware.CarPropertyConfig;
 import android.car.hardware.CarPropertyValue;
 import android.car.hardware.property.CarPropertyEvent;
+import android.car.hardware.property.CarPropertyManagerBase;
 import android.car.hardware.property.ICarProperty;
 import android.car.hardware.property.ICarPropertyEventListener;
 import android.content.Context;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.util.ArraySet;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.car.hal.PropertyHalServiceBase;
+import com.android.internal.annotations.GuardedBy;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -39,6 +46,11 @@ import java.util.concurrent.ConcurrentHashMap;
  * multiple managers that deal with Vehicle Properties. To create a new service, simply extend
  * this class and call the super() constructor with the appropriate arguments for the new service.
  * {@link CarHvacService} shows the basic usage.
+ *
+ * <p>Listeners either receive all events ({@link #registerListener}) or only events of the
+ * properties and areas they registered for ({@link #registerListenerForProperty}). Events are
+ * dispatched from an immutable {@link DispatchTable} indexed by property, which is rebuilt
+ * whenever listeners change.
  */
 public class CarPropertyServiceBase extends ICarProperty.Stub
         implements CarServiceBase, PropertyHalServiceBase.PropertyHalListener {
@@ -48,6 +60,14 @@ public class CarPropertyServiceBase extends ICarProperty.Stub
             new ConcurrentHashMap<>();
     private final PropertyHalServiceBase mHal;
     private final Map<IBinder, ICarPropertyEventListener> mListenersMap = new ConcurrentHashMap<>();
+    /**
+     * Properties and areas of listeners registered through {@link #registerListenerForProperty}.
+     * Listeners in {@link #mListenersMap} without entry here receive all events.
+     * key: listener binder, value: areas by property.
+     */
+    @GuardedBy("mLock")
+    private final Map<IBinder, SparseArray<ArraySet<Integer>>> mPropertyFilters = new HashMap<>();
+    private volatile DispatchTable mDispatchTable = DispatchTable.EMPTY;
     private final String mPermission;
     private final String mTag;
 
@@ -78,7 +98,9 @@ public class CarPropertyServiceBase extends ICarProperty.Stub
             if (mDbg) {
                 Log.d(mTag, "binderDied " + mListenerBinder);
             }
-            CarPropertyServiceBase.this.unregisterListenerLocked(mListenerBinder);
+            synchronized (mLock) {
+                CarPropertyServiceBase.this.unregisterListenerLocked(mListenerBinder);
+            }
         }
 
         void release() {
@@ -95,8 +117,12 @@ public class CarPropertyServiceBase extends ICarProperty.Stub
         for (PropertyDeathRecipient recipient : mDeathRecipientMap.values()) {
             recipient.release();
         }
-        mDeathRecipientMap.clear();
-        mListenersMap.clear();
+        synchronized (mLock) {
+            mDeathRecipientMap.clear();
+            mListenersMap.clear();
+            mPropertyFilters.clear();
+            mDispatchTable = DispatchTable.EMPTY;
+        }
     }
 
     @Override
@@ -118,25 +144,71 @@ public class CarPropertyServiceBase extends ICarProperty.Stub
 
         synchronized (mLock) {
             if (mListenersMap.containsKey(listenerBinder)) {
-                // Already registered, nothing to do.
+                // Already registered. Drop property filters, if any, as it now wants everything.
+                if (mPropertyFilters.remove(listenerBinder) != null) {
+                    rebuildDispatchTableLocked();
+                }
                 return;
             }
+            addListenerLocked(listenerBinder, listener);
+            rebuildDispatchTableLocked();
+        }
+    }
 
-            PropertyDeathRecipient deathRecipient = new PropertyDeathRecipient(listenerBinder);
-            try {
-                listenerBinder.linkToDeath(deathRecipient, 0);
-            } catch (RemoteException e) {
-                Log.e(mTag, "Failed to link death for recipient. " + e);
-                throw new IllegalStateException(Car.CAR_NOT_CONNECTED_EXCEPTION_MSG);
-            }
-            mDeathRecipientMap.put(listenerBinder, deathRecipient);
+    @Override
+    public void registerListenerForProperty(ICarPropertyEventListener listener, int prop,
+            int area) {
+        if (mDbg) {
+            Log.d(mTag, "registerListenerForProperty, prop: 0x" + Integer.toHexString(prop)
+                    + ", area: 0x" + Integer.toHexString(area));
+        }
+        ICarImpl.assertPermission(mContext, mPermission);
+        if (listener == null) {
+            Log.e(mTag, "registerListenerForProperty: Listener is null.");
+            throw new IllegalArgumentException("listener cannot be null.");
+        }
 
-            if (mListenersMap.isEmpty()) {
-                mHal.setListener(this);
+        IBinder listenerBinder = listener.asBinder();
+
+        synchronized (mLock) {
+            SparseArray<ArraySet<Integer>> filter = mPropertyFilters.get(listenerBinder);
+            if (mListenersMap.containsKey(listenerBinder)) {
+                if (filter == null) {
+                    // Already registered for all properties.
+                    return;
+                }
+            } else {
+                addListenerLocked(listenerBinder, listener);
+                filter = new SparseArray<>();
+                mPropertyFilters.put(listenerBinder, filter);
+            }
+            ArraySet<Integer> areas = filter.get(prop);
+            if (areas == null) {
+                areas = new ArraySet<>();
+                filter.put(prop, areas);
             }
+            if (areas.add(area)) {
+                rebuildDispatchTableLocked();
+            }
+        }
+    }
 
-            mListenersMap.put(listenerBinder, listener);
+    @GuardedBy("mLock")
+    private void addListenerLocked(IBinder listenerBinder, ICarPropertyEventListener listener) {
+        PropertyDeathRecipient deathRecipient = new PropertyDeathRecipient(listenerBinder);
+        try {
+            listenerBinder.linkToDeath(deathRecipient, 0);
+        } catch (RemoteException e) {
+            Log.e(mTag, "Failed to link death for recipient. " + e);
+            throw new IllegalStateException(Car.CAR_NOT_CONNECTED_EXCEPTION_MSG);
         }
+        mDeathRecipientMap.put(listenerBinder, deathRecipient);
+
+        if (mListenersMap.isEmpty()) {
+            mHal.setListener(this);
+        }
+
+        mListenersMap.put(listenerBinder, listener);
     }
 
     @Override
@@ -159,8 +231,41 @@ public class CarPropertyServiceBase extends ICarProperty.Stub
         }
     }
 
+    @Override
+    public void unregisterListenerForProperty(ICarPropertyEventListener listener, int prop,
+            int area) {
+        if (mDbg) {
+            Log.d(mTag, "unregisterListenerForProperty, prop: 0x" + Integer.toHexString(prop)
+                    + ", area: 0x" + Integer.toHexString(area));
+        }
+        ICarImpl.assertPermission(mContext, mPermission);
+        if (listener == null) {
+            Log.e(mTag, "unregisterListenerForProperty: Listener is null.");
+            throw new IllegalArgumentException("Listener is null");
+        }
+
+        IBinder listenerBinder = listener.asBinder();
+        synchronized (mLock) {
+            SparseArray<ArraySet<Integer>> filter = mPropertyFilters.get(listenerBinder);
+            ArraySet<Integer> areas = filter == null ? null : filter.get(prop);
+            if (areas == null || !areas.remove(area)) {
+                Log.e(mTag, "unregisterListenerForProperty: Property was not registered.");
+                return;
+            }
+            if (areas.isEmpty()) {
+                filter.remove(prop);
+            }
+            if (filter.size() == 0) {
+                unregisterListenerLocked(listenerBinder);
+            } else {
+                rebuildDispatchTableLocked();
+            }
+        }
+    }
+
     // Removes the listenerBinder from the current state.
     // The function assumes that binder will exist both in listeners and death recipients list.
+    @GuardedBy("mLock")
     private void unregisterListenerLocked(IBinder listenerBinder) {
         boolean found = mListenersMap.remove(listenerBinder) != null;
 
@@ -168,12 +273,38 @@ public class CarPropertyServiceBase extends ICarProperty.Stub
             mDeathRecipientMap.get(listenerBinder).release();
             mDeathRecipientMap.remove(listenerBinder);
         }
+        mPropertyFilters.remove(listenerBinder);
+        rebuildDispatchTableLocked();
 
         if (mListenersMap.isEmpty()) {
             mHal.setListener(null);
         }
     }
 
+    @GuardedBy("mLock")
+    private void rebuildDispatchTableLocked() {
+        ArrayList<ICarPropertyEventListener> allPropertyListeners = new ArrayList<>();
+        SparseArray<ArrayList<PropertySubscription>> subscriptions = new SparseArray<>();
+        for (Map.Entry<IBinder, ICarPropertyEventListener> entry : mListenersMap.entrySet()) {
+            SparseArray<ArraySet<Integer>> filter = mPropertyFilters.get(entry.getKey());
+            if (filter == null) {
+                allPropertyListeners.add(entry.getValue());
+                continue;
+            }
+            for (int i = 0; i < filter.size(); i++) {
+                ArrayList<PropertySubscription> propertySubscriptions =
+                        subscriptions.get(filter.keyAt(i));
+                if (propertySubscriptions == null) {
+                    propertySubscriptions = new ArrayList<>();
+                    subscriptions.put(filter.keyAt(i), propertySubscriptions);
+                }
+                propertySubscriptions.add(
+                        new PropertySubscription(entry.getValue(), filter.valueAt(i)));
+            }
+        }
+        mDispatchTable = new DispatchTable(allPropertyListeners, subscriptions);
+    }
+
     @Override
     public List<CarPropertyConfig> getPropertyList() {
         ICarImpl.assertPermission(mContext, mPermission);
@@ -192,42 +323,101 @@ public class CarPropertyServiceBase extends ICarProperty.Stub
         mHal.setProperty(prop);
     }
 
-    private ICarPropertyEventListener[] getListeners() {
-        synchronized (mLock) {
-            int size = mListenersMap.values().size();
-            return mListenersMap.values().toArray(new ICarPropertyEventListener[size]);
-        }
+    @Override
+    public List<CarPropertyValue> getProperties(int[] props, int[] areas) {
+        ICarImpl.assertPermission(mContext, mPermission);
+        return mHal.getProperties(props, areas);
+    }
+
+    @Override
+    public void setProperties(List<CarPropertyValue> props) {
+        ICarImpl.assertPermission(mContext, mPermission);
+        mHal.setProperties(props);
     }
 
     // Implement PropertyHalListener interface
     @Override
     public void onPropertyChange(CarPropertyEvent event) {
-        for (ICarPropertyEventListener listener : getListeners()) {
-            try {
-                listener.onEvent(event);
-            } catch (RemoteException ex) {
-                // If we could not send a record, its likely the connection snapped. Let the binder
-                // death handle the situation.
-                Log.e(mTag, "onEvent calling failed: " + ex);
-            }
-        }
+        CarPropertyValue value = event.getCarPropertyValue();
+        dispatchEvent(event, value.getPropertyId(), value.getAreaId());
     }
 
     @Override
     public void onPropertySetError(int property, int area) {
-        for (ICarPropertyEventListener listener : getListeners()) {
-            try {
-                listener.onEvent(createErrorEvent(property, area));
-            } catch (RemoteException ex) {
-                // If we could not send a record, its likely the connection snapped. Let the binder
-                // death handle the situation.
-                Log.e(mTag, "onEvent calling failed: " + ex);
+        dispatchEvent(createErrorEvent(property, area), property, area);
+    }
+
+    private void dispatchEvent(CarPropertyEvent event, int property, int area) {
+        DispatchTable table = mDispatchTable;
+        for (ICarPropertyEventListener listener : table.allPropertyListeners) {
+            sendEvent(listener, event);
+        }
+        PropertySubscription[] subscriptions = table.subscriptions.get(property);
+        if (subscriptions != null) {
+            for (PropertySubscription subscription : subscriptions) {
+                if (subscription.matches(area)) {
+                    sendEvent(subscription.listener, event);
+                }
             }
         }
     }
 
+    private void sendEvent(ICarPropertyEventListener listener, CarPropertyEvent event) {
+        try {
+            listener.onEvent(event);
+        } catch (RemoteException ex) {
+            // If we could not send a record, its likely the connection snapped. Let the binder
+            // death handle the situation.
+            Log.e(mTag, "onEvent calling failed: " + ex);
+        }
+    }
+
     private static CarPropertyEvent createErrorEvent(int property, int area) {
         return new CarPropertyEvent(CarPropertyEvent.PROPERTY_EVENT_ERROR,
                 new CarPropertyValue<>(property, area, null));
     }
+
+    /** Areas of one property a listener registered for. */
+    private static class PropertySubscription {
+        final ICarPropertyEventListener listener;
+        final boolean allAreas;
+        /** Sorted. */
+        final int[] areas;
+
+        PropertySubscription(ICarPropertyEventListener listener, ArraySet<Integer> areas) {
+            this.listener = listener;
+            this.allAreas = areas.contains(CarPropertyManagerBase.ALL_AREAS);
+            this.areas = new int[areas.size()];
+            for (int i = 0; i < this.areas.length; i++) {
+                this.areas[i] = areas.valueAt(i);
+            }
+            Arrays.sort(this.areas);
+        }
+
+        boolean matches(int area) {
+            return allAreas || Arrays.binarySearch(areas, area) >= 0;
+        }
+    }
+
+    /** Immutable snapshot of the listeners used for dispatching events without locking. */
+    private static class DispatchTable {
+        static final DispatchTable EMPTY = new DispatchTable(new ArrayList<>(),
+                new SparseArray<>());
+
+        final ICarPropertyEventListener[] allPropertyListeners;
+        /** key: property */
+        final SparseArray<PropertySubscription[]> subscriptions;
+
+        DispatchTable(List<ICarPropertyEventListener> allPropertyListeners,
+                SparseArray<ArrayList<PropertySubscription>> subscriptions) {
+            this.allPropertyListeners = allPropertyListeners.toArray(
+                    new ICarPropertyEventListener[allPropertyListeners.size()]);
+            this.subscriptions = new SparseArray<>(subscriptions.size());
+            for (int i = 0; i < subscriptions.size(); i++) {
+                ArrayList<PropertySubscription> propertySubscriptions = subscriptions.valueAt(i);
+                this.subscriptions.put(subscriptions.keyAt(i), propertySubscriptions.toArray(
+                        new PropertySubscription[propertySubscriptions.size()]));
+            }
+        }
+    }
 }
@@ -18,25 +18,57 @@ package com.android.car;
 
 import android.car.hardware.CarSensorEvent;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.util.Log;
+import android.util.SparseArray;
 
-//TODO add memory pool and recycling
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+
+/**
+ * Creates {@link CarSensorEvent}s from a pool of recycled events.
+ *
+ * <p>Events created here are reference counted. The creator owns one reference and every
+ * additional holder must call {@link #acquire(CarSensorEvent)}. Each holder calls
+ * {@link #returnToPool(CarSensorEvent)} once done and the event is recycled when the last
+ * reference is returned. Events handed out through binder must not be pooled ones, see
+ * {@link #toUnpooledEvent(CarSensorEvent)}, unless they are arguments of a call to a remote
+ * binder, which parcels them before returning. Events which were not created by this factory and
+ * {@code null} are ignored by {@link #acquire(CarSensorEvent)} and
+ * {@link #returnToPool(CarSensorEvent)}.
+ */
 public class CarSensorEventFactory {
+    private static final int MAX_POOLED_EVENTS_PER_SHAPE = 16;
+    /** Shapes are packed into an int key with this many bits per value count. */
+    private static final int SHAPE_BITS = 10;
+    private static final int MAX_POOLED_VALUE_COUNT = (1 << SHAPE_BITS) - 1;
+
+    private static final Object sPoolLock = new Object();
+    /** key: packed float, int and long value counts */
+    @GuardedBy("sPoolLock")
+    private static final SparseArray<ArrayDeque<PooledCarSensorEvent>> sPool =
+            new SparseArray<>();
+    @GuardedBy("sPoolLock")
+    private static long sAllocatedEvents;
+    @GuardedBy("sPoolLock")
+    private static long sRecycledEvents;
 
     public static CarSensorEvent createBooleanEvent(int sensorType, long timestamp,
             boolean value) {
-        CarSensorEvent event = new CarSensorEvent(sensorType, timestamp, 0, 1, 0);
+        CarSensorEvent event = obtain(sensorType, timestamp, 0, 1, 0);
         event.intValues[0] = value ? 1 : 0;
         return event;
     }
 
     public static CarSensorEvent createIntEvent(int sensorType, long timestamp, int value) {
-        CarSensorEvent event = new CarSensorEvent(sensorType, timestamp, 0, 1, 0);
+        CarSensorEvent event = obtain(sensorType, timestamp, 0, 1, 0);
         event.intValues[0] = value;
         return event;
     }
 
     public static CarSensorEvent createFloatEvent(int sensorType, long timestamp, float value) {
-        CarSensorEvent event = new CarSensorEvent(sensorType, timestamp, 1, 0, 0);
+        CarSensorEvent event = obtain(sensorType, timestamp, 1, 0, 0);
         event.floatValues[0] = value;
         return event;
     }
@@ -46,8 +78,7 @@ public class CarSensorEventFactory {
         int numFloats = v.value.floatValues.size();
         int numInts = v.value.int32Values.size();
         int numLongs = v.value.int64Values.size();
-        CarSensorEvent event = new CarSensorEvent(sensorType, timestamp, numFloats, numInts,
-            numLongs);
+        CarSensorEvent event = obtain(sensorType, timestamp, numFloats, numInts, numLongs);
         // Copy arraylist elements into final arrays
         for (int i=0; i<numFloats; i++) {
             event.floatValues[i] = v.value.floatValues.get(i);
@@ -61,7 +92,103 @@ public class CarSensorEventFactory {
         return event;
     }
 
+    /** Adds a reference to a pooled event. */
+    public static void acquire(CarSensorEvent event) {
+        if (!(event instanceof PooledCarSensorEvent)) {
+            return;
+        }
+        synchronized (sPoolLock) {
+            ((PooledCarSensorEvent) event).mRefCount++;
+        }
+    }
+
+    /** Drops a reference to a pooled event and recycles it once no reference is left. */
     public static void returnToPool(CarSensorEvent event) {
-        //TODO
+        if (!(event instanceof PooledCarSensorEvent)) {
+            return;
+        }
+        PooledCarSensorEvent pooled = (PooledCarSensorEvent) event;
+        synchronized (sPoolLock) {
+            if (pooled.mRefCount <= 0) {
+                Log.w(CarLog.TAG_SENSOR, "Sensor event returned to pool twice: " + event);
+                return;
+            }
+            if (--pooled.mRefCount > 0) {
+                return;
+            }
+            ArrayDeque<PooledCarSensorEvent> events = sPool.get(pooled.mShape);
+            if (events == null) {
+                events = new ArrayDeque<>(MAX_POOLED_EVENTS_PER_SHAPE);
+                sPool.put(pooled.mShape, events);
+            }
+            if (events.size() < MAX_POOLED_EVENTS_PER_SHAPE) {
+                events.push(pooled);
+            }
+        }
+    }
+
+    /**
+     * Returns an event that is safe to keep or send over binder after all references are
+     * returned: a copy for pooled events, the event itself otherwise.
+     */
+    public static CarSensorEvent toUnpooledEvent(CarSensorEvent event) {
+        if (!(event instanceof PooledCarSensorEvent)) {
+            return event;
+        }
+        CarSensorEvent copy = new CarSensorEvent(event.sensorType, event.timestamp,
+                event.floatValues.length, event.intValues.length, event.longValues.length);
+        System.arraycopy(event.floatValues, 0, copy.floatValues, 0, event.floatValues.length);
+        System.arraycopy(event.intValues, 0, copy.intValues, 0, event.intValues.length);
+        System.arraycopy(event.longValues, 0, copy.longValues, 0, event.longValues.length);
+        return copy;
+    }
+
+    public static void dump(PrintWriter writer) {
+        synchronized (sPoolLock) {
+            int pooled = 0;
+            for (int i = 0; i < sPool.size(); i++) {
+                pooled += sPool.valueAt(i).size();
+            }
+            writer.println("sensor event pool, allocated:" + sAllocatedEvents
+                    + " recycled:" + sRecycledEvents + " pooled:" + pooled
+                    + " shapes:" + sPool.size());
+        }
+    }
+
+    private static CarSensorEvent obtain(int sensorType, long timestamp, int numFloats,
+            int numInts, int numLongs) {
+        if (numFloats > MAX_POOLED_VALUE_COUNT || numInts > MAX_POOLED_VALUE_COUNT
+                || numLongs > MAX_POOLED_VALUE_COUNT) {
+            return new CarSensorEvent(sensorType, timestamp, numFloats, numInts, numLongs);
+        }
+        int shape = (numFloats << (2 * SHAPE_BITS)) | (numInts << SHAPE_BITS) | numLongs;
+        PooledCarSensorEvent event = null;
+        synchronized (sPoolLock) {
+            ArrayDeque<PooledCarSensorEvent> events = sPool.get(shape);
+            if (events != null) {
+                event = events.poll();
+            }
+            if (event == null) {
+                sAllocatedEvents++;
+                event = new PooledCarSensorEvent(shape, numFloats, numInts, numLongs);
+            } else {
+                sRecycledEvents++;
+            }
+            event.mRefCount = 1;
+        }
+        event.sensorType = sensorType;
+        event.timestamp = timestamp;
+        return event;
+    }
+
+    private static class PooledCarSensorEvent extends CarSensorEvent {
+        private final int mShape;
+        @GuardedBy("sPoolLock")
+        private int mRefCount;
+
+        private PooledCarSensorEvent(int shape, int numFloats, int numInts, int numLongs) {
+            super(0, 0, numFloats, numInts, numLongs);
+            mShape = shape;
+        }
     }
 }
@@ -16,6 +16,7 @@
 
 package com.android.car;
 
+import android.annotation.Nullable;
 import android.car.Car;
 import android.car.hardware.CarSensorConfig;
 import android.car.hardware.CarSensorEvent;
@@ -29,7 +30,6 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
-import android.os.Message;
 import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
@@ -48,8 +48,10 @@ import com.android.car.hal.SensorHalServiceBase;
 import com.android.internal.annotations.GuardedBy;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -88,31 +90,40 @@ public class CarSensorService extends ICarSensor.Stub
         }
     }
 
-    /**
-     * When set, sensor service sets its own dispatching rate limit.
-     * VehicleNetworkService is already doing this, so not necessary to set it for now.
-     */
-    private static final boolean ENABLE_DISPATCHING_LIMIT = false;
-
     /** {@link #mSensorLock} is not waited forever for handling disconnection */
     private static final long MAX_SENSOR_LOCK_WAIT_MS = 1000;
 
-    /** lock to access sensor structures */
+    /**
+     * lock to register and unregister clients. Sensor events are dispatched without holding it,
+     * from {@link #mSensorListenersSnapshot} and {@link #mSensorRecords}.
+     */
     private final ReentrantLock mSensorLock = new ReentrantLock();
-    /** hold clients callback  */
+    /** hold clients callback, key: binder of the client listener */
     @GuardedBy("mSensorLock")
-    private final LinkedList<SensorClient> mClients = new LinkedList<>();
+    private final HashMap<IBinder, SensorClient> mClients = new HashMap<>();
 
     /** key: sensor type. */
     @GuardedBy("mSensorLock")
     private final SparseArray<Listeners<SensorClient>> mSensorListeners = new SparseArray<>();
-    /** key: sensor type. */
-    @GuardedBy("mSensorLock")
-    private final SparseArray<SensorRecord> mSensorRecords = new SparseArray<>();
+    /**
+     * Copy of {@link #mSensorListeners} which is never modified, so it can be read without
+     * locking. Replaced whenever a sensor type gets its first or loses its last listener, changes
+     * to the clients of a sensor type are visible through the copy-on-write {@link Listeners}.
+     */
+    private volatile SparseArray<Listeners<SensorClient>> mSensorListenersSnapshot =
+            new SparseArray<>();
+    /**
+     * key: sensor type. Populated by {@link #init()} and not modified afterwards, so it can be
+     * read without locking. Each record guards its last event by itself.
+     */
+    private volatile SparseArray<SensorRecord> mSensorRecords = new SparseArray<>();
+
+    /** Scratch space of {@link #processSensorData(List)}, only used by {@link #mHandlerThread}. */
+    private final DispatchBuffer mDispatchBuffer = new DispatchBuffer();
 
     private final SensorHalService mSensorHal;
     private int[] mCarProvidedSensors;
-    private int[] mSupportedSensors;
+    private volatile int[] mSupportedSensors;
     private final AtomicBoolean mSensorDiscovered = new AtomicBoolean(false);
 
     private final Context mContext;
@@ -127,14 +138,9 @@ public class CarSensorService extends ICarSensor.Stub
 
     public CarSensorService(Context context, SensorHalService sensorHal) {
         mContext = context;
-        if (ENABLE_DISPATCHING_LIMIT) {
-            mHandlerThread = new HandlerThread("SENSOR", Process.THREAD_PRIORITY_AUDIO);
-            mHandlerThread.start();
-            mSensorDispatchHandler = new SensorDispatchHandler(mHandlerThread.getLooper());
-        } else {
-            mHandlerThread = null;
-            mSensorDispatchHandler = null;
-        }
+        mHandlerThread = new HandlerThread("SENSOR", Process.THREAD_PRIORITY_AUDIO);
+        mHandlerThread.start();
+        mSensorDispatchHandler = new SensorDispatchHandler(mHandlerThread.getLooper());
         // This triggers sensor hal init as well.
         mSensorHal = sensorHal;
         mDrivingStatePolicy = new DrivingStatePolicy(context, this);
@@ -147,13 +153,16 @@ public class CarSensorService extends ICarSensor.Stub
         try {
             mSensorHal.registerSensorListener(this);
             mCarProvidedSensors = mSensorHal.getSupportedSensors();
-            mSupportedSensors = refreshSupportedSensorsLocked();
+            SparseArray<SensorRecord> records = new SparseArray<>();
+            mSupportedSensors = refreshSupportedSensorsLocked(records);
 
-            addNewSensorRecordLocked(CarSensorManager.SENSOR_TYPE_DRIVING_STATUS,
+            addNewSensorRecord(records, CarSensorManager.SENSOR_TYPE_DRIVING_STATUS,
                     getInitialDrivingStatus());
-            addNewSensorRecordLocked(CarSensorManager.SENSOR_TYPE_NIGHT, getInitialNightMode());
-            addNewSensorRecordLocked(CarSensorManager.SENSOR_TYPE_IGNITION_STATE,
+            addNewSensorRecord(records, CarSensorManager.SENSOR_TYPE_NIGHT,
+                    getInitialNightMode());
+            addNewSensorRecord(records, CarSensorManager.SENSOR_TYPE_IGNITION_STATE,
                 getInitialIgnitionState());
+            mSensorRecords = records;
 
             notifyDefaultPoliciesLocked();
         } finally {
@@ -205,17 +214,17 @@ public class CarSensorService extends ICarSensor.Stub
         return event;
     }
 
-    private void addNewSensorRecordLocked(int type, CarSensorEvent event) {
+    /** The record takes over the reference of the caller to the given event. */
+    private static void addNewSensorRecord(SparseArray<SensorRecord> records, int type,
+            CarSensorEvent event) {
         SensorRecord record = new SensorRecord();
         record.lastEvent = event;
-        mSensorRecords.put(type,record);
+        records.put(type, record);
     }
 
     @Override
     public void release() {
-        if (mHandlerThread != null) {
-            mHandlerThread.quit();
-        }
+        mHandlerThread.quit();
         tryHoldSensorLock();
         try {
             if (mUseDefaultDrivingPolicy) {
@@ -229,7 +238,8 @@ public class CarSensorService extends ICarSensor.Stub
                 listener.release();
             }
             mSensorListeners.clear();
-            mSensorRecords.clear();
+            publishSensorListenersLocked();
+            mSensorRecords = new SparseArray<>();
             mClients.clear();
         } finally {
             releaseSensorLockSafely();
@@ -259,67 +269,66 @@ public class CarSensorService extends ICarSensor.Stub
         }
     }
 
-    private void processSensorData(List<CarSensorEvent> events) {
-        ArrayMap<SensorClient, List<CarSensorEvent>> eventsByClient = new ArrayMap<>();
+    @GuardedBy("mSensorLock")
+    private void publishSensorListenersLocked() {
+        mSensorListenersSnapshot = mSensorListeners.clone();
+    }
 
-        mSensorLock.lock();
-        for (CarSensorEvent event: events) {
-            SensorRecord record = mSensorRecords.get(event.sensorType);
-            if (record != null) {
-                if (record.lastEvent == null) {
-                    record.lastEvent = event;
-                } else if (record.lastEvent.timestamp < event.timestamp) {
-                    record.lastEvent = event;
-                    //TODO recycle event, bug: 32094595
-                } else { // wrong timestamp, throw away this.
-                    //TODO recycle new event, bug: 32094595
-                    continue;
-                }
+    private void processSensorData(List<CarSensorEvent> events) {
+        SparseArray<SensorRecord> records = mSensorRecords;
+        SparseArray<Listeners<SensorClient>> sensorListeners = mSensorListenersSnapshot;
+        // In-process listeners like DrivingStatePolicy report back through onSensorEvents(),
+        // which only queues, so this is never re-entered.
+        DispatchBuffer buffer = mDispatchBuffer;
+
+        for (CarSensorEvent event : events) {
+            SensorRecord record = records.get(event.sensorType);
+            if (record == null) {
+                continue;
+            }
+            if (!record.updateLastEvent(event)) {
+                // wrong timestamp, throw away this. The caller owns the event and returns it to
+                // the pool.
+                continue;
+            }
+            Listeners<SensorClient> listeners = sensorListeners.get(event.sensorType);
+            if (listeners == null) {
+                continue;
+            }
 
-                Listeners<SensorClient> listeners = mSensorListeners.get(event.sensorType);
-                if (listeners == null) {
+            // Only continuous sensors are downsampled, every on-change event matters.
+            boolean decimate = isContinuousSensor(event.sensorType);
+            for (ClientWithRate<SensorClient> clientWithRate : listeners.getClients()) {
+                if (decimate && !clientWithRate.shouldDispatch(event.timestamp)) {
                     continue;
                 }
-
-                for (ClientWithRate<SensorClient> clientWithRate : listeners.getClients()) {
-                    SensorClient client = clientWithRate.getClient();
-                    List<CarSensorEvent> clientEvents = eventsByClient.get(client);
-                    if (clientEvents == null) {
-                        clientEvents = new LinkedList<>();
-                        eventsByClient.put(client, clientEvents);
-                    }
-                    clientEvents.add(event);
-                }
+                buffer.add(clientWithRate.getClient(), event);
             }
         }
-        mSensorLock.unlock();
-
-        for (ArrayMap.Entry<SensorClient, List<CarSensorEvent>> entry : eventsByClient.entrySet()) {
-            SensorClient client = entry.getKey();
-            List<CarSensorEvent> clientEvents = entry.getValue();
 
-            client.dispatchSensorUpdate(clientEvents);
+        try {
+            for (int i = 0; i < buffer.eventsByClient.size(); i++) {
+                buffer.eventsByClient.keyAt(i).dispatchSensorUpdate(
+                        buffer.eventsByClient.valueAt(i));
+            }
+        } finally {
+            buffer.clear();
         }
     }
 
     /**
-     * Received sensor data from car.
+     * Received sensor data from car. Events are only borrowed for the duration of the call, the
+     * service acquires a reference to events it keeps. Events are queued and dispatched to
+     * clients from {@link #mHandlerThread}, so the caller is never blocked by slow clients.
      */
     @Override
     public void onSensorEvents(List<CarSensorEvent> events) {
-        if (ENABLE_DISPATCHING_LIMIT) {
-            mSensorDispatchHandler.handleSensorEvents(events);
-        } else {
-            processSensorData(events);
-        }
+        mSensorDispatchHandler.handleSensorEvents(events);
     }
 
     @Override
     public int[] getSupportedSensors() {
-        mSensorLock.lock();
-        int[] supportedSensors = mSupportedSensors;
-        mSensorLock.unlock();
-        return supportedSensors;
+        return mSupportedSensors;
     }
 
     @Override
@@ -329,9 +338,11 @@ public class CarSensorService extends ICarSensor.Stub
         SensorRecord sensorRecord = null;
         SensorClient sensorClient = null;
         Integer oldRate = null;
+        int newRate = rate;
         Listeners<SensorClient> sensorListeners = null;
         mSensorLock.lock();
         try {
+            IBinder binder = listener.asBinder();
             sensorRecord = mSensorRecords.get(sensorType);
             if (sensorRecord == null) {
                 if (Log.isLoggable(CarLog.TAG_SENSOR, Log.INFO)) {
@@ -354,29 +365,35 @@ public class CarSensorService extends ICarSensor.Stub
                 Log.d(CarLog.TAG_SENSOR, "registerOrUpdateSensorListener " + sensorType + " " +
                         listener);
             }
-            sensorClient = findSensorClientLocked(listener);
+            sensorClient = mClients.get(binder);
             ClientWithRate<SensorClient> sensorClientWithRate = null;
             sensorListeners = mSensorListeners.get(sensorType);
             if (sensorClient == null) {
                 sensorClient = new SensorClient(listener);
                 try {
-                    listener.asBinder().linkToDeath(sensorClient, 0);
+                    binder.linkToDeath(sensorClient, 0);
                 } catch (RemoteException e) {
                     if (Log.isLoggable(CarLog.TAG_SENSOR, Log.INFO)) {
                         Log.i(CarLog.TAG_SENSOR, "Adding listener failed.");
                     }
                     return false;
                 }
-                mClients.add(sensorClient);
+                mClients.put(binder, sensorClient);
             }
-            // If we have a cached event for this sensor, send the event.
-            SensorRecord record = mSensorRecords.get(sensorType);
-            if (record != null && record.lastEvent != null) {
-                sensorClient.dispatchSensorUpdate(Lists.newArrayList(record.lastEvent));
+            // If we have a cached event for this sensor, send the event. This happens before the
+            // client is added to the listeners, so that it cannot receive a newer event first.
+            CarSensorEvent lastEvent = sensorRecord.acquireLastEvent();
+            if (lastEvent != null) {
+                try {
+                    sensorClient.dispatchSensorUpdate(Lists.newArrayList(lastEvent));
+                } finally {
+                    CarSensorEventFactory.returnToPool(lastEvent);
+                }
             }
             if (sensorListeners == null) {
                 sensorListeners = new Listeners<>(rate);
                 mSensorListeners.put(sensorType, sensorListeners);
+                publishSensorListenersLocked();
                 shouldStartSensors = true;
             } else {
                 oldRate = sensorListeners.getRate();
@@ -388,17 +405,18 @@ public class CarSensorService extends ICarSensor.Stub
             } else {
                 sensorClientWithRate.setRate(rate);
             }
-            if (sensorListeners.getRate() > rate) {
-                sensorListeners.setRate(rate);
-                shouldStartSensors = sensorSupportRate(sensorType);
+            // The rate of this client may have become faster or slower.
+            if (sensorListeners.updateRate()) {
+                shouldStartSensors = shouldStartSensors || sensorSupportRate(sensorType);
             }
+            newRate = sensorListeners.getRate();
             sensorClient.addSensor(sensorType);
         } finally {
             mSensorLock.unlock();
         }
         // start sensor outside lock as it can take time.
         if (shouldStartSensors) {
-            if (!startSensor(sensorRecord, sensorType, rate)) {
+            if (!startSensor(sensorRecord, sensorType, newRate)) {
                 // failed. so remove from active sensor list.
                 mSensorLock.lock();
                 try {
@@ -407,6 +425,7 @@ public class CarSensorService extends ICarSensor.Stub
                         sensorListeners.setRate(oldRate);
                     } else {
                         mSensorListeners.remove(sensorType);
+                        publishSensorListenersLocked();
                     }
                 } finally {
                     mSensorLock.unlock();
@@ -417,12 +436,27 @@ public class CarSensorService extends ICarSensor.Stub
         return true;
     }
 
-    private boolean sensorSupportRate(int sensorType) {
+    /**
+     * Whether the sensor reports continuously and thus honors the requested rate. Also the
+     * source of truth for {@link #sensorSupportRate(int)}, without its logging of unknown types
+     * as this is called for every dispatched event.
+     */
+    static boolean isContinuousSensor(int sensorType) {
         switch (sensorType) {
             case CarSensorManager.SENSOR_TYPE_CAR_SPEED:
             case CarSensorManager.SENSOR_TYPE_RPM:
             case CarSensorManager.SENSOR_TYPE_WHEEL_TICK_DISTANCE:
                 return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean sensorSupportRate(int sensorType) {
+        if (isContinuousSensor(sensorType)) {
+            return true;
+        }
+        switch (sensorType) {
             case CarSensorManager.SENSOR_TYPE_ODOMETER:
             case CarSensorManager.SENSOR_TYPE_FUEL_LEVEL:
             case CarSensorManager.SENSOR_TYPE_PARKING_BRAKE:
@@ -475,10 +509,13 @@ public class CarSensorService extends ICarSensor.Stub
         return permission;
     }
 
+    /**
+     * Starts the sensor with the given rate, or updates the rate of an already started sensor.
+     * The HAL sampling rate is derived from the rate by
+     * {@link SensorHalServiceBase#fixSamplingRateForProperty}, sensors reporting on change
+     * ignore it.
+     */
     private boolean startSensor(SensorRecord record, int sensorType, int rate) {
-        //TODO handle sensor rate properly. bug: 32095903
-        //Some sensors which report only when there is change should be always set with maximum
-        //rate. For now, set every sensor to the maximum.
         if (Log.isLoggable(CarLog.TAG_SENSOR, Log.VERBOSE)) {
             Log.v(CarLog.TAG_SENSOR, "startSensor " + sensorType + " with rate " + rate);
         }
@@ -488,11 +525,12 @@ public class CarSensorService extends ICarSensor.Stub
                 Log.w(CarLog.TAG_SENSOR, "Sensor channel not available.");
                 return false;
             }
-            if (record.enabled) {
+            if (record.enabled && record.rate == rate) {
                 return true;
             }
-            if (sensorHal.requestSensorStart(sensorType, 0)) {
+            if (sensorHal.requestSensorStart(sensorType, rate)) {
                 record.enabled = true;
+                record.rate = rate;
                 return true;
             }
         }
@@ -516,7 +554,8 @@ public class CarSensorService extends ICarSensor.Stub
                 }
                 return;
             }
-            SensorClient sensorClient = findSensorClientLocked(listener);
+            IBinder binder = listener.asBinder();
+            SensorClient sensorClient = mClients.get(binder);
             if (sensorClient == null) {
                 // never registered or already unregistered.
                 if (Log.isLoggable(CarLog.TAG_SENSOR, Log.DEBUG)) {
@@ -527,7 +566,7 @@ public class CarSensorService extends ICarSensor.Stub
             sensorClient.removeSensor(sensorType);
             if (sensorClient.getNumberOfActiveSensor() == 0) {
                 sensorClient.release();
-                mClients.remove(sensorClient);
+                mClients.remove(binder);
             }
             Listeners<SensorClient> sensorListeners = mSensorListeners.get(sensorType);
             if (sensorListeners == null) {
@@ -549,6 +588,7 @@ public class CarSensorService extends ICarSensor.Stub
             if (sensorListeners.getNumberOfClients() == 0) {
                 shouldStopSensor = true;
                 mSensorListeners.remove(sensorType);
+                publishSensorListenersLocked();
             } else if (sensorListeners.updateRate()) { // rate changed
                 newRate = sensorListeners.getRate();
                 shouldRestartSensor = sensorSupportRate(sensorType);
@@ -597,7 +637,7 @@ public class CarSensorService extends ICarSensor.Stub
         record.enabled = false;
         // make lastEvent invalid as old data can be sent to client when subscription is restarted
         // later.
-        record.lastEvent = null;
+        record.setLastEvent(null);
         if (Log.isLoggable(CarLog.TAG_SENSOR, Log.DEBUG)) {
             Log.d(CarLog.TAG_SENSOR, "stopSensor requestStop " + sensorType);
         }
@@ -627,20 +667,29 @@ public class CarSensorService extends ICarSensor.Stub
 
     @Override
     public CarSensorEvent getLatestSensorEvent(int sensorType) {
-        SensorRecord record = null;
-        mSensorLock.lock();
+        CarSensorEvent event = acquireLatestSensorEvent(sensorType);
+        if (event == null) {
+            return null;
+        }
         try {
-            record = mSensorRecords.get(sensorType);
+            // The record may recycle its event before the reply is written.
+            return CarSensorEventFactory.toUnpooledEvent(event);
         } finally {
-            mSensorLock.unlock();
-        }
-        if (record != null) {
-            return record.lastEvent;
+            CarSensorEventFactory.returnToPool(event);
         }
-        return null;
     }
 
-    private int[] refreshSupportedSensorsLocked() {
+    /**
+     * Same as {@link #getLatestSensorEvent(int)} but without copying. The caller must return the
+     * event with {@link CarSensorEventFactory#returnToPool(CarSensorEvent)} when done.
+     */
+    @Nullable
+    CarSensorEvent acquireLatestSensorEvent(int sensorType) {
+        SensorRecord record = mSensorRecords.get(sensorType);
+        return record == null ? null : record.acquireLastEvent();
+    }
+
+    private int[] refreshSupportedSensorsLocked(SparseArray<SensorRecord> records) {
         int numCarSensors = (mCarProvidedSensors == null) ? 0 : mCarProvidedSensors.length;
         for (int i = 0; i < numCarSensors; i++) {
             int sensor = mCarProvidedSensors[i];
@@ -672,9 +721,9 @@ public class CarSensorService extends ICarSensor.Stub
         for (int i = 0; i < numCarSensors; i++) {
             int sensor = mCarProvidedSensors[i];
 
-            if (mSensorRecords.get(sensor) == null) {
+            if (records.get(sensor) == null) {
                 SensorRecord record = new SensorRecord();
-                mSensorRecords.put(sensor, record);
+                records.put(sensor, record);
             }
             supportedSensors[index] = sensor;
             index++;
@@ -694,22 +743,6 @@ public class CarSensorService extends ICarSensor.Stub
         return false;
     }
 
-    /**
-     * Find SensorClient from client list and return it.
-     * This should be called with mClients locked.
-     * @param listener
-     * @return null if not found.
-     */
-    private SensorClient findSensorClientLocked(ICarSensorEventListener listener) {
-        IBinder binder = listener.asBinder();
-        for (SensorClient sensorClient : mClients) {
-            if (sensorClient.isHoldingListenerBinder(binder)) {
-                return sensorClient;
-            }
-        }
-        return null;
-    }
-
     private void removeClient(SensorClient sensorClient) {
         mSensorLock.lock();
         try {
@@ -717,94 +750,127 @@ public class CarSensorService extends ICarSensor.Stub
                 unregisterSensorListener(sensor,
                         sensorClient.getICarSensorEventListener());
             }
-            mClients.remove(sensorClient);
+            mClients.remove(sensorClient.getICarSensorEventListener().asBinder());
         } finally {
             mSensorLock.unlock();
         }
     }
 
+    /**
+     * Queues sensor events and dispatches them from {@link #mHandlerThread} at most every
+     * {@link #SENSOR_DISPATCH_MIN_INTERVAL_MS}. Any number of batches queued before dispatching
+     * share a single wakeup. Events that do not fit in the queue wait in an overflow list, so
+     * that none is dropped.
+     */
     private class SensorDispatchHandler extends Handler {
         private static final long SENSOR_DISPATCH_MIN_INTERVAL_MS = 16; // over 60Hz
+        private static final int SENSOR_DISPATCH_QUEUE_CAPACITY = 256;
+        /**
+         * When set, only the most recent event of each continuous sensor is dispatched in each
+         * batch. Off, as clients at the fastest rate then miss events.
+         */
+        private static final boolean COMPACT_DISPATCH_QUEUE = false;
 
-        private static final int MSG_SENSOR_DATA = 0;
-
-        private long mLastSensorDispatchTime = -1;
-        private int mFreeListIndex = 0;
-        private final LinkedList<CarSensorEvent>[] mSensorDataList = new LinkedList[2];
+        private final SensorEventRingBuffer mQueue = new SensorEventRingBuffer(
+                SENSOR_DISPATCH_QUEUE_CAPACITY, COMPACT_DISPATCH_QUEUE);
+        /**
+         * Sensor HAL and logical sensors report events from different threads, they are
+         * serialized here so that the queue only sees one producer.
+         */
+        private final Object mProducerLock = new Object();
+        /**
+         * Events which did not fit in {@link #mQueue}. Once not empty, all new events go here
+         * until the consumer takes them, so that they stay in order.
+         */
+        @GuardedBy("mProducerLock")
+        private final ArrayList<CarSensorEvent> mOverflow = new ArrayList<>();
+        private volatile boolean mHasOverflow;
+        private final AtomicBoolean mDispatchScheduled = new AtomicBoolean(false);
+        private final Runnable mDispatchRunnable = this::doHandleSensorData;
+        /** Only accessed from the handler thread. */
+        private final ArrayList<CarSensorEvent> mDispatchList =
+                new ArrayList<>(SENSOR_DISPATCH_QUEUE_CAPACITY);
+
+        private volatile long mLastSensorDispatchTime = -1;
+        private volatile long mDispatchCount;
 
         private SensorDispatchHandler(Looper looper) {
             super(looper);
-            for (int i = 0; i < mSensorDataList.length; i++) {
-                mSensorDataList[i] = new LinkedList<CarSensorEvent>();
-            }
-        }
-
-        private synchronized void handleSensorEvents(List<CarSensorEvent> data) {
-            LinkedList<CarSensorEvent> list = mSensorDataList[mFreeListIndex];
-            list.addAll(data);
-            requestDispatchLocked();
         }
 
-        private synchronized void handleSensorEvent(CarSensorEvent event) {
-            LinkedList<CarSensorEvent> list = mSensorDataList[mFreeListIndex];
-            list.add(event);
-            requestDispatchLocked();
+        private void handleSensorEvents(List<CarSensorEvent> data) {
+            synchronized (mProducerLock) {
+                for (CarSensorEvent event : data) {
+                    // Keep events alive until dispatched.
+                    CarSensorEventFactory.acquire(event);
+                    if (mHasOverflow || !mQueue.offer(event)) {
+                        mOverflow.add(event);
+                        mHasOverflow = true;
+                    }
+                }
+            }
+            requestDispatch();
         }
 
-        private void requestDispatchLocked() {
-            Message msg = obtainMessage(MSG_SENSOR_DATA);
-            long now = SystemClock.uptimeMillis();
-            long delta = now - mLastSensorDispatchTime;
+        private void requestDispatch() {
+            if (!mDispatchScheduled.compareAndSet(false, true)) {
+                return; // Pending dispatch will pick up the new events.
+            }
+            long delta = SystemClock.uptimeMillis() - mLastSensorDispatchTime;
             if (delta > SENSOR_DISPATCH_MIN_INTERVAL_MS) {
-                sendMessage(msg);
+                post(mDispatchRunnable);
             } else {
-                sendMessageDelayed(msg, SENSOR_DISPATCH_MIN_INTERVAL_MS - delta);
-            }
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MSG_SENSOR_DATA:
-                    doHandleSensorData();
-                    break;
-                default:
-                    break;
+                postDelayed(mDispatchRunnable, SENSOR_DISPATCH_MIN_INTERVAL_MS - delta);
             }
         }
 
         private void doHandleSensorData() {
-            List<CarSensorEvent> listToDispatch = null;
-            synchronized (this) {
-                mLastSensorDispatchTime = SystemClock.uptimeMillis();
-                int nonFreeListIndex = mFreeListIndex ^ 0x1;
-                List<CarSensorEvent> nonFreeList = mSensorDataList[nonFreeListIndex];
-                List<CarSensorEvent> freeList = mSensorDataList[mFreeListIndex];
-                if (nonFreeList.size() > 0) {
-                    Log.w(CarLog.TAG_SENSOR, "non free list not empty");
-                    // copy again, but this should not be normal case
-                    nonFreeList.addAll(freeList);
-                    listToDispatch = nonFreeList;
-                    freeList.clear();
-                } else if (freeList.size() > 0) {
-                    listToDispatch = freeList;
-                    mFreeListIndex = nonFreeListIndex;
+            mLastSensorDispatchTime = SystemClock.uptimeMillis();
+            // Cleared before draining, so that events queued after the drain schedule a new
+            // dispatch.
+            mDispatchScheduled.set(false);
+            mQueue.drainTo(mDispatchList);
+            if (mHasOverflow) {
+                synchronized (mProducerLock) {
+                    // Events queued before the overflow come first.
+                    mQueue.drainTo(mDispatchList);
+                    mDispatchList.addAll(mOverflow);
+                    mOverflow.clear();
+                    mHasOverflow = false;
                 }
             }
-            // leave this part outside lock so that time-taking dispatching can be done without
-            // blocking sensor event notification.
-            if (listToDispatch != null) {
-                processSensorData(listToDispatch);
-                listToDispatch.clear();
+            if (mDispatchList.isEmpty()) {
+                return;
+            }
+            mDispatchCount++;
+            try {
+                processSensorData(mDispatchList);
+            } finally {
+                for (int i = 0; i < mDispatchList.size(); i++) {
+                    CarSensorEventFactory.returnToPool(mDispatchList.get(i));
+                }
+                mDispatchList.clear();
             }
         }
 
+        private void dump(PrintWriter writer) {
+            synchronized (mProducerLock) {
+                writer.print("dispatches:" + mDispatchCount + " overflow:" + mOverflow.size()
+                        + " queue ");
+            }
+            mQueue.dump(writer);
+        }
     }
 
     /** internal instance for pending client request */
     private class SensorClient implements Listeners.IListener {
         /** callback for sensor events */
         private final ICarSensorEventListener mListener;
+        /**
+         * Calls to in-process listeners are not parceled, so they would keep pooled events the
+         * pool later rewrites.
+         */
+        private final boolean mInProcess;
         private final SparseBooleanArray mActiveSensors = new SparseBooleanArray();
 
         /** when false, it is already released */
@@ -812,6 +878,7 @@ public class CarSensorService extends ICarSensor.Stub
 
         SensorClient(ICarSensorEventListener listener) {
             this.mListener = listener;
+            mInProcess = listener.asBinder() instanceof Binder;
         }
 
         @Override
@@ -866,7 +933,7 @@ public class CarSensorService extends ICarSensor.Stub
             }
             if (mActive) {
                 try {
-                    mListener.onSensorChanged(events);
+                    mListener.onSensorChanged(mInProcess ? toUnpooledEvents(events) : events);
                 } catch (RemoteException e) {
                     //ignore. crash will be handled by death handler
                 }
@@ -877,6 +944,14 @@ public class CarSensorService extends ICarSensor.Stub
             }
         }
 
+        private List<CarSensorEvent> toUnpooledEvents(List<CarSensorEvent> events) {
+            ArrayList<CarSensorEvent> copies = new ArrayList<>(events.size());
+            for (int i = 0; i < events.size(); i++) {
+                copies.add(CarSensorEventFactory.toUnpooledEvent(events.get(i)));
+            }
+            return copies;
+        }
+
         @Override
         public void release() {
             if (mActive) {
@@ -887,11 +962,75 @@ public class CarSensorService extends ICarSensor.Stub
         }
     }
 
+    /** Events of one {@link #processSensorData(List)} call, grouped by client. */
+    private static class DispatchBuffer {
+        final ArrayMap<SensorClient, ArrayList<CarSensorEvent>> eventsByClient = new ArrayMap<>();
+        private final ArrayList<ArrayList<CarSensorEvent>> mFreeLists = new ArrayList<>();
+
+        void add(SensorClient client, CarSensorEvent event) {
+            ArrayList<CarSensorEvent> clientEvents = eventsByClient.get(client);
+            if (clientEvents == null) {
+                int free = mFreeLists.size();
+                clientEvents = free > 0 ? mFreeLists.remove(free - 1) : new ArrayList<>();
+                eventsByClient.put(client, clientEvents);
+            }
+            clientEvents.add(event);
+        }
+
+        void clear() {
+            for (int i = 0; i < eventsByClient.size(); i++) {
+                ArrayList<CarSensorEvent> clientEvents = eventsByClient.valueAt(i);
+                clientEvents.clear();
+                mFreeLists.add(clientEvents);
+            }
+            eventsByClient.clear();
+        }
+    }
+
     private static class SensorRecord {
-        /** Record the lastly received sensor event */
+        /** Record the lastly received sensor event. Holds a reference if it is pooled. */
+        @GuardedBy("this")
         CarSensorEvent lastEvent = null;
         /** sensor was enabled by at least one client */
         boolean enabled = false;
+        /** rate the sensor was started with, valid only when enabled */
+        int rate = CarSensorManager.SENSOR_RATE_NORMAL;
+
+        /**
+         * Replaces last event if the given event is more recent.
+         *
+         * @return false if the given event is older than the last event.
+         */
+        synchronized boolean updateLastEvent(CarSensorEvent event) {
+            if (lastEvent != null && lastEvent.timestamp >= event.timestamp) {
+                return false;
+            }
+            setLastEvent(event);
+            return true;
+        }
+
+        /**
+         * Returns last event with a reference acquired for the caller, who must return it with
+         * {@link CarSensorEventFactory#returnToPool(CarSensorEvent)}.
+         */
+        @Nullable
+        synchronized CarSensorEvent acquireLastEvent() {
+            if (lastEvent != null) {
+                CarSensorEventFactory.acquire(lastEvent);
+            }
+            return lastEvent;
+        }
+
+        /** Replaces last event, acquiring the new one and returning the old one to the pool. */
+        synchronized void setLastEvent(CarSensorEvent event) {
+            if (event != null) {
+                CarSensorEventFactory.acquire(event);
+            }
+            if (lastEvent != null) {
+                CarSensorEventFactory.returnToPool(lastEvent);
+            }
+            lastEvent = event;
+        }
     }
 
     @Override
@@ -899,16 +1038,19 @@ public class CarSensorService extends ICarSensor.Stub
         writer.println("*CarSensorService*");
         writer.println("supported sensors:" + Arrays.toString(mSupportedSensors));
         writer.println("**last events for sensors**");
-        if (mSensorRecords != null) {
+        SparseArray<SensorRecord> records = mSensorRecords;
+        if (records != null) {
             try {
-                int sensorRecordSize = mSensorRecords.size();
+                int sensorRecordSize = records.size();
                 for (int i = 0; i < sensorRecordSize; i++) {
-                    int sensor = mSensorRecords.keyAt(i);
-                    SensorRecord record = mSensorRecords.get(sensor);
-                    if (record != null && record.lastEvent != null) {
+                    int sensor = records.keyAt(i);
+                    SensorRecord record = records.valueAt(i);
+                    CarSensorEvent lastEvent = record == null ? null : record.acquireLastEvent();
+                    if (lastEvent != null) {
                         writer.println("sensor: " + sensor
                                 + " active: " + record.enabled);
-                        writer.println(" " + record.lastEvent.toString());
+                        writer.println(" " + lastEvent.toString());
+                        CarSensorEventFactory.returnToPool(lastEvent);
                     }
                     Listeners listeners = mSensorListeners.get(sensor);
                     if (listeners != null) {
@@ -923,7 +1065,7 @@ public class CarSensorService extends ICarSensor.Stub
         }
         writer.println("**clients**");
         try {
-            for (SensorClient client: mClients) {
+            for (SensorClient client: mClients.values()) {
                 if (client != null) {
                     try {
                         writer.println("binder:" + client.mListener
@@ -943,11 +1085,15 @@ public class CarSensorService extends ICarSensor.Stub
             int sensorListenerSize = mSensorListeners.size();
             for (int i = 0; i < sensorListenerSize; i++) {
                 int sensor = mSensorListeners.keyAt(i);
-                Listeners sensorListeners = mSensorListeners.get(sensor);
+                Listeners<SensorClient> sensorListeners = mSensorListeners.get(sensor);
                 if (sensorListeners != null) {
                     writer.println(" Sensor:" + sensor
                             + " num client:" + sensorListeners.getNumberOfClients()
                             + " rate:" + sensorListeners.getRate());
+                    for (ClientWithRate<SensorClient> client : sensorListeners.getClients()) {
+                        writer.println("  client rate:" + client.getRate()
+                                + " decimated events:" + client.getDecimatedEvents());
+                    }
                 }
             }
         }  catch  (ConcurrentModificationException e) {
@@ -959,6 +1105,9 @@ public class CarSensorService extends ICarSensor.Stub
         if (mUseDefaultDrivingPolicy) {
             mDrivingStatePolicy.dump(writer);
         }
+        CarSensorEventFactory.dump(writer);
+        writer.println("**sensor dispatching**");
+        mSensorDispatchHandler.dump(writer);
         writer.println("**day/night policy**");
         if (mUseDefaultDayNightModePolicy) {
             mDayNightModePolicy.dump(writer);
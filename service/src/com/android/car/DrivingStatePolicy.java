@@ -156,23 +156,29 @@ public class DrivingStatePolicy extends CarSensorService.LogicalSensor {
 
     private int recalcDrivingStateLocked() {
         int drivingState = CarSensorEvent.DRIVE_STATUS_FULLY_RESTRICTED;
-        CarSensorEvent lastParkingBrake = mSensorService.getLatestSensorEvent(
+        CarSensorEvent lastParkingBrake = mSensorService.acquireLatestSensorEvent(
                 CarSensorManager.SENSOR_TYPE_PARKING_BRAKE);
-        CarSensorEvent lastGear = mSensorService.getLatestSensorEvent(
+        CarSensorEvent lastGear = mSensorService.acquireLatestSensorEvent(
                 CarSensorManager.SENSOR_TYPE_GEAR);
-        CarSensorEvent lastSpeed = mSensorService.getLatestSensorEvent(
+        CarSensorEvent lastSpeed = mSensorService.acquireLatestSensorEvent(
                 CarSensorManager.SENSOR_TYPE_CAR_SPEED);
-        if (lastSpeed != null && lastSpeed.floatValues[0] == 0f) { // stopped
-            if (lastParkingBrake == null && isParkingBrakeApplied(lastParkingBrake)) {
-                if (lastGear != null && isGearInParkingOrNeutral(lastGear)) {
-                    drivingState = CarSensorEvent.DRIVE_STATUS_UNRESTRICTED;
+        try {
+            if (lastSpeed != null && lastSpeed.floatValues[0] == 0f) { // stopped
+                if (lastParkingBrake == null && isParkingBrakeApplied(lastParkingBrake)) {
+                    if (lastGear != null && isGearInParkingOrNeutral(lastGear)) {
+                        drivingState = CarSensorEvent.DRIVE_STATUS_UNRESTRICTED;
+                    }
+                } else { // parking brake not applied or not available
+                    if (lastGear != null && isGearInParking(lastGear)) { // gear in P
+                        drivingState = CarSensorEvent.DRIVE_STATUS_UNRESTRICTED;
+                    }
                 }
-            } else { // parking brake not applied or not available
-                if (lastGear != null && isGearInParking(lastGear)) { // gear in P
-                    drivingState = CarSensorEvent.DRIVE_STATUS_UNRESTRICTED;
-                }
-            }
-        } // else moving, full restriction
+            } // else moving, full restriction
+        } finally {
+            CarSensorEventFactory.returnToPool(lastParkingBrake);
+            CarSensorEventFactory.returnToPool(lastGear);
+            CarSensorEventFactory.returnToPool(lastSpeed);
+        }
         return drivingState;
     }
 
@@ -0,0 +1,707 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.annotation.Nullable;
+import android.car.diagnostic.CarDiagnosticEvent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps freeze frames across reboots in an append-only log, memory mapped from a file of a fixed
+ * size.
+ * <p>
+ * The log starts with a header (magic, version, end of the log) followed by records. A record is
+ * the size of its body, a CRC32 of its type and body, its type and its body. A frame record holds
+ * the timestamp and the DTC of a frame, then the frame as written by
+ * {@link CarDiagnosticEvent#writeTo}. A clear record lists the timestamps of the frames it
+ * removes. The log is replayed when the store is opened, up to the first record that is not
+ * valid, to rebuild an in-memory index of the frames by timestamp that also keeps their DTC.
+ * Frames are only decoded from the log when they are queried.
+ * <p>
+ * Once the log is more than seven eighths full, the frames still in the index are copied to a
+ * new log, dropping the oldest ones if the log would be more than three quarters full, and the
+ * new log replaces the old one. If the file cannot be mapped, the log is kept in memory.
+ * <p>
+ * Adding or removing frames only writes to the mapping. Records are flushed to the file and the
+ * log is compacted from a background thread, so that callers on the vehicle HAL event path do not
+ * wait for the disk. The log is only compacted by the caller if it fills up before the background
+ * compaction ran. This class is thread safe.
+ */
+public class FreezeFrameStore {
+    private static final String TAG = CarLog.TAG_DIAGNOSTIC;
+
+    public static final String FILE_NAME = "freeze_frames.log";
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    private static final int MAGIC = 0x46524652; // "FRFR"
+    private static final int VERSION = 1;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_END = 8;
+    private static final int HEADER_SIZE = 12;
+
+    // Size of the body, CRC32 of the type and the body, type.
+    private static final int RECORD_HEADER_SIZE = 9;
+    private static final byte TYPE_FRAME = 1;
+    private static final byte TYPE_CLEAR = 2;
+
+    /** Delay before flushing appended records, so that bursts of frames share a flush. */
+    private static final long FLUSH_DELAY_MS = 500;
+
+    private final File mFile;
+    private final int mCapacity;
+    private final Runnable mFlushRunnable = () -> flushInBackground();
+    private final Runnable mCompactionRunnable = () -> compactInBackground();
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final TreeMap<Long, IndexEntry> mIndex = new TreeMap<>();
+    @GuardedBy("mLock")
+    private ByteBuffer mBuffer;
+    @GuardedBy("mLock")
+    private boolean mPersistent;
+    @GuardedBy("mLock")
+    private int mEnd;
+    /** Size of the records of the frames in the index. */
+    @GuardedBy("mLock")
+    private int mLiveSize;
+    /**
+     * Changed whenever {@link #mBuffer} is replaced or reset, so that a background compaction can
+     * tell that the log it copied is stale.
+     */
+    @GuardedBy("mLock")
+    private int mGeneration;
+    @GuardedBy("mLock")
+    private HandlerThread mBackgroundThread;
+    @GuardedBy("mLock")
+    private Handler mBackgroundHandler;
+    @GuardedBy("mLock")
+    private boolean mFlushScheduled;
+    @GuardedBy("mLock")
+    private boolean mCompactionScheduled;
+
+    /** Location of the record of a frame in the log. */
+    private static class IndexEntry {
+        int mOffset;
+        final int mSize;
+        /** Offset of the encoded frame from the start of the record. */
+        final int mFrameStart;
+        @Nullable final String mDtc;
+
+        IndexEntry(int offset, int size, int frameStart, @Nullable String dtc) {
+            mOffset = offset;
+            mSize = size;
+            mFrameStart = frameStart;
+            mDtc = dtc;
+        }
+    }
+
+    public FreezeFrameStore(File file) {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    public FreezeFrameStore(File file, int capacity) {
+        if (capacity <= HEADER_SIZE) {
+            throw new IllegalArgumentException("capacity too small: " + capacity);
+        }
+        mFile = file;
+        mCapacity = capacity;
+    }
+
+    /** Maps the log and rebuilds the index of the frames in it. */
+    public void open() {
+        synchronized (mLock) {
+            openLocked();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void openLocked() {
+        if (mBackgroundThread == null) {
+            mBackgroundThread = new HandlerThread("FREEZE_FRAME_STORE",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            mBackgroundThread.start();
+            mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        }
+        mGeneration++;
+        mIndex.clear();
+        mLiveSize = 0;
+        try {
+            mBuffer = map(mFile);
+            mPersistent = true;
+        } catch (IOException e) {
+            Log.e(TAG, "cannot map " + mFile + ", freeze frames will not be persisted", e);
+            mBuffer = ByteBuffer.allocate(mCapacity);
+            mPersistent = false;
+        }
+        if (mBuffer.getInt(OFFSET_MAGIC) != MAGIC || mBuffer.getInt(OFFSET_VERSION) != VERSION) {
+            reset();
+            return;
+        }
+        int end = mBuffer.getInt(OFFSET_END);
+        if (end < HEADER_SIZE || end > mCapacity) {
+            end = mCapacity;
+        }
+        int offset = HEADER_SIZE;
+        while (offset < end) {
+            int size = replayRecord(offset, end);
+            if (size < 0) {
+                Log.w(TAG, String.format("freeze frame log %s is corrupted at %d, truncating",
+                        mFile, offset));
+                break;
+            }
+            offset += size;
+        }
+        setEnd(offset);
+    }
+
+    /** Flushes and releases the log. The store can be opened again. */
+    public void close() {
+        HandlerThread backgroundThread;
+        synchronized (mLock) {
+            if (mBuffer == null) {
+                return;
+            }
+            force();
+            mBuffer = null;
+            mGeneration++;
+            mIndex.clear();
+            mLiveSize = 0;
+            backgroundThread = mBackgroundThread;
+            mBackgroundThread = null;
+            mBackgroundHandler.removeCallbacksAndMessages(null);
+            mBackgroundHandler = null;
+            mFlushScheduled = false;
+            mCompactionScheduled = false;
+        }
+        // A compaction in progress sees that the store was closed and gives up. Wait for it, so
+        // that it does not write to the file used by the next compaction if the store is opened
+        // again.
+        backgroundThread.quitSafely();
+        try {
+            backgroundThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appends a freeze frame to the log. A frame already stored with the same timestamp is
+     * replaced.
+     *
+     * @return false if the frame could not be stored.
+     */
+    public boolean add(CarDiagnosticEvent event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeLong(event.timestamp);
+            if (event.dtc == null) {
+                out.writeShort(-1);
+            } else {
+                byte[] dtc = event.dtc.getBytes(StandardCharsets.UTF_8);
+                if (dtc.length > Short.MAX_VALUE) {
+                    Log.w(TAG, "DTC of freeze frame " + event.timestamp + " too long");
+                    return false;
+                }
+                out.writeShort(dtc.length);
+                out.write(dtc);
+            }
+            event.writeTo(out);
+        } catch (IOException e) {
+            Log.e(TAG, "cannot encode freeze frame " + event.timestamp, e);
+            return false;
+        }
+        synchronized (mLock) {
+            return isOpenLocked() && append(TYPE_FRAME, bytes.toByteArray());
+        }
+    }
+
+    /** Removes the freeze frames at the given timestamps, or all of them if none is given. */
+    public void remove(@Nullable long... timestamps) {
+        synchronized (mLock) {
+            if (!isOpenLocked()) {
+                return;
+            }
+            if (timestamps == null || timestamps.length == 0) {
+                reset();
+                return;
+            }
+            ByteBuffer body = ByteBuffer.allocate(4 + timestamps.length * 8);
+            int count = 0;
+            body.putInt(0);
+            for (long timestamp : timestamps) {
+                if (mIndex.containsKey(timestamp)) {
+                    body.putLong(timestamp);
+                    count++;
+                }
+            }
+            if (count > 0) {
+                body.putInt(0, count);
+                append(TYPE_CLEAR, body.array());
+            }
+        }
+    }
+
+    public boolean contains(long timestamp) {
+        synchronized (mLock) {
+            return mIndex.containsKey(timestamp);
+        }
+    }
+
+    public int size() {
+        synchronized (mLock) {
+            return mIndex.size();
+        }
+    }
+
+    /** Returns the timestamps of the stored freeze frames, in increasing order. */
+    public long[] getTimestamps() {
+        synchronized (mLock) {
+            long[] timestamps = new long[mIndex.size()];
+            int i = 0;
+            for (long timestamp : mIndex.keySet()) {
+                timestamps[i++] = timestamp;
+            }
+            return timestamps;
+        }
+    }
+
+    @Nullable
+    public CarDiagnosticEvent get(long timestamp) {
+        synchronized (mLock) {
+            IndexEntry entry = mIndex.get(timestamp);
+            return entry == null ? null : readFrame(entry);
+        }
+    }
+
+    /**
+     * Returns the stored freeze frames between two timestamps, both inclusive, in timestamp
+     * order.
+     *
+     * @param dtcPrefix only return the frames whose DTC starts with this prefix, or all the
+     *                  frames if null.
+     * @param maxFrames the maximum number of frames to return, starting from the oldest one.
+     */
+    public List<CarDiagnosticEvent> getFreezeFrames(long fromTimestamp, long toTimestamp,
+            @Nullable String dtcPrefix, int maxFrames) {
+        List<CarDiagnosticEvent> events = new ArrayList<>();
+        if (fromTimestamp > toTimestamp) {
+            return events;
+        }
+        synchronized (mLock) {
+            for (IndexEntry entry :
+                    mIndex.subMap(fromTimestamp, true, toTimestamp, true).values()) {
+                if (events.size() >= maxFrames) {
+                    break;
+                }
+                if (dtcPrefix != null
+                        && (entry.mDtc == null || !entry.mDtc.startsWith(dtcPrefix))) {
+                    continue;
+                }
+                CarDiagnosticEvent event = readFrame(entry);
+                if (event != null) {
+                    events.add(event);
+                }
+            }
+        }
+        return events;
+    }
+
+    public void dump(PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println("freeze frame log: " + mFile + (mPersistent ? "" : " (not persisted)"));
+            writer.println(String.format("  frames: %d, used: %d/%d bytes, live: %d bytes",
+                    mIndex.size(), mEnd, mCapacity, HEADER_SIZE + mLiveSize));
+        }
+    }
+
+    /** Returns the number of bytes used by the log, including records no longer needed. */
+    @VisibleForTesting
+    int getLogSize() {
+        synchronized (mLock) {
+            return mEnd;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private boolean append(byte type, byte[] body) {
+        int size = RECORD_HEADER_SIZE + body.length;
+        if (size > mCapacity - HEADER_SIZE) {
+            Log.w(TAG, "freeze frame record too large: " + size);
+            return false;
+        }
+        if (mEnd + size > mCapacity) {
+            compact(size);
+        }
+        int offset = mEnd;
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(body);
+        mBuffer.putInt(offset, body.length);
+        mBuffer.putInt(offset + 4, (int) crc.getValue());
+        mBuffer.put(offset + 8, type);
+        ByteBuffer record = mBuffer.duplicate();
+        record.position(offset + RECORD_HEADER_SIZE);
+        record.put(body);
+        replayRecord(offset, offset + size);
+        setEnd(offset + size);
+        scheduleFlushLocked();
+        if (mEnd > mCapacity - mCapacity / 8) {
+            scheduleCompactionLocked();
+        }
+        return true;
+    }
+
+    /**
+     * Applies the record at the given offset to the index.
+     *
+     * @return the size of the record, or -1 if it is not a valid record ending before end.
+     */
+    @GuardedBy("mLock")
+    private int replayRecord(int offset, int end) {
+        if (offset + RECORD_HEADER_SIZE > end) {
+            return -1;
+        }
+        int bodySize = mBuffer.getInt(offset);
+        if (bodySize < 0 || bodySize > end - offset - RECORD_HEADER_SIZE) {
+            return -1;
+        }
+        int size = RECORD_HEADER_SIZE + bodySize;
+        ByteBuffer record = mBuffer.duplicate();
+        record.position(offset + 8).limit(offset + size);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if ((int) crc.getValue() != mBuffer.getInt(offset + 4)) {
+            return -1;
+        }
+
+        record.position(offset + RECORD_HEADER_SIZE);
+        try {
+            switch (mBuffer.get(offset + 8)) {
+                case TYPE_FRAME:
+                    long timestamp = record.getLong();
+                    int dtcLength = record.getShort();
+                    String dtc = null;
+                    if (dtcLength >= 0) {
+                        byte[] bytes = new byte[dtcLength];
+                        record.get(bytes);
+                        dtc = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                    IndexEntry previous = mIndex.put(timestamp,
+                            new IndexEntry(offset, size, record.position() - offset, dtc));
+                    if (previous != null) {
+                        mLiveSize -= previous.mSize;
+                    }
+                    mLiveSize += size;
+                    break;
+                case TYPE_CLEAR:
+                    int count = record.getInt();
+                    for (int i = 0; i < count; i++) {
+                        IndexEntry removed = mIndex.remove(record.getLong());
+                        if (removed != null) {
+                            mLiveSize -= removed.mSize;
+                        }
+                    }
+                    break;
+                default:
+                    return -1;
+            }
+        } catch (RuntimeException e) {
+            // A record with a valid CRC but a malformed body, e.g. written by a newer version.
+            Log.w(TAG, "malformed freeze frame record at " + offset, e);
+            return -1;
+        }
+        return size;
+    }
+
+    /**
+     * Makes room for a record of the given size by copying the frames to a new log. Only used
+     * when the log filled up before {@link #compactInBackground()} ran.
+     */
+    @GuardedBy("mLock")
+    private void compact(int size) {
+        int dropped = 0;
+        int target = mCapacity / 4 * 3;
+        while (!mIndex.isEmpty() && HEADER_SIZE + mLiveSize + size > target) {
+            mLiveSize -= mIndex.pollFirstEntry().getValue().mSize;
+            dropped++;
+        }
+        Log.i(TAG, String.format("compacting freeze frame log, %d frames kept, %d dropped",
+                mIndex.size(), dropped));
+
+        File compactedFile = new File(mFile.getPath() + ".tmp");
+        ByteBuffer compacted = createCompactedLog(compactedFile, mPersistent);
+        int end = HEADER_SIZE;
+        for (IndexEntry entry : mIndex.values()) {
+            copyRecord(mBuffer, entry.mOffset, entry.mSize, compacted, end);
+            entry.mOffset = end;
+            end += entry.mSize;
+        }
+        replaceLog(compacted, compactedFile, end);
+    }
+
+    /**
+     * Compacts the log like {@link #compact(int)}, but copies the frames without holding
+     * {@link #mLock}. Records appended meanwhile are copied once the lock is held again. Gives up
+     * if the log was reset, compacted or closed meanwhile.
+     */
+    private void compactInBackground() {
+        ByteBuffer buffer;
+        int snapshotEnd;
+        int generation;
+        boolean persistent;
+        long[] timestamps;
+        IndexEntry[] entries;
+        int[] offsets;
+        synchronized (mLock) {
+            mCompactionScheduled = false;
+            if (mBuffer == null || mEnd <= mCapacity - mCapacity / 8) {
+                return;
+            }
+            buffer = mBuffer;
+            snapshotEnd = mEnd;
+            generation = mGeneration;
+            persistent = mPersistent;
+            timestamps = new long[mIndex.size()];
+            entries = new IndexEntry[mIndex.size()];
+            offsets = new int[mIndex.size()];
+            int i = 0;
+            for (Map.Entry<Long, IndexEntry> mapEntry : mIndex.entrySet()) {
+                timestamps[i] = mapEntry.getKey();
+                entries[i] = mapEntry.getValue();
+                offsets[i] = entries[i].mOffset;
+                i++;
+            }
+        }
+
+        // Records before snapshotEnd are never modified, so they can be read without the lock.
+        int liveSize = 0;
+        for (IndexEntry entry : entries) {
+            liveSize += entry.mSize;
+        }
+        int first = 0;
+        int target = mCapacity / 4 * 3;
+        while (first < entries.length && HEADER_SIZE + liveSize > target) {
+            liveSize -= entries[first++].mSize;
+        }
+        // Not the file used by compact(int), which may replace the log while this one is written.
+        File compactedFile = new File(mFile.getPath() + ".bg.tmp");
+        ByteBuffer compacted = createCompactedLog(compactedFile, persistent);
+        int[] newOffsets = new int[entries.length];
+        int end = HEADER_SIZE;
+        for (int i = first; i < entries.length; i++) {
+            copyRecord(buffer, offsets[i], entries[i].mSize, compacted, end);
+            newOffsets[i] = end;
+            end += entries[i].mSize;
+        }
+        if (compacted instanceof MappedByteBuffer) {
+            // Only the records copied below are left to flush while holding the lock.
+            ((MappedByteBuffer) compacted).force();
+        }
+
+        synchronized (mLock) {
+            int tailSize = mEnd - snapshotEnd;
+            if (mBuffer != buffer || mGeneration != generation || end + tailSize > mCapacity) {
+                Log.i(TAG, "freeze frame log changed during compaction, not replacing it");
+                return;
+            }
+            copyRecord(mBuffer, snapshotEnd, tailSize, compacted, end);
+            int shift = end - snapshotEnd;
+            for (IndexEntry entry : mIndex.values()) {
+                if (entry.mOffset >= snapshotEnd) {
+                    entry.mOffset += shift;
+                }
+            }
+            int dropped = 0;
+            for (int i = 0; i < entries.length; i++) {
+                if (mIndex.get(timestamps[i]) != entries[i]) {
+                    // Replaced or removed meanwhile.
+                    continue;
+                }
+                if (i < first) {
+                    mIndex.remove(timestamps[i]);
+                    mLiveSize -= entries[i].mSize;
+                    dropped++;
+                } else {
+                    entries[i].mOffset = newOffsets[i];
+                }
+            }
+            Log.i(TAG, String.format("compacted freeze frame log, %d frames kept, %d dropped",
+                    mIndex.size(), dropped));
+            replaceLog(compacted, compactedFile, end + tailSize);
+        }
+    }
+
+    /** Maps a new log next to the current one, or allocates one in memory. */
+    private ByteBuffer createCompactedLog(File compactedFile, boolean persistent) {
+        if (persistent) {
+            try {
+                return map(compactedFile);
+            } catch (IOException e) {
+                Log.e(TAG, "cannot map " + compactedFile + ", freeze frames will not be persisted",
+                        e);
+            }
+        }
+        return ByteBuffer.allocate(mCapacity);
+    }
+
+    private static void copyRecord(ByteBuffer from, int offset, int size, ByteBuffer to,
+            int toOffset) {
+        ByteBuffer record = from.duplicate();
+        record.position(offset).limit(offset + size);
+        ByteBuffer target = to.duplicate();
+        target.position(toOffset);
+        target.put(record);
+    }
+
+    /** Makes the compacted log, whose records end at the given offset, the current log. */
+    @GuardedBy("mLock")
+    private void replaceLog(ByteBuffer compacted, File compactedFile, int end) {
+        compacted.putInt(OFFSET_MAGIC, MAGIC);
+        compacted.putInt(OFFSET_VERSION, VERSION);
+        compacted.putInt(OFFSET_END, end);
+
+        boolean persistent = compacted instanceof MappedByteBuffer;
+        if (persistent) {
+            ((MappedByteBuffer) compacted).force();
+            if (!compactedFile.renameTo(mFile)) {
+                Log.e(TAG, "cannot replace " + mFile + ", freeze frames will not be persisted");
+                persistent = false;
+            }
+        }
+        mBuffer = compacted;
+        mPersistent = persistent;
+        mEnd = end;
+        mGeneration++;
+    }
+
+    @GuardedBy("mLock")
+    private void reset() {
+        mGeneration++;
+        mIndex.clear();
+        mLiveSize = 0;
+        mBuffer.putInt(OFFSET_MAGIC, MAGIC);
+        mBuffer.putInt(OFFSET_VERSION, VERSION);
+        setEnd(HEADER_SIZE);
+        scheduleFlushLocked();
+    }
+
+    @GuardedBy("mLock")
+    private boolean isOpenLocked() {
+        if (mBuffer == null) {
+            Log.w(TAG, "freeze frame log " + mFile + " is not open");
+            return false;
+        }
+        return true;
+    }
+
+    @GuardedBy("mLock")
+    private void setEnd(int end) {
+        mEnd = end;
+        mBuffer.putInt(OFFSET_END, end);
+    }
+
+    @GuardedBy("mLock")
+    private void force() {
+        if (mPersistent) {
+            ((MappedByteBuffer) mBuffer).force();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleFlushLocked() {
+        if (!mPersistent || mFlushScheduled) {
+            return;
+        }
+        mFlushScheduled = true;
+        mBackgroundHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+    }
+
+    private void flushInBackground() {
+        MappedByteBuffer buffer;
+        synchronized (mLock) {
+            mFlushScheduled = false;
+            if (mBuffer == null || !mPersistent) {
+                return;
+            }
+            buffer = (MappedByteBuffer) mBuffer;
+        }
+        // Records appended during the flush are flushed by the next one, a record which is only
+        // partially flushed fails its CRC and is dropped when the log is replayed.
+        buffer.force();
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleCompactionLocked() {
+        if (mCompactionScheduled) {
+            return;
+        }
+        mCompactionScheduled = true;
+        mBackgroundHandler.post(mCompactionRunnable);
+    }
+
+    @Nullable
+    private CarDiagnosticEvent readFrame(IndexEntry entry) {
+        byte[] bytes = new byte[entry.mSize - entry.mFrameStart];
+        ByteBuffer record = mBuffer.duplicate();
+        record.position(entry.mOffset + entry.mFrameStart);
+        record.get(bytes);
+        try {
+            return CarDiagnosticEvent.readFrom(
+                    new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            Log.e(TAG, "cannot decode freeze frame at " + entry.mOffset, e);
+            return null;
+        }
+    }
+
+    private ByteBuffer map(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("cannot create " + parent);
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(mCapacity);
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mCapacity);
+        }
+    }
+}
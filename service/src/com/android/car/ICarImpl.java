@@ -21,6 +21,7 @@ import android.car.Car;
 import android.car.ICar;
 import android.car.annotation.FutureFeature;
 import android.car.cluster.renderer.IInstrumentClusterNavigation;
+import android.car.vms.VmsOperationRecorder;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.hardware.automotive.vehicle.V2_0.IVehicle;
@@ -38,6 +39,10 @@ import com.android.car.internal.FeatureUtil;
 import com.android.car.pm.CarPackageManagerService;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.car.ICarServiceHelper;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -122,10 +127,18 @@ public class ICarImpl extends ICar.Stub {
         mCarBluetoothService = new CarBluetoothService(serviceContext, mCarCabinService,
                 mCarSensorService, mPerUserCarServiceHelper);
         if (FeatureConfiguration.ENABLE_VEHICLE_MAP_SERVICE) {
-            mVmsSubscriberService = new VmsSubscriberService(serviceContext, mHal.getVmsHal());
-            mVmsPublisherService = new VmsPublisherService(serviceContext, mHal.getVmsHal());
+            VmsSharedPayloadTracker sharedPayloads = new VmsSharedPayloadTracker();
+            VmsTrafficMetrics metrics = new VmsTrafficMetrics();
+            VmsMessageDispatcher dispatcher =
+                    new VmsMessageDispatcher(serviceContext, sharedPayloads, metrics);
+            mVmsSubscriberService = new VmsSubscriberService(serviceContext, mHal.getVmsHal(),
+                    sharedPayloads, dispatcher, metrics);
+            mVmsPublisherService = new VmsPublisherService(serviceContext, mHal.getVmsHal(),
+                    sharedPayloads, dispatcher, metrics);
         }
-        mCarDiagnosticService = new CarDiagnosticService(serviceContext, mHal.getDiagnosticHal());
+        mCarDiagnosticService = new CarDiagnosticService(serviceContext, mHal.getDiagnosticHal(),
+                new FreezeFrameStore(new File(systemInterface.getSystemCarDir(),
+                        FreezeFrameStore.FILE_NAME)));
 
         // Be careful with order. Service depending on other service should be inited later.
         List<CarServiceBase> allServices = new ArrayList<>(Arrays.asList(
@@ -369,6 +382,9 @@ public class ICarImpl extends ICar.Stub {
         private static final String COMMAND_HELP = "-h";
         private static final String COMMAND_DAY_NIGHT_MODE = "day-night-mode";
         private static final String COMMAND_INJECT_EVENT = "inject-event";
+        private static final String COMMAND_EXPORT_VMS_OPERATIONS = "export-vms-operations";
+
+        private static final String VMS_OPERATIONS_FILE = "vms_operations.bin";
 
         private static final String PARAM_DAY_MODE = "day";
         private static final String PARAM_NIGHT_MODE = "night";
@@ -384,6 +400,8 @@ public class ICarImpl extends ICar.Stub {
             pw.println("\t  Force into day/night mode or restore to auto.");
             pw.println("\tinject-event zoned-boolean propertyType zone [true|false]");
             pw.println("\t  Inject a Boolean HAL Event. ");
+            pw.println("\texport-vms-operations");
+            pw.println("\t  Export the recent VMS operations to a binary file.");
         }
 
         public void exec(String[] args, PrintWriter writer) {
@@ -426,6 +444,9 @@ public class ICarImpl extends ICar.Stub {
                         }
                     }
                     break;
+                case COMMAND_EXPORT_VMS_OPERATIONS:
+                    exportVmsOperations(writer);
+                    break;
                 default:
                     writer.println("Unknown command.");
                     dumpHelp(writer);
@@ -465,6 +486,21 @@ public class ICarImpl extends ICar.Stub {
             writer.println("DayNightMode changed to: " + currentMode);
         }
 
+        private void exportVmsOperations(PrintWriter writer) {
+            if (!FeatureConfiguration.ENABLE_VEHICLE_MAP_SERVICE) {
+                writer.println("VMS is not enabled.");
+                return;
+            }
+            File file = new File(mContext.getFilesDir(), VMS_OPERATIONS_FILE);
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+                VmsOperationRecorder.get().writeHistoryTo(out);
+            } catch (IOException e) {
+                writer.println("Failed to export VMS operations: " + e);
+                return;
+            }
+            writer.println("VMS operations exported to " + file.getAbsolutePath());
+        }
+
         /**
          * Inject a fake boolean HAL event to help testing.
          *
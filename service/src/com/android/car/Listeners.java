@@ -18,11 +18,15 @@ package com.android.car;
 
 import android.car.hardware.CarSensorManager;
 import android.os.IBinder;
-import java.util.LinkedList;
+
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class wraps a set of listeners of a given type of event, grouped by event-transmission rate.
  * This is logic that is common to different services that need to receive and rebroadcast events.
+ *
+ * <p>Clients are kept in a copy-on-write list, so {@link #getClients()} can be iterated from event
+ * dispatching threads without holding the lock used for adding and removing clients.
  * @param <ClientType> The type of event listener.
  */
 public class Listeners<ClientType extends com.android.car.Listeners.IListener> {
@@ -31,13 +35,22 @@ public class Listeners<ClientType extends com.android.car.Listeners.IListener> {
     }
 
     public static class ClientWithRate<ClientType extends IListener> {
+        /** Value of {@link #mLastDispatchTimestampNs} when nothing was dispatched yet. */
+        private static final long NO_DISPATCH = Long.MIN_VALUE;
+
         private final ClientType mClient;
         /** rate requested from client */
         private int mRate;
+        /** minimum interval between events dispatched to this client, derived from mRate */
+        private long mMinDispatchIntervalNs;
+        /** timestamp of the last event dispatched to this client */
+        private long mLastDispatchTimestampNs = NO_DISPATCH;
+        /** number of events not dispatched to this client due to its rate */
+        private long mDecimatedEvents;
 
         ClientWithRate(ClientType client, int rate) {
             mClient = client;
-            mRate = rate;
+            setRate(rate);
         }
 
         @Override
@@ -61,6 +74,28 @@ public class Listeners<ClientType extends com.android.car.Listeners.IListener> {
 
         void setRate(int rate) {
             mRate = rate;
+            mMinDispatchIntervalNs = getDispatchIntervalNs(rate);
+            mLastDispatchTimestampNs = NO_DISPATCH;
+        }
+
+        /**
+         * Time based downsampler for continuous events. Returns true if an event with the given
+         * timestamp should be dispatched to this client given its requested rate, and records the
+         * dispatch.
+         */
+        boolean shouldDispatch(long eventTimestampNs) {
+            if (mMinDispatchIntervalNs > 0 && mLastDispatchTimestampNs != NO_DISPATCH
+                    && eventTimestampNs - mLastDispatchTimestampNs
+                            < mMinDispatchIntervalNs - mMinDispatchIntervalNs / JITTER_DIVIDER) {
+                mDecimatedEvents++;
+                return false;
+            }
+            mLastDispatchTimestampNs = eventTimestampNs;
+            return true;
+        }
+
+        long getDecimatedEvents() {
+            return mDecimatedEvents;
         }
 
         ClientType getClient() {
@@ -68,7 +103,16 @@ public class Listeners<ClientType extends com.android.car.Listeners.IListener> {
         }
     }
 
-    private final LinkedList<ClientWithRate<ClientType>> mClients = new LinkedList<>();
+    /**
+     * Events arriving up to 1/JITTER_DIVIDER of the dispatch interval early are still dispatched
+     * so that sampling jitter does not halve the delivered rate.
+     */
+    private static final long JITTER_DIVIDER = 10;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final CopyOnWriteArrayList<ClientWithRate<ClientType>> mClients =
+            new CopyOnWriteArrayList<>();
     /** rate sent to car */
     private int mRate;
 
@@ -84,6 +128,23 @@ public class Listeners<ClientType extends com.android.car.Listeners.IListener> {
         mRate = rate;
     }
 
+    /**
+     * Returns the minimum interval between events delivered to a client of the given rate. The
+     * frequencies match the sampling rates requested from vehicle HAL for these rates.
+     */
+    static long getDispatchIntervalNs(int rate) {
+        switch (rate) {
+            case CarSensorManager.SENSOR_RATE_FASTEST:
+                return 0;
+            case CarSensorManager.SENSOR_RATE_FAST:
+                return NANOS_PER_SECOND / 10;
+            case CarSensorManager.SENSOR_RATE_UI:
+                return NANOS_PER_SECOND / 5;
+            default:
+                return NANOS_PER_SECOND;
+        }
+    }
+
     /** update rate from existing clients and return true if rate is changed. */
     boolean updateRate() {
         //TODO(egranata): we might need to support other rate ranges
@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.diagnostic.CarDiagnosticEvent;
+import android.car.diagnostic.LiveFrameHistory;
+import android.util.SparseLongArray;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Fixed-size history of live frames, stored by column.
+ * <p>
+ * Each sensor that has been seen in a frame gets a primitive column of values with one slot per
+ * frame, and a bitmap of the slots where it was present, so that a frame costs a few bytes per
+ * sensor and recording does not allocate once the columns exist. Timestamps are stored as the
+ * delta from the previous frame. Deltas that do not fit in an int (gaps longer than about 2
+ * seconds) are escaped and the timestamp is kept in a sparse array.
+ * <p>
+ * Sensors with an index of {@link #MAX_SENSOR_INDEX} or more are not recorded, and so are sensors
+ * first seen once the maximum number of columns is allocated, which bounds the memory of the
+ * history to about the capacity times 4 bytes times the maximum number of columns: 1 MB with the
+ * defaults.
+ * <p>
+ * This class is not thread safe.
+ */
+class LiveFrameHistoryBuffer {
+    static final int DEFAULT_CAPACITY = 4096;
+    static final int DEFAULT_MAX_COLUMNS = 64;
+    static final int MAX_SENSOR_INDEX = 256;
+
+    // Timestamps only increase, so a negative delta is free to mark an escaped timestamp.
+    private static final int ESCAPED_DELTA = -1;
+
+    private final int mMask;
+    private final int mMaxColumns;
+    private final int[] mTimestampDeltas;
+    private final SparseLongArray mEscapedTimestamps = new SparseLongArray();
+    private int[][] mIntColumns = new int[0][];
+    private long[][] mIntPresent = new long[0][];
+    private float[][] mFloatColumns = new float[0][];
+    private long[][] mFloatPresent = new long[0][];
+
+    /** Number of frames ever recorded, the slot of the next frame is mRecorded & mMask. */
+    private long mRecorded;
+    private int mSize;
+    private long mOldestTimestamp;
+    private long mNewestTimestamp;
+    private long mOutOfOrderFrames;
+    /** Number of integer and float columns allocated. */
+    private int mColumns;
+    private long mDroppedValues;
+
+    /** @param capacity maximum number of frames, rounded up to a power of two. */
+    LiveFrameHistoryBuffer(int capacity) {
+        this(capacity, DEFAULT_MAX_COLUMNS);
+    }
+
+    /**
+     * @param capacity   maximum number of frames, rounded up to a power of two.
+     * @param maxColumns maximum number of sensors, integer and float ones together, recorded.
+     */
+    LiveFrameHistoryBuffer(int capacity, int maxColumns) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        if (maxColumns < 0) {
+            throw new IllegalArgumentException("Invalid maximum number of columns: " + maxColumns);
+        }
+        mMaxColumns = maxColumns;
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mTimestampDeltas = new int[size];
+    }
+
+    int getCapacity() {
+        return mTimestampDeltas.length;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Records a live frame, overwriting the oldest one if the history is full.
+     *
+     * @return false if the frame is not newer than the newest frame recorded.
+     */
+    boolean record(CarDiagnosticEvent event) {
+        long timestamp = event.timestamp;
+        if (mSize > 0 && timestamp <= mNewestTimestamp) {
+            mOutOfOrderFrames++;
+            return false;
+        }
+        if (mSize == mTimestampDeltas.length) {
+            evictOldest();
+        }
+        int slot = (int) mRecorded & mMask;
+        if (mSize == 0) {
+            mOldestTimestamp = timestamp;
+            mTimestampDeltas[slot] = 0;
+        } else {
+            long delta = timestamp - mNewestTimestamp;
+            if (delta <= Integer.MAX_VALUE) {
+                mTimestampDeltas[slot] = (int) delta;
+            } else {
+                mTimestampDeltas[slot] = ESCAPED_DELTA;
+                mEscapedTimestamps.put(slot, timestamp);
+            }
+        }
+
+        for (long[] present : mIntPresent) {
+            if (present != null) {
+                clearBit(present, slot);
+            }
+        }
+        for (int i = event.nextIntegerSensor(0); i >= 0 && i < MAX_SENSOR_INDEX;
+                i = event.nextIntegerSensor(i + 1)) {
+            if (i >= mIntColumns.length || mIntColumns[i] == null) {
+                if (mColumns == mMaxColumns) {
+                    mDroppedValues++;
+                    continue;
+                }
+                if (i >= mIntColumns.length) {
+                    mIntColumns = Arrays.copyOf(mIntColumns, i + 1);
+                    mIntPresent = Arrays.copyOf(mIntPresent, i + 1);
+                }
+                mIntColumns[i] = new int[mTimestampDeltas.length];
+                mIntPresent[i] = new long[bitmapSize(mTimestampDeltas.length)];
+                mColumns++;
+            }
+            mIntColumns[i][slot] = event.getVendorIntegerSensor(i, 0);
+            setBit(mIntPresent[i], slot);
+        }
+
+        for (long[] present : mFloatPresent) {
+            if (present != null) {
+                clearBit(present, slot);
+            }
+        }
+        for (int i = event.nextFloatSensor(0); i >= 0 && i < MAX_SENSOR_INDEX;
+                i = event.nextFloatSensor(i + 1)) {
+            if (i >= mFloatColumns.length || mFloatColumns[i] == null) {
+                if (mColumns == mMaxColumns) {
+                    mDroppedValues++;
+                    continue;
+                }
+                if (i >= mFloatColumns.length) {
+                    mFloatColumns = Arrays.copyOf(mFloatColumns, i + 1);
+                    mFloatPresent = Arrays.copyOf(mFloatPresent, i + 1);
+                }
+                mFloatColumns[i] = new float[mTimestampDeltas.length];
+                mFloatPresent[i] = new long[bitmapSize(mTimestampDeltas.length)];
+                mColumns++;
+            }
+            mFloatColumns[i][slot] = event.getVendorFloatSensor(i, 0f);
+            setBit(mFloatPresent[i], slot);
+        }
+
+        mNewestTimestamp = timestamp;
+        mRecorded++;
+        mSize++;
+        return true;
+    }
+
+    /**
+     * Returns the values of the given sensors in the frames between two timestamps, both
+     * inclusive.
+     *
+     * @param bucketDurationNanos 0 for one row per frame, or the duration of the buckets,
+     *                            starting at fromTimestamp, or at the oldest frame if it is
+     *                            later, to aggregate frames in.
+     * @param maxValues           the maximum number of values, rows times sensors, to return.
+     *                            Rows are returned from the oldest one.
+     */
+    LiveFrameHistory query(long fromTimestamp, long toTimestamp, int[] integerSensors,
+            int[] floatSensors, long bucketDurationNanos, int maxValues) {
+        int maxRows = maxValues / Math.max(1, integerSensors.length + floatSensors.length);
+        // Frames older than the oldest one do not matter, and starting there keeps the distance
+        // from fromTimestamp to a frame from overflowing, e.g. for a fromTimestamp of
+        // Long.MIN_VALUE.
+        if (mSize > 0 && fromTimestamp < mOldestTimestamp) {
+            fromTimestamp = mOldestTimestamp;
+        }
+
+        // First pass: find the frames in range and count the rows.
+        int firstSlot = -1;
+        long firstTimestamp = 0;
+        int frames = 0;
+        int rows = 0;
+        long lastBucket = -1;
+        long timestamp = 0;
+        int oldestSlot = (int) (mRecorded - mSize) & mMask;
+        for (int i = 0; i < mSize; i++) {
+            int slot = (oldestSlot + i) & mMask;
+            timestamp = i == 0 ? mOldestTimestamp : nextTimestamp(slot, timestamp);
+            if (timestamp < fromTimestamp) {
+                continue;
+            }
+            if (timestamp > toTimestamp) {
+                break;
+            }
+            if (bucketDurationNanos > 0) {
+                long bucket = (timestamp - fromTimestamp) / bucketDurationNanos;
+                if (bucket != lastBucket) {
+                    if (rows == maxRows) {
+                        break;
+                    }
+                    lastBucket = bucket;
+                    rows++;
+                }
+            } else {
+                if (rows == maxRows) {
+                    break;
+                }
+                rows++;
+            }
+            if (frames == 0) {
+                firstSlot = slot;
+                firstTimestamp = timestamp;
+            }
+            frames++;
+        }
+
+        long[] timestamps = new long[rows];
+        SeriesBuilder[] integerSeries = new SeriesBuilder[integerSensors.length];
+        for (int i = 0; i < integerSensors.length; i++) {
+            integerSeries[i] = new SeriesBuilder(integerSensors[i], rows);
+        }
+        SeriesBuilder[] floatSeries = new SeriesBuilder[floatSensors.length];
+        for (int i = 0; i < floatSensors.length; i++) {
+            floatSeries[i] = new SeriesBuilder(floatSensors[i], rows);
+        }
+
+        // Second pass: aggregate the frames in rows.
+        int row = -1;
+        lastBucket = -1;
+        for (int i = 0; i < frames; i++) {
+            int slot = (firstSlot + i) & mMask;
+            timestamp = i == 0 ? firstTimestamp : nextTimestamp(slot, timestamp);
+            if (bucketDurationNanos > 0) {
+                long bucket = (timestamp - fromTimestamp) / bucketDurationNanos;
+                if (bucket != lastBucket) {
+                    lastBucket = bucket;
+                    row++;
+                    timestamps[row] = fromTimestamp + bucket * bucketDurationNanos;
+                }
+            } else {
+                row++;
+                timestamps[row] = timestamp;
+            }
+            for (int s = 0; s < integerSensors.length; s++) {
+                int sensor = integerSensors[s];
+                if (sensor >= 0 && sensor < mIntColumns.length && mIntColumns[sensor] != null
+                        && getBit(mIntPresent[sensor], slot)) {
+                    integerSeries[s].add(row, mIntColumns[sensor][slot]);
+                }
+            }
+            for (int s = 0; s < floatSensors.length; s++) {
+                int sensor = floatSensors[s];
+                if (sensor >= 0 && sensor < mFloatColumns.length && mFloatColumns[sensor] != null
+                        && getBit(mFloatPresent[sensor], slot)) {
+                    floatSeries[s].add(row, mFloatColumns[sensor][slot]);
+                }
+            }
+        }
+
+        return new LiveFrameHistory(bucketDurationNanos, timestamps,
+                build(integerSeries), build(floatSeries));
+    }
+
+    /** Aggregates the values of a sensor in each row of a query. */
+    private static class SeriesBuilder {
+        private final int mSensor;
+        private final int[] mCounts;
+        private final double[] mMin;
+        private final double[] mMax;
+        private final double[] mSum;
+
+        SeriesBuilder(int sensor, int rows) {
+            mSensor = sensor;
+            mCounts = new int[rows];
+            mMin = new double[rows];
+            mMax = new double[rows];
+            mSum = new double[rows];
+        }
+
+        void add(int row, double value) {
+            if (mCounts[row] == 0) {
+                mMin[row] = value;
+                mMax[row] = value;
+            } else {
+                mMin[row] = Math.min(mMin[row], value);
+                mMax[row] = Math.max(mMax[row], value);
+            }
+            mSum[row] += value;
+            mCounts[row]++;
+        }
+
+        LiveFrameHistory.Series build() {
+            // The sums become the averages in place.
+            for (int row = 0; row < mCounts.length; row++) {
+                if (mCounts[row] > 1) {
+                    mSum[row] /= mCounts[row];
+                }
+            }
+            return new LiveFrameHistory.Series(mSensor, mCounts, mMin, mMax, mSum);
+        }
+    }
+
+    private static LiveFrameHistory.Series[] build(SeriesBuilder[] builders) {
+        LiveFrameHistory.Series[] series = new LiveFrameHistory.Series[builders.length];
+        for (int i = 0; i < builders.length; i++) {
+            series[i] = builders[i].build();
+        }
+        return series;
+    }
+
+    void dump(PrintWriter writer) {
+        int intColumns = 0;
+        for (int[] column : mIntColumns) {
+            if (column != null) {
+                intColumns++;
+            }
+        }
+        int floatColumns = 0;
+        for (float[] column : mFloatColumns) {
+            if (column != null) {
+                floatColumns++;
+            }
+        }
+        writer.println("live frame history: " + mSize + "/" + mTimestampDeltas.length
+                + " frames, integer columns: " + intColumns + ", float columns: " + floatColumns
+                + ", max columns: " + mMaxColumns + ", dropped values: " + mDroppedValues
+                + ", escaped timestamps: " + mEscapedTimestamps.size()
+                + ", out of order frames: " + mOutOfOrderFrames);
+    }
+
+    private void evictOldest() {
+        int oldestSlot = (int) (mRecorded - mSize) & mMask;
+        mEscapedTimestamps.delete(oldestSlot);
+        mSize--;
+        if (mSize > 0) {
+            mOldestTimestamp = nextTimestamp((oldestSlot + 1) & mMask, mOldestTimestamp);
+        }
+    }
+
+    /** Returns the timestamp of the frame in the given slot, given that of the previous frame. */
+    private long nextTimestamp(int slot, long previousTimestamp) {
+        int delta = mTimestampDeltas[slot];
+        return delta == ESCAPED_DELTA ? mEscapedTimestamps.get(slot) : previousTimestamp + delta;
+    }
+
+    private static int bitmapSize(int size) {
+        return (size + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    private static boolean getBit(long[] bitmap, int index) {
+        return (bitmap[index / Long.SIZE] & (1L << index)) != 0;
+    }
+
+    private static void setBit(long[] bitmap, int index) {
+        bitmap[index / Long.SIZE] |= 1L << index;
+    }
+
+    private static void clearBit(long[] bitmap, int index) {
+        bitmap[index / Long.SIZE] &= ~(1L << index);
+    }
+}
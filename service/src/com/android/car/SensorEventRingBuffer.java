@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.hardware.CarSensorEvent;
+import android.util.SparseBooleanArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer queue of {@link CarSensorEvent}s.
+ *
+ * <p>{@link #offer} must only be called from one thread at a time and {@link #drainTo} from one
+ * (possibly different) thread at a time. Neither side locks nor allocates. When the queue is full
+ * the new event is rejected and counted as overflow.
+ *
+ * <p>Queued events are owned by the queue: events discarded by compaction are returned to
+ * {@link CarSensorEventFactory}, drained events are handed over to the caller.
+ */
+class SensorEventRingBuffer {
+    private final CarSensorEvent[] mBuffer;
+    private final int mMask;
+    private final boolean mCompactLatest;
+
+    /** Index of the next event to read. Only advanced by the consumer. */
+    private final AtomicLong mHead = new AtomicLong();
+    /** Index of the next free slot. Only advanced by the producer. */
+    private final AtomicLong mTail = new AtomicLong();
+    /** Producer's last known value of {@link #mHead}, refreshed only when the queue looks full. */
+    private long mCachedHead;
+
+    /** Only accessed by the consumer. */
+    private final SparseBooleanArray mSeenSensorTypes = new SparseBooleanArray();
+
+    // Counters, each written from a single side and only read for dumping.
+    private volatile long mQueuedEvents;
+    private volatile long mOverflowedEvents;
+    private volatile long mCompactedEvents;
+    private volatile int mMaxDepth;
+
+    /**
+     * @param capacity maximum number of queued events, rounded up to a power of two.
+     * @param compactLatest when set, only the most recent event of each continuous sensor type is
+     *        returned by {@link #drainTo}. Every event of on-change sensors is kept.
+     */
+    SensorEventRingBuffer(int capacity, boolean compactLatest) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mBuffer = new CarSensorEvent[size];
+        mMask = size - 1;
+        mCompactLatest = compactLatest;
+    }
+
+    int getCapacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * Queues given event. Called from the producer thread.
+     *
+     * @return {@code false} if the queue is full, in which case the caller keeps ownership of the
+     *         event.
+     */
+    boolean offer(CarSensorEvent event) {
+        long tail = mTail.get();
+        if (tail - mCachedHead >= mBuffer.length) {
+            mCachedHead = mHead.get();
+            if (tail - mCachedHead >= mBuffer.length) {
+                mOverflowedEvents++;
+                return false;
+            }
+        }
+        mBuffer[(int) tail & mMask] = event;
+        // Publishes the slot written above to the consumer.
+        mTail.lazySet(tail + 1);
+        mQueuedEvents++;
+        // Upper bound of the actual depth as mCachedHead may be stale.
+        int depth = (int) (tail + 1 - mCachedHead);
+        if (depth > mMaxDepth) {
+            mMaxDepth = depth;
+        }
+        return true;
+    }
+
+    /**
+     * Moves all queued events to the end of given list. Called from the consumer thread.
+     *
+     * @return number of events added to the list.
+     */
+    int drainTo(ArrayList<CarSensorEvent> out) {
+        long head = mHead.get();
+        long tail = mTail.get();
+        if (head == tail) {
+            return 0;
+        }
+        int start = out.size();
+        for (long i = head; i < tail; i++) {
+            int index = (int) i & mMask;
+            out.add(mBuffer[index]);
+            mBuffer[index] = null;
+        }
+        // Frees the slots for the producer.
+        mHead.lazySet(tail);
+        if (mCompactLatest) {
+            compactLatest(out, start);
+        }
+        return out.size() - start;
+    }
+
+    int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    /**
+     * Keeps only the last event of each continuous sensor type in {@code events[start..]},
+     * preserving the relative order of the kept events.
+     */
+    private void compactLatest(ArrayList<CarSensorEvent> events, int start) {
+        int end = events.size();
+        int write = end;
+        for (int read = end - 1; read >= start; read--) {
+            CarSensorEvent event = events.get(read);
+            if (CarSensorService.isContinuousSensor(event.sensorType)) {
+                if (mSeenSensorTypes.get(event.sensorType)) {
+                    CarSensorEventFactory.returnToPool(event);
+                    mCompactedEvents++;
+                    continue;
+                }
+                mSeenSensorTypes.put(event.sensorType, true);
+            }
+            events.set(--write, event);
+        }
+        mSeenSensorTypes.clear();
+        int kept = end - write;
+        if (write == start) {
+            return;
+        }
+        for (int i = 0; i < kept; i++) {
+            events.set(start + i, events.get(write + i));
+        }
+        // Remove from the end so that ArrayList does not shift elements.
+        for (int i = end - 1; i >= start + kept; i--) {
+            events.remove(i);
+        }
+    }
+
+    long getOverflowedEvents() {
+        return mOverflowedEvents;
+    }
+
+    long getCompactedEvents() {
+        return mCompactedEvents;
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println("capacity:" + mBuffer.length + " compact latest:" + mCompactLatest
+                + " depth:" + size() + " max depth:" + mMaxDepth
+                + " queued:" + mQueuedEvents + " overflowed:" + mOverflowedEvents
+                + " compacted:" + mCompactedEvents);
+    }
+}
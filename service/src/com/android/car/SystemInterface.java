@@ -18,12 +18,15 @@ package com.android.car;
 
 import android.content.Context;
 import android.hardware.display.DisplayManager;
+import android.os.Environment;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
 import android.os.SystemClock;
 import android.util.Log;
 import android.view.Display;
 
+import java.io.File;
+
 /**
  * Interface to abstract all system interaction.
  */
@@ -39,6 +42,11 @@ public abstract class SystemInterface {
     public abstract boolean isSystemSupportingDeepSleep();
     public abstract boolean isWakeupCausedByTimer();
 
+    /** Returns the directory where the car service keeps data across reboots. */
+    public File getSystemCarDir() {
+        return new File(Environment.getDataDirectory(), "system/car");
+    }
+
 
     public static SystemInterface getDefault(Context context) {
         return new SystemInterfaceImpl(context);
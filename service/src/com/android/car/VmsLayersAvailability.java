@@ -1,7 +1,7 @@
 /*
  * Copyright (C) 2017 The Android Open Source Project
-*
-* Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
  *
@@ -24,15 +24,14 @@ import android.car.vms.VmsLayersOffering;
 import android.util.Log;
 import com.android.internal.annotations.GuardedBy;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * Manages VMS availability for layers.
@@ -40,6 +39,10 @@ import java.util.stream.Collectors;
  * Each VMS publisher sets its layers offering which are a list of layers the publisher claims
  * it might publish. VmsLayersAvailability calculates from all the offering what are the
  * available layers.
+ * <p>
+ * A layer is available if any of its dependency sets only contains available layers. When an
+ * offering changes, only the offered layers and the layers depending on them, found through a
+ * reverse dependency graph, are recalculated.
  */
 
 @FutureFeature
@@ -49,47 +52,109 @@ public class VmsLayersAvailability {
     private static final String TAG = "VmsLayersAvailability";
 
     private final Object mLock = new Object();
+    // key: the publisher the offering was set for.
     @GuardedBy("mLock")
-    private final Map<VmsLayer, Set<Set<VmsLayer>>> mPotentialLayersAndDependencies =
-            new HashMap<>();
+    private final Map<Object, VmsLayersOffering> mOfferings = new HashMap<>();
+    // Layers with at least one offering.
     @GuardedBy("mLock")
-    private Set<VmsAssociatedLayer> mAvailableAssociatedLayers = Collections.EMPTY_SET;
+    private final Map<VmsLayer, LayerNode> mLayers = new HashMap<>();
+    // key: a layer, value: the layers with dependency sets containing it, and how many.
     @GuardedBy("mLock")
-    private Set<VmsAssociatedLayer> mUnavailableAssociatedLayers = Collections.EMPTY_SET;
+    private final Map<VmsLayer, Map<VmsLayer, Integer>> mDependents = new HashMap<>();
+    // Calculated on demand, null if outdated.
     @GuardedBy("mLock")
-    private Map<VmsLayer, Set<Integer>> mPotentialLayersAndPublishers = new HashMap<>();
+    private Set<VmsAssociatedLayer> mAvailableAssociatedLayers = Collections.emptySet();
+    @GuardedBy("mLock")
+    private Set<VmsAssociatedLayer> mUnavailableAssociatedLayers = Collections.emptySet();
 
     /**
-     * Setting the current layers offerings as reported by publishers.
+     * Setting the current layers offerings as reported by publishers. Replaces all the offerings
+     * set so far.
      */
     public void setPublishersOffering(Collection<VmsLayersOffering> publishersLayersOfferings) {
         synchronized (mLock) {
-            reset();
-
+            mOfferings.clear();
+            mLayers.clear();
+            mDependents.clear();
             for (VmsLayersOffering offering : publishersLayersOfferings) {
-                for (VmsLayerDependency dependency : offering.getDependencies()) {
-                    VmsLayer layer = dependency.getLayer();
-
-                    // Associate publishers with layers.
-                    Set<Integer> curPotentialLayerAndPublishers =
-                            mPotentialLayersAndPublishers.get(layer);
-                    if (curPotentialLayerAndPublishers == null) {
-                        curPotentialLayerAndPublishers = new HashSet<>();
-                        mPotentialLayersAndPublishers.put(layer, curPotentialLayerAndPublishers);
-                    }
-                    curPotentialLayerAndPublishers.add(offering.getPublisherId());
-
-                    // Add dependencies for availability calculation.
-                    Set<Set<VmsLayer>> curDependencies =
-                            mPotentialLayersAndDependencies.get(layer);
-                    if (curDependencies == null) {
-                        curDependencies = new HashSet<>();
-                        mPotentialLayersAndDependencies.put(layer, curDependencies);
-                    }
-                    curDependencies.add(dependency.getDependencies());
+                mOfferings.put(new Object(), offering);
+                addOfferingLocked(offering);
+            }
+            calculateLayersLocked(new HashSet<>(mLayers.keySet()));
+            mAvailableAssociatedLayers = null;
+            mUnavailableAssociatedLayers = null;
+        }
+    }
+
+    /**
+     * Sets the offering of a single publisher, replacing its previous offering.
+     *
+     * @param publisher identifies the publisher, e.g. its token.
+     * @param offering  the new offering, or {@code null} to remove the previous one.
+     * @return the changes in the available layers.
+     */
+    public AvailabilityChange setPublisherOffering(Object publisher, VmsLayersOffering offering) {
+        synchronized (mLock) {
+            Set<VmsLayer> changedLayers = new HashSet<>();
+            VmsLayersOffering oldOffering = offering == null
+                    ? mOfferings.remove(publisher) : mOfferings.put(publisher, offering);
+            if (oldOffering != null) {
+                addLayers(oldOffering, changedLayers);
+            }
+            if (offering != null) {
+                addLayers(offering, changedLayers);
+            }
+
+            // Availability of the other affected layers does not change before recalculation.
+            Map<VmsLayer, VmsAssociatedLayer> previousLayers = new HashMap<>();
+            for (VmsLayer layer : changedLayers) {
+                previousLayers.put(layer, getAssociatedLayerLocked(layer));
+            }
+            if (oldOffering != null) {
+                removeOfferingLocked(oldOffering);
+            }
+            if (offering != null) {
+                addOfferingLocked(offering);
+            }
+            Set<VmsLayer> affectedLayers = getDependentsClosureLocked(changedLayers);
+            for (VmsLayer layer : affectedLayers) {
+                if (!previousLayers.containsKey(layer)) {
+                    previousLayers.put(layer, getAssociatedLayerLocked(layer));
+                }
+            }
+
+            calculateLayersLocked(affectedLayers);
+
+            Set<VmsAssociatedLayer> addedLayers = new HashSet<>();
+            Set<VmsAssociatedLayer> removedLayers = new HashSet<>();
+            for (VmsLayer layer : affectedLayers) {
+                VmsAssociatedLayer previousLayer = previousLayers.get(layer);
+                VmsAssociatedLayer currentLayer = getAssociatedLayerLocked(layer);
+                if (Objects.equals(previousLayer, currentLayer)) {
+                    continue;
+                }
+                if (previousLayer != null) {
+                    removedLayers.add(previousLayer);
+                }
+                if (currentLayer != null) {
+                    addedLayers.add(currentLayer);
+                }
+            }
+            for (VmsLayer layer : changedLayers) {
+                LayerNode node = mLayers.get(layer);
+                if (node != null && node.mDependencySets.isEmpty()) {
+                    mLayers.remove(layer);
                 }
             }
-            calculateLayers();
+            // Unavailable layers may change without changing the available layers.
+            mAvailableAssociatedLayers = null;
+            mUnavailableAssociatedLayers = null;
+
+            AvailabilityChange change = new AvailabilityChange(addedLayers, removedLayers);
+            if (DBG) {
+                Log.d(TAG, "Recalculated " + affectedLayers.size() + " layers: " + change);
+            }
+            return change;
         }
     }
 
@@ -98,6 +163,9 @@ public class VmsLayersAvailability {
      */
     public Set<VmsAssociatedLayer> getAvailableLayers() {
         synchronized (mLock) {
+            if (mAvailableAssociatedLayers == null) {
+                buildAssociatedLayersLocked();
+            }
             return mAvailableAssociatedLayers;
         }
     }
@@ -108,93 +176,244 @@ public class VmsLayersAvailability {
      */
     public Set<VmsAssociatedLayer> getUnavailableLayers() {
         synchronized (mLock) {
+            if (mUnavailableAssociatedLayers == null) {
+                buildAssociatedLayersLocked();
+            }
             return mUnavailableAssociatedLayers;
         }
     }
 
-    private void reset() {
-        synchronized (mLock) {
-            mPotentialLayersAndDependencies.clear();
-            mPotentialLayersAndPublishers.clear();
-            mAvailableAssociatedLayers = Collections.EMPTY_SET;
-            mUnavailableAssociatedLayers = Collections.EMPTY_SET;
+    @GuardedBy("mLock")
+    private void buildAssociatedLayersLocked() {
+        Set<VmsAssociatedLayer> availableLayers = new HashSet<>();
+        Set<VmsAssociatedLayer> unavailableLayers = new HashSet<>();
+        for (LayerNode node : mLayers.values()) {
+            if (node.mDependencySets.isEmpty()) {
+                continue;
+            }
+            if (node.mAvailable) {
+                availableLayers.add(node.getAssociatedLayer());
+            } else {
+                unavailableLayers.add(node.getAssociatedLayer());
+            }
         }
+        mAvailableAssociatedLayers = Collections.unmodifiableSet(availableLayers);
+        mUnavailableAssociatedLayers = Collections.unmodifiableSet(unavailableLayers);
     }
 
-    private void calculateLayers() {
-        synchronized (mLock) {
-            Set<VmsLayer> availableLayersSet = new HashSet<>();
-            Set<VmsLayer> cyclicAvoidanceAuxiliarySet = new HashSet<>();
+    private static void addLayers(VmsLayersOffering offering, Set<VmsLayer> layers) {
+        for (VmsLayerDependency dependency : offering.getDependencies()) {
+            layers.add(dependency.getLayer());
+        }
+    }
 
-            for (VmsLayer layer : mPotentialLayersAndDependencies.keySet()) {
-                addLayerToAvailabilityCalculationLocked(layer,
-                        availableLayersSet,
-                        cyclicAvoidanceAuxiliarySet);
-            }
+    @GuardedBy("mLock")
+    private VmsAssociatedLayer getAssociatedLayerLocked(VmsLayer layer) {
+        LayerNode node = mLayers.get(layer);
+        return node != null && node.mAvailable ? node.getAssociatedLayer() : null;
+    }
 
-            mAvailableAssociatedLayers = Collections.unmodifiableSet(
-                    availableLayersSet
-                            .stream()
-                            .map(l -> new VmsAssociatedLayer(l, mPotentialLayersAndPublishers.get(l)))
-                            .collect(Collectors.toSet()));
+    @GuardedBy("mLock")
+    private void addOfferingLocked(VmsLayersOffering offering) {
+        for (VmsLayerDependency dependency : offering.getDependencies()) {
+            VmsLayer layer = dependency.getLayer();
+            LayerNode node = mLayers.get(layer);
+            if (node == null) {
+                node = new LayerNode(layer);
+                mLayers.put(layer, node);
+            }
+            increment(node.mPublisherIds, offering.getPublisherId());
+            node.mAssociatedLayer = null;
 
-            mUnavailableAssociatedLayers = Collections.unmodifiableSet(
-                    mPotentialLayersAndDependencies.keySet()
-                            .stream()
-                            .filter(l -> !availableLayersSet.contains(l))
-                            .map(l -> new VmsAssociatedLayer(l, mPotentialLayersAndPublishers.get(l)))
-                            .collect(Collectors.toSet()));
+            Set<VmsLayer> dependencies = getDependencies(dependency);
+            if (increment(node.mDependencySets, dependencies) == 1) {
+                for (VmsLayer dependencyLayer : dependencies) {
+                    Map<VmsLayer, Integer> dependents = mDependents.get(dependencyLayer);
+                    if (dependents == null) {
+                        dependents = new HashMap<>();
+                        mDependents.put(dependencyLayer, dependents);
+                    }
+                    increment(dependents, layer);
+                }
+            }
         }
     }
 
-    private void addLayerToAvailabilityCalculationLocked(VmsLayer layer,
-                                                         Set<VmsLayer> currentAvailableLayers,
-                                                         Set<VmsLayer> cyclicAvoidanceSet) {
-        if (DBG) {
-            Log.d(TAG, "addLayerToAvailabilityCalculationLocked: checking layer: " + layer);
+    @GuardedBy("mLock")
+    private void removeOfferingLocked(VmsLayersOffering offering) {
+        for (VmsLayerDependency dependency : offering.getDependencies()) {
+            VmsLayer layer = dependency.getLayer();
+            LayerNode node = mLayers.get(layer);
+            if (node == null) {
+                continue;
+            }
+            decrement(node.mPublisherIds, offering.getPublisherId());
+            node.mAssociatedLayer = null;
+
+            Set<VmsLayer> dependencies = getDependencies(dependency);
+            if (decrement(node.mDependencySets, dependencies) == 0) {
+                for (VmsLayer dependencyLayer : dependencies) {
+                    Map<VmsLayer, Integer> dependents = mDependents.get(dependencyLayer);
+                    if (dependents != null && decrement(dependents, layer) == 0
+                            && dependents.isEmpty()) {
+                        mDependents.remove(dependencyLayer);
+                    }
+                }
+            }
         }
-        // If we already know that this layer is supported then we are done.
-        if (currentAvailableLayers.contains(layer)) {
-            return;
+    }
+
+    /** Returns the layers and all the layers that depend on them, directly or not. */
+    @GuardedBy("mLock")
+    private Set<VmsLayer> getDependentsClosureLocked(Set<VmsLayer> layers) {
+        Set<VmsLayer> closure = new HashSet<>(layers);
+        ArrayDeque<VmsLayer> pending = new ArrayDeque<>(layers);
+        while (!pending.isEmpty()) {
+            Map<VmsLayer, Integer> dependents = mDependents.get(pending.poll());
+            if (dependents == null) {
+                continue;
+            }
+            for (VmsLayer dependent : dependents.keySet()) {
+                if (closure.add(dependent)) {
+                    pending.add(dependent);
+                }
+            }
         }
-        // If there is no offering for this layer we're done.
-        if (!mPotentialLayersAndDependencies.containsKey(layer)) {
-            return;
+        return closure;
+    }
+
+    /**
+     * Recalculates the availability of the given layers, which must include all layers that
+     * depend on them. Layers only available through a dependency cycle are not available.
+     */
+    @GuardedBy("mLock")
+    private void calculateLayersLocked(Set<VmsLayer> layers) {
+        for (VmsLayer layer : layers) {
+            LayerNode node = mLayers.get(layer);
+            if (node != null) {
+                node.mAvailable = false;
+            }
         }
-        // Avoid cyclic dependency.
-        if (cyclicAvoidanceSet.contains(layer)) {
-            Log.e(TAG, "Detected a cyclic dependency: " + cyclicAvoidanceSet + " -> " + layer);
-            return;
+        // Layers become available one by one, rechecking their dependents each time.
+        ArrayDeque<VmsLayer> pending = new ArrayDeque<>(layers);
+        while (!pending.isEmpty()) {
+            VmsLayer layer = pending.poll();
+            LayerNode node = mLayers.get(layer);
+            if (node == null || node.mAvailable || !isSatisfiedLocked(node)) {
+                continue;
+            }
+            node.mAvailable = true;
+            Map<VmsLayer, Integer> dependents = mDependents.get(layer);
+            if (dependents == null) {
+                continue;
+            }
+            for (VmsLayer dependent : dependents.keySet()) {
+                if (layers.contains(dependent)) {
+                    pending.add(dependent);
+                }
+            }
         }
+    }
+
+    @GuardedBy("mLock")
+    private boolean isSatisfiedLocked(LayerNode node) {
         // A layer may have multiple dependency sets. The layer is available if any dependency
         // set is satisfied
-        for (Set<VmsLayer> dependencies : mPotentialLayersAndDependencies.get(layer)) {
-            // If layer does not have any dependencies then add to supported.
-            if (dependencies == null || dependencies.isEmpty()) {
-                currentAvailableLayers.add(layer);
-                return;
-            }
-            // Add the layer to cyclic avoidance set
-            cyclicAvoidanceSet.add(layer);
-
+        for (Set<VmsLayer> dependencies : node.mDependencySets.keySet()) {
             boolean isSupported = true;
             for (VmsLayer dependency : dependencies) {
-                addLayerToAvailabilityCalculationLocked(dependency,
-                        currentAvailableLayers,
-                        cyclicAvoidanceSet);
-
-                if (!currentAvailableLayers.contains(dependency)) {
+                LayerNode dependencyNode = mLayers.get(dependency);
+                if (dependencyNode == null || !dependencyNode.mAvailable) {
                     isSupported = false;
                     break;
                 }
             }
-            cyclicAvoidanceSet.remove(layer);
-
             if (isSupported) {
-                currentAvailableLayers.add(layer);
-                return;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<VmsLayer> getDependencies(VmsLayerDependency dependency) {
+        Set<VmsLayer> dependencies = dependency.getDependencies();
+        return dependencies == null ? Collections.<VmsLayer>emptySet() : dependencies;
+    }
+
+    private static <K> int increment(Map<K, Integer> counts, K key) {
+        Integer count = counts.get(key);
+        int newCount = count == null ? 1 : count + 1;
+        counts.put(key, newCount);
+        return newCount;
+    }
+
+    private static <K> int decrement(Map<K, Integer> counts, K key) {
+        Integer count = counts.get(key);
+        if (count == null) {
+            return 0;
+        }
+        if (count <= 1) {
+            counts.remove(key);
+            return 0;
+        }
+        counts.put(key, count - 1);
+        return count - 1;
+    }
+
+    /** A layer with at least one offering. */
+    private static class LayerNode {
+        final VmsLayer mLayer;
+        // Number of offerings with each dependency set.
+        final Map<Set<VmsLayer>, Integer> mDependencySets = new HashMap<>();
+        // Number of offerings by each publisher.
+        final Map<Integer, Integer> mPublisherIds = new HashMap<>();
+        boolean mAvailable;
+        // Null if the publishers changed.
+        VmsAssociatedLayer mAssociatedLayer;
+
+        LayerNode(VmsLayer layer) {
+            mLayer = layer;
+        }
+
+        VmsAssociatedLayer getAssociatedLayer() {
+            if (mAssociatedLayer == null) {
+                mAssociatedLayer =
+                        new VmsAssociatedLayer(mLayer, new HashSet<>(mPublisherIds.keySet()));
             }
+            return mAssociatedLayer;
+        }
+    }
+
+    /**
+     * Difference between the available layers before and after an offering changed. A layer
+     * whose publishers changed is both removed, with the old publishers, and added.
+     */
+    public static final class AvailabilityChange {
+        private final Set<VmsAssociatedLayer> mAddedLayers;
+        private final Set<VmsAssociatedLayer> mRemovedLayers;
+
+        AvailabilityChange(Set<VmsAssociatedLayer> addedLayers,
+                Set<VmsAssociatedLayer> removedLayers) {
+            mAddedLayers = Collections.unmodifiableSet(addedLayers);
+            mRemovedLayers = Collections.unmodifiableSet(removedLayers);
+        }
+
+        public Set<VmsAssociatedLayer> getAddedLayers() {
+            return mAddedLayers;
+        }
+
+        public Set<VmsAssociatedLayer> getRemovedLayers() {
+            return mRemovedLayers;
+        }
+
+        public boolean isEmpty() {
+            return mAddedLayers.isEmpty() && mRemovedLayers.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "AvailabilityChange{ Added: " + mAddedLayers + ", Removed: " + mRemovedLayers
+                    + "}";
         }
-        return;
     }
 }
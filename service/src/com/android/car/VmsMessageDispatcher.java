@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.annotation.FutureFeature;
+import android.car.vms.IVmsSubscriberClient;
+import android.car.vms.VmsLayer;
+import android.car.vms.VmsMessageBatch;
+import android.car.vms.VmsSharedPayload;
+import android.content.Context;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers VMS messages to subscribers from a small pool of worker threads, so that a slow or
+ * hung subscriber neither delays the other subscribers nor blocks the publisher.
+ *
+ * <p>Each subscriber has its own bounded queue, delivered in order by at most one worker at a
+ * time. When a queue is full, messages are dropped according to the configured overflow policy.
+ */
+@FutureFeature
+class VmsMessageDispatcher {
+    private static final boolean DBG = false;
+    private static final String TAG = "VmsMessageDispatcher";
+
+    /** Drops the oldest queued message. */
+    static final int OVERFLOW_DROP_OLDEST = 0;
+    /** Drops the new message. */
+    static final int OVERFLOW_DROP_NEWEST = 1;
+    /**
+     * Drops the oldest queued message of the same layer as the new message, or the oldest queued
+     * message if there is none, so that the latest message of every layer gets delivered.
+     */
+    static final int OVERFLOW_KEEP_LATEST_PER_LAYER = 2;
+
+    private static final int WORKER_THREADS = 2;
+    private static final long WORKER_KEEP_ALIVE_SEC = 30;
+    /**
+     * Messages delivered to a subscriber, batched if possible, before its worker moves on to
+     * other subscribers.
+     */
+    private static final int MAX_BATCH = 16;
+    /**
+     * Maximum payload bytes of a batch, well below the binder transaction limit. A larger message
+     * is delivered on its own.
+     */
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private final int mQueueSize;
+    private final int mOverflowPolicy;
+    private final VmsSharedPayloadTracker mSharedPayloads;
+    private final VmsTrafficMetrics mMetrics;
+    private final ThreadPoolExecutor mWorkers;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final ArrayMap<IBinder, SubscriberQueue> mQueues = new ArrayMap<>();
+
+    VmsMessageDispatcher(Context context, VmsSharedPayloadTracker sharedPayloads,
+            VmsTrafficMetrics metrics) {
+        this(context.getResources().getInteger(R.integer.vmsSubscriberQueueSize),
+                parseOverflowPolicy(context.getResources().getString(
+                        R.string.vmsSubscriberQueueOverflowPolicy)),
+                sharedPayloads, metrics);
+    }
+
+    VmsMessageDispatcher(int queueSize, int overflowPolicy,
+            VmsSharedPayloadTracker sharedPayloads, VmsTrafficMetrics metrics) {
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("Invalid queue size: " + queueSize);
+        }
+        mQueueSize = queueSize;
+        mOverflowPolicy = overflowPolicy;
+        mSharedPayloads = sharedPayloads;
+        mMetrics = metrics;
+        mWorkers = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS,
+                WORKER_KEEP_ALIVE_SEC, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new WorkerThreadFactory());
+        mWorkers.allowCoreThreadTimeOut(true);
+    }
+
+    static int parseOverflowPolicy(String policy) {
+        switch (policy) {
+            case "drop_oldest":
+                return OVERFLOW_DROP_OLDEST;
+            case "drop_newest":
+                return OVERFLOW_DROP_NEWEST;
+            case "keep_latest_per_layer":
+                return OVERFLOW_KEEP_LATEST_PER_LAYER;
+            default:
+                Log.w(TAG, "Unknown overflow policy: " + policy + ", using drop_oldest");
+                return OVERFLOW_DROP_OLDEST;
+        }
+    }
+
+    static String overflowPolicyToString(int policy) {
+        switch (policy) {
+            case OVERFLOW_DROP_OLDEST:
+                return "drop_oldest";
+            case OVERFLOW_DROP_NEWEST:
+                return "drop_newest";
+            case OVERFLOW_KEEP_LATEST_PER_LAYER:
+                return "keep_latest_per_layer";
+            default:
+                return "unknown(" + policy + ")";
+        }
+    }
+
+    /** Queues a message for the subscriber. */
+    void dispatch(IVmsSubscriberClient subscriber, VmsLayer layer, byte[] payload) {
+        getQueue(subscriber).offer(new Message(layer, payload, null));
+    }
+
+    /** Queues messages for the subscriber, in order. */
+    void dispatch(IVmsSubscriberClient subscriber, List<VmsLayer> layers,
+            List<byte[]> payloads) {
+        ArrayList<Message> messages = new ArrayList<>(layers.size());
+        for (int i = 0; i < layers.size(); i++) {
+            messages.add(new Message(layers.get(i), payloads.get(i), null));
+        }
+        getQueue(subscriber).offerAll(messages);
+    }
+
+    /**
+     * Queues a shared memory message for the subscriber. The subscriber must already be a
+     * receiver of the payload in {@link VmsSharedPayloadTracker}, it is released if the message
+     * is dropped or cannot be delivered.
+     */
+    void dispatchShared(IVmsSubscriberClient subscriber, VmsLayer layer,
+            VmsSharedPayload payload) {
+        getQueue(subscriber).offer(new Message(layer, null, payload));
+    }
+
+    /** Drops the queued messages of a subscriber that went away. */
+    void removeSubscriber(IBinder subscriber) {
+        SubscriberQueue queue;
+        synchronized (mLock) {
+            queue = mQueues.remove(subscriber);
+        }
+        if (queue != null) {
+            queue.clear();
+        }
+    }
+
+    /** Drops all queued messages. */
+    void release() {
+        ArrayList<SubscriberQueue> queues;
+        synchronized (mLock) {
+            queues = new ArrayList<>(mQueues.values());
+            mQueues.clear();
+        }
+        for (SubscriberQueue queue : queues) {
+            queue.clear();
+        }
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println("**VMS message dispatching**");
+        writer.println("queue size:" + mQueueSize
+                + " overflow policy:" + overflowPolicyToString(mOverflowPolicy)
+                + " active workers:" + mWorkers.getActiveCount());
+        ArrayList<SubscriberQueue> queues;
+        synchronized (mLock) {
+            queues = new ArrayList<>(mQueues.values());
+        }
+        for (SubscriberQueue queue : queues) {
+            queue.dump(writer);
+        }
+    }
+
+    private SubscriberQueue getQueue(IVmsSubscriberClient subscriber) {
+        IBinder binder = subscriber.asBinder();
+        synchronized (mLock) {
+            SubscriberQueue queue = mQueues.get(binder);
+            if (queue == null) {
+                queue = new SubscriberQueue(subscriber);
+                mQueues.put(binder, queue);
+            }
+            return queue;
+        }
+    }
+
+    private void releaseSharedPayload(SubscriberQueue queue, Message message) {
+        if (message.mSharedPayload != null) {
+            mSharedPayloads.release(queue.mBinder, message.mSharedPayload.getId());
+        }
+    }
+
+    private static final class Message {
+        final VmsLayer mLayer;
+        final byte[] mPayload;
+        final VmsSharedPayload mSharedPayload;
+        final long mQueuedTimeNs = SystemClock.elapsedRealtimeNanos();
+
+        Message(VmsLayer layer, byte[] payload, VmsSharedPayload sharedPayload) {
+            mLayer = layer;
+            mPayload = payload;
+            mSharedPayload = sharedPayload;
+        }
+    }
+
+    /** Messages of one subscriber, delivered by at most one worker at a time. */
+    private final class SubscriberQueue implements Runnable {
+        final IVmsSubscriberClient mSubscriber;
+        final IBinder mBinder;
+        private final long mCreatedTimeMs = SystemClock.elapsedRealtime();
+
+        @GuardedBy("this")
+        private final ArrayDeque<Message> mMessages = new ArrayDeque<>();
+        @GuardedBy("this")
+        private boolean mScheduled;
+
+        // Counters, only read for dumping.
+        @GuardedBy("this")
+        private long mQueued;
+        @GuardedBy("this")
+        private long mDropped;
+        private volatile long mDelivered;
+        private volatile long mFailed;
+        private volatile long mBatches;
+        private volatile long mLastLagMs;
+        private volatile long mMaxLagMs;
+
+        SubscriberQueue(IVmsSubscriberClient subscriber) {
+            mSubscriber = subscriber;
+            mBinder = subscriber.asBinder();
+        }
+
+        void offer(Message message) {
+            Message dropped;
+            boolean schedule;
+            synchronized (this) {
+                dropped = offerLocked(message);
+                schedule = scheduleLocked();
+            }
+            if (dropped != null) {
+                onDropped(dropped);
+            }
+            if (schedule) {
+                mWorkers.execute(this);
+            }
+        }
+
+        /** Queues the messages at once, so that they are likely delivered in a single batch. */
+        void offerAll(List<Message> messages) {
+            ArrayList<Message> dropped = null;
+            boolean schedule;
+            synchronized (this) {
+                for (int i = 0; i < messages.size(); i++) {
+                    Message droppedMessage = offerLocked(messages.get(i));
+                    if (droppedMessage != null) {
+                        if (dropped == null) {
+                            dropped = new ArrayList<>();
+                        }
+                        dropped.add(droppedMessage);
+                    }
+                }
+                schedule = scheduleLocked();
+            }
+            if (dropped != null) {
+                for (int i = 0; i < dropped.size(); i++) {
+                    onDropped(dropped.get(i));
+                }
+            }
+            if (schedule) {
+                mWorkers.execute(this);
+            }
+        }
+
+        /** Returns the message dropped to make room, if any. */
+        @GuardedBy("this")
+        private Message offerLocked(Message message) {
+            mQueued++;
+            if (mMessages.size() < mQueueSize) {
+                mMessages.addLast(message);
+                return null;
+            }
+            mDropped++;
+            Message dropped;
+            switch (mOverflowPolicy) {
+                case OVERFLOW_DROP_NEWEST:
+                    return message;
+                case OVERFLOW_KEEP_LATEST_PER_LAYER:
+                    dropped = removeOldestOfLayerLocked(message.mLayer);
+                    if (dropped == null) {
+                        dropped = mMessages.pollFirst();
+                    }
+                    break;
+                default:
+                    dropped = mMessages.pollFirst();
+                    break;
+            }
+            mMessages.addLast(message);
+            return dropped;
+        }
+
+        /** Returns whether a worker needs to be started. */
+        @GuardedBy("this")
+        private boolean scheduleLocked() {
+            if (mScheduled || mMessages.isEmpty()) {
+                return false;
+            }
+            mScheduled = true;
+            return true;
+        }
+
+        private void onDropped(Message message) {
+            if (DBG) {
+                Log.d(TAG, "Dropped message of layer " + message.mLayer + " for " + mSubscriber);
+            }
+            mMetrics.recordDropped(message.mLayer);
+            releaseSharedPayload(this, message);
+        }
+
+        @GuardedBy("this")
+        private Message removeOldestOfLayerLocked(VmsLayer layer) {
+            Iterator<Message> iterator = mMessages.iterator();
+            while (iterator.hasNext()) {
+                Message message = iterator.next();
+                if (message.mLayer.equals(layer)) {
+                    iterator.remove();
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void run() {
+            ArrayList<Message> messages = new ArrayList<>();
+            synchronized (this) {
+                while (messages.size() < MAX_BATCH && !mMessages.isEmpty()) {
+                    messages.add(mMessages.pollFirst());
+                }
+                if (messages.isEmpty()) {
+                    mScheduled = false;
+                    return;
+                }
+            }
+            deliver(messages);
+            // Give the other subscribers a chance before continuing.
+            mWorkers.execute(this);
+        }
+
+        /**
+         * Delivers the messages in order. Consecutive regular messages go out in batches of up to
+         * {@link #MAX_BATCH_BYTES}, shared memory messages one by one.
+         */
+        private void deliver(ArrayList<Message> messages) {
+            int batchStart = 0;
+            int batchBytes = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                if (message.mSharedPayload == null) {
+                    int bytes = message.mPayload == null ? 0 : message.mPayload.length;
+                    if (i > batchStart && batchBytes + bytes > MAX_BATCH_BYTES) {
+                        deliverBatch(messages, batchStart, i);
+                        batchStart = i;
+                        batchBytes = 0;
+                    }
+                    batchBytes += bytes;
+                    continue;
+                }
+                deliverBatch(messages, batchStart, i);
+                batchStart = i + 1;
+                batchBytes = 0;
+                updateLag(message);
+                try {
+                    mSubscriber.onVmsSharedMessageReceived(message.mLayer,
+                            message.mSharedPayload);
+                    mDelivered++;
+                    onDelivered(messages, i, i + 1);
+                } catch (RemoteException | RuntimeException e) {
+                    onDeliveryFailed(e, messages, i, i + 1);
+                    releaseSharedPayload(this, message);
+                }
+            }
+            deliverBatch(messages, batchStart, messages.size());
+        }
+
+        private void deliverBatch(ArrayList<Message> messages, int start, int end) {
+            int count = end - start;
+            if (count <= 0) {
+                return;
+            }
+            updateLag(messages.get(start));
+            try {
+                if (count == 1) {
+                    Message message = messages.get(start);
+                    mSubscriber.onVmsMessageReceived(message.mLayer, message.mPayload);
+                } else {
+                    List<VmsLayer> layers = new ArrayList<>(count);
+                    List<byte[]> payloads = new ArrayList<>(count);
+                    for (int i = start; i < end; i++) {
+                        layers.add(messages.get(i).mLayer);
+                        payloads.add(messages.get(i).mPayload);
+                    }
+                    mSubscriber.onVmsMessagesReceived(new VmsMessageBatch(layers, payloads));
+                    mBatches++;
+                }
+                mDelivered += count;
+                onDelivered(messages, start, end);
+            } catch (RemoteException | RuntimeException e) {
+                onDeliveryFailed(e, messages, start, end);
+            }
+        }
+
+        /** Lag of the oldest message being delivered. */
+        private void updateLag(Message message) {
+            long lagMs = TimeUnit.NANOSECONDS.toMillis(
+                    SystemClock.elapsedRealtimeNanos() - message.mQueuedTimeNs);
+            mLastLagMs = lagMs;
+            if (lagMs > mMaxLagMs) {
+                mMaxLagMs = lagMs;
+            }
+        }
+
+        private void onDelivered(ArrayList<Message> messages, int start, int end) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            for (int i = start; i < end; i++) {
+                Message message = messages.get(i);
+                mMetrics.recordDelivered(message.mLayer, now - message.mQueuedTimeNs);
+            }
+        }
+
+        private void onDeliveryFailed(Exception e, ArrayList<Message> messages, int start,
+                int end) {
+            int count = end - start;
+            // If we could not send a record, its likely the connection snapped. Let the binder
+            // death handle the situation.
+            Log.e(TAG, "Unable to deliver " + count + " messages to " + mSubscriber, e);
+            mFailed += count;
+            for (int i = start; i < end; i++) {
+                mMetrics.recordFailed(messages.get(i).mLayer);
+            }
+        }
+
+        void clear() {
+            ArrayList<Message> messages;
+            synchronized (this) {
+                messages = new ArrayList<>(mMessages);
+                mDropped += mMessages.size();
+                mMessages.clear();
+            }
+            for (Message message : messages) {
+                mMetrics.recordDropped(message.mLayer);
+                releaseSharedPayload(this, message);
+            }
+        }
+
+        void dump(PrintWriter writer) {
+            long elapsedSec = Math.max(1,
+                    (SystemClock.elapsedRealtime() - mCreatedTimeMs) / 1000);
+            synchronized (this) {
+                writer.println("subscriber:" + mBinder + " depth:" + mMessages.size()
+                        + " queued:" + mQueued + " delivered:" + mDelivered
+                        + " batches:" + mBatches
+                        + " dropped:" + mDropped + " failed:" + mFailed
+                        + " lag ms:" + mLastLagMs + " max lag ms:" + mMaxLagMs
+                        + " delivered/s:" + mDelivered / elapsedSec);
+            }
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, TAG + "-" + mCount.incrementAndGet());
+        }
+    }
+}
@@ -22,6 +22,8 @@ import android.car.vms.IVmsPublisherClient;
 import android.car.vms.IVmsPublisherService;
 import android.car.vms.VmsLayer;
 import android.car.vms.VmsLayersOffering;
+import android.car.vms.VmsMessageBatch;
+import android.car.vms.VmsSharedPayload;
 import android.car.vms.VmsSubscriptionState;
 import android.content.ComponentName;
 import android.content.Context;
@@ -34,9 +36,12 @@ import android.os.IBinder;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.Log;
+import android.util.SparseBooleanArray;
 import com.android.car.hal.VmsHalService;
 import com.android.internal.annotations.GuardedBy;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
@@ -61,11 +66,25 @@ public class VmsPublisherService extends IVmsPublisherService.Stub
     private final Context mContext;
     private final VmsHalService mHal;
     private final VmsPublisherManager mPublisherManager;
+    private final VmsSharedPayloadTracker mSharedPayloads;
+    private final VmsMessageDispatcher mDispatcher;
+    private final VmsTrafficMetrics mMetrics;
     private Set<String> mSafePermissions;
 
-    public VmsPublisherService(Context context, VmsHalService hal) {
+    private final Object mLock = new Object();
+    // Publisher IDs used by each connected publisher, key: the publisher's token. The retained
+    // messages of these IDs are removed when the publisher disconnects.
+    @GuardedBy("mLock")
+    private final ArrayMap<IBinder, SparseBooleanArray> mPublisherIds = new ArrayMap<>();
+
+    public VmsPublisherService(Context context, VmsHalService hal,
+            VmsSharedPayloadTracker sharedPayloads, VmsMessageDispatcher dispatcher,
+            VmsTrafficMetrics metrics) {
         mContext = context;
         mHal = hal;
+        mSharedPayloads = sharedPayloads;
+        mDispatcher = dispatcher;
+        mMetrics = metrics;
         mPublisherManager = new VmsPublisherManager(this);
     }
 
@@ -96,10 +115,15 @@ public class VmsPublisherService extends IVmsPublisherService.Stub
     public void release() {
         mPublisherManager.release();
         mHal.removePublisherListener(this);
+        synchronized (mLock) {
+            mPublisherIds.clear();
+        }
     }
 
     @Override
     public void dump(PrintWriter writer) {
+        writer.println("*VmsPublisherService*");
+        mSharedPayloads.dump(writer);
     }
 
     @Override
@@ -115,30 +139,125 @@ public class VmsPublisherService extends IVmsPublisherService.Stub
         }
         ICarImpl.assertVmsPublisherPermission(mContext);
 
-        // Send the message to application listeners.
-        Set<IVmsSubscriberClient> listeners =
-                mHal.getSubscribersForLayerFromPublisher(layer, publisherId);
+        addPublisherId(token, publisherId);
 
-        if (DBG) {
-            Log.d(TAG, "Number of subscribed apps: " + listeners.size());
-        }
-        for (IVmsSubscriberClient listener : listeners) {
-            try {
-                listener.onVmsMessageReceived(layer, payload);
-            } catch (RemoteException ex) {
-                Log.e(TAG, "unable to publish to listener: " + listener);
+        // Send the message to application listeners. Subscribers added meanwhile get the
+        // retained message instead.
+        IVmsSubscriberClient[] listeners;
+        synchronized (mHal.getDeliveryLock()) {
+            mHal.retainMessage(layer, publisherId, payload);
+            listeners = mHal.getRoutedSubscribers(layer, publisherId);
+            for (IVmsSubscriberClient listener : listeners) {
+                mDispatcher.dispatch(listener, layer, payload);
             }
         }
 
+        if (DBG) {
+            Log.d(TAG, "Number of subscribed apps: " + listeners.length);
+        }
+        mMetrics.recordPublished(layer, publisherId, payload.length, listeners.length);
+
         // Send the message to HAL
         if (mHal.isHalSubscribed(layer)) {
-            Log.d(TAG, "HAL is subscribed");
+            if (DBG) {
+                Log.d(TAG, "HAL is subscribed");
+            }
             mHal.setDataMessage(layer, payload);
-        } else {
+        } else if (DBG) {
             Log.d(TAG, "HAL is NOT subscribed");
         }
     }
 
+    @Override
+    public void publishBatch(IBinder token, int publisherId, VmsMessageBatch batch) {
+        if (DBG) {
+            Log.d(TAG, "Publishing batch of " + batch.size() + " messages");
+        }
+        ICarImpl.assertVmsPublisherPermission(mContext);
+        addPublisherId(token, publisherId);
+
+        // Route each layer once and collect the messages of each listener, in order.
+        ArrayMap<VmsLayer, IVmsSubscriberClient[]> routes = new ArrayMap<>();
+        ArrayMap<IVmsSubscriberClient, VmsMessageBatchBuilder> listenerMessages =
+                new ArrayMap<>();
+        // Retained and queued as one step, like publish().
+        synchronized (mHal.getDeliveryLock()) {
+            for (int i = 0; i < batch.size(); i++) {
+                VmsLayer layer = batch.getLayer(i);
+                mHal.retainMessage(layer, publisherId, batch.getPayload(i));
+                IVmsSubscriberClient[] listeners = routes.get(layer);
+                if (listeners == null) {
+                    listeners = mHal.getRoutedSubscribers(layer, publisherId);
+                    routes.put(layer, listeners);
+                }
+                for (IVmsSubscriberClient listener : listeners) {
+                    VmsMessageBatchBuilder messages = listenerMessages.get(listener);
+                    if (messages == null) {
+                        messages = new VmsMessageBatchBuilder();
+                        listenerMessages.put(listener, messages);
+                    }
+                    messages.add(layer, batch.getPayload(i));
+                }
+            }
+            for (int i = 0; i < listenerMessages.size(); i++) {
+                VmsMessageBatchBuilder messages = listenerMessages.valueAt(i);
+                mDispatcher.dispatch(listenerMessages.keyAt(i), messages.mLayers,
+                        messages.mPayloads);
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            mMetrics.recordPublished(batch.getLayer(i), publisherId,
+                    batch.getPayload(i).length, routes.get(batch.getLayer(i)).length);
+        }
+
+        mHal.setDataMessages(batch);
+    }
+
+    @Override
+    public void publishShared(IBinder token, VmsLayer layer, int publisherId,
+            VmsSharedPayload payload, IVmsPublisherClient publisher) {
+        if (DBG) {
+            Log.d(TAG, "Publishing shared payload for layer: " + layer);
+        }
+        ICarImpl.assertVmsPublisherPermission(mContext);
+
+        // The publisher is given explicitly, so that its region is released even if the token
+        // is not known.
+        VmsSharedPayloadTracker.Delivery delivery =
+                mSharedPayloads.startDelivery(publisher, payload);
+        try {
+            // The payload is read in any case to be retained, and sent to receivers which cannot
+            // use the shared memory.
+            byte[] bytes = payload.readPayload();
+            addPublisherId(token, publisherId);
+            IVmsSubscriberClient[] listeners;
+            // Retained and queued as one step, like publish().
+            synchronized (mHal.getDeliveryLock()) {
+                mHal.retainMessage(layer, publisherId, bytes);
+                listeners = mHal.getRoutedSubscribers(layer, publisherId);
+                for (IVmsSubscriberClient listener : listeners) {
+                    IBinder listenerBinder = listener.asBinder();
+                    if (mSharedPayloads.isSharedPayloadsEnabled(listenerBinder)) {
+                        mSharedPayloads.addReceiver(delivery, listenerBinder);
+                        mDispatcher.dispatchShared(listener, layer,
+                                delivery.getSubscriberPayload());
+                    } else {
+                        mDispatcher.dispatch(listener, layer, bytes);
+                    }
+                }
+            }
+            mMetrics.recordPublished(layer, publisherId, payload.getLength(), listeners.length);
+
+            if (mHal.isHalSubscribed(layer)) {
+                mHal.setDataMessage(layer, bytes);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "unable to read shared payload: " + payload, e);
+        } finally {
+            mSharedPayloads.finishDelivery(delivery);
+        }
+    }
+
     @Override
     public VmsSubscriptionState getSubscriptions() {
         ICarImpl.assertVmsPublisherPermission(mContext);
@@ -151,6 +270,42 @@ public class VmsPublisherService extends IVmsPublisherService.Stub
         return mHal.getPublisherId(publisherInfo);
     }
 
+    /**
+     * Remembers that the publisher uses the ID, so that the retained messages of the ID can be
+     * removed once the publisher disconnects.
+     */
+    private void addPublisherId(IBinder token, int publisherId) {
+        synchronized (mLock) {
+            SparseBooleanArray publisherIds = mPublisherIds.get(token);
+            if (publisherIds != null && publisherIds.get(publisherId)) {
+                return;
+            }
+            if (mPublisherManager.getClient(token) == null) {
+                // Not connected, nothing to remove on disconnection.
+                return;
+            }
+            if (publisherIds == null) {
+                publisherIds = new SparseBooleanArray();
+                mPublisherIds.put(token, publisherIds);
+            }
+            publisherIds.put(publisherId, true);
+        }
+    }
+
+    /** Removes the retained messages of the publisher that was given the token. */
+    private void onPublisherDisconnected(IBinder token) {
+        SparseBooleanArray publisherIds;
+        synchronized (mLock) {
+            publisherIds = mPublisherIds.remove(token);
+        }
+        if (publisherIds == null) {
+            return;
+        }
+        for (int i = 0; i < publisherIds.size(); i++) {
+            mHal.removeRetainedMessages(publisherIds.keyAt(i));
+        }
+    }
+
     // Implements VmsHalListener interface
     /**
      * This method is only invoked by VmsHalService.notifyPublishers which is synchronized.
@@ -168,6 +323,16 @@ public class VmsPublisherService extends IVmsPublisherService.Stub
         }
     }
 
+    private static class VmsMessageBatchBuilder {
+        final List<VmsLayer> mLayers = new ArrayList<>();
+        final List<byte[]> mPayloads = new ArrayList<>();
+
+        void add(VmsLayer layer, byte[] payload) {
+            mLayers.add(layer);
+            mPayloads.add(payload);
+        }
+    }
+
     /**
      * Keeps track of publishers that are using this service.
      */
@@ -180,6 +345,9 @@ public class VmsPublisherService extends IVmsPublisherService.Stub
         private final Map<String, PublisherConnection> mPublisherConnectionMap = new HashMap<>();
         @GuardedBy("mLock")
         private final Map<String, IVmsPublisherClient> mPublisherMap = new HashMap<>();
+        // key: the token given to the publisher.
+        @GuardedBy("mLock")
+        private final Map<IBinder, IVmsPublisherClient> mPublisherTokenMap = new HashMap<>();
         private final WeakReference<VmsPublisherService> mPublisherService;
 
         public VmsPublisherManager(VmsPublisherService publisherService) {
@@ -228,16 +396,22 @@ public class VmsPublisherService extends IVmsPublisherService.Stub
             if (DBG) {
                 Log.d(TAG, "unbinding from: " + publisherName);
             }
+            IBinder token = null;
             synchronized (mLock) {
                 boolean found = mPublisherMap.remove(publisherName) != null;
                 if (found) {
                     PublisherConnection connection = mPublisherConnectionMap.get(publisherName);
+                    mPublisherTokenMap.remove(connection.mToken);
                     publisherService.mContext.unbindService(connection);
                     mPublisherConnectionMap.remove(publisherName);
+                    token = connection.mToken;
                 } else {
                     Log.e(TAG, "unbind: unknown publisher." + publisherName);
                 }
             }
+            if (token != null) {
+                publisherService.onPublisherDisconnected(token);
+            }
         }
 
         /**
@@ -251,6 +425,15 @@ public class VmsPublisherService extends IVmsPublisherService.Stub
             }
         }
 
+        /**
+         * Returns the publisher that was given the token, or {@code null} if not connected.
+         */
+        public IVmsPublisherClient getClient(IBinder token) {
+            synchronized (mLock) {
+                return mPublisherTokenMap.get(token);
+            }
+        }
+
         public void release() {
             VmsPublisherService publisherService = mPublisherService.get();
             if (publisherService == null) return;
@@ -259,6 +442,7 @@ public class VmsPublisherService extends IVmsPublisherService.Stub
             }
             mPublisherConnectionMap.clear();
             mPublisherMap.clear();
+            mPublisherTokenMap.clear();
         }
 
         private void grantPermissions(ComponentName component) {
@@ -313,6 +497,7 @@ public class VmsPublisherService extends IVmsPublisherService.Stub
                 IVmsPublisherClient service = IVmsPublisherClient.Stub.asInterface(binder);
                 synchronized (mLock) {
                     mPublisherMap.put(name.flattenToString(), service);
+                    mPublisherTokenMap.put(mToken, service);
                 }
                 try {
                     service.setVmsPublisherService(mToken, publisherService);
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.annotation.FutureFeature;
+import android.car.vms.VmsLayer;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the latest message published for each layer and publisher, so that new subscribers do not
+ * have to wait for the next message. The least recently used messages are evicted once the number
+ * of messages or their total size exceeds the limits. Disabled until the limits are set.
+ */
+@FutureFeature
+class VmsRetainedMessages {
+    private final Object mLock = new Object();
+    // In least recently used order.
+    @GuardedBy("mLock")
+    private final LinkedHashMap<Key, byte[]> mMessages = new LinkedHashMap<>(16, 0.75f, true);
+    @GuardedBy("mLock")
+    private int mMaxMessages;
+    @GuardedBy("mLock")
+    private int mMaxBytes;
+    @GuardedBy("mLock")
+    private long mTotalBytes;
+    @GuardedBy("mLock")
+    private long mEvictions;
+    // Read without the lock, so that publishing is not slowed down while disabled.
+    private volatile boolean mEnabled;
+
+    /**
+     * Sets the limits, evicting messages if needed. A limit of 0 disables retaining messages.
+     */
+    void setLimits(int maxMessages, int maxBytes) {
+        synchronized (mLock) {
+            mMaxMessages = Math.max(maxMessages, 0);
+            mMaxBytes = Math.max(maxBytes, 0);
+            mEnabled = mMaxMessages > 0 && mMaxBytes > 0;
+            trimLocked();
+        }
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Replaces the retained message of the layer and publisher. Payloads larger than the size
+     * limit only remove the previous message.
+     */
+    void retain(VmsLayer layer, int publisherId, byte[] payload) {
+        if (!mEnabled) {
+            return;
+        }
+        Key key = new Key(layer, publisherId);
+        synchronized (mLock) {
+            byte[] previousPayload = payload.length <= mMaxBytes
+                    ? mMessages.put(key, payload) : mMessages.remove(key);
+            if (previousPayload != null) {
+                mTotalBytes -= previousPayload.length;
+            }
+            if (payload.length <= mMaxBytes) {
+                mTotalBytes += payload.length;
+                trimLocked();
+            }
+        }
+    }
+
+    /** Returns the retained message, or {@code null} if there is none. */
+    byte[] get(VmsLayer layer, int publisherId) {
+        if (!mEnabled) {
+            return null;
+        }
+        synchronized (mLock) {
+            return mMessages.get(new Key(layer, publisherId));
+        }
+    }
+
+    /** Returns the retained messages of the layer, keyed by publisher ID. */
+    SparseArray<byte[]> get(VmsLayer layer) {
+        SparseArray<byte[]> messages = new SparseArray<>();
+        if (!mEnabled) {
+            return messages;
+        }
+        synchronized (mLock) {
+            for (Map.Entry<Key, byte[]> entry : mMessages.entrySet()) {
+                if (entry.getKey().mLayer.equals(layer)) {
+                    messages.put(entry.getKey().mPublisherId, entry.getValue());
+                }
+            }
+            // Iterating does not count as an access.
+            for (int i = 0; i < messages.size(); i++) {
+                mMessages.get(new Key(layer, messages.keyAt(i)));
+            }
+        }
+        return messages;
+    }
+
+    /** Removes the retained messages of every layer of the publisher. */
+    void remove(int publisherId) {
+        if (!mEnabled) {
+            return;
+        }
+        synchronized (mLock) {
+            Iterator<Map.Entry<Key, byte[]>> it = mMessages.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, byte[]> entry = it.next();
+                if (entry.getKey().mPublisherId == publisherId) {
+                    mTotalBytes -= entry.getValue().length;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    void dump(PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println("Retained messages: " + mMessages.size() + "/" + mMaxMessages
+                    + ", bytes: " + mTotalBytes + "/" + mMaxBytes + ", evicted: " + mEvictions);
+            for (Map.Entry<Key, byte[]> entry : mMessages.entrySet()) {
+                writer.println("\t" + entry.getKey() + ": " + entry.getValue().length + " bytes");
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void trimLocked() {
+        Iterator<Map.Entry<Key, byte[]>> it = mMessages.entrySet().iterator();
+        while (it.hasNext() && (mMessages.size() > mMaxMessages || mTotalBytes > mMaxBytes)) {
+            mTotalBytes -= it.next().getValue().length;
+            it.remove();
+            mEvictions++;
+        }
+    }
+
+    private static class Key {
+        final VmsLayer mLayer;
+        final int mPublisherId;
+
+        Key(VmsLayer layer, int publisherId) {
+            mLayer = layer;
+            mPublisherId = publisherId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mPublisherId == key.mPublisherId && mLayer.equals(key.mLayer);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mLayer.hashCode() + mPublisherId;
+        }
+
+        @Override
+        public String toString() {
+            return mLayer + " from publisher " + mPublisherId;
+        }
+    }
+}
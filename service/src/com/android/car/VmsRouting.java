@@ -22,9 +22,12 @@ import android.car.vms.VmsAssociatedLayer;
 import android.car.vms.VmsLayer;
 import android.car.vms.VmsOperationRecorder;
 import android.car.vms.VmsSubscriptionState;
+import android.util.ArraySet;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.GuardedBy;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -38,6 +41,7 @@ import java.util.stream.Collectors;
  * + Subscriptions to data messages of individual layer + version.
  * + Subscriptions to all data messages.
  * + HAL subscriptions to layer + version.
+ * + The retained latest message of each layer + version and publisher, if enabled.
  */
 @FutureFeature
 public class VmsRouting {
@@ -61,8 +65,14 @@ public class VmsRouting {
     private Map<VmsLayer, Set<Integer>> mHalSubscriptionsToPublishers = new HashMap<>();
     // A sequence number that is increased every time the subscription state is modified. Note that
     // modifying the list of promiscuous subscribers does not affect the subscription state.
-    @GuardedBy("mLock")
-    private int mSequenceNumber = 0;
+    // Only modified under mLock, volatile so that the routing snapshot can be checked without it.
+    private volatile int mSequenceNumber = 0;
+
+    // Subscribers of every layer and publisher, rebuilt when mSequenceNumber has changed.
+    private volatile RoutingSnapshot mRoutingSnapshot = new RoutingSnapshot(-1);
+
+    // Has its own lock so that retaining messages does not block subscription changes.
+    private final VmsRetainedMessages mRetainedMessages = new VmsRetainedMessages();
 
     /**
      * Add a subscriber subscription to data messages from a VMS layer.
@@ -236,23 +246,77 @@ public class VmsRouting {
     public Set<IVmsSubscriberClient> getSubscribersForLayerFromPublisher(VmsLayer layer,
                                                                          int publisherId) {
         Set<IVmsSubscriberClient> subscribers = new HashSet<>();
-        synchronized (mLock) {
-            // Add the subscribers which explicitly subscribed to this layer
-            if (mLayerSubscriptions.containsKey(layer)) {
-                subscribers.addAll(mLayerSubscriptions.get(layer));
-            }
+        for (IVmsSubscriberClient subscriber : getRoutedSubscribers(layer, publisherId)) {
+            subscribers.add(subscriber);
+        }
+        return subscribers;
+    }
+
+    /**
+     * Same as {@link #getSubscribersForLayerFromPublisher} but neither locks nor allocates unless
+     * subscriptions changed since the last call. Used for routing every published message.
+     *
+     * @return the subscribers, without duplicates. Must not be modified.
+     */
+    public IVmsSubscriberClient[] getRoutedSubscribers(VmsLayer layer, int publisherId) {
+        return getRoutingSnapshot().getSubscribers(layer, publisherId);
+    }
 
-            // Add the subscribers which explicitly subscribed to this layer and publisher
-            if (mLayerSubscriptionsToPublishers.containsKey(layer)) {
-                if (mLayerSubscriptionsToPublishers.get(layer).containsKey(publisherId)) {
-                    subscribers.addAll(mLayerSubscriptionsToPublishers.get(layer).get(publisherId));
+    private RoutingSnapshot getRoutingSnapshot() {
+        RoutingSnapshot snapshot = mRoutingSnapshot;
+        if (snapshot.sequenceNumber != mSequenceNumber) {
+            synchronized (mLock) {
+                snapshot = mRoutingSnapshot;
+                if (snapshot.sequenceNumber != mSequenceNumber) {
+                    snapshot = buildRoutingSnapshotLocked();
+                    mRoutingSnapshot = snapshot;
                 }
             }
+        }
+        return snapshot;
+    }
 
-            // Add the promiscuous subscribers.
+    @GuardedBy("mLock")
+    private RoutingSnapshot buildRoutingSnapshotLocked() {
+        RoutingSnapshot snapshot = new RoutingSnapshot(mSequenceNumber);
+        snapshot.promiscuousSubscribers = toArray(mPromiscuousSubscribers);
+        snapshot.halSubscriptions.addAll(mHalSubscriptions);
+
+        Set<VmsLayer> layers = new HashSet<>(mLayerSubscriptions.keySet());
+        layers.addAll(mLayerSubscriptionsToPublishers.keySet());
+        ArraySet<IVmsSubscriberClient> subscribers = new ArraySet<>();
+        for (VmsLayer layer : layers) {
+            LayerRoute route = new LayerRoute();
+            Set<IVmsSubscriberClient> layerSubscribers = mLayerSubscriptions.get(layer);
+
+            subscribers.clear();
+            if (layerSubscribers != null) {
+                subscribers.addAll(layerSubscribers);
+            }
             subscribers.addAll(mPromiscuousSubscribers);
+            route.subscribers = toArray(subscribers);
+
+            Map<Integer, Set<IVmsSubscriberClient>> publisherSubscribers =
+                    mLayerSubscriptionsToPublishers.get(layer);
+            if (publisherSubscribers != null) {
+                for (Map.Entry<Integer, Set<IVmsSubscriberClient>> entry
+                        : publisherSubscribers.entrySet()) {
+                    subscribers.clear();
+                    subscribers.addAll(entry.getValue());
+                    if (layerSubscribers != null) {
+                        subscribers.addAll(layerSubscribers);
+                    }
+                    subscribers.addAll(mPromiscuousSubscribers);
+                    route.publisherSubscribers.put(entry.getKey(), toArray(subscribers));
+                }
+            }
+            snapshot.layerRoutes.put(layer, route);
         }
-        return subscribers;
+        return snapshot;
+    }
+
+    private static IVmsSubscriberClient[] toArray(Set<IVmsSubscriberClient> subscribers) {
+        return subscribers.toArray(new IVmsSubscriberClient[subscribers.size()]);
     }
 
     /**
@@ -351,9 +415,7 @@ public class VmsRouting {
      * @return true if the HAL is subscribed to layer.
      */
     public boolean isHalSubscribed(VmsLayer layer) {
-        synchronized (mLock) {
-            return mHalSubscriptions.contains(layer);
-        }
+        return getRoutingSnapshot().halSubscriptions.contains(layer);
     }
 
     /**
@@ -411,4 +473,84 @@ public class VmsRouting {
             return new VmsSubscriptionState(mSequenceNumber, layers, layersFromPublishers);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Sets the limits of the retained messages. Messages are not retained if either limit is 0.
+     *
+     * @param maxMessages the maximum number of retained messages.
+     * @param maxBytes    the maximum total size of the retained payloads.
+     */
+    public void setRetainedMessagesLimits(int maxMessages, int maxBytes) {
+        mRetainedMessages.setLimits(maxMessages, maxBytes);
+    }
+
+    /**
+     * Retains the message as the latest one of the layer and publisher, if enabled.
+     */
+    public void retainMessage(VmsLayer layer, int publisherId, byte[] payload) {
+        mRetainedMessages.retain(layer, publisherId, payload);
+    }
+
+    /**
+     * @return the latest retained message of the layer and publisher, or null if there is none.
+     */
+    public byte[] getRetainedMessage(VmsLayer layer, int publisherId) {
+        return mRetainedMessages.get(layer, publisherId);
+    }
+
+    /**
+     * @return the latest retained message of each publisher of the layer, keyed by publisher ID.
+     */
+    public SparseArray<byte[]> getRetainedMessages(VmsLayer layer) {
+        return mRetainedMessages.get(layer);
+    }
+
+    /**
+     * Removes the retained messages of the publisher, used when it disconnected.
+     */
+    public void removeRetainedMessages(int publisherId) {
+        mRetainedMessages.remove(publisherId);
+    }
+
+    public void dump(PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println("Sequence number: " + mSequenceNumber);
+            writer.println("Layer subscriptions: " + mLayerSubscriptions.size()
+                    + ", layer from publisher subscriptions: "
+                    + mLayerSubscriptionsToPublishers.size()
+                    + ", promiscuous subscribers: " + mPromiscuousSubscribers.size());
+            writer.println("HAL subscriptions: " + mHalSubscriptions
+                    + ", HAL subscriptions to publishers: " + mHalSubscriptionsToPublishers);
+        }
+        mRetainedMessages.dump(writer);
+    }
+
+    /** Immutable once published. */
+    private static class RoutingSnapshot {
+        final int sequenceNumber;
+        IVmsSubscriberClient[] promiscuousSubscribers = new IVmsSubscriberClient[0];
+        final Map<VmsLayer, LayerRoute> layerRoutes = new HashMap<>();
+        final Set<VmsLayer> halSubscriptions = new HashSet<>();
+
+        RoutingSnapshot(int sequenceNumber) {
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        IVmsSubscriberClient[] getSubscribers(VmsLayer layer, int publisherId) {
+            LayerRoute route = layerRoutes.get(layer);
+            if (route == null) {
+                return promiscuousSubscribers;
+            }
+            IVmsSubscriberClient[] subscribers = route.publisherSubscribers.get(publisherId);
+            return subscribers != null ? subscribers : route.subscribers;
+        }
+    }
+
+    /** Subscribers of a layer merged with the promiscuous subscribers. */
+    private static class LayerRoute {
+        /** Subscribers of messages of any publisher. */
+        IVmsSubscriberClient[] subscribers;
+        /** key: publisher ID. Includes {@link #subscribers}. */
+        final SparseArray<IVmsSubscriberClient[]> publisherSubscribers = new SparseArray<>();
+    }
+}
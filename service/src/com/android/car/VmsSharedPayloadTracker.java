@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.annotation.FutureFeature;
+import android.car.vms.IVmsPublisherClient;
+import android.car.vms.VmsSharedPayload;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Keeps track of VMS payloads received in shared memory until every subscriber they were
+ * forwarded to released them, then notifies the publisher that the region can be reused.
+ *
+ * <p>Shared between {@link VmsPublisherService}, which forwards the payloads, and
+ * {@link VmsSubscriberService}, which receives the releases.
+ */
+@FutureFeature
+class VmsSharedPayloadTracker {
+    private static final String TAG = "VmsSharedPayloadTracker";
+
+    private final Object mLock = new Object();
+    // Copy on write, read for every published payload.
+    private volatile Set<IBinder> mEnabledSubscribers = Collections.emptySet();
+    // key: delivery ID, as seen by subscribers.
+    @GuardedBy("mLock")
+    private final LongSparseArray<Delivery> mDeliveries = new LongSparseArray<>();
+    @GuardedBy("mLock")
+    private long mNextDeliveryId;
+    @GuardedBy("mLock")
+    private long mPendingBytes;
+    @GuardedBy("mLock")
+    private long mTotalDeliveries;
+
+    void setSharedPayloadsEnabled(IBinder subscriber, boolean enabled) {
+        synchronized (mLock) {
+            Set<IBinder> subscribers = new ArraySet<>(mEnabledSubscribers);
+            if (enabled) {
+                subscribers.add(subscriber);
+            } else {
+                subscribers.remove(subscriber);
+            }
+            mEnabledSubscribers = subscribers;
+        }
+    }
+
+    boolean isSharedPayloadsEnabled(IBinder subscriber) {
+        return mEnabledSubscribers.contains(subscriber);
+    }
+
+    /**
+     * Starts forwarding a payload. The delivery holds the payload until {@link #finishDelivery},
+     * even if all subscribers release it earlier.
+     *
+     * @param publisher to notify once the payload is released, can be {@code null}.
+     */
+    Delivery startDelivery(IVmsPublisherClient publisher, VmsSharedPayload payload) {
+        synchronized (mLock) {
+            Delivery delivery = new Delivery(mNextDeliveryId++, publisher, payload);
+            mDeliveries.put(delivery.mId, delivery);
+            mPendingBytes += payload.getLength();
+            mTotalDeliveries++;
+            return delivery;
+        }
+    }
+
+    /** Records that the delivery's payload was sent to the subscriber. */
+    void addReceiver(Delivery delivery, IBinder subscriber) {
+        synchronized (mLock) {
+            delivery.mReceivers.add(subscriber);
+        }
+    }
+
+    /** Called once the payload was sent to all subscribers. */
+    void finishDelivery(Delivery delivery) {
+        synchronized (mLock) {
+            delivery.mSending = false;
+            if (!delivery.mReceivers.isEmpty()) {
+                return;
+            }
+            removeDeliveryLocked(delivery);
+        }
+        delivery.release();
+    }
+
+    /** Called when a subscriber is done with a payload or could not receive it. */
+    void release(IBinder subscriber, long deliveryId) {
+        Delivery delivery;
+        synchronized (mLock) {
+            delivery = mDeliveries.get(deliveryId);
+            if (delivery == null || !delivery.mReceivers.remove(subscriber)) {
+                Log.w(TAG, "Unknown shared payload released: " + deliveryId);
+                return;
+            }
+            if (delivery.mSending || !delivery.mReceivers.isEmpty()) {
+                return;
+            }
+            removeDeliveryLocked(delivery);
+        }
+        delivery.release();
+    }
+
+    /** Releases all payloads held by a subscriber that went away. */
+    void removeSubscriber(IBinder subscriber) {
+        setSharedPayloadsEnabled(subscriber, false);
+        LongSparseArray<Delivery> released = new LongSparseArray<>();
+        synchronized (mLock) {
+            for (int i = 0; i < mDeliveries.size(); i++) {
+                Delivery delivery = mDeliveries.valueAt(i);
+                if (delivery.mReceivers.remove(subscriber) && !delivery.mSending
+                        && delivery.mReceivers.isEmpty()) {
+                    released.put(delivery.mId, delivery);
+                }
+            }
+            for (int i = 0; i < released.size(); i++) {
+                removeDeliveryLocked(released.valueAt(i));
+            }
+        }
+        for (int i = 0; i < released.size(); i++) {
+            released.valueAt(i).release();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void removeDeliveryLocked(Delivery delivery) {
+        mDeliveries.remove(delivery.mId);
+        mPendingBytes -= delivery.mPayload.getLength();
+    }
+
+    void dump(PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println("shared payloads, enabled subscribers:" + mEnabledSubscribers.size()
+                    + " pending:" + mDeliveries.size() + " pending bytes:" + mPendingBytes
+                    + " total:" + mTotalDeliveries);
+        }
+    }
+
+    /** A payload being forwarded to subscribers. */
+    static final class Delivery {
+        private final long mId;
+        private final IVmsPublisherClient mPublisher;
+        private final VmsSharedPayload mPayload;
+        // Subscribers that did not release the payload yet.
+        private final Set<IBinder> mReceivers = new ArraySet<>();
+        private boolean mSending = true;
+
+        private Delivery(long id, IVmsPublisherClient publisher, VmsSharedPayload payload) {
+            mId = id;
+            mPublisher = publisher;
+            mPayload = payload;
+        }
+
+        /** Returns the payload to send to subscribers, identified by the delivery ID. */
+        VmsSharedPayload getSubscriberPayload() {
+            return new VmsSharedPayload(mId, mPayload.getLength(),
+                    mPayload.getFileDescriptor());
+        }
+
+        private void release() {
+            mPayload.close();
+            if (mPublisher == null) {
+                return;
+            }
+            try {
+                mPublisher.onSharedPayloadReleased(mPayload.getId());
+            } catch (RemoteException e) {
+                Log.e(TAG, "Unable to release shared payload of: " + mPublisher, e);
+            }
+        }
+    }
+}
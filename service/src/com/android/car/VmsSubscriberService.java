@@ -22,10 +22,13 @@ import android.car.vms.IVmsSubscriberClient;
 import android.car.vms.IVmsSubscriberService;
 import android.car.vms.VmsAssociatedLayer;
 import android.car.vms.VmsLayer;
+import android.car.vms.VmsLayerTrafficStats;
+import android.car.vms.VmsPublisherTrafficStats;
 import android.content.Context;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.car.hal.VmsHalService;
 import com.android.internal.annotations.GuardedBy;
@@ -52,6 +55,9 @@ public class VmsSubscriberService extends IVmsSubscriberService.Stub
 
     private final Context mContext;
     private final VmsHalService mHal;
+    private final VmsSharedPayloadTracker mSharedPayloads;
+    private final VmsMessageDispatcher mDispatcher;
+    private final VmsTrafficMetrics mMetrics;
 
     @GuardedBy("mSubscriberServiceLock")
     private final VmsSubscribersManager mSubscribersManager = new VmsSubscribersManager();
@@ -101,6 +107,10 @@ public class VmsSubscriberService extends IVmsSubscriberService.Stub
 
                 // Remove binder
                 VmsSubscribersManager.this.removeListener(mSubscriberBinder);
+
+                // Drop its queued messages and release the payloads it did not release.
+                mDispatcher.removeSubscriber(mSubscriberBinder);
+                mSharedPayloads.removeSubscriber(mSubscriberBinder);
             }
 
             void release() {
@@ -197,14 +207,22 @@ public class VmsSubscriberService extends IVmsSubscriberService.Stub
         }
     }
 
-    public VmsSubscriberService(Context context, VmsHalService hal) {
+    public VmsSubscriberService(Context context, VmsHalService hal,
+            VmsSharedPayloadTracker sharedPayloads, VmsMessageDispatcher dispatcher,
+            VmsTrafficMetrics metrics) {
         mContext = context;
         mHal = hal;
+        mSharedPayloads = sharedPayloads;
+        mDispatcher = dispatcher;
+        mMetrics = metrics;
     }
 
     // Implements CarServiceBase interface.
     @Override
     public void init() {
+        mHal.setRetainedMessagesLimits(
+                mContext.getResources().getInteger(R.integer.vmsRetainedMessagesMaxCount),
+                mContext.getResources().getInteger(R.integer.vmsRetainedMessagesMaxBytes));
         mHal.addSubscriberListener(this);
     }
 
@@ -212,10 +230,14 @@ public class VmsSubscriberService extends IVmsSubscriberService.Stub
     public void release() {
         mSubscribersManager.release();
         mHal.removeSubscriberListener(this);
+        mDispatcher.release();
     }
 
     @Override
     public void dump(PrintWriter writer) {
+        writer.println("*VmsSubscriberService*");
+        mDispatcher.dump(writer);
+        mMetrics.dump(writer);
     }
 
     // Implements IVmsService interface.
@@ -235,6 +257,8 @@ public class VmsSubscriberService extends IVmsSubscriberService.Stub
             }
             mSubscribersManager.remove(subscriber);
         }
+        mDispatcher.removeSubscriber(subscriber.asBinder());
+        mSharedPayloads.removeSubscriber(subscriber.asBinder());
     }
 
     @Override
@@ -243,8 +267,20 @@ public class VmsSubscriberService extends IVmsSubscriberService.Stub
             // Add the subscriber so it can subscribe.
             mSubscribersManager.add(subscriber);
 
-            // Add the subscription for the layer.
-            mHal.addSubscription(subscriber, layer);
+            // Add the subscription for the layer and send the latest message of each publisher
+            // instead of waiting for the next one, see VmsHalService#getDeliveryLock().
+            synchronized (mHal.getDeliveryLock()) {
+                SparseArray<byte[]> retainedMessages = mHal.getRetainedMessages(layer);
+                for (int i = retainedMessages.size() - 1; i >= 0; i--) {
+                    if (isRouted(subscriber, layer, retainedMessages.keyAt(i))) {
+                        retainedMessages.removeAt(i);
+                    }
+                }
+                mHal.addSubscription(subscriber, layer);
+                for (int i = 0; i < retainedMessages.size(); i++) {
+                    mDispatcher.dispatch(subscriber, layer, retainedMessages.valueAt(i));
+                }
+            }
         }
     }
 
@@ -264,9 +300,30 @@ public class VmsSubscriberService extends IVmsSubscriberService.Stub
             // Add the subscriber so it can subscribe.
             mSubscribersManager.add(subscriber);
 
-            // Add the subscription for the layer.
-            mHal.addSubscription(subscriber, layer, publisherId);
+            // Add the subscription for the layer and send the publisher's latest message.
+            synchronized (mHal.getDeliveryLock()) {
+                byte[] retainedMessage = isRouted(subscriber, layer, publisherId)
+                        ? null : mHal.getRetainedMessage(layer, publisherId);
+                mHal.addSubscription(subscriber, layer, publisherId);
+                if (retainedMessage != null) {
+                    mDispatcher.dispatch(subscriber, layer, retainedMessage);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the subscriber already receives the messages of the layer from the publisher, in
+     * which case it must not get the retained message again.
+     */
+    private boolean isRouted(IVmsSubscriberClient subscriber, VmsLayer layer, int publisherId) {
+        IBinder subscriberBinder = subscriber.asBinder();
+        for (IVmsSubscriberClient routed : mHal.getRoutedSubscribers(layer, publisherId)) {
+            if (routed.asBinder() == subscriberBinder) {
+                return true;
+            }
         }
+        return false;
     }
 
     @Override
@@ -295,6 +352,22 @@ public class VmsSubscriberService extends IVmsSubscriberService.Stub
         }
     }
 
+    @Override
+    public void setSharedPayloadsEnabled(IVmsSubscriberClient subscriber, boolean enabled) {
+        ICarImpl.assertPermission(mContext, PERMISSION);
+        synchronized (mSubscriberServiceLock) {
+            // Add the subscriber so that its payloads are released if it dies.
+            mSubscribersManager.add(subscriber);
+        }
+        mSharedPayloads.setSharedPayloadsEnabled(subscriber.asBinder(), enabled);
+    }
+
+    @Override
+    public void releaseSharedPayload(IVmsSubscriberClient subscriber, long payloadId) {
+        ICarImpl.assertPermission(mContext, PERMISSION);
+        mSharedPayloads.release(subscriber.asBinder(), payloadId);
+    }
+
     @Override
     public byte[] getPublisherInfo(int publisherId) {
         synchronized (mSubscriberServiceLock) {
@@ -302,6 +375,18 @@ public class VmsSubscriberService extends IVmsSubscriberService.Stub
         }
     }
 
+    @Override
+    public List<VmsLayerTrafficStats> getLayerTrafficStats() {
+        ICarImpl.assertPermission(mContext, PERMISSION);
+        return mMetrics.getLayerStats();
+    }
+
+    @Override
+    public List<VmsPublisherTrafficStats> getPublisherTrafficStats() {
+        ICarImpl.assertPermission(mContext, PERMISSION);
+        return mMetrics.getPublisherStats();
+    }
+
     @Override
     public List<VmsLayer> getAvailableLayers() {
         //TODO(asafro): return the list of available layers once logic is implemented.
@@ -315,17 +400,11 @@ public class VmsSubscriberService extends IVmsSubscriberService.Stub
             Log.d(TAG, "Publishing a message for layer: " + layer);
         }
 
-        Set<IVmsSubscriberClient> subscribers =
-                mHal.getSubscribersForLayerFromPublisher(layer, publisherId);
+        IVmsSubscriberClient[] subscribers = mHal.getRoutedSubscribers(layer, publisherId);
+        mMetrics.recordPublished(layer, publisherId, payload.length, subscribers.length);
 
         for (IVmsSubscriberClient subscriber : subscribers) {
-            try {
-                subscriber.onVmsMessageReceived(layer, payload);
-            } catch (RemoteException e) {
-                // If we could not send a record, its likely the connection snapped. Let the binder
-                // death handle the situation.
-                Log.e(TAG, "onVmsMessageReceived calling failed: ", e);
-            }
+            mDispatcher.dispatch(subscriber, layer, payload);
         }
     }
 
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.annotation.FutureFeature;
+import android.car.vms.VmsLayer;
+import android.car.vms.VmsLayerTrafficStats;
+import android.car.vms.VmsPublisherTrafficStats;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the VMS messages of each layer and each publisher.
+ *
+ * <p>Counters are striped {@link LongAdder}s, so that publishers and delivery workers do not
+ * contend on them, and are only summed when the stats are read. Once the counters of a layer or
+ * a publisher exist, recording does not allocate.
+ */
+@FutureFeature
+class VmsTrafficMetrics {
+    private static final long[] LATENCY_BUCKET_BOUNDS_NS =
+            new long[VmsLayerTrafficStats.LATENCY_BUCKET_BOUNDS_MS.length];
+    static {
+        for (int i = 0; i < LATENCY_BUCKET_BOUNDS_NS.length; i++) {
+            LATENCY_BUCKET_BOUNDS_NS[i] = TimeUnit.MILLISECONDS.toNanos(
+                    VmsLayerTrafficStats.LATENCY_BUCKET_BOUNDS_MS[i]);
+        }
+    }
+
+    private final ConcurrentHashMap<VmsLayer, LayerMetrics> mLayers = new ConcurrentHashMap<>();
+
+    private final Object mPublishersLock = new Object();
+    // Copied on write, so that publishers are looked up without locking or boxing their ID.
+    @GuardedBy("mPublishersLock")
+    private volatile SparseArray<PublisherMetrics> mPublishers = new SparseArray<>();
+
+    /**
+     * Records a message published to a layer.
+     *
+     * @param publisherId the publisher of the message, or -1 if not known.
+     * @param size        the size of the payload.
+     * @param fanOut      the number of subscribers the message is routed to.
+     */
+    void recordPublished(VmsLayer layer, int publisherId, int size, int fanOut) {
+        LayerMetrics layerMetrics = getLayerMetrics(layer);
+        layerMetrics.mMessages.increment();
+        layerMetrics.mBytes.add(size);
+        layerMetrics.mFanOut.add(fanOut);
+
+        if (publisherId != -1) {
+            PublisherMetrics publisherMetrics = getPublisherMetrics(publisherId);
+            publisherMetrics.mMessages.increment();
+            publisherMetrics.mBytes.add(size);
+            publisherMetrics.mFanOut.add(fanOut);
+        }
+    }
+
+    /** Records a message delivered to a subscriber, {@code latencyNs} after it was routed. */
+    void recordDelivered(VmsLayer layer, long latencyNs) {
+        LayerMetrics layerMetrics = getLayerMetrics(layer);
+        layerMetrics.mDelivered.increment();
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKET_BOUNDS_NS.length
+                && latencyNs >= LATENCY_BUCKET_BOUNDS_NS[bucket]) {
+            bucket++;
+        }
+        layerMetrics.mLatencyHistogram[bucket].increment();
+    }
+
+    /** Records a message dropped because the queue of a subscriber was full. */
+    void recordDropped(VmsLayer layer) {
+        getLayerMetrics(layer).mDropped.increment();
+    }
+
+    /** Records a message that could not be delivered to a subscriber. */
+    void recordFailed(VmsLayer layer) {
+        getLayerMetrics(layer).mFailed.increment();
+    }
+
+    List<VmsLayerTrafficStats> getLayerStats() {
+        long now = SystemClock.elapsedRealtime();
+        List<VmsLayerTrafficStats> stats = new ArrayList<>(mLayers.size());
+        for (LayerMetrics layerMetrics : mLayers.values()) {
+            stats.add(layerMetrics.toStats(now));
+        }
+        return stats;
+    }
+
+    List<VmsPublisherTrafficStats> getPublisherStats() {
+        long now = SystemClock.elapsedRealtime();
+        SparseArray<PublisherMetrics> publishers = mPublishers;
+        List<VmsPublisherTrafficStats> stats = new ArrayList<>(publishers.size());
+        for (int i = 0; i < publishers.size(); i++) {
+            stats.add(publishers.valueAt(i).toStats(now));
+        }
+        return stats;
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println("**VMS traffic**");
+        for (VmsLayerTrafficStats stats : getLayerStats()) {
+            writer.println("layer:" + stats.getLayer()
+                    + " messages:" + stats.getMessages()
+                    + " bytes:" + stats.getBytes()
+                    + " messages/s:" + String.format("%.1f", stats.getMessagesPerSecond())
+                    + " bytes/s:" + String.format("%.1f", stats.getBytesPerSecond())
+                    + " fan-out:" + String.format("%.2f", stats.getAverageFanOut())
+                    + " delivered:" + stats.getDelivered()
+                    + " dropped:" + stats.getDropped()
+                    + " failed:" + stats.getFailed());
+            long[] histogram = stats.getLatencyHistogram();
+            StringBuilder sb = new StringBuilder("  latency ms");
+            for (int i = 0; i < histogram.length; i++) {
+                sb.append(i < LATENCY_BUCKET_BOUNDS_NS.length
+                        ? " <" + VmsLayerTrafficStats.LATENCY_BUCKET_BOUNDS_MS[i]
+                        : " >=" + VmsLayerTrafficStats.LATENCY_BUCKET_BOUNDS_MS[i - 1]);
+                sb.append(':').append(histogram[i]);
+            }
+            writer.println(sb);
+        }
+        for (VmsPublisherTrafficStats stats : getPublisherStats()) {
+            writer.println("publisher:" + stats.getPublisherId()
+                    + " messages:" + stats.getMessages()
+                    + " bytes:" + stats.getBytes()
+                    + " messages/s:" + String.format("%.1f", stats.getMessagesPerSecond())
+                    + " bytes/s:" + String.format("%.1f", stats.getBytesPerSecond())
+                    + " fan-out:" + String.format("%.2f", stats.getAverageFanOut()));
+        }
+    }
+
+    private LayerMetrics getLayerMetrics(VmsLayer layer) {
+        LayerMetrics layerMetrics = mLayers.get(layer);
+        if (layerMetrics == null) {
+            layerMetrics = new LayerMetrics(layer);
+            LayerMetrics existing = mLayers.putIfAbsent(layer, layerMetrics);
+            if (existing != null) {
+                layerMetrics = existing;
+            }
+        }
+        return layerMetrics;
+    }
+
+    private PublisherMetrics getPublisherMetrics(int publisherId) {
+        PublisherMetrics publisherMetrics = mPublishers.get(publisherId);
+        if (publisherMetrics != null) {
+            return publisherMetrics;
+        }
+        synchronized (mPublishersLock) {
+            publisherMetrics = mPublishers.get(publisherId);
+            if (publisherMetrics == null) {
+                publisherMetrics = new PublisherMetrics(publisherId);
+                SparseArray<PublisherMetrics> publishers = mPublishers.clone();
+                publishers.put(publisherId, publisherMetrics);
+                mPublishers = publishers;
+            }
+            return publisherMetrics;
+        }
+    }
+
+    private static final class LayerMetrics {
+        final VmsLayer mLayer;
+        final long mCreatedTimeMs = SystemClock.elapsedRealtime();
+        final LongAdder mMessages = new LongAdder();
+        final LongAdder mBytes = new LongAdder();
+        final LongAdder mFanOut = new LongAdder();
+        final LongAdder mDelivered = new LongAdder();
+        final LongAdder mDropped = new LongAdder();
+        final LongAdder mFailed = new LongAdder();
+        final LongAdder[] mLatencyHistogram = new LongAdder[LATENCY_BUCKET_BOUNDS_NS.length + 1];
+
+        LayerMetrics(VmsLayer layer) {
+            mLayer = layer;
+            for (int i = 0; i < mLatencyHistogram.length; i++) {
+                mLatencyHistogram[i] = new LongAdder();
+            }
+        }
+
+        VmsLayerTrafficStats toStats(long now) {
+            long[] latencyHistogram = new long[mLatencyHistogram.length];
+            for (int i = 0; i < latencyHistogram.length; i++) {
+                latencyHistogram[i] = mLatencyHistogram[i].sum();
+            }
+            return new VmsLayerTrafficStats(mLayer, now - mCreatedTimeMs, mMessages.sum(),
+                    mBytes.sum(), mFanOut.sum(), mDelivered.sum(), mDropped.sum(),
+                    mFailed.sum(), latencyHistogram);
+        }
+    }
+
+    private static final class PublisherMetrics {
+        final int mPublisherId;
+        final long mCreatedTimeMs = SystemClock.elapsedRealtime();
+        final LongAdder mMessages = new LongAdder();
+        final LongAdder mBytes = new LongAdder();
+        final LongAdder mFanOut = new LongAdder();
+
+        PublisherMetrics(int publisherId) {
+            mPublisherId = publisherId;
+        }
+
+        VmsPublisherTrafficStats toStats(long now) {
+            return new VmsPublisherTrafficStats(mPublisherId, now - mCreatedTimeMs,
+                    mMessages.sum(), mBytes.sum(), mFanOut.sum());
+        }
+    }
+}
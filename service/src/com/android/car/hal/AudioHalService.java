@@ -608,6 +608,16 @@ public class AudioHalService extends HalServiceBase {
         mProperties.clear();
     }
 
+    /**
+     * Audio focus and volume listeners may block on the audio framework, so events are
+     * dispatched on a separate thread. Focus events must not be lost, thus the HAL thread waits
+     * if the queue is full.
+     */
+    @Override
+    HalEventDispatcher.Config getEventDispatcherConfig() {
+        return new HalEventDispatcher.Config("AUDIO", 64, HalEventDispatcher.POLICY_BLOCK);
+    }
+
     @Override
     public synchronized Collection<VehiclePropConfig> takeSupportedProperties(
             Collection<VehiclePropConfig> allProperties) {
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.hal;
+
+import android.car.diagnostic.CarDiagnosticEvent;
+import android.car.diagnostic.CarDiagnosticManager;
+import android.hardware.automotive.vehicle.V2_0.DiagnosticFloatSensorIndex;
+import android.hardware.automotive.vehicle.V2_0.DiagnosticIntegerSensorIndex;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
+import android.util.Log;
+
+import com.android.car.CarLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the values of an OBD2 frame property into {@link CarDiagnosticEvent}s.
+ * <p>
+ * A decoder is created once per property config, so that the number of sensors of each frame is
+ * known in advance. The bytes of a frame are a bitmap of the sensors present in the frame, the
+ * integer sensors first and then the float sensors. The bitmap is walked one byte at a time and
+ * present sensors are decoded directly into the arrays backing the event.
+ */
+public final class DiagnosticEventDecoder {
+    private final int mProperty;
+    private final int mFrameType;
+    private final int mNumIntegerSensors;
+    private final int mNumFloatSensors;
+
+    private DiagnosticEventDecoder(int property, int numIntegerSensors, int numFloatSensors) {
+        mProperty = property;
+        mFrameType = property == VehicleProperty.OBD2_FREEZE_FRAME
+                ? CarDiagnosticManager.FRAME_TYPE_FREEZE
+                : CarDiagnosticManager.FRAME_TYPE_LIVE;
+        mNumIntegerSensors = numIntegerSensors;
+        mNumFloatSensors = numFloatSensors;
+    }
+
+    /**
+     * Creates the decoder of an OBD2_LIVE_FRAME or OBD2_FREEZE_FRAME property. The config array
+     * contains the number of vendor-specific integer and float sensors.
+     */
+    public static DiagnosticEventDecoder create(VehiclePropConfig config) {
+        int numIntegerSensors = DiagnosticIntegerSensorIndex.LAST_SYSTEM_INDEX + 1;
+        int numFloatSensors = DiagnosticFloatSensorIndex.LAST_SYSTEM_INDEX + 1;
+        List<Integer> configArray = config.configArray;
+        if (configArray.size() < 2) {
+            Log.e(CarLog.TAG_DIAGNOSTIC, String.format(
+                    "property 0x%x does not specify the number of vendor-specific properties." +
+                            "assuming 0.", config.prop));
+        } else {
+            numIntegerSensors += clampVendorSensors(config.prop, configArray.get(0));
+            numFloatSensors += clampVendorSensors(config.prop, configArray.get(1));
+        }
+        return new DiagnosticEventDecoder(config.prop, numIntegerSensors, numFloatSensors);
+    }
+
+    public int getProperty() {
+        return mProperty;
+    }
+
+    public int getNumIntegerSensors() {
+        return mNumIntegerSensors;
+    }
+
+    public int getNumFloatSensors() {
+        return mNumFloatSensors;
+    }
+
+    /** Decodes a value of the property of this decoder. */
+    public CarDiagnosticEvent decode(VehiclePropValue value) {
+        int[] intValues = new int[mNumIntegerSensors];
+        long[] intPresent = new long[bitmapSize(mNumIntegerSensors)];
+        float[] floatValues = new float[mNumFloatSensors];
+        long[] floatPresent = new long[bitmapSize(mNumFloatSensors)];
+
+        ArrayList<Integer> int32Values = value.value.int32Values;
+        ArrayList<Float> floatValuesIn = value.value.floatValues;
+        ArrayList<Byte> bytes = value.value.bytes;
+        int numSensors = mNumIntegerSensors + mNumFloatSensors;
+        int numBytes = Math.min(bytes.size(), (numSensors + Byte.SIZE - 1) / Byte.SIZE);
+        for (int byteIndex = 0; byteIndex < numBytes; byteIndex++) {
+            int bits = bytes.get(byteIndex) & 0xff;
+            while (bits != 0) {
+                int bit = Integer.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int index = byteIndex * Byte.SIZE + bit;
+                if (index < mNumIntegerSensors) {
+                    intValues[index] = int32Values.get(index);
+                    intPresent[index / Long.SIZE] |= 1L << index;
+                } else if (index < numSensors) {
+                    index -= mNumIntegerSensors;
+                    floatValues[index] = floatValuesIn.get(index);
+                    floatPresent[index / Long.SIZE] |= 1L << index;
+                }
+            }
+        }
+
+        return CarDiagnosticEvent.createFromSensorArrays(mFrameType, value.timestamp,
+                intValues, intPresent, floatValues, floatPresent, value.value.stringValue);
+    }
+
+    /** Vendor-specific sensors beyond what a {@link CarDiagnosticEvent} holds are ignored. */
+    private static int clampVendorSensors(int property, int numVendorSensors) {
+        if (numVendorSensors < 0 || numVendorSensors > CarDiagnosticEvent.MAX_VENDOR_SENSORS) {
+            Log.e(CarLog.TAG_DIAGNOSTIC, String.format(
+                    "property 0x%x specifies %d vendor-specific properties, using at most %d",
+                    property, numVendorSensors, CarDiagnosticEvent.MAX_VENDOR_SENSORS));
+            return Math.max(0, Math.min(numVendorSensors, CarDiagnosticEvent.MAX_VENDOR_SENSORS));
+        }
+        return numVendorSensors;
+    }
+
+    private static int bitmapSize(int size) {
+        return (size + Long.SIZE - 1) / Long.SIZE;
+    }
+}
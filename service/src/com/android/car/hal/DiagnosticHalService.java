@@ -23,16 +23,12 @@ import android.car.hardware.CarSensorManager;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyChangeMode;
-import android.hardware.automotive.vehicle.V2_0.DiagnosticFloatSensorIndex;
-import android.hardware.automotive.vehicle.V2_0.DiagnosticIntegerSensorIndex;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
 import android.util.Log;
-import android.util.SparseArray;
 import com.android.car.CarLog;
-import com.android.car.CarServiceUtils;
 import com.android.car.vehiclehal.VehiclePropValueBuilder;
 import java.io.PrintWriter;
-import java.util.BitSet;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -76,7 +72,9 @@ public class DiagnosticHalService extends SensorHalServiceBase {
 
     private final DiagnosticCapabilities mDiagnosticCapabilities = new DiagnosticCapabilities();
     private DiagnosticListener mDiagnosticListener;
-    protected final SparseArray<VehiclePropConfig> mVehiclePropertyToConfig = new SparseArray<>();
+    // Created when the properties are taken, decoding does not read the configs again.
+    private volatile DiagnosticEventDecoder mLiveFrameDecoder;
+    private volatile DiagnosticEventDecoder mFreezeFrameDecoder;
 
     public DiagnosticHalService(VehicleHal hal) {
         super(hal);
@@ -87,13 +85,13 @@ public class DiagnosticHalService extends SensorHalServiceBase {
         switch (propConfig.prop) {
             case VehicleProperty.OBD2_LIVE_FRAME:
                 mDiagnosticCapabilities.setSupported(propConfig.prop);
-                mVehiclePropertyToConfig.put(propConfig.prop, propConfig);
+                mLiveFrameDecoder = DiagnosticEventDecoder.create(propConfig);
                 Log.i(CarLog.TAG_DIAGNOSTIC, String.format("configArray for OBD2_LIVE_FRAME is %s",
                     propConfig.configArray));
                 return CarDiagnosticManager.FRAME_TYPE_LIVE;
             case VehicleProperty.OBD2_FREEZE_FRAME:
                 mDiagnosticCapabilities.setSupported(propConfig.prop);
-                mVehiclePropertyToConfig.put(propConfig.prop, propConfig);
+                mFreezeFrameDecoder = DiagnosticEventDecoder.create(propConfig);
                 Log.i(CarLog.TAG_DIAGNOSTIC, String.format("configArray for OBD2_FREEZE_FRAME is %s",
                     propConfig.configArray));
                 return CarDiagnosticManager.FRAME_TYPE_FREEZE;
@@ -114,75 +112,19 @@ public class DiagnosticHalService extends SensorHalServiceBase {
         mDiagnosticCapabilities.clear();
     }
 
-    private VehiclePropConfig getPropConfig(int halPropId) {
-        return mVehiclePropertyToConfig.get(halPropId, null);
-    }
-
-    private List<Integer> getPropConfigArray(int halPropId) {
-        VehiclePropConfig propConfig = getPropConfig(halPropId);
-        return propConfig.configArray;
-    }
-
-    private int getNumIntegerSensors(int halPropId) {
-        int count = DiagnosticIntegerSensorIndex.LAST_SYSTEM_INDEX + 1;
-        List<Integer> configArray = getPropConfigArray(halPropId);
-        if(configArray.size() < 2) {
-            Log.e(CarLog.TAG_DIAGNOSTIC, String.format(
-                    "property 0x%x does not specify the number of vendor-specific properties." +
-                            "assuming 0.", halPropId));
-        }
-        else {
-            count += configArray.get(0);
-        }
-        return count;
-    }
-
-    private int getNumFloatSensors(int halPropId) {
-        int count = DiagnosticFloatSensorIndex.LAST_SYSTEM_INDEX + 1;
-        List<Integer> configArray = getPropConfigArray(halPropId);
-        if(configArray.size() < 2) {
-            Log.e(CarLog.TAG_DIAGNOSTIC, String.format(
-                "property 0x%x does not specify the number of vendor-specific properties." +
-                    "assuming 0.", halPropId));
-        }
-        else {
-            count += configArray.get(1);
-        }
-        return count;
-    }
-
     private CarDiagnosticEvent createCarDiagnosticEvent(VehiclePropValue value) {
         if (null == value)
             return null;
 
-        final boolean isFreezeFrame = value.prop == VehicleProperty.OBD2_FREEZE_FRAME;
-
-        CarDiagnosticEvent.Builder builder =
-                (isFreezeFrame
-                                ? CarDiagnosticEvent.Builder.newFreezeFrameBuilder()
-                                : CarDiagnosticEvent.Builder.newLiveFrameBuilder())
-                        .atTimestamp(value.timestamp);
-
-        BitSet bitset = BitSet.valueOf(CarServiceUtils.toByteArray(value.value.bytes));
-
-        int numIntegerProperties = getNumIntegerSensors(value.prop);
-        int numFloatProperties = getNumFloatSensors(value.prop);
-
-        for (int i = 0; i < numIntegerProperties; ++i) {
-            if (bitset.get(i)) {
-                builder.withIntValue(i, value.value.int32Values.get(i));
-            }
-        }
-
-        for (int i = 0; i < numFloatProperties; ++i) {
-            if (bitset.get(numIntegerProperties + i)) {
-                builder.withFloatValue(i, value.value.floatValues.get(i));
-            }
+        DiagnosticEventDecoder decoder = value.prop == VehicleProperty.OBD2_FREEZE_FRAME
+                ? mFreezeFrameDecoder
+                : mLiveFrameDecoder;
+        if (decoder == null) {
+            Log.e(CarLog.TAG_DIAGNOSTIC, String.format(
+                    "no decoder for unsupported property 0x%x", value.prop));
+            return null;
         }
-
-        builder.withDtc(value.value.stringValue);
-
-        return builder.build();
+        return decoder.decode(value);
     }
 
     /** Listener for monitoring diagnostic event. */
@@ -314,6 +256,36 @@ public class DiagnosticHalService extends SensorHalServiceBase {
         }
     }
 
+    /**
+     * Reads freeze frames for all given timestamps in one batch.
+     *
+     * @return frames in the same order as the timestamps, {@code null} for frames that could not
+     * be read.
+     */
+    public List<CarDiagnosticEvent> getFreezeFrames(long... timestamps) {
+        List<VehiclePropValue> requests = new ArrayList<>(timestamps.length);
+        for (long timestamp : timestamps) {
+            requests.add(VehiclePropValueBuilder.newBuilder(VehicleProperty.OBD2_FREEZE_FRAME)
+                    .setInt64Value(timestamp)
+                    .build());
+        }
+        List<VehiclePropValue> values = mHal.getValues(requests);
+        List<CarDiagnosticEvent> events = new ArrayList<>(values.size());
+        for (VehiclePropValue value : values) {
+            CarDiagnosticEvent event = null;
+            if (value != null) {
+                try {
+                    event = createCarDiagnosticEvent(value);
+                } catch (IllegalArgumentException e) {
+                    Log.e(CarLog.TAG_DIAGNOSTIC,
+                            "illegal argument trying to read OBD2_FREEZE_FRAME", e);
+                }
+            }
+            events.add(event);
+        }
+        return events;
+    }
+
     public void clearFreezeFrames(long... timestamps) {
         VehiclePropValueBuilder builder = VehiclePropValueBuilder.newBuilder(
             VehicleProperty.OBD2_FREEZE_FRAME_CLEAR);
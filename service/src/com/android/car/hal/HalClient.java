@@ -34,6 +34,7 @@ import com.android.car.CarLog;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Vehicle HAL client. Interacts directly with Vehicle HAL interface {@link IVehicle}. Contains
@@ -46,7 +47,13 @@ class  HalClient {
      */
     private static final int WAIT_CAP_FOR_RETRIABLE_RESULT_MS = 2000;
 
-    private static final int SLEEP_BETWEEN_RETRIABLE_INVOKES_MS = 50;
+    /**
+     * Delay before the first retry of a call that returned StatusCode.TRY_AGAIN. The delay is
+     * doubled for every following retry up to {@link #MAX_SLEEP_BETWEEN_RETRIABLE_INVOKES_MS}.
+     */
+    private static final int INITIAL_SLEEP_BETWEEN_RETRIABLE_INVOKES_MS = 5;
+
+    private static final int MAX_SLEEP_BETWEEN_RETRIABLE_INVOKES_MS = 200;
 
     private final IVehicle mVehicle;
 
@@ -85,8 +92,37 @@ class  HalClient {
                 Log.e(CarLog.TAG_HAL, "Failed to set value", e);
                 return StatusCode.TRY_AGAIN;
             }
-        }, WAIT_CAP_FOR_RETRIABLE_RESULT_MS, SLEEP_BETWEEN_RETRIABLE_INVOKES_MS);
+        }, WAIT_CAP_FOR_RETRIABLE_RESULT_MS);
+
+        checkSetStatus(propValue, status);
+    }
 
+    /**
+     * Sets values of multiple properties. All values are sent to vehicle HAL back to back, then
+     * only the ones that returned StatusCode.TRY_AGAIN are retried with exponential backoff.
+     *
+     * <p>All values are attempted even if some of them fail. If any failed, the exception for
+     * the first failed value is thrown, with the same semantics as {@link #setValue}.
+     */
+    void setValues(List<VehiclePropValue> propValues) throws PropertyTimeoutException {
+        final int size = propValues.size();
+        int[] statuses = new int[size];
+        invokeRetriableBatch(size, statuses, index -> {
+            try {
+                return mVehicle.set(propValues.get(index));
+            } catch (RemoteException e) {
+                Log.e(CarLog.TAG_HAL, "Failed to set value", e);
+                return StatusCode.TRY_AGAIN;
+            }
+        }, WAIT_CAP_FOR_RETRIABLE_RESULT_MS);
+
+        for (int i = 0; i < size; i++) {
+            checkSetStatus(propValues.get(i), statuses[i]);
+        }
+    }
+
+    private static void checkSetStatus(VehiclePropValue propValue, int status)
+            throws PropertyTimeoutException {
         if (StatusCode.INVALID_ARG == status) {
             throw new IllegalArgumentException(
                     String.format("Failed to set value for: 0x%x, areaId: 0x%x",
@@ -110,7 +146,7 @@ class  HalClient {
             ValueResult res = internalGet(requestedPropValue);
             valueWrapper.object = res.propValue;
             return res.status;
-        }, WAIT_CAP_FOR_RETRIABLE_RESULT_MS, SLEEP_BETWEEN_RETRIABLE_INVOKES_MS);
+        }, WAIT_CAP_FOR_RETRIABLE_RESULT_MS);
 
         int propId = requestedPropValue.prop;
         int areaId = requestedPropValue.areaId;
@@ -132,6 +168,38 @@ class  HalClient {
         return valueWrapper.object;
     }
 
+    /**
+     * Reads values of multiple properties. All requests are sent to vehicle HAL back to back,
+     * then only the ones that returned StatusCode.TRY_AGAIN are retried with exponential backoff.
+     *
+     * @return list of values in the same order as requested. An entry is {@code null} if the
+     * corresponding property could not be read, the failure is logged.
+     */
+    ArrayList<VehiclePropValue> getValues(List<VehiclePropValue> requestedPropValues) {
+        final int size = requestedPropValues.size();
+        final VehiclePropValue[] values = new VehiclePropValue[size];
+        int[] statuses = new int[size];
+        invokeRetriableBatch(size, statuses, index -> {
+            ValueResult res = internalGet(requestedPropValues.get(index));
+            values[index] = res.propValue;
+            return res.status;
+        }, WAIT_CAP_FOR_RETRIABLE_RESULT_MS);
+
+        ArrayList<VehiclePropValue> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (StatusCode.OK != statuses[i] || values[i] == null) {
+                VehiclePropValue requested = requestedPropValues.get(i);
+                Log.e(CarLog.TAG_HAL, String.format("Failed to get property: 0x%x, "
+                        + "areaId: 0x%x, code: %d", requested.prop, requested.areaId,
+                        statuses[i]));
+                result.add(null);
+            } else {
+                result.add(values[i]);
+            }
+        }
+        return result;
+    }
+
     private ValueResult internalGet(VehiclePropValue requestedPropValue) {
         final ValueResult result = new ValueResult();
         try {
@@ -153,20 +221,52 @@ class  HalClient {
         int action();
     }
 
-    private static int invokeRetriable(RetriableCallback callback, long timeoutMs, long sleepMs) {
-        int status = callback.action();
+    interface RetriableBatchCallback {
+        /** Performs action for the request with given index and returns {@link StatusCode} */
+        int action(int index);
+    }
+
+    private static int invokeRetriable(RetriableCallback callback, long timeoutMs) {
+        int[] status = new int[1];
+        invokeRetriableBatch(1, status, index -> callback.action(), timeoutMs);
+        return status[0];
+    }
+
+    /**
+     * Invokes the callback for every index in {@code [0, count)} and stores results in
+     * {@code statuses}. Indexes that returned StatusCode.TRY_AGAIN are invoked again after an
+     * exponentially growing delay until they succeed or {@code timeoutMs} elapses.
+     */
+    private static void invokeRetriableBatch(int count, int[] statuses,
+            RetriableBatchCallback callback, long timeoutMs) {
+        int pending = 0;
+        for (int i = 0; i < count; i++) {
+            statuses[i] = callback.action(i);
+            if (StatusCode.TRY_AGAIN == statuses[i]) {
+                pending++;
+            }
+        }
         long startTime = elapsedRealtime();
-        while (StatusCode.TRY_AGAIN == status && (elapsedRealtime() - startTime) < timeoutMs) {
+        long sleepMs = INITIAL_SLEEP_BETWEEN_RETRIABLE_INVOKES_MS;
+        while (pending > 0 && (elapsedRealtime() - startTime) < timeoutMs) {
             try {
                 Thread.sleep(sleepMs);
             } catch (InterruptedException e) {
                 Log.e(CarLog.TAG_HAL, "Thread was interrupted while waiting for vehicle HAL.", e);
                 break;
             }
-
-            status = callback.action();
+            sleepMs = Math.min(sleepMs * 2, MAX_SLEEP_BETWEEN_RETRIABLE_INVOKES_MS);
+
+            pending = 0;
+            for (int i = 0; i < count; i++) {
+                if (StatusCode.TRY_AGAIN == statuses[i]) {
+                    statuses[i] = callback.action(i);
+                    if (StatusCode.TRY_AGAIN == statuses[i]) {
+                        pending++;
+                    }
+                }
+            }
         }
-        return status;
     }
 
     private static class ObjectWrapper<T> {
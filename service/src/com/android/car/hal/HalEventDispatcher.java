@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.hal;
+
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.car.CarLog;
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Delivers property events to a single {@link HalServiceBase} on its own thread, so that a slow
+ * service does not stall delivery to the other services.
+ *
+ * <p>Events are kept in a bounded FIFO queue. Since the queue is drained by a single thread,
+ * events for the same property are always delivered in the order they were received. What
+ * happens when the queue is full is controlled by {@link Config#overflowPolicy}. Only
+ * {@link #POLICY_BLOCK} makes the vehicle HAL thread wait for a dispatcher.
+ */
+class HalEventDispatcher {
+    private static final boolean DBG = false;
+
+    /** When the queue is full, the oldest queued event is discarded. */
+    static final int POLICY_DROP_OLDEST = 0;
+    /**
+     * The new event replaces a queued event with the same property and area, if any. Otherwise
+     * the oldest queued event is discarded.
+     */
+    static final int POLICY_COALESCE = 1;
+    /**
+     * No event is discarded. When the queue is full, the vehicle HAL thread waits until there is
+     * space, which also delays the events of other services, so the queue must be sized for the
+     * bursts of the service.
+     */
+    static final int POLICY_BLOCK = 2;
+
+    /** Dispatching configuration of a {@link HalServiceBase}. */
+    static class Config {
+        final String name;
+        final int queueCapacity;
+        final int overflowPolicy;
+
+        Config(String name, int queueCapacity, int overflowPolicy) {
+            if (queueCapacity <= 0) {
+                throw new IllegalArgumentException("Invalid queue capacity: " + queueCapacity);
+            }
+            this.name = name;
+            this.queueCapacity = queueCapacity;
+            this.overflowPolicy = overflowPolicy;
+        }
+    }
+
+    private final HalServiceBase mService;
+    private final Config mConfig;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Runnable mDrainRunnable = this::drain;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final VehiclePropValue[] mQueue;
+    @GuardedBy("mLock")
+    private final long[] mEnqueueTimesNs;
+    @GuardedBy("mLock")
+    private int mHead;
+    @GuardedBy("mLock")
+    private int mCount;
+    @GuardedBy("mLock")
+    private boolean mDrainScheduled;
+    @GuardedBy("mLock")
+    private boolean mReleased;
+
+    /** Only accessed from the dispatcher thread. */
+    private final ArrayList<VehiclePropValue> mDispatchList;
+    private final long[] mDispatchEnqueueTimesNs;
+
+    // Counters, written under mLock or from the dispatcher thread and only read for dumping.
+    private volatile int mMaxQueueDepth;
+    private volatile long mDroppedEvents;
+    private volatile long mCoalescedEvents;
+    private volatile long mDispatchedEvents;
+    private volatile long mTotalLatencyNs;
+    private volatile long mMaxLatencyNs;
+
+    HalEventDispatcher(HalServiceBase service, Config config) {
+        mService = service;
+        mConfig = config;
+        mQueue = new VehiclePropValue[config.queueCapacity];
+        mEnqueueTimesNs = new long[config.queueCapacity];
+        mDispatchList = new ArrayList<>(config.queueCapacity);
+        mDispatchEnqueueTimesNs = new long[config.queueCapacity];
+        mThread = new HandlerThread("VEHICLE-HAL-" + config.name);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Stops the thread of this dispatcher after the events already queued are delivered. Events
+     * queued afterwards are dropped, and a vehicle HAL thread waiting for space gives up.
+     */
+    void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            mLock.notifyAll();
+        }
+        mThread.quitSafely();
+    }
+
+    /**
+     * Queues the given event. Called from the vehicle HAL thread, which only waits with
+     * {@link #POLICY_BLOCK} when the queue is full.
+     */
+    void enqueue(VehiclePropValue value) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        synchronized (mLock) {
+            if (mReleased) {
+                mDroppedEvents++;
+                return;
+            }
+            int capacity = mQueue.length;
+            if (mConfig.overflowPolicy == POLICY_COALESCE && replaceQueuedLocked(value)) {
+                mCoalescedEvents++;
+                return;
+            }
+            if (mCount == capacity) {
+                if (mConfig.overflowPolicy == POLICY_BLOCK) {
+                    while (mCount == capacity && !mReleased) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            Log.w(CarLog.TAG_HAL, "Interrupted while waiting for dispatcher "
+                                    + mConfig.name, e);
+                            Thread.currentThread().interrupt();
+                            mDroppedEvents++;
+                            return;
+                        }
+                    }
+                    if (mReleased) {
+                        mDroppedEvents++;
+                        return;
+                    }
+                } else {
+                    mQueue[mHead] = null;
+                    mHead = (mHead + 1) % capacity;
+                    mCount--;
+                    mDroppedEvents++;
+                }
+            }
+            int tail = (mHead + mCount) % capacity;
+            mQueue[tail] = value;
+            mEnqueueTimesNs[tail] = now;
+            mCount++;
+            if (mCount > mMaxQueueDepth) {
+                mMaxQueueDepth = mCount;
+            }
+            if (!mDrainScheduled) {
+                mDrainScheduled = true;
+                mHandler.post(mDrainRunnable);
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private boolean replaceQueuedLocked(VehiclePropValue value) {
+        int capacity = mQueue.length;
+        for (int i = 0; i < mCount; i++) {
+            int index = (mHead + i) % capacity;
+            VehiclePropValue queued = mQueue[index];
+            if (queued.prop == value.prop && queued.areaId == value.areaId) {
+                mQueue[index] = value;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void drain() {
+        int count;
+        synchronized (mLock) {
+            count = mCount;
+            int capacity = mQueue.length;
+            for (int i = 0; i < count; i++) {
+                int index = (mHead + i) % capacity;
+                mDispatchList.add(mQueue[index]);
+                mDispatchEnqueueTimesNs[i] = mEnqueueTimesNs[index];
+                mQueue[index] = null;
+            }
+            mHead = 0;
+            mCount = 0;
+            mDrainScheduled = false;
+            mLock.notifyAll();
+        }
+        if (count == 0) {
+            return;
+        }
+        if (DBG) {
+            Log.d(CarLog.TAG_HAL, "Dispatching " + count + " events to " + mConfig.name);
+        }
+        try {
+            mService.handleHalEvents(mDispatchList);
+        } finally {
+            mDispatchList.clear();
+        }
+        long now = SystemClock.elapsedRealtimeNanos();
+        long totalLatency = 0;
+        long maxLatency = mMaxLatencyNs;
+        for (int i = 0; i < count; i++) {
+            long latency = now - mDispatchEnqueueTimesNs[i];
+            totalLatency += latency;
+            if (latency > maxLatency) {
+                maxLatency = latency;
+            }
+        }
+        mDispatchedEvents += count;
+        mTotalLatencyNs += totalLatency;
+        mMaxLatencyNs = maxLatency;
+    }
+
+    int getQueueDepth() {
+        synchronized (mLock) {
+            return mCount;
+        }
+    }
+
+    void dump(PrintWriter writer) {
+        long dispatched = mDispatchedEvents;
+        writer.println(String.format("Dispatcher %s for %s: policy:%d, capacity:%d, depth:%d, "
+                        + "max depth:%d, dispatched:%d, dropped:%d, coalesced:%d, "
+                        + "avg latency us:%d, max latency us:%d",
+                mConfig.name, mService, mConfig.overflowPolicy, mConfig.queueCapacity,
+                getQueueDepth(), mMaxQueueDepth, dispatched, mDroppedEvents, mCoalescedEvents,
+                dispatched == 0 ? 0 : mTotalLatencyNs / dispatched / 1000,
+                mMaxLatencyNs / 1000));
+    }
+}
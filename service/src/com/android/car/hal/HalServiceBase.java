@@ -22,8 +22,8 @@ import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -32,8 +32,14 @@ import java.util.List;
  * and will translate HAL data into car api specific format.
  */
 public abstract class HalServiceBase {
-    /** For dispatching events. Kept here to avoid alloc every time */
-    private final LinkedList<VehiclePropValue> mDispatchList = new LinkedList<VehiclePropValue>();
+    /**
+     * For dispatching events. Kept here to avoid alloc every time. Only accessed from the vehicle
+     * HAL thread.
+     */
+    private final ArrayList<VehiclePropValue> mDispatchList = new ArrayList<VehiclePropValue>();
+
+    /** Set by {@link VehicleHal} if this service has its own dispatch thread. */
+    private volatile HalEventDispatcher mEventDispatcher;
 
     final static int NOT_SUPPORTED_PROPERTY = -1;
 
@@ -41,6 +47,25 @@ public abstract class HalServiceBase {
         return mDispatchList;
     }
 
+    /**
+     * Returns how property events should be dispatched to this service. By default events are
+     * delivered on the shared vehicle HAL thread. Services that may block for a long time in
+     * {@link #handleHalEvents(List)} should override this to get their own dispatch thread.
+     */
+    @Nullable
+    HalEventDispatcher.Config getEventDispatcherConfig() {
+        return null;
+    }
+
+    @Nullable
+    HalEventDispatcher getEventDispatcher() {
+        return mEventDispatcher;
+    }
+
+    void setEventDispatcher(HalEventDispatcher dispatcher) {
+        mEventDispatcher = dispatcher;
+    }
+
     /** initialize */
     public abstract void init();
 
@@ -25,6 +25,7 @@ import android.util.Log;
 import com.android.car.CarLog;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
@@ -52,32 +53,49 @@ public class InfoHalService extends HalServiceBase {
     public synchronized Collection<VehiclePropConfig> takeSupportedProperties(
             Collection<VehiclePropConfig> allProperties) {
         List<VehiclePropConfig> supported = new LinkedList<>();
+        List<VehiclePropValue> requests = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
         for (VehiclePropConfig p: allProperties) {
             switch (p.prop) {
                 case VehicleProperty.INFO_MAKE:
-                    readPropertyToBundle(p.prop, CarInfoManager.BASIC_INFO_KEY_MANUFACTURER);
+                    addPropertyRequest(requests, keys, p.prop,
+                            CarInfoManager.BASIC_INFO_KEY_MANUFACTURER);
                     break;
                 case VehicleProperty.INFO_MODEL:
-                    readPropertyToBundle(p.prop, CarInfoManager.BASIC_INFO_KEY_MODEL);
+                    addPropertyRequest(requests, keys, p.prop,
+                            CarInfoManager.BASIC_INFO_KEY_MODEL);
                     break;
                 case VehicleProperty.INFO_MODEL_YEAR:
-                    readPropertyToBundle(p.prop, CarInfoManager.BASIC_INFO_KEY_MODEL_YEAR);
+                    addPropertyRequest(requests, keys, p.prop,
+                            CarInfoManager.BASIC_INFO_KEY_MODEL_YEAR);
                     break;
                 default: // not supported
                     break;
             }
         }
+        readPropertiesToBundle(requests, keys);
         return supported;
     }
 
-    private void readPropertyToBundle(int prop, String key) {
-        String value = "";
-        try {
-            value = mHal.get(String.class, prop);
-        } catch (PropertyTimeoutException e) {
-            Log.e(CarLog.TAG_INFO, "Unable to read property", e);
+    private static void addPropertyRequest(List<VehiclePropValue> requests, List<String> keys,
+            int prop, String key) {
+        requests.add(VehicleHal.createPropValue(prop, VehicleHal.NO_AREA));
+        keys.add(key);
+    }
+
+    private void readPropertiesToBundle(List<VehiclePropValue> requests, List<String> keys) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        List<VehiclePropValue> values = mHal.getValues(requests);
+        for (int i = 0; i < keys.size(); i++) {
+            VehiclePropValue value = values.get(i);
+            if (value == null) {
+                Log.e(CarLog.TAG_INFO, "Unable to read property 0x"
+                        + Integer.toHexString(requests.get(i).prop));
+            }
+            mBasicInfo.putString(keys.get(i), value == null ? "" : value.value.stringValue);
         }
-        mBasicInfo.putString(key, value);
     }
 
     @Override
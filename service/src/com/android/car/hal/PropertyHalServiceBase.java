@@ -113,6 +113,56 @@ public abstract class PropertyHalServiceBase extends HalServiceBase {
         }
     }
 
+    /**
+     * Returns the values of several properties, read from the vehicle HAL in one batch. An entry
+     * is null if the property is not ready yet.
+     */
+    public List<CarPropertyValue> getProperties(int[] mgrPropIds, int[] areaIds) {
+        if (mgrPropIds.length != areaIds.length) {
+            throw new IllegalArgumentException("Got " + mgrPropIds.length + " properties but "
+                    + areaIds.length + " areas");
+        }
+        List<VehiclePropValue> requests = new ArrayList<>(mgrPropIds.length);
+        for (int i = 0; i < mgrPropIds.length; i++) {
+            int halPropId = managerToHalPropId(mgrPropIds[i]);
+            if (halPropId == NOT_SUPPORTED_PROPERTY) {
+                throw new IllegalArgumentException(
+                        "Invalid property Id : 0x" + toHexString(mgrPropIds[i]));
+            }
+            VehiclePropValue request = new VehiclePropValue();
+            request.prop = halPropId;
+            request.areaId = areaIds[i];
+            requests.add(request);
+        }
+
+        List<VehiclePropValue> values = mVehicleHal.getValues(requests);
+        List<CarPropertyValue> result = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            VehiclePropValue value = values.get(i);
+            result.add(value == null ? null : toCarPropertyValue(value, mgrPropIds[i]));
+        }
+        return result;
+    }
+
+    /** Sets the values of several properties, written to the vehicle HAL in one batch. */
+    public void setProperties(List<CarPropertyValue> props) {
+        List<VehiclePropValue> halProps = new ArrayList<>(props.size());
+        for (CarPropertyValue prop : props) {
+            int halPropId = managerToHalPropId(prop.getPropertyId());
+            if (halPropId == NOT_SUPPORTED_PROPERTY) {
+                throw new IllegalArgumentException("Invalid property Id : 0x"
+                        + toHexString(prop.getPropertyId()));
+            }
+            halProps.add(toVehiclePropValue(prop, halPropId));
+        }
+        try {
+            mVehicleHal.setValues(halProps);
+        } catch (PropertyTimeoutException e) {
+            Log.e(CarLog.TAG_PROPERTY, "setProperties, property not ready", e);
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public void init() {
         if (mDbg) {
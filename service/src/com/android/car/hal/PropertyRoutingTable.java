@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.hal;
+
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable mapping from vehicle HAL property id to the {@link HalServiceBase} handling it.
+ *
+ * <p>Lookups are a binary search over a sorted primitive array, so the event path neither locks
+ * nor allocates. Changes are made by creating a new table with {@link #withProperties} and
+ * publishing it through a volatile field.
+ *
+ * <p>Every routed property also owns a pre-allocated {@link EventInfo} which is carried over to
+ * new tables, so per-property event statistics can be updated without boxing the property id.
+ */
+class PropertyRoutingTable {
+    static final PropertyRoutingTable EMPTY = new PropertyRoutingTable(
+            new int[0], new HalServiceBase[0], new EventInfo[0]);
+
+    private final int[] mProperties;
+    private final HalServiceBase[] mHandlers;
+    private final EventInfo[] mEventInfos;
+
+    private PropertyRoutingTable(int[] properties, HalServiceBase[] handlers,
+            EventInfo[] eventInfos) {
+        mProperties = properties;
+        mHandlers = handlers;
+        mEventInfos = eventInfos;
+    }
+
+    /** Returns index of given property in this table or negative value if it is not routed. */
+    int indexOf(int property) {
+        return Arrays.binarySearch(mProperties, property);
+    }
+
+    /** Returns handler for given property or {@code null} if the property is not routed. */
+    HalServiceBase getHandler(int property) {
+        int index = indexOf(property);
+        return index < 0 ? null : mHandlers[index];
+    }
+
+    int size() {
+        return mProperties.length;
+    }
+
+    int propertyAt(int index) {
+        return mProperties[index];
+    }
+
+    HalServiceBase handlerAt(int index) {
+        return mHandlers[index];
+    }
+
+    EventInfo eventInfoAt(int index) {
+        return mEventInfos[index];
+    }
+
+    /**
+     * Creates a new table which contains all routes from this table plus given properties routed
+     * to the given service. Existing routes for the same properties are replaced.
+     */
+    PropertyRoutingTable withProperties(HalServiceBase service, Collection<Integer> properties) {
+        int[] newProps = Arrays.copyOf(mProperties, mProperties.length + properties.size());
+        int size = mProperties.length;
+        for (int prop : properties) {
+            if (Arrays.binarySearch(mProperties, prop) < 0) {
+                newProps[size++] = prop;
+            }
+        }
+        newProps = Arrays.copyOf(newProps, size);
+        Arrays.sort(newProps);
+        // Drop duplicates within the added collection.
+        int unique = 0;
+        for (int i = 0; i < newProps.length; i++) {
+            if (unique == 0 || newProps[unique - 1] != newProps[i]) {
+                newProps[unique++] = newProps[i];
+            }
+        }
+        newProps = Arrays.copyOf(newProps, unique);
+
+        HalServiceBase[] newHandlers = new HalServiceBase[unique];
+        EventInfo[] newInfos = new EventInfo[unique];
+        for (int i = 0; i < unique; i++) {
+            int prop = newProps[i];
+            int oldIndex = Arrays.binarySearch(mProperties, prop);
+            newHandlers[i] = properties.contains(prop) ? service : mHandlers[oldIndex];
+            newInfos[i] = oldIndex >= 0 ? mEventInfos[oldIndex] : new EventInfo();
+        }
+        return new PropertyRoutingTable(newProps, newHandlers, newInfos);
+    }
+
+    /**
+     * Per-property event statistics. Only written from the vehicle HAL thread, other threads may
+     * read slightly stale values for dumping.
+     */
+    static class EventInfo {
+        volatile int eventCount;
+        volatile VehiclePropValue lastEvent;
+
+        void addNewEvent(VehiclePropValue event) {
+            eventCount++;
+            lastEvent = event;
+        }
+    }
+}
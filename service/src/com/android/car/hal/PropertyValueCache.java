@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.hal;
+
+import android.annotation.Nullable;
+import android.hardware.automotive.vehicle.V2_0.VehicleAreaConfig;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds the last known value of each area of a single vehicle property.
+ *
+ * <p>The set of areas is fixed when the cache is created from the area configs of the property,
+ * so reads and writes are lock-free and allocation-free. Values for areas without an area config
+ * are never cached.
+ *
+ * <p>Cached {@link VehiclePropValue}s must not be modified, {@link VehicleHal} stores and hands
+ * out copies.
+ */
+class PropertyValueCache {
+    /** Area used for global properties. Requests with {@link VehicleHal#NO_AREA} map to it. */
+    private static final int GLOBAL_AREA = 0;
+
+    private final int mProperty;
+    private final int[] mAreas;
+    private final AtomicReferenceArray<VehiclePropValue> mValues;
+    private volatile boolean mEnabled;
+
+    PropertyValueCache(VehiclePropConfig config) {
+        mProperty = config.prop;
+        int[] areas = new int[config.areaConfigs.size()];
+        for (int i = 0; i < areas.length; i++) {
+            VehicleAreaConfig areaConfig = config.areaConfigs.get(i);
+            areas[i] = areaConfig.areaId;
+        }
+        if (areas.length == 0 && config.supportedAreas == 0) {
+            areas = new int[] { GLOBAL_AREA };
+        }
+        Arrays.sort(areas);
+        mAreas = areas;
+        mValues = new AtomicReferenceArray<>(areas.length);
+    }
+
+    int getProperty() {
+        return mProperty;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /** Enables or disables caching. Cached values are dropped when disabled. */
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    @Nullable
+    VehiclePropValue get(int areaId) {
+        int index = indexOf(areaId);
+        return (index < 0 || !mEnabled) ? null : mValues.get(index);
+    }
+
+    /** Stores value received from a property event, replacing any cached value. */
+    void put(VehiclePropValue value) {
+        int index = indexOf(value.areaId);
+        if (index >= 0 && mEnabled) {
+            mValues.set(index, value);
+        }
+    }
+
+    /**
+     * Stores value read from vehicle HAL unless a value was cached in the meantime, since it can
+     * only be more recent.
+     */
+    void putIfAbsent(int areaId, VehiclePropValue value) {
+        int index = indexOf(areaId);
+        if (index >= 0 && mEnabled) {
+            mValues.compareAndSet(index, null, value);
+        }
+    }
+
+    void invalidate(int areaId) {
+        int index = indexOf(areaId);
+        if (index >= 0) {
+            mValues.set(index, null);
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < mAreas.length; i++) {
+            mValues.set(i, null);
+        }
+    }
+
+    private int indexOf(int areaId) {
+        return Arrays.binarySearch(mAreas, areaId == VehicleHal.NO_AREA ? GLOBAL_AREA : areaId);
+    }
+}
@@ -37,7 +37,6 @@ import com.android.car.CarLog;
 import com.android.car.CarSensorEventFactory;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -142,12 +141,12 @@ public class SensorHalService extends SensorHalServiceBase {
     }
 
     // Should be used only inside handleHalEvents method.
-    private final LinkedList<CarSensorEvent> mEventsToDispatch = new LinkedList<>();
+    private final ArrayList<CarSensorEvent> mEventsToDispatch = new ArrayList<>();
 
     @Override
     public void handleHalEvents(List<VehiclePropValue> values) {
-        for (VehiclePropValue v : values) {
-            CarSensorEvent event = createCarSensorEvent(v);
+        for (int i = 0; i < values.size(); i++) {
+            CarSensorEvent event = createCarSensorEvent(values.get(i));
             if (event != null) {
                 mEventsToDispatch.add(event);
             }
@@ -160,6 +159,10 @@ public class SensorHalService extends SensorHalServiceBase {
         if (sensorListener != null) {
             sensorListener.onSensorEvents(mEventsToDispatch);
         }
+        // Listener acquires events it keeps, drop references owned by this dispatch.
+        for (int i = 0; i < mEventsToDispatch.size(); i++) {
+            CarSensorEventFactory.returnToPool(mEventsToDispatch.get(i));
+        }
         mEventsToDispatch.clear();
     }
 
@@ -230,6 +233,10 @@ public class SensorHalService extends SensorHalServiceBase {
         return event;
     }
 
+    /**
+     * Reads current value of the given sensor. The returned event may be pooled, the caller owns
+     * one reference to it, see {@link CarSensorEventFactory}.
+     */
     @Nullable
     public CarSensorEvent getCurrentSensorValue(int sensorType) {
         VehiclePropValue propValue = getCurrentSensorVehiclePropValue(sensorType);
@@ -113,7 +113,7 @@ public abstract class SensorHalServiceBase extends HalServiceBase implements Sen
             Log.e(TAG, "requesting to start sensor " + sensorType + ", but VHAL config not found");
             return false;
         }
-        //TODO calculate sampling rate properly, bug: 32095903
+        // Subscribing again replaces the sampling rate of an already subscribed property.
         mHal.subscribeProperty(this, config.prop, fixSamplingRateForProperty(config, rate));
         return true;
     }
@@ -22,6 +22,7 @@ import static com.android.car.CarServiceUtils.toIntArray;
 import static java.lang.Integer.toHexString;
 
 import android.annotation.CheckResult;
+import android.annotation.Nullable;
 import android.car.annotation.FutureFeature;
 import android.hardware.automotive.vehicle.V2_0.IVehicle;
 import android.hardware.automotive.vehicle.V2_0.IVehicleCallback;
@@ -33,10 +34,11 @@ import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyAccess;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyChangeMode;
+import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.RemoteException;
 import android.os.SystemClock;
-import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
 
@@ -44,6 +46,7 @@ import com.google.android.collect.Lists;
 
 import com.android.car.CarLog;
 import com.android.car.internal.FeatureConfiguration;
+import com.android.car.vehiclehal.VehiclePropValueBuilder;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.PrintWriter;
@@ -55,6 +58,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Abstraction for vehicle HAL. This class handles interface with native HAL and do basic parsing
@@ -66,7 +71,7 @@ public class VehicleHal extends IVehicleCallback.Stub {
 
     private static final boolean DBG = false;
 
-    private static final int NO_AREA = -1;
+    static final int NO_AREA = -1;
 
     private final HandlerThread mHandlerThread;
     private final SensorHalService mSensorHal;
@@ -87,13 +92,23 @@ public class VehicleHal extends IVehicleCallback.Stub {
     /** Might be re-assigned if Vehicle HAL is reconnected. */
     private volatile HalClient mHalClient;
 
-    /** Stores handler for each HAL property. Property events are sent to handler. */
-    private final SparseArray<HalServiceBase> mPropertyHandlers = new SparseArray<>();
+    /**
+     * Stores handler for each HAL property. Property events are sent to handler. This table is
+     * immutable and replaced as a whole when properties are taken, so it can be read without lock.
+     */
+    private volatile PropertyRoutingTable mPropertyHandlers = PropertyRoutingTable.EMPTY;
     /** This is for iterating all HalServices with fixed order. */
     private final ArrayList<HalServiceBase> mAllServices = new ArrayList<>();
     private final HashMap<Integer, SubscribeOptions> mSubscribedProperties = new HashMap<>();
     private final HashMap<Integer, VehiclePropConfig> mAllProperties = new HashMap<>();
-    private final HashMap<Integer, VehiclePropertyEventInfo> mEventLog = new HashMap<>();
+
+    /**
+     * Last value caches of readable ON_CHANGE and STATIC properties. Immutable once created in
+     * {@link #init()}, caches of ON_CHANGE properties are only enabled while subscribed.
+     */
+    private volatile SparseArray<PropertyValueCache> mValueCaches = new SparseArray<>();
+    private final AtomicLong mCacheHits = new AtomicLong();
+    private final AtomicLong mCacheMisses = new AtomicLong();
 
     public VehicleHal(IVehicle vehicle) {
         mHandlerThread = new HandlerThread("VEHICLE-HAL");
@@ -188,6 +203,11 @@ public class VehicleHal extends IVehicleCallback.Stub {
                 throw new RuntimeException("Failed to subscribe: " + Arrays.asList(options), e);
             }
         }
+        // Values cached from the previous HAL instance may be outdated.
+        SparseArray<PropertyValueCache> caches = mValueCaches;
+        for (int i = 0; i < caches.size(); i++) {
+            caches.valueAt(i).clear();
+        }
     }
 
     public void init() {
@@ -205,6 +225,16 @@ public class VehicleHal extends IVehicleCallback.Stub {
             }
         }
 
+        SparseArray<PropertyValueCache> caches = new SparseArray<>();
+        for (VehiclePropConfig p : properties) {
+            if (isPropertyCacheable(p)) {
+                PropertyValueCache cache = new PropertyValueCache(p);
+                cache.setEnabled(p.changeMode == VehiclePropertyChangeMode.STATIC);
+                caches.put(p.prop, cache);
+            }
+        }
+        mValueCaches = caches;
+
         for (HalServiceBase service: mAllServices) {
             Collection<VehiclePropConfig> taken = service.takeSupportedProperties(properties);
             if (taken == null) {
@@ -213,12 +243,18 @@ public class VehicleHal extends IVehicleCallback.Stub {
             if (DBG) {
                 Log.i(CarLog.TAG_HAL, "HalService " + service + " take properties " + taken.size());
             }
+            List<Integer> takenProps = new ArrayList<>(taken.size());
+            for (VehiclePropConfig p: taken) {
+                takenProps.add(p.prop);
+            }
             synchronized (this) {
-                for (VehiclePropConfig p: taken) {
-                    mPropertyHandlers.append(p.prop, service);
-                }
+                mPropertyHandlers = mPropertyHandlers.withProperties(service, takenProps);
             }
             properties.removeAll(taken);
+            HalEventDispatcher.Config dispatcherConfig = service.getEventDispatcherConfig();
+            if (dispatcherConfig != null && service.getEventDispatcher() == null) {
+                service.setEventDispatcher(new HalEventDispatcher(service, dispatcherConfig));
+            }
             service.init();
         }
     }
@@ -226,7 +262,14 @@ public class VehicleHal extends IVehicleCallback.Stub {
     public void release() {
         // release in reverse order from init
         for (int i = mAllServices.size() - 1; i >= 0; i--) {
-            mAllServices.get(i).release();
+            HalServiceBase service = mAllServices.get(i);
+            service.release();
+            HalEventDispatcher dispatcher = service.getEventDispatcher();
+            if (dispatcher != null) {
+                // a new dispatcher is created if the service is initialized again
+                service.setEventDispatcher(null);
+                dispatcher.release();
+            }
         }
         synchronized (this) {
             for (int p : mSubscribedProperties.keySet()) {
@@ -240,6 +283,7 @@ public class VehicleHal extends IVehicleCallback.Stub {
             mSubscribedProperties.clear();
             mAllProperties.clear();
         }
+        mValueCaches = new SparseArray<>();
         // keep the looper thread as should be kept for the whole life cycle.
     }
 
@@ -285,7 +329,7 @@ public class VehicleHal extends IVehicleCallback.Stub {
     public VmsHalService getVmsHal() { return mVmsHal; }
 
     private void assertServiceOwnerLocked(HalServiceBase service, int property) {
-        if (service != mPropertyHandlers.get(property)) {
+        if (service != mPropertyHandlers.getHandler(property)) {
             throw new IllegalArgumentException("Property 0x" + toHexString(property)
                     + " is not owned by service: " + service);
         }
@@ -345,6 +389,10 @@ public class VehicleHal extends IVehicleCallback.Stub {
             }
             try {
                 mHalClient.subscribe(opts);
+                PropertyValueCache cache = mValueCaches.get(property);
+                if (cache != null) {
+                    cache.setEnabled(true);
+                }
             } catch (RemoteException e) {
                 Log.e(CarLog.TAG_HAL, "Failed to subscribe to property: 0x" + property, e);
             }
@@ -370,6 +418,10 @@ public class VehicleHal extends IVehicleCallback.Stub {
                 assertServiceOwnerLocked(service, property);
                 mSubscribedProperties.remove(property);
             }
+            PropertyValueCache cache = mValueCaches.get(property);
+            if (cache != null) {
+                cache.setEnabled(false);
+            }
             try {
                 mHalClient.unsubscribe(property);
             } catch (RemoteException e) {
@@ -401,7 +453,7 @@ public class VehicleHal extends IVehicleCallback.Stub {
         VehiclePropValue propValue = new VehiclePropValue();
         propValue.prop = propertyId;
         propValue.areaId = areaId;
-        return mHalClient.getValue(propValue);
+        return getValue(propValue);
     }
 
     public <T> T get(Class clazz, int propertyId) throws PropertyTimeoutException {
@@ -416,7 +468,7 @@ public class VehicleHal extends IVehicleCallback.Stub {
     public <T> T get(Class clazz, VehiclePropValue requestedPropValue)
             throws PropertyTimeoutException {
         VehiclePropValue propValue;
-        propValue = mHalClient.getValue(requestedPropValue);
+        propValue = getValue(requestedPropValue);
 
         if (clazz == Integer.class || clazz == int.class) {
             return (T) propValue.value.int32Values.get(0);
@@ -445,13 +497,134 @@ public class VehicleHal extends IVehicleCallback.Stub {
 
     public VehiclePropValue get(VehiclePropValue requestedPropValue)
             throws PropertyTimeoutException {
-        return mHalClient.getValue(requestedPropValue);
+        return getValue(requestedPropValue);
+    }
+
+    /**
+     * Returns value from the last value cache if the property is cached and the request carries
+     * no parameters, otherwise reads it from vehicle HAL.
+     *
+     * <p>Callers own the returned value: the cache only hands out and stores copies.
+     */
+    private VehiclePropValue getValue(VehiclePropValue requestedPropValue)
+            throws PropertyTimeoutException {
+        PropertyValueCache cache = getCacheFor(requestedPropValue);
+        if (cache == null) {
+            return mHalClient.getValue(requestedPropValue);
+        }
+        VehiclePropValue value = cache.get(requestedPropValue.areaId);
+        if (value != null) {
+            mCacheHits.incrementAndGet();
+            return copyOf(value);
+        }
+        mCacheMisses.incrementAndGet();
+        value = mHalClient.getValue(requestedPropValue);
+        cache.putIfAbsent(requestedPropValue.areaId, copyOf(value));
+        return value;
+    }
+
+    /** Returns the cache to serve the given request from, or null if it must go to the HAL. */
+    @Nullable
+    private PropertyValueCache getCacheFor(VehiclePropValue requestedPropValue) {
+        PropertyValueCache cache = mValueCaches.get(requestedPropValue.prop);
+        if (cache == null || !cache.isEnabled() || hasPayload(requestedPropValue)) {
+            return null;
+        }
+        return cache;
+    }
+
+    private static VehiclePropValue copyOf(VehiclePropValue value) {
+        return VehiclePropValueBuilder.newBuilder(value).build();
+    }
+
+    /** Invalidates cached value, the new one will be reported by HAL or read on next get. */
+    private void invalidateCachedValue(VehiclePropValue propValue) {
+        PropertyValueCache cache = mValueCaches.get(propValue.prop);
+        if (cache != null) {
+            cache.invalidate(propValue.areaId);
+        }
+    }
+
+    private static boolean hasPayload(VehiclePropValue value) {
+        return !value.value.int32Values.isEmpty()
+                || !value.value.floatValues.isEmpty()
+                || !value.value.int64Values.isEmpty()
+                || !value.value.bytes.isEmpty()
+                || (value.value.stringValue != null && !value.value.stringValue.isEmpty());
+    }
+
+    private static boolean isPropertyCacheable(VehiclePropConfig config) {
+        return (config.access & VehiclePropertyAccess.READ) != 0
+                && (config.changeMode == VehiclePropertyChangeMode.ON_CHANGE
+                        || config.changeMode == VehiclePropertyChangeMode.STATIC);
+    }
+
+    /**
+     * Reads multiple properties in one batch, see {@link HalClient#getValues(List)}.
+     *
+     * @return values in the same order as requested, {@code null} for properties that could not
+     * be read.
+     */
+    public List<VehiclePropValue> getValues(List<VehiclePropValue> requestedPropValues) {
+        if (DBG) {
+            Log.i(CarLog.TAG_HAL, "getValues, count: " + requestedPropValues.size());
+        }
+        int size = requestedPropValues.size();
+        ArrayList<VehiclePropValue> result = new ArrayList<>(size);
+        // Requests not served from the cache are read from the HAL in one batch.
+        ArrayList<VehiclePropValue> halRequests = new ArrayList<>(size);
+        int[] halRequestIndexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            VehiclePropValue request = requestedPropValues.get(i);
+            PropertyValueCache cache = getCacheFor(request);
+            VehiclePropValue value = cache == null ? null : cache.get(request.areaId);
+            if (value != null) {
+                mCacheHits.incrementAndGet();
+                result.add(copyOf(value));
+                continue;
+            }
+            if (cache != null) {
+                mCacheMisses.incrementAndGet();
+            }
+            result.add(null);
+            halRequestIndexes[halRequests.size()] = i;
+            halRequests.add(request);
+        }
+        if (halRequests.isEmpty()) {
+            return result;
+        }
+
+        List<VehiclePropValue> halValues = mHalClient.getValues(halRequests);
+        for (int i = 0; i < halValues.size(); i++) {
+            VehiclePropValue value = halValues.get(i);
+            if (value == null) {
+                continue;
+            }
+            VehiclePropValue request = halRequests.get(i);
+            PropertyValueCache cache = getCacheFor(request);
+            if (cache != null) {
+                cache.putIfAbsent(request.areaId, copyOf(value));
+            }
+            result.set(halRequestIndexes[i], value);
+        }
+        return result;
     }
 
     void set(VehiclePropValue propValue) throws PropertyTimeoutException {
+        invalidateCachedValue(propValue);
         mHalClient.setValue(propValue);
     }
 
+    /**
+     * Writes multiple properties in one batch, see {@link HalClient#setValues(List)}.
+     */
+    void setValues(List<VehiclePropValue> propValues) throws PropertyTimeoutException {
+        for (int i = 0; i < propValues.size(); i++) {
+            invalidateCachedValue(propValues.get(i));
+        }
+        mHalClient.setValues(propValues);
+    }
+
     @CheckResult
     VehiclePropValueSetter set(int propId) {
         return new VehiclePropValueSetter(mHalClient, propId, NO_AREA);
@@ -476,30 +649,45 @@ public class VehicleHal extends IVehicleCallback.Stub {
         }
     }
 
-    private final ArraySet<HalServiceBase> mServicesToDispatch = new ArraySet<>();
+    /** Services with pending events. Only accessed from the vehicle HAL thread. */
+    private final ArrayList<HalServiceBase> mServicesToDispatch = new ArrayList<>();
 
+    /**
+     * Demultiplexes property events to the owning {@link HalServiceBase}s. Called only from the
+     * vehicle HAL thread and takes no lock. Only events of cached properties are copied.
+     */
     @Override
     public void onPropertyEvent(ArrayList<VehiclePropValue> propValues) {
-        synchronized (this) {
-            for (VehiclePropValue v : propValues) {
-                HalServiceBase service = mPropertyHandlers.get(v.prop);
-                if(service == null) {
-                    Log.e(CarLog.TAG_HAL, "HalService not found for prop: 0x"
-                        + toHexString(v.prop));
-                    continue;
-                }
-                service.getDispatchList().add(v);
+        PropertyRoutingTable routingTable = mPropertyHandlers;
+        SparseArray<PropertyValueCache> valueCaches = mValueCaches;
+        for (int i = 0; i < propValues.size(); i++) {
+            VehiclePropValue v = propValues.get(i);
+            int index = routingTable.indexOf(v.prop);
+            if (index < 0) {
+                Log.e(CarLog.TAG_HAL, "HalService not found for prop: 0x"
+                    + toHexString(v.prop));
+                continue;
+            }
+            HalServiceBase service = routingTable.handlerAt(index);
+            routingTable.eventInfoAt(index).addNewEvent(v);
+            PropertyValueCache cache = valueCaches.get(v.prop);
+            if (cache != null && cache.isEnabled()) {
+                // the event is handed to the HAL service, the cache keeps its own copy
+                cache.put(copyOf(v));
+            }
+            HalEventDispatcher dispatcher = service.getEventDispatcher();
+            if (dispatcher != null) {
+                dispatcher.enqueue(v);
+                continue;
+            }
+            List<VehiclePropValue> dispatchList = service.getDispatchList();
+            if (dispatchList.isEmpty()) {
                 mServicesToDispatch.add(service);
-                VehiclePropertyEventInfo info = mEventLog.get(v.prop);
-                if (info == null) {
-                    info = new VehiclePropertyEventInfo(v);
-                    mEventLog.put(v.prop, info);
-                } else {
-                    info.addNewEvent(v);
-                }
             }
+            dispatchList.add(v);
         }
-        for (HalServiceBase s : mServicesToDispatch) {
+        for (int i = 0; i < mServicesToDispatch.size(); i++) {
+            HalServiceBase s = mServicesToDispatch.get(i);
             s.handleHalEvents(s.getDispatchList());
             s.getDispatchList().clear();
         }
@@ -516,7 +704,7 @@ public class VehicleHal extends IVehicleCallback.Stub {
         Log.e(CarLog.TAG_HAL, String.format("onPropertySetError, errorCode: %d, prop: 0x%x, "
                 + "area: 0x%x", errorCode, propId, areaId));
         if (propId != VehicleProperty.INVALID) {
-            HalServiceBase service = mPropertyHandlers.get(propId);
+            HalServiceBase service = mPropertyHandlers.getHandler(propId);
             if (service != null) {
                 service.handlePropertySetError(propId, areaId);
             }
@@ -529,6 +717,14 @@ public class VehicleHal extends IVehicleCallback.Stub {
             service.dump(writer);
         }
 
+        writer.println("**Event dispatchers**");
+        for (HalServiceBase service: mAllServices) {
+            HalEventDispatcher dispatcher = service.getEventDispatcher();
+            if (dispatcher != null) {
+                dispatcher.dump(writer);
+            }
+        }
+
         List<VehiclePropConfig> configList;
         synchronized (this) {
             configList = new ArrayList<>(mAllProperties.values());
@@ -557,15 +753,31 @@ public class VehicleHal extends IVehicleCallback.Stub {
         }
         writer.println(String.format("**All Events, now ns:%d**",
                 SystemClock.elapsedRealtimeNanos()));
-        for (VehiclePropertyEventInfo info : mEventLog.values()) {
-            writer.println(String.format("event count:%d, lastEvent:%s",
-                    info.eventCount, dumpVehiclePropValue(info.lastEvent)));
+        PropertyRoutingTable routingTable = mPropertyHandlers;
+        for (int i = 0; i < routingTable.size(); i++) {
+            PropertyRoutingTable.EventInfo info = routingTable.eventInfoAt(i);
+            VehiclePropValue lastEvent = info.lastEvent;
+            if (lastEvent != null) {
+                writer.println(String.format("event count:%d, lastEvent:%s",
+                        info.eventCount, dumpVehiclePropValue(lastEvent)));
+            }
+        }
+
+        SparseArray<PropertyValueCache> caches = mValueCaches;
+        int enabledCaches = 0;
+        for (int i = 0; i < caches.size(); i++) {
+            if (caches.valueAt(i).isEnabled()) {
+                enabledCaches++;
+            }
         }
+        writer.println(String.format("**Value cache** cacheable properties:%d, enabled:%d, "
+                + "hits:%d, misses:%d", caches.size(), enabledCaches, mCacheHits.get(),
+                mCacheMisses.get()));
 
         writer.println("**Property handlers**");
-        for (int i = 0; i < mPropertyHandlers.size(); i++) {
-            int propId = mPropertyHandlers.keyAt(i);
-            HalServiceBase service = mPropertyHandlers.valueAt(i);
+        for (int i = 0; i < routingTable.size(); i++) {
+            int propId = routingTable.propertyAt(i);
+            HalServiceBase service = routingTable.handlerAt(i);
             writer.println(String.format("Prop: 0x%08X, service: %s", propId, service));
         }
     }
@@ -579,7 +791,7 @@ public class VehicleHal extends IVehicleCallback.Stub {
     public void injectBooleanEvent(int propId, int areaId, boolean value) {
         VehiclePropValue v = createPropValue(propId, areaId);
         v.value.int32Values.add(value? 1 : 0);
-        onPropertyEvent(Lists.newArrayList(v));
+        injectEvent(v);
     }
 
     /**
@@ -591,21 +803,33 @@ public class VehicleHal extends IVehicleCallback.Stub {
         VehiclePropValue v = createPropValue(propId, 0);
         v.value.int32Values.add(value);
         v.timestamp = SystemClock.elapsedRealtimeNanos();
-        onPropertyEvent(Lists.newArrayList(v));
+        injectEvent(v);
     }
 
-    private static class VehiclePropertyEventInfo {
-        private int eventCount;
-        private VehiclePropValue lastEvent;
-
-        private VehiclePropertyEventInfo(VehiclePropValue event) {
-            eventCount = 1;
-            lastEvent = event;
-        }
-
-        private void addNewEvent(VehiclePropValue event) {
-            eventCount++;
-            lastEvent = event;
+    /**
+     * Event dispatching state is owned by the vehicle HAL thread, thus injected events are
+     * dispatched there. Returns once the event has been dispatched. Without a vehicle HAL thread,
+     * as with the test constructors, events are dispatched on the calling thread.
+     */
+    private void injectEvent(VehiclePropValue v) {
+        ArrayList<VehiclePropValue> values = Lists.newArrayList(v);
+        if (mHandlerThread == null || mHandlerThread.getLooper().isCurrentThread()) {
+            onPropertyEvent(values);
+            return;
+        }
+        Looper looper = mHandlerThread.getLooper();
+        CountDownLatch dispatched = new CountDownLatch(1);
+        new Handler(looper).post(() -> {
+            try {
+                onPropertyEvent(values);
+            } finally {
+                dispatched.countDown();
+            }
+        });
+        try {
+            dispatched.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -648,6 +872,7 @@ public class VehicleHal extends IVehicleCallback.Stub {
                     Log.i(CarLog.TAG_HAL, "set, property: 0x" + toHexString(mPropValue.prop)
                             + ", areaId: 0x" + toHexString(mPropValue.areaId));
                 }
+                invalidateCachedValue(mPropValue);
                 client.setValue(mPropValue);
             }
         }
@@ -676,7 +901,7 @@ public class VehicleHal extends IVehicleCallback.Stub {
         return sb.toString();
     }
 
-    private static VehiclePropValue createPropValue(int propId, int areaId) {
+    static VehiclePropValue createPropValue(int propId, int areaId) {
         VehiclePropValue propValue = new VehiclePropValue();
         propValue.prop = propId;
         propValue.areaId = areaId;
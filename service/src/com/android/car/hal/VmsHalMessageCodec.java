@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.hal;
+
+import android.car.VehicleAreaType;
+import android.car.annotation.FutureFeature;
+import android.car.vms.VmsAssociatedLayer;
+import android.car.vms.VmsLayer;
+import android.car.vms.VmsLayerDependency;
+import android.car.vms.VmsLayersOffering;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
+import android.hardware.automotive.vehicle.V2_0.VmsBaseMessageIntegerValuesIndex;
+import android.hardware.automotive.vehicle.V2_0.VmsMessageType;
+import android.hardware.automotive.vehicle.V2_0.VmsMessageWithLayerAndPublisherIdIntegerValuesIndex;
+import android.hardware.automotive.vehicle.V2_0.VmsMessageWithLayerIntegerValuesIndex;
+import android.hardware.automotive.vehicle.V2_0.VmsOfferingMessageIntegerValuesIndex;
+import android.hardware.automotive.vehicle.V2_0.VmsSubscriptionsStateIntegerValuesIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodes and decodes the VMS messages of the VEHICLE_MAP_SERVICE property. The format of these
+ * messages is defined in hardware/interfaces/automotive/vehicle/2.0/types.hal.
+ * <p>
+ * Messages are decoded from an {@code int[]} copy of the integer values, see
+ * {@link com.android.car.CarServiceUtils#toIntArray}, unboxing each value once. They are encoded
+ * into an {@code int[]} first, so that the property value lists are allocated with their exact
+ * size. The vehicle HAL only takes boxed lists, but bytes and small integers are boxed from the
+ * caches of {@link Byte#valueOf} and {@link Integer#valueOf}.
+ */
+@FutureFeature
+public final class VmsHalMessageCodec {
+    private static final int HAL_PROPERTY_ID = VehicleProperty.VEHICLE_MAP_SERVICE;
+    private static final int NUM_INTEGERS_IN_VMS_LAYER = 3;
+
+    private VmsHalMessageCodec() {}
+
+    /** Returns the message type of the integer values of a message. */
+    public static int getMessageType(int[] integerValues) {
+        return integerValues[VmsBaseMessageIntegerValuesIndex.MESSAGE_TYPE];
+    }
+
+    /**
+     * Returns the layer of a data, subscribe or unsubscribe message.
+     * <p>
+     * Format:
+     * <ul>
+     * <li>Message type.
+     * <li>Layer type.
+     * <li>Layer subtype.
+     * <li>Layer version.
+     * <li>Publisher ID, for data and subscribe/unsubscribe to publisher messages.
+     * </ul>
+     */
+    public static VmsLayer decodeLayer(int[] integerValues) {
+        return new VmsLayer(integerValues[VmsMessageWithLayerIntegerValuesIndex.LAYER_TYPE],
+                integerValues[VmsMessageWithLayerIntegerValuesIndex.LAYER_SUBTYPE],
+                integerValues[VmsMessageWithLayerIntegerValuesIndex.LAYER_VERSION]);
+    }
+
+    /** Returns the publisher ID of a data or subscribe/unsubscribe to publisher message. */
+    public static int decodePublisherId(int[] integerValues) {
+        return integerValues[VmsMessageWithLayerAndPublisherIdIntegerValuesIndex.PUBLISHER_ID];
+    }
+
+    /**
+     * Decodes an offering message.
+     * <p>
+     * Format:
+     * <ul>
+     * <li>Message type.
+     * <li>Publisher ID.
+     * <li>Number of offerings.
+     * <li>Each offering consists of:
+     * <ul>
+     * <li>Layer type/subtype/version.
+     * <li>Number of layer dependencies.
+     * <li>Layer type/subtype/version of each dependency.
+     * </ul>
+     * </ul>
+     */
+    public static VmsLayersOffering decodeOffering(int[] integerValues) {
+        int publisherId = integerValues[VmsOfferingMessageIntegerValuesIndex.PUBLISHER_ID];
+        int numLayersDependencies =
+                integerValues[VmsOfferingMessageIntegerValuesIndex.NUMBER_OF_OFFERS];
+        int idx = VmsOfferingMessageIntegerValuesIndex.OFFERING_START;
+
+        Set<VmsLayerDependency> offeredLayers = new HashSet<>();
+        for (int i = 0; i < numLayersDependencies; i++) {
+            VmsLayer offeredLayer = decodeLayerAt(integerValues, idx);
+            idx += NUM_INTEGERS_IN_VMS_LAYER;
+
+            int numDependenciesForLayer = integerValues[idx++];
+            if (numDependenciesForLayer == 0) {
+                offeredLayers.add(new VmsLayerDependency(offeredLayer));
+            } else {
+                Set<VmsLayer> dependencies = new HashSet<>();
+                for (int j = 0; j < numDependenciesForLayer; j++) {
+                    dependencies.add(decodeLayerAt(integerValues, idx));
+                    idx += NUM_INTEGERS_IN_VMS_LAYER;
+                }
+                offeredLayers.add(new VmsLayerDependency(offeredLayer, dependencies));
+            }
+        }
+        return new VmsLayersOffering(offeredLayers, publisherId);
+    }
+
+    /** Encodes a data message. The HAL only gets the layer and the payload. */
+    public static VehiclePropValue encodeDataMessage(VmsLayer layer, byte[] payload) {
+        int[] integerValues = new int[1 + NUM_INTEGERS_IN_VMS_LAYER];
+        int idx = encodeLayerAt(integerValues, 0, VmsMessageType.DATA, layer);
+        return toVehiclePropValue(integerValues, idx, payload);
+    }
+
+    /**
+     * Encodes a data message as the HAL sends it, with the ID of its publisher. Used to inject
+     * messages from the HAL in tests.
+     */
+    public static VehiclePropValue encodeDataMessage(VmsLayer layer, int publisherId,
+            byte[] payload) {
+        int[] integerValues = new int[2 + NUM_INTEGERS_IN_VMS_LAYER];
+        int idx = encodeLayerAt(integerValues, 0, VmsMessageType.DATA, layer);
+        integerValues[idx++] = publisherId;
+        return toVehiclePropValue(integerValues, idx, payload);
+    }
+
+    /** Encodes a subscribe or unsubscribe message. */
+    public static VehiclePropValue encodeSubscriptionMessage(int messageType, VmsLayer layer) {
+        int[] integerValues = new int[1 + NUM_INTEGERS_IN_VMS_LAYER];
+        int idx = encodeLayerAt(integerValues, 0, messageType, layer);
+        return toVehiclePropValue(integerValues, idx, null);
+    }
+
+    /** Encodes a subscribe or unsubscribe to publisher message. */
+    public static VehiclePropValue encodeSubscriptionToPublisherMessage(int messageType,
+            VmsLayer layer, int publisherId) {
+        int[] integerValues = new int[2 + NUM_INTEGERS_IN_VMS_LAYER];
+        int idx = encodeLayerAt(integerValues, 0, messageType, layer);
+        integerValues[idx++] = publisherId;
+        return toVehiclePropValue(integerValues, idx, null);
+    }
+
+    /**
+     * Encodes an offering message, see {@link #decodeOffering(int[])} for the format. Used to
+     * inject messages from the HAL in tests.
+     */
+    public static VehiclePropValue encodeOffering(VmsLayersOffering offering) {
+        Set<VmsLayerDependency> offeredLayers = offering.getDependencies();
+        int size = 3;
+        for (VmsLayerDependency dependency : offeredLayers) {
+            size += NUM_INTEGERS_IN_VMS_LAYER + 1
+                    + dependency.getDependencies().size() * NUM_INTEGERS_IN_VMS_LAYER;
+        }
+        int[] integerValues = new int[size];
+        int idx = 0;
+        integerValues[idx++] = VmsMessageType.OFFERING;
+        integerValues[idx++] = offering.getPublisherId();
+        integerValues[idx++] = offeredLayers.size();
+        for (VmsLayerDependency dependency : offeredLayers) {
+            idx = encodeLayerAt(integerValues, idx, dependency.getLayer());
+            integerValues[idx++] = dependency.getDependencies().size();
+            for (VmsLayer layer : dependency.getDependencies()) {
+                idx = encodeLayerAt(integerValues, idx, layer);
+            }
+        }
+        return toVehiclePropValue(integerValues, idx, null);
+    }
+
+    /** Encodes a subscriptions request message, which only has its message type. */
+    public static VehiclePropValue encodeSubscriptionsRequest() {
+        return toVehiclePropValue(new int[] {VmsMessageType.SUBSCRIPTIONS_REQUEST}, 1, null);
+    }
+
+    /**
+     * Encodes an availability response or change message.
+     * <p>
+     * Format:
+     * <ul>
+     * <li>Message type.
+     * <li>Number of layers.
+     * <li>Each layer consists of:
+     * <ul>
+     * <li>Layer type/subtype/version.
+     * <li>Number of publishers.
+     * <li>Publisher IDs.
+     * </ul>
+     * </ul>
+     */
+    public static VehiclePropValue encodeAvailabilityMessage(int messageType,
+            Collection<VmsAssociatedLayer> availableLayers) {
+        if (messageType != VmsMessageType.AVAILABILITY_RESPONSE
+                && messageType != VmsMessageType.AVAILABILITY_CHANGE) {
+            throw new IllegalArgumentException("Unsupported availability type: " + messageType);
+        }
+        int size = 2;
+        for (VmsAssociatedLayer layer : availableLayers) {
+            size += NUM_INTEGERS_IN_VMS_LAYER + 1 + layer.getPublisherIds().size();
+        }
+        int[] integerValues = new int[size];
+        int idx = 0;
+        integerValues[idx++] = messageType;
+        integerValues[idx++] = availableLayers.size();
+        for (VmsAssociatedLayer layer : availableLayers) {
+            idx = encodeLayerAt(integerValues, idx, layer.getVmsLayer());
+            integerValues[idx++] = layer.getPublisherIds().size();
+            for (int publisherId : layer.getPublisherIds()) {
+                integerValues[idx++] = publisherId;
+            }
+        }
+        return toVehiclePropValue(integerValues, idx, null);
+    }
+
+    /**
+     * Encodes a subscriptions response message.
+     * <p>
+     * Format:
+     * <ul>
+     * <li>Message type.
+     * <li>Sequence number.
+     * <li>Number of layers.
+     * <li>Number of associated layers.
+     * <li>Layer type/subtype/version of each layer.
+     * </ul>
+     */
+    public static VehiclePropValue encodeSubscriptionsResponse(int sequenceNumber,
+            Collection<VmsLayer> layers) {
+        int[] integerValues = new int[4 + layers.size() * NUM_INTEGERS_IN_VMS_LAYER];
+        int idx = 0;
+        integerValues[idx++] = VmsMessageType.SUBSCRIPTIONS_RESPONSE;
+        integerValues[idx++] = sequenceNumber;
+        integerValues[idx++] = layers.size();
+        //TODO(asafro): get the real number of associated layers in the subscriptions
+        //              state and send the associated layers themselves.
+        integerValues[idx++] = 0;
+        for (VmsLayer layer : layers) {
+            idx = encodeLayerAt(integerValues, idx, layer);
+        }
+        return toVehiclePropValue(integerValues, idx, null);
+    }
+
+    /**
+     * Returns the layers of a subscriptions response message, see {@link
+     * #encodeSubscriptionsResponse(int, Collection)} for the format.
+     */
+    public static List<VmsLayer> decodeSubscriptionsResponseLayers(int[] integerValues) {
+        int numLayers = integerValues[VmsSubscriptionsStateIntegerValuesIndex.NUMBER_OF_LAYERS];
+        List<VmsLayer> layers = new ArrayList<>(numLayers);
+        int idx = VmsSubscriptionsStateIntegerValuesIndex.SUBSCRIPTIONS_START;
+        for (int i = 0; i < numLayers; i++) {
+            layers.add(decodeLayerAt(integerValues, idx));
+            idx += NUM_INTEGERS_IN_VMS_LAYER;
+        }
+        return layers;
+    }
+
+    private static VmsLayer decodeLayerAt(int[] integerValues, int idx) {
+        return new VmsLayer(integerValues[idx], integerValues[idx + 1], integerValues[idx + 2]);
+    }
+
+    private static int encodeLayerAt(int[] integerValues, int idx, int messageType,
+            VmsLayer layer) {
+        integerValues[idx++] = messageType;
+        return encodeLayerAt(integerValues, idx, layer);
+    }
+
+    private static int encodeLayerAt(int[] integerValues, int idx, VmsLayer layer) {
+        integerValues[idx++] = layer.getType();
+        integerValues[idx++] = layer.getSubtype();
+        integerValues[idx++] = layer.getVersion();
+        return idx;
+    }
+
+    private static VehiclePropValue toVehiclePropValue(int[] integerValues, int count,
+            byte[] payload) {
+        VehiclePropValue vehicleProp = new VehiclePropValue();
+        vehicleProp.prop = HAL_PROPERTY_ID;
+        vehicleProp.areaId = VehicleAreaType.VEHICLE_AREA_TYPE_NONE;
+        VehiclePropValue.RawValue v = vehicleProp.value;
+
+        ArrayList<Integer> int32Values = v.int32Values;
+        int32Values.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            int32Values.add(integerValues[i]);
+        }
+        if (payload != null) {
+            ArrayList<Byte> bytes = v.bytes;
+            bytes.ensureCapacity(payload.length);
+            for (byte b : payload) {
+                bytes.add(b);
+            }
+        }
+        return vehicleProp;
+    }
+}
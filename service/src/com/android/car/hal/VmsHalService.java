@@ -16,28 +16,26 @@
 package com.android.car.hal;
 
 import static com.android.car.CarServiceUtils.toByteArray;
+import static com.android.car.CarServiceUtils.toIntArray;
 import static java.lang.Integer.toHexString;
 
-import android.car.VehicleAreaType;
 import android.car.annotation.FutureFeature;
 import android.car.vms.IVmsSubscriberClient;
 import android.car.vms.VmsLayer;
 import android.car.vms.VmsAssociatedLayer;
-import android.car.vms.VmsLayerDependency;
 import android.car.vms.VmsLayersOffering;
+import android.car.vms.VmsMessageBatch;
 import android.car.vms.VmsOperationRecorder;
 import android.car.vms.VmsSubscriptionState;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
-import android.hardware.automotive.vehicle.V2_0.VmsBaseMessageIntegerValuesIndex;
 import android.hardware.automotive.vehicle.V2_0.VmsMessageType;
-import android.hardware.automotive.vehicle.V2_0.VmsMessageWithLayerAndPublisherIdIntegerValuesIndex;
-import android.hardware.automotive.vehicle.V2_0.VmsOfferingMessageIntegerValuesIndex;
-import android.hardware.automotive.vehicle.V2_0.VmsMessageWithLayerIntegerValuesIndex;
 import android.os.Binder;
 import android.os.IBinder;
+import android.util.ArrayMap;
 import android.util.Log;
+import android.util.SparseArray;
 import com.android.car.CarLog;
 import com.android.car.VmsLayersAvailability;
 import com.android.car.VmsPublishersInfo;
@@ -45,15 +43,10 @@ import com.android.car.VmsRouting;
 import com.android.internal.annotations.GuardedBy;
 
 import java.io.PrintWriter;
-import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -68,11 +61,6 @@ public class VmsHalService extends HalServiceBase {
     private static final int HAL_PROPERTY_ID = VehicleProperty.VEHICLE_MAP_SERVICE;
     private static final String TAG = "VmsHalService";
 
-    private final static List<Integer> AVAILABILITY_MESSAGE_TYPES = Collections.unmodifiableList(
-            Arrays.asList(
-                    VmsMessageType.AVAILABILITY_RESPONSE,
-                    VmsMessageType.AVAILABILITY_CHANGE));
-
     private boolean mIsSupported = false;
     private CopyOnWriteArrayList<VmsHalPublisherListener> mPublisherListeners =
             new CopyOnWriteArrayList<>();
@@ -83,10 +71,10 @@ public class VmsHalService extends HalServiceBase {
     private final VehicleHal mVehicleHal;
 
     private final Object mLock = new Object();
+    // See getDeliveryLock(). Acquired before mLock.
+    private final Object mDeliveryLock = new Object();
     private final VmsRouting mRouting = new VmsRouting();
     @GuardedBy("mLock")
-    private final Map<IBinder, VmsLayersOffering> mOfferings = new HashMap<>();
-    @GuardedBy("mLock")
     private final VmsLayersAvailability mAvailableLayers = new VmsLayersAvailability();
     private final VmsPublishersInfo mPublishersInfo = new VmsPublishersInfo();
 
@@ -101,7 +89,8 @@ public class VmsHalService extends HalServiceBase {
      * The VmsSubscriberService implements this interface to receive data from the HAL.
      */
     public interface VmsHalSubscriberListener {
-        // Notifies the listener on a data Message from a publisher.
+        // Notifies the listener on a data Message from a publisher. Called under
+        // getDeliveryLock(), so the listener must only queue the message.
         void onDataMessage(VmsLayer layer, int publisherId, byte[] payload);
 
         // Notifies the listener on a change in available layers.
@@ -227,9 +216,15 @@ public class VmsHalService extends HalServiceBase {
 
     public Set<IVmsSubscriberClient> getSubscribersForLayerFromPublisher(VmsLayer layer,
                                                                          int publisherId) {
-        synchronized (mLock) {
-            return mRouting.getSubscribersForLayerFromPublisher(layer, publisherId);
-        }
+        return mRouting.getSubscribersForLayerFromPublisher(layer, publisherId);
+    }
+
+    /**
+     * Subscribers for a message of the given layer and publisher, looked up without locking.
+     * Must not be modified.
+     */
+    public IVmsSubscriberClient[] getRoutedSubscribers(VmsLayer layer, int publisherId) {
+        return mRouting.getRoutedSubscribers(layer, publisherId);
     }
 
     public Set<IVmsSubscriberClient> getAllSubscribers() {
@@ -238,10 +233,38 @@ public class VmsHalService extends HalServiceBase {
         }
     }
 
+    /**
+     * Lock held by the VMS services while retaining a published message, routing it and queueing
+     * it for its subscribers, and while adding a subscription and queueing the retained messages
+     * for the new subscriber. This way a subscriber gets each message once and never an older
+     * retained message after a newer one. Only queueing, not delivery, may happen under it.
+     */
+    public Object getDeliveryLock() {
+        return mDeliveryLock;
+    }
+
+    public void setRetainedMessagesLimits(int maxMessages, int maxBytes) {
+        mRouting.setRetainedMessagesLimits(maxMessages, maxBytes);
+    }
+
+    public void retainMessage(VmsLayer layer, int publisherId, byte[] payload) {
+        mRouting.retainMessage(layer, publisherId, payload);
+    }
+
+    public byte[] getRetainedMessage(VmsLayer layer, int publisherId) {
+        return mRouting.getRetainedMessage(layer, publisherId);
+    }
+
+    public SparseArray<byte[]> getRetainedMessages(VmsLayer layer) {
+        return mRouting.getRetainedMessages(layer);
+    }
+
+    public void removeRetainedMessages(int publisherId) {
+        mRouting.removeRetainedMessages(publisherId);
+    }
+
     public boolean isHalSubscribed(VmsLayer layer) {
-        synchronized (mLock) {
-            return mRouting.isHalSubscribed(layer);
-        }
+        return mRouting.isHalSubscribed(layer);
     }
 
     public VmsSubscriptionState getSubscriptionState() {
@@ -353,13 +376,8 @@ public class VmsHalService extends HalServiceBase {
     }
 
     public void setPublisherLayersOffering(IBinder publisherToken, VmsLayersOffering offering) {
-        Set<VmsAssociatedLayer> availableLayers = Collections.EMPTY_SET;
-        synchronized (mLock) {
-            updateOffering(publisherToken, offering);
-            VmsOperationRecorder.get().setPublisherLayersOffering(offering);
-            availableLayers = mAvailableLayers.getAvailableLayers();
-        }
-        notifyOfAvailabilityChange(availableLayers);
+        VmsOperationRecorder.get().setPublisherLayersOffering(offering);
+        updateOffering(publisherToken, offering);
     }
 
     public Set<VmsAssociatedLayer> getAvailableLayers() {
@@ -433,6 +451,16 @@ public class VmsHalService extends HalServiceBase {
         mSubscriberListeners.clear();
     }
 
+    /**
+     * VMS messages are forwarded to publisher and subscriber clients over binder, so they are
+     * dispatched on a separate thread. Subscription and offering messages must not be lost,
+     * thus the HAL thread waits if the queue is full.
+     */
+    @Override
+    HalEventDispatcher.Config getEventDispatcherConfig() {
+        return new HalEventDispatcher.Config("VMS", 256, HalEventDispatcher.POLICY_BLOCK);
+    }
+
     @Override
     public Collection<VehiclePropConfig> takeSupportedProperties(
             Collection<VehiclePropConfig> allProperties) {
@@ -460,8 +488,8 @@ public class VmsHalService extends HalServiceBase {
             Log.d(TAG, "Handling a VMS property change");
         }
         for (VehiclePropValue v : values) {
-            ArrayList<Integer> vec = v.value.int32Values;
-            int messageType = vec.get(VmsBaseMessageIntegerValuesIndex.MESSAGE_TYPE);
+            int[] vec = toIntArray(v.value.int32Values);
+            int messageType = VmsHalMessageCodec.getMessageType(vec);
 
             if (DBG) {
                 Log.d(TAG, "Handling VMS message type: " + messageType);
@@ -497,21 +525,6 @@ public class VmsHalService extends HalServiceBase {
         }
     }
 
-    private VmsLayer parseVmsLayerFromSimpleMessageIntegerValues(List<Integer> integerValues) {
-        return new VmsLayer(integerValues.get(VmsMessageWithLayerIntegerValuesIndex.LAYER_TYPE),
-                integerValues.get(VmsMessageWithLayerIntegerValuesIndex.LAYER_SUBTYPE),
-                integerValues.get(VmsMessageWithLayerIntegerValuesIndex.LAYER_VERSION));
-    }
-
-    private VmsLayer parseVmsLayerFromDataMessageIntegerValues(List<Integer> integerValues) {
-        return parseVmsLayerFromSimpleMessageIntegerValues(integerValues);
-    }
-
-    private int parsePublisherIdFromDataMessageIntegerValues(List<Integer> integerValues) {
-        return integerValues.get(VmsMessageWithLayerAndPublisherIdIntegerValuesIndex.PUBLISHER_ID);
-    }
-
-
     /**
      * Data message format:
      * <ul>
@@ -523,16 +536,21 @@ public class VmsHalService extends HalServiceBase {
      * <li>Payload.
      * </ul>
      */
-    private void handleDataEvent(List<Integer> integerValues, byte[] payload) {
-        VmsLayer vmsLayer = parseVmsLayerFromDataMessageIntegerValues(integerValues);
-        int publisherId = parsePublisherIdFromDataMessageIntegerValues(integerValues);
+    private void handleDataEvent(int[] integerValues, byte[] payload) {
+        VmsLayer vmsLayer = VmsHalMessageCodec.decodeLayer(integerValues);
+        int publisherId = VmsHalMessageCodec.decodePublisherId(integerValues);
         if (DBG) {
             Log.d(TAG, "Handling a data event for Layer: " + vmsLayer);
         }
 
-        // Send the message.
-        for (VmsHalSubscriberListener listener : mSubscriberListeners) {
-            listener.onDataMessage(vmsLayer, publisherId, payload);
+        // Retained and queued as one step, see getDeliveryLock(). Listeners only queue.
+        synchronized (mDeliveryLock) {
+            mRouting.retainMessage(vmsLayer, publisherId, payload);
+
+            // Send the message.
+            for (VmsHalSubscriberListener listener : mSubscriberListeners) {
+                listener.onDataMessage(vmsLayer, publisherId, payload);
+            }
         }
     }
 
@@ -545,8 +563,8 @@ public class VmsHalService extends HalServiceBase {
      * <li>Layer subtype.
      * </ul>
      */
-    private void handleSubscribeEvent(List<Integer> integerValues) {
-        VmsLayer vmsLayer = parseVmsLayerFromSimpleMessageIntegerValues(integerValues);
+    private void handleSubscribeEvent(int[] integerValues) {
+        VmsLayer vmsLayer = VmsHalMessageCodec.decodeLayer(integerValues);
         if (DBG) {
             Log.d(TAG, "Handling a subscribe event for Layer: " + vmsLayer);
         }
@@ -563,13 +581,12 @@ public class VmsHalService extends HalServiceBase {
      * <li>Publisher ID
      * </ul>
      */
-    private void handleSubscribeToPublisherEvent(List<Integer> integerValues) {
-        VmsLayer vmsLayer = parseVmsLayerFromSimpleMessageIntegerValues(integerValues);
+    private void handleSubscribeToPublisherEvent(int[] integerValues) {
+        VmsLayer vmsLayer = VmsHalMessageCodec.decodeLayer(integerValues);
         if (DBG) {
             Log.d(TAG, "Handling a subscribe event for Layer: " + vmsLayer);
         }
-        int publisherId =
-                integerValues.get(VmsMessageWithLayerAndPublisherIdIntegerValuesIndex.PUBLISHER_ID);
+        int publisherId = VmsHalMessageCodec.decodePublisherId(integerValues);
         addHalSubscriptionToPublisher(vmsLayer, publisherId);
     }
 
@@ -581,8 +598,8 @@ public class VmsHalService extends HalServiceBase {
      * <li>Layer version.
      * </ul>
      */
-    private void handleUnsubscribeEvent(List<Integer> integerValues) {
-        VmsLayer vmsLayer = parseVmsLayerFromSimpleMessageIntegerValues(integerValues);
+    private void handleUnsubscribeEvent(int[] integerValues) {
+        VmsLayer vmsLayer = VmsHalMessageCodec.decodeLayer(integerValues);
         if (DBG) {
             Log.d(TAG, "Handling an unsubscribe event for Layer: " + vmsLayer);
         }
@@ -597,25 +614,15 @@ public class VmsHalService extends HalServiceBase {
      * <li>Layer version.
      * </ul>
      */
-    private void handleUnsubscribeFromPublisherEvent(List<Integer> integerValues) {
-        VmsLayer vmsLayer = parseVmsLayerFromSimpleMessageIntegerValues(integerValues);
-        int publisherId =
-                integerValues.get(VmsMessageWithLayerAndPublisherIdIntegerValuesIndex.PUBLISHER_ID);
+    private void handleUnsubscribeFromPublisherEvent(int[] integerValues) {
+        VmsLayer vmsLayer = VmsHalMessageCodec.decodeLayer(integerValues);
+        int publisherId = VmsHalMessageCodec.decodePublisherId(integerValues);
         if (DBG) {
             Log.d(TAG, "Handling an unsubscribe event for Layer: " + vmsLayer);
         }
         removeHalSubscriptionFromPublisher(vmsLayer, publisherId);
     }
 
-    private static int NUM_INTEGERS_IN_VMS_LAYER = 3;
-
-    private VmsLayer parseVmsLayerFromIndex(List<Integer> integerValues, int index) {
-        int layerType = integerValues.get(index++);
-        int layerSutype = integerValues.get(index++);
-        int layerVersion = integerValues.get(index++);
-        return new VmsLayer(layerType, layerSutype, layerVersion);
-    }
-
     /**
      * Offering message format:
      * <ul>
@@ -631,40 +638,11 @@ public class VmsHalService extends HalServiceBase {
      * </ul>
      * </ul>
      */
-    private void handleOfferingEvent(List<Integer> integerValues) {
-        int publisherId = integerValues.get(VmsOfferingMessageIntegerValuesIndex.PUBLISHER_ID);
-        int numLayersDependencies =
-                integerValues.get(
-                        VmsOfferingMessageIntegerValuesIndex.NUMBER_OF_OFFERS);
-        int idx = VmsOfferingMessageIntegerValuesIndex.OFFERING_START;
-
-        Set<VmsLayerDependency> offeredLayers = new HashSet<>();
-
-        // An offering is layerId, LayerVersion, LayerType, NumDeps, <LayerId, LayerVersion> X NumDeps.
-        for (int i = 0; i < numLayersDependencies; i++) {
-            VmsLayer offeredLayer = parseVmsLayerFromIndex(integerValues, idx);
-            idx += NUM_INTEGERS_IN_VMS_LAYER;
-
-            int numDependenciesForLayer = integerValues.get(idx++);
-            if (numDependenciesForLayer == 0) {
-                offeredLayers.add(new VmsLayerDependency(offeredLayer));
-            } else {
-                Set<VmsLayer> dependencies = new HashSet<>();
-
-                for (int j = 0; j < numDependenciesForLayer; j++) {
-                    VmsLayer dependantLayer = parseVmsLayerFromIndex(integerValues, idx);
-                    idx += NUM_INTEGERS_IN_VMS_LAYER;
-                    dependencies.add(dependantLayer);
-                }
-                offeredLayers.add(new VmsLayerDependency(offeredLayer, dependencies));
-            }
-        }
+    private void handleOfferingEvent(int[] integerValues) {
         // Store the HAL offering.
-        VmsLayersOffering offering = new VmsLayersOffering(offeredLayers, publisherId);
-        synchronized (mLock) {
-            updateOffering(mHalPublisherToken, offering);
-            VmsOperationRecorder.get().setHalPublisherLayersOffering(offering);
-        }
+        VmsLayersOffering offering = VmsHalMessageCodec.decodeOffering(integerValues);
+        VmsOperationRecorder.get().setHalPublisherLayersOffering(offering);
+        updateOffering(mHalPublisherToken, offering);
     }
 
     /**
@@ -678,12 +656,8 @@ public class VmsHalService extends HalServiceBase {
     private void handleHalAvailabilityRequestEvent() {
         synchronized (mLock) {
             Collection<VmsAssociatedLayer> availableLayers = mAvailableLayers.getAvailableLayers();
-            VehiclePropValue vehiclePropertyValue =
-                    toAvailabilityUpdateVehiclePropValue(
-                            availableLayers,
-                            VmsMessageType.AVAILABILITY_RESPONSE);
-
-            setPropertyValue(vehiclePropertyValue);
+            setPropertyValue(VmsHalMessageCodec.encodeAvailabilityMessage(
+                    VmsMessageType.AVAILABILITY_RESPONSE, availableLayers));
         }
     }
 
@@ -698,38 +672,25 @@ public class VmsHalService extends HalServiceBase {
      * <li>Message type.
      * <li>Sequence number.
      * <li>Number of layers.
+     * <li>Number of associated layers.
      * <li>Layer type/subtype/version.
      * </ul>
      */
     private void handleSubscriptionRequestEvent() {
         VmsSubscriptionState subscription = getSubscriptionState();
-        VehiclePropValue vehicleProp =
-                toTypedVmsVehiclePropValue(VmsMessageType.SUBSCRIPTIONS_RESPONSE);
-        VehiclePropValue.RawValue v = vehicleProp.value;
-        v.int32Values.add(subscription.getSequenceNumber());
-        Set<VmsLayer> layers = subscription.getLayers();
-        v.int32Values.add(layers.size());
-
-        //TODO(asafro): get the real number of associated layers in the subscriptions
-        //              state and send the associated layers themselves.
-        v.int32Values.add(0);
-
-        for (VmsLayer layer : layers) {
-            v.int32Values.add(layer.getType());
-            v.int32Values.add(layer.getSubtype());
-            v.int32Values.add(layer.getVersion());
-        }
-        setPropertyValue(vehicleProp);
+        setPropertyValue(VmsHalMessageCodec.encodeSubscriptionsResponse(
+                subscription.getSequenceNumber(), subscription.getLayers()));
     }
 
     private void updateOffering(IBinder publisherToken, VmsLayersOffering offering) {
-        Set<VmsAssociatedLayer> availableLayers = Collections.EMPTY_SET;
+        Set<VmsAssociatedLayer> availableLayers;
         synchronized (mLock) {
-            mOfferings.put(publisherToken, offering);
-
-            // Update layers availability.
-            mAvailableLayers.setPublishersOffering(mOfferings.values());
-
+            // Only the layers affected by this publisher's offering are recalculated.
+            VmsLayersAvailability.AvailabilityChange change =
+                    mAvailableLayers.setPublisherOffering(publisherToken, offering);
+            if (change.isEmpty()) {
+                return;
+            }
             availableLayers = mAvailableLayers.getAvailableLayers();
         }
         notifyOfAvailabilityChange(availableLayers);
@@ -739,6 +700,8 @@ public class VmsHalService extends HalServiceBase {
     public void dump(PrintWriter writer) {
         writer.println(TAG);
         writer.println("VmsProperty " + (mIsSupported ? "" : "not") + " supported.");
+        mRouting.dump(writer);
+        VmsOperationRecorder.get().dump(writer);
     }
 
     /**
@@ -749,40 +712,44 @@ public class VmsHalService extends HalServiceBase {
      * @return true if the call to the HAL to update the property was successful.
      */
     public boolean setSubscriptionRequest(VmsLayer layer, boolean hasSubscribers) {
-        VehiclePropValue vehiclePropertyValue = toTypedVmsVehiclePropValueWithLayer(
-                hasSubscribers ? VmsMessageType.SUBSCRIBE : VmsMessageType.UNSUBSCRIBE, layer);
-        return setPropertyValue(vehiclePropertyValue);
+        return setPropertyValue(VmsHalMessageCodec.encodeSubscriptionMessage(
+                hasSubscribers ? VmsMessageType.SUBSCRIBE : VmsMessageType.UNSUBSCRIBE, layer));
     }
 
     public boolean setSubscriptionToPublisherRequest(VmsLayer layer,
                                                      int publisherId,
                                                      boolean hasSubscribers) {
-        VehiclePropValue vehiclePropertyValue = toTypedVmsVehiclePropValueWithLayer(
+        return setPropertyValue(VmsHalMessageCodec.encodeSubscriptionToPublisherMessage(
                 hasSubscribers ?
                         VmsMessageType.SUBSCRIBE_TO_PUBLISHER :
-                        VmsMessageType.UNSUBSCRIBE_TO_PUBLISHER, layer);
-        vehiclePropertyValue.value.int32Values.add(publisherId);
-        return setPropertyValue(vehiclePropertyValue);
+                        VmsMessageType.UNSUBSCRIBE_TO_PUBLISHER, layer, publisherId));
     }
 
     public boolean setDataMessage(VmsLayer layer, byte[] payload) {
-        VehiclePropValue vehiclePropertyValue =
-                toTypedVmsVehiclePropValueWithLayer(VmsMessageType.DATA, layer);
-        VehiclePropValue.RawValue v = vehiclePropertyValue.value;
-        v.bytes.ensureCapacity(payload.length);
-        for (byte b : payload) {
-            v.bytes.add(b);
+        return setPropertyValue(VmsHalMessageCodec.encodeDataMessage(layer, payload));
+    }
+
+    /**
+     * Sends the messages of the layers the HAL is subscribed to, checking each layer once.
+     */
+    public void setDataMessages(VmsMessageBatch batch) {
+        ArrayMap<VmsLayer, Boolean> halSubscribed = new ArrayMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            VmsLayer layer = batch.getLayer(i);
+            Boolean subscribed = halSubscribed.get(layer);
+            if (subscribed == null) {
+                subscribed = isHalSubscribed(layer);
+                halSubscribed.put(layer, subscribed);
+            }
+            if (subscribed) {
+                setDataMessage(layer, batch.getPayload(i));
+            }
         }
-        return setPropertyValue(vehiclePropertyValue);
     }
 
     public boolean notifyAvailabilityChangeToHal(Collection<VmsAssociatedLayer> availableLayers) {
-        VehiclePropValue vehiclePropertyValue =
-                toAvailabilityUpdateVehiclePropValue(
-                        availableLayers,
-                        VmsMessageType.AVAILABILITY_CHANGE);
-
-        return setPropertyValue(vehiclePropertyValue);
+        return setPropertyValue(VmsHalMessageCodec.encodeAvailabilityMessage(
+                VmsMessageType.AVAILABILITY_CHANGE, availableLayers));
     }
 
     public boolean setPropertyValue(VehiclePropValue vehiclePropertyValue) {
@@ -794,57 +761,4 @@ public class VmsHalService extends HalServiceBase {
         }
         return false;
     }
-
-    private static VehiclePropValue toTypedVmsVehiclePropValue(int messageType) {
-        VehiclePropValue vehicleProp = new VehiclePropValue();
-        vehicleProp.prop = HAL_PROPERTY_ID;
-        vehicleProp.areaId = VehicleAreaType.VEHICLE_AREA_TYPE_NONE;
-        VehiclePropValue.RawValue v = vehicleProp.value;
-
-        v.int32Values.add(messageType);
-        return vehicleProp;
-    }
-
-    /**
-     * Creates a {@link VehiclePropValue}
-     */
-    private static VehiclePropValue toTypedVmsVehiclePropValueWithLayer(
-            int messageType, VmsLayer layer) {
-        VehiclePropValue vehicleProp = toTypedVmsVehiclePropValue(messageType);
-        VehiclePropValue.RawValue v = vehicleProp.value;
-        v.int32Values.add(layer.getType());
-        v.int32Values.add(layer.getSubtype());
-        v.int32Values.add(layer.getVersion());
-        return vehicleProp;
-    }
-
-    private static VehiclePropValue toAvailabilityUpdateVehiclePropValue(
-            Collection<VmsAssociatedLayer> availableAssociatedLayers, int messageType) {
-
-        if (!AVAILABILITY_MESSAGE_TYPES.contains(messageType)) {
-            throw new IllegalArgumentException("Unsupported availability type: " + messageType);
-        }
-        VehiclePropValue vehicleProp =
-                toTypedVmsVehiclePropValue(messageType);
-        populateAvailabilityPropValueFields(availableAssociatedLayers, vehicleProp);
-        return vehicleProp;
-
-    }
-
-    private static void populateAvailabilityPropValueFields(
-            Collection<VmsAssociatedLayer> availableAssociatedLayers,
-            VehiclePropValue vehicleProp) {
-        VehiclePropValue.RawValue v = vehicleProp.value;
-        int numLayers = availableAssociatedLayers.size();
-        v.int32Values.add(numLayers);
-        for (VmsAssociatedLayer layer : availableAssociatedLayers) {
-            v.int32Values.add(layer.getVmsLayer().getType());
-            v.int32Values.add(layer.getVmsLayer().getSubtype());
-            v.int32Values.add(layer.getVmsLayer().getVersion());
-            v.int32Values.add(layer.getPublisherIds().size());
-            for (int publisherId : layer.getPublisherIds()) {
-                v.int32Values.add(publisherId);
-            }
-        }
-    }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.perftest;
+
+import static com.android.car.CarServiceUtils.toByteArray;
+
+import android.car.diagnostic.CarDiagnosticEvent;
+import android.car.diagnostic.FloatSensorIndex;
+import android.car.diagnostic.IntegerSensorIndex;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.car.hal.DiagnosticEventDecoder;
+import com.android.car.vehiclehal.DiagnosticEventBuilder;
+
+import java.util.BitSet;
+
+/**
+ * Measures the time and the allocations of decoding OBD2 live frames with
+ * {@link DiagnosticEventDecoder}, compared to the previous decoding through a {@link BitSet} and
+ * {@link CarDiagnosticEvent.Builder}. Allocations are counted for the calling thread only.
+ */
+@LargeTest
+public class DiagnosticDecodePerfTest extends AndroidTestCase {
+    private static final String TAG = DiagnosticDecodePerfTest.class.getSimpleName();
+
+    private static final int WARM_UP_FRAMES = 1000;
+    private static final int MEASURED_FRAMES = 10000;
+
+    private DiagnosticEventDecoder mDecoder;
+
+    /** One decoding of a frame. */
+    private interface Operation {
+        /** Returns something derived from the result so that it cannot be optimized away. */
+        int run();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        VehiclePropConfig config = new VehiclePropConfig();
+        config.prop = VehicleProperty.OBD2_LIVE_FRAME;
+        config.configArray.add(0);
+        config.configArray.add(0);
+        mDecoder = DiagnosticEventDecoder.create(config);
+    }
+
+    public void testDecodeTypicalFrame() throws Exception {
+        VehiclePropValue value = new DiagnosticEventBuilder(VehicleProperty.OBD2_LIVE_FRAME)
+                .addIntSensor(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 30)
+                .addIntSensor(IntegerSensorIndex.RUNTIME_SINCE_ENGINE_START, 5000)
+                .addFloatSensor(FloatSensorIndex.CALCULATED_ENGINE_LOAD, 0.125f)
+                .addFloatSensor(FloatSensorIndex.ENGINE_RPM, 2000f)
+                .addFloatSensor(FloatSensorIndex.VEHICLE_SPEED, 12.5f)
+                .build();
+        compareDecoders("diagnostic_decode_typical", value);
+    }
+
+    public void testDecodeFullFrame() throws Exception {
+        DiagnosticEventBuilder builder =
+                new DiagnosticEventBuilder(VehicleProperty.OBD2_LIVE_FRAME);
+        for (int i = 0; i <= IntegerSensorIndex.LAST_SYSTEM; i++) {
+            builder.addIntSensor(i, i);
+        }
+        for (int i = 0; i <= FloatSensorIndex.LAST_SYSTEM; i++) {
+            builder.addFloatSensor(i, i);
+        }
+        compareDecoders("diagnostic_decode_full", builder.build());
+    }
+
+    private void compareDecoders(String name, final VehiclePropValue value) {
+        runBenchmark(name + "_legacy", new Operation() {
+            @Override
+            public int run() {
+                return decodeLegacy(value).hashCode();
+            }
+        });
+        runBenchmark(name, new Operation() {
+            @Override
+            public int run() {
+                return mDecoder.decode(value).hashCode();
+            }
+        });
+    }
+
+    /** The decoding that DiagnosticHalService used before {@link DiagnosticEventDecoder}. */
+    private CarDiagnosticEvent decodeLegacy(VehiclePropValue value) {
+        CarDiagnosticEvent.Builder builder =
+                CarDiagnosticEvent.Builder.newLiveFrameBuilder().atTimestamp(value.timestamp);
+        BitSet bitset = BitSet.valueOf(toByteArray(value.value.bytes));
+        int numIntegerProperties = mDecoder.getNumIntegerSensors();
+        int numFloatProperties = mDecoder.getNumFloatSensors();
+        for (int i = 0; i < numIntegerProperties; ++i) {
+            if (bitset.get(i)) {
+                builder.withIntValue(i, value.value.int32Values.get(i));
+            }
+        }
+        for (int i = 0; i < numFloatProperties; ++i) {
+            if (bitset.get(numIntegerProperties + i)) {
+                builder.withFloatValue(i, value.value.floatValues.get(i));
+            }
+        }
+        builder.withDtc(value.value.stringValue);
+        return builder.build();
+    }
+
+    private void runBenchmark(String name, Operation operation) {
+        int checksum = 0;
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            checksum += operation.run();
+        }
+
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long startTimeNs = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            checksum += operation.run();
+        }
+        long durationNs = SystemClock.elapsedRealtimeNanos() - startTimeNs;
+        Debug.stopAllocCounting();
+        long allocatedBytes = Debug.getThreadAllocSize();
+
+        Bundle results = new Bundle();
+        results.putLong(name + "_ns_per_frame", durationNs / MEASURED_FRAMES);
+        results.putLong(name + "_bytes_per_frame", allocatedBytes / MEASURED_FRAMES);
+        Log.i(TAG, name + ": " + results + ", checksum: " + checksum);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+}
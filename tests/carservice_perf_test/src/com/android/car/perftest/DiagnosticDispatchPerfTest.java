@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.car.perftest;
+
+import android.car.diagnostic.CarDiagnosticEvent;
+import android.car.diagnostic.CarDiagnosticManager;
+import android.car.diagnostic.FloatSensorIndex;
+import android.car.diagnostic.ICarDiagnosticEventListener;
+import android.car.diagnostic.IntegerSensorIndex;
+import android.car.hardware.CarSensorManager;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
+import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.car.CarDiagnosticService;
+import com.android.car.FreezeFrameStore;
+import com.android.car.vehiclehal.DiagnosticEventBuilder;
+import com.android.car.vehiclehal.test.MockedVehicleHal;
+import com.android.car.vehiclehal.test.MockedVehicleHal.DefaultPropertyHandler;
+import com.android.car.vehiclehal.test.VehiclePropConfigBuilder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures live frames from vehicle HAL through
+ * {@link com.android.car.hal.DiagnosticHalService} and {@link CarDiagnosticService} to a
+ * diagnostic listener.
+ */
+@LargeTest
+public class DiagnosticDispatchPerfTest extends EventDispatchPerfTestBase {
+    private final StatsHolder mStatsHolder = new StatsHolder();
+    private final DiagnosticEventBuilder mLiveFrameBuilder =
+            new DiagnosticEventBuilder(VehicleProperty.OBD2_LIVE_FRAME);
+    private CarDiagnosticService mCarDiagnosticService;
+
+    @Override
+    protected void configureMockedHal(MockedVehicleHal hal) {
+        // A typical frame, every sensor index is reported by the vehicle HAL anyway.
+        mLiveFrameBuilder.addIntSensor(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 30);
+        mLiveFrameBuilder.addIntSensor(IntegerSensorIndex.RUNTIME_SINCE_ENGINE_START, 5000);
+        mLiveFrameBuilder.addFloatSensor(FloatSensorIndex.CALCULATED_ENGINE_LOAD, 0.125f);
+        mLiveFrameBuilder.addFloatSensor(FloatSensorIndex.ENGINE_RPM, 2000f);
+        mLiveFrameBuilder.addFloatSensor(FloatSensorIndex.VEHICLE_SPEED, 12.5f);
+        VehiclePropConfig config =
+                VehiclePropConfigBuilder.newBuilder(VehicleProperty.OBD2_LIVE_FRAME)
+                        .setConfigArray(Arrays.asList(0, 0))
+                        .build();
+        hal.addProperty(config, new DefaultPropertyHandler(config, mLiveFrameBuilder.build()));
+    }
+
+    @Override
+    protected void injectEvent(MockedVehicleHal hal, long sequence) {
+        hal.injectEvent(mLiveFrameBuilder.build(sequence));
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        File freezeFrameLog = new File(getContext().getCacheDir(), FreezeFrameStore.FILE_NAME);
+        freezeFrameLog.delete();
+        mCarDiagnosticService = new CarDiagnosticService(getCarServiceContext(),
+                getVehicleHal().getDiagnosticHal(), new FreezeFrameStore(freezeFrameLog));
+        mCarDiagnosticService.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCarDiagnosticService.release();
+        super.tearDown();
+    }
+
+    public void testLiveFrame() throws Exception {
+        ICarDiagnosticEventListener listener = new ICarDiagnosticEventListener.Stub() {
+            @Override
+            public void onDiagnosticEvents(List<CarDiagnosticEvent> events) {
+                for (CarDiagnosticEvent event : events) {
+                    mStatsHolder.onEventReceived(event.timestamp);
+                }
+            }
+        };
+        assertTrue(mCarDiagnosticService.registerOrUpdateDiagnosticListener(
+                CarDiagnosticManager.FRAME_TYPE_LIVE, CarSensorManager.SENSOR_RATE_FASTEST,
+                listener));
+        runBenchmark("diagnostic_live_frame", mStatsHolder);
+        mCarDiagnosticService.unregisterDiagnosticListener(CarDiagnosticManager.FRAME_TYPE_LIVE,
+                listener);
+    }
+}
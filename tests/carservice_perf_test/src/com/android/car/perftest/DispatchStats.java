@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.perftest;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+/**
+ * Measures one run of events through the dispatching pipeline.
+ *
+ * <p>Events are identified by a sequence number which the benchmark encodes into the injected
+ * vehicle HAL value and decodes again in its fake listener. Latency is measured from injection
+ * to delivery to the listener. Allocations are counted for the whole process, since the pipeline
+ * spans several threads.
+ */
+class DispatchStats {
+    private final String mName;
+    private final long mFirstSequence;
+    private final long[] mSentTimesNs;
+    private final long[] mLatenciesNs;
+
+    private int mReceivedEvents;
+    private int mUnexpectedEvents;
+    private long mStartTimeNs;
+    private long mEndTimeNs;
+    private long mAllocatedBytes;
+
+    DispatchStats(String name, long firstSequence, int eventCount) {
+        mName = name;
+        mFirstSequence = firstSequence;
+        mSentTimesNs = new long[eventCount];
+        mLatenciesNs = new long[eventCount];
+    }
+
+    int getEventCount() {
+        return mSentTimesNs.length;
+    }
+
+    long getSequence(int index) {
+        return mFirstSequence + index;
+    }
+
+    void start() {
+        Debug.resetGlobalAllocSize();
+        Debug.startAllocCounting();
+        mStartTimeNs = SystemClock.elapsedRealtimeNanos();
+    }
+
+    /** Called right before the event with the given index is injected. */
+    void onEventSent(int index) {
+        mSentTimesNs[index] = SystemClock.elapsedRealtimeNanos();
+    }
+
+    /** Called from the fake listener. */
+    synchronized void onEventReceived(long sequence) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        long index = sequence - mFirstSequence;
+        if (index < 0 || index >= mSentTimesNs.length || mLatenciesNs[(int) index] != 0) {
+            mUnexpectedEvents++;
+            return;
+        }
+        mLatenciesNs[(int) index] = now - mSentTimesNs[(int) index];
+        mReceivedEvents++;
+        mEndTimeNs = now;
+        if (mReceivedEvents == mSentTimesNs.length) {
+            notifyAll();
+        }
+    }
+
+    synchronized boolean waitForAllEvents(long timeoutMs) throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        while (mReceivedEvents < mSentTimesNs.length) {
+            long remaining = deadline - SystemClock.uptimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    void stop() {
+        Debug.stopAllocCounting();
+        mAllocatedBytes = Debug.getGlobalAllocSize();
+    }
+
+    /** Returns the results with keys suitable for instrumentation status reports. */
+    synchronized Bundle getResults() {
+        long[] latencies = Arrays.copyOf(mLatenciesNs, mReceivedEvents);
+        int received = 0;
+        for (long latency : mLatenciesNs) {
+            if (latency != 0) {
+                latencies[received++] = latency;
+            }
+        }
+        Arrays.sort(latencies);
+        long durationNs = mEndTimeNs - mStartTimeNs;
+
+        Bundle results = new Bundle();
+        results.putInt(mName + "_events", mReceivedEvents);
+        results.putInt(mName + "_unexpected_events", mUnexpectedEvents);
+        results.putLong(mName + "_events_per_sec",
+                durationNs <= 0 ? 0 : mReceivedEvents * 1000000000L / durationNs);
+        results.putLong(mName + "_p50_latency_us", percentile(latencies, 50) / 1000);
+        results.putLong(mName + "_p99_latency_us", percentile(latencies, 99) / 1000);
+        results.putLong(mName + "_bytes_per_event",
+                mReceivedEvents == 0 ? 0 : mAllocatedBytes / mReceivedEvents);
+        return results;
+    }
+
+    private static long percentile(long[] sortedValues, int percentile) {
+        if (sortedValues.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)];
+    }
+}
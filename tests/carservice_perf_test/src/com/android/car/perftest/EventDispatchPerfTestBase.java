@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.perftest;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.android.car.hal.VehicleHal;
+import com.android.car.vehiclehal.test.MockedVehicleHal;
+
+/**
+ * Base class for measuring event dispatching from {@link MockedVehicleHal} through
+ * {@link VehicleHal} and a car service to a fake binder listener living in this process.
+ *
+ * <p>Unlike the end to end tests in vehiclehal_test, this does not need a vendor vehicle HAL, and
+ * does not touch the running car service.
+ */
+public abstract class EventDispatchPerfTestBase extends AndroidTestCase {
+    private static final String TAG = EventDispatchPerfTestBase.class.getSimpleName();
+
+    static final int WARM_UP_EVENTS = 1000;
+    static final int MEASURED_EVENTS = 10000;
+    static final long WAIT_TIMEOUT_MS = 30000;
+
+    private MockedVehicleHal mMockedVehicleHal;
+    private VehicleHal mVehicleHal;
+    /** Sequence numbers are never reused, so stale events cannot be counted twice. */
+    private long mNextSequence = 1;
+
+    /** Adds the properties needed by the benchmark to the mocked vehicle HAL. */
+    protected abstract void configureMockedHal(MockedVehicleHal hal);
+
+    /** Injects the event with the given sequence number into the mocked vehicle HAL. */
+    protected abstract void injectEvent(MockedVehicleHal hal, long sequence);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMockedVehicleHal = new MockedVehicleHal();
+        configureMockedHal(mMockedVehicleHal);
+        mVehicleHal = new VehicleHal(mMockedVehicleHal);
+        mVehicleHal.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mVehicleHal.release();
+    }
+
+    protected VehicleHal getVehicleHal() {
+        return mVehicleHal;
+    }
+
+    protected Context getCarServiceContext() throws Exception {
+        return getContext()
+                .createPackageContext("com.android.car", Context.CONTEXT_IGNORE_SECURITY);
+    }
+
+    /**
+     * Injects events one at a time and waits until the listener has received all of them. The
+     * listener must pass the sequence number of each received event to
+     * {@link DispatchStats#onEventReceived(long)} of the current run.
+     */
+    protected Bundle runBenchmark(String name, StatsHolder holder) throws Exception {
+        runOnce(name + "_warm_up", WARM_UP_EVENTS, holder);
+        DispatchStats stats = runOnce(name, MEASURED_EVENTS, holder);
+        Bundle results = stats.getResults();
+        Log.i(TAG, name + ": " + results);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+        assertEquals(MEASURED_EVENTS, results.getInt(name + "_events"));
+        return results;
+    }
+
+    private DispatchStats runOnce(String name, int eventCount, StatsHolder holder)
+            throws Exception {
+        DispatchStats stats = new DispatchStats(name, mNextSequence, eventCount);
+        mNextSequence += eventCount;
+        holder.stats = stats;
+        stats.start();
+        for (int i = 0; i < eventCount; i++) {
+            stats.onEventSent(i);
+            injectEvent(mMockedVehicleHal, stats.getSequence(i));
+        }
+        boolean received = stats.waitForAllEvents(WAIT_TIMEOUT_MS);
+        stats.stop();
+        assertTrue("Not all events received in " + name, received);
+        return stats;
+    }
+
+    /** Gives fake listeners access to the stats of the current run. */
+    protected static class StatsHolder {
+        volatile DispatchStats stats;
+
+        void onEventReceived(long sequence) {
+            DispatchStats current = stats;
+            if (current != null) {
+                current.onEventReceived(sequence);
+            }
+        }
+    }
+}
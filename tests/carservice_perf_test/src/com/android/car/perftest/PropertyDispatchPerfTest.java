@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.car.perftest;
+
+import android.car.hardware.property.CarPropertyEvent;
+import android.car.hardware.property.ICarPropertyEventListener;
+import android.hardware.automotive.vehicle.V2_0.VehicleAreaDoor;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
+import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.car.CarCabinService;
+import com.android.car.vehiclehal.VehiclePropValueBuilder;
+import com.android.car.vehiclehal.test.MockedVehicleHal;
+import com.android.car.vehiclehal.test.MockedVehicleHal.DefaultPropertyHandler;
+import com.android.car.vehiclehal.test.VehiclePropConfigBuilder;
+
+/**
+ * Measures property events from vehicle HAL through {@link com.android.car.hal.CabinHalService}
+ * and {@link com.android.car.CarPropertyServiceBase} to a property listener.
+ */
+@LargeTest
+public class PropertyDispatchPerfTest extends EventDispatchPerfTestBase {
+    private final StatsHolder mStatsHolder = new StatsHolder();
+    private CarCabinService mCarCabinService;
+
+    @Override
+    protected void configureMockedHal(MockedVehicleHal hal) {
+        VehiclePropConfig config = VehiclePropConfigBuilder.newBuilder(VehicleProperty.DOOR_POS)
+                .setSupportedAreas(VehicleAreaDoor.ROW_1_LEFT)
+                .build();
+        hal.addProperty(config, new DefaultPropertyHandler(config,
+                VehiclePropValueBuilder.newBuilder(VehicleProperty.DOOR_POS)
+                        .setAreaId(VehicleAreaDoor.ROW_1_LEFT)
+                        .addIntValue(0)
+                        .build()));
+    }
+
+    @Override
+    protected void injectEvent(MockedVehicleHal hal, long sequence) {
+        // Property values carry no timestamp to the listener, so the sequence is the value.
+        hal.injectEvent(VehiclePropValueBuilder.newBuilder(VehicleProperty.DOOR_POS)
+                .setAreaId(VehicleAreaDoor.ROW_1_LEFT)
+                .addIntValue((int) sequence)
+                .setTimestamp()
+                .build());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCarCabinService = new CarCabinService(getCarServiceContext(),
+                getVehicleHal().getCabinHal());
+        mCarCabinService.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCarCabinService.release();
+        super.tearDown();
+    }
+
+    public void testDoorPosition() throws Exception {
+        ICarPropertyEventListener listener = new ICarPropertyEventListener.Stub() {
+            @Override
+            public void onEvent(CarPropertyEvent event) {
+                if (event.getEventType() == CarPropertyEvent.PROPERTY_EVENT_PROPERTY_CHANGE) {
+                    mStatsHolder.onEventReceived(
+                            (Integer) event.getCarPropertyValue().getValue());
+                }
+            }
+        };
+        mCarCabinService.registerListener(listener);
+        runBenchmark("property_door_pos", mStatsHolder);
+        mCarCabinService.unregisterListener(listener);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.car.perftest;
+
+import android.car.hardware.CarSensorEvent;
+import android.car.hardware.CarSensorManager;
+import android.car.hardware.ICarSensorEventListener;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
+import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.car.CarSensorService;
+import com.android.car.vehiclehal.VehiclePropValueBuilder;
+import com.android.car.vehiclehal.test.MockedVehicleHal;
+import com.android.car.vehiclehal.test.MockedVehicleHal.DefaultPropertyHandler;
+import com.android.car.vehiclehal.test.VehiclePropConfigBuilder;
+
+import java.util.List;
+
+/**
+ * Measures sensor events from vehicle HAL through {@link com.android.car.hal.SensorHalService}
+ * and {@link CarSensorService} to a sensor listener.
+ */
+@LargeTest
+public class SensorDispatchPerfTest extends EventDispatchPerfTestBase {
+    private final StatsHolder mStatsHolder = new StatsHolder();
+    private CarSensorService mCarSensorService;
+
+    @Override
+    protected void configureMockedHal(MockedVehicleHal hal) {
+        VehiclePropConfig config =
+                VehiclePropConfigBuilder.newBuilder(VehicleProperty.PERF_VEHICLE_SPEED).build();
+        hal.addProperty(config, new DefaultPropertyHandler(config,
+                VehiclePropValueBuilder.newBuilder(VehicleProperty.PERF_VEHICLE_SPEED)
+                        .addFloatValue(0f)
+                        .build()));
+    }
+
+    @Override
+    protected void injectEvent(MockedVehicleHal hal, long sequence) {
+        // Sensor events must have increasing timestamps, the sequence number is used for it.
+        hal.injectEvent(VehiclePropValueBuilder.newBuilder(VehicleProperty.PERF_VEHICLE_SPEED)
+                .addFloatValue(10f)
+                .setTimestamp(sequence)
+                .build());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCarSensorService = new CarSensorService(getCarServiceContext(),
+                getVehicleHal().getSensorHal());
+        mCarSensorService.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCarSensorService.release();
+        super.tearDown();
+    }
+
+    public void testCarSpeedFastest() throws Exception {
+        ICarSensorEventListener listener = new ICarSensorEventListener.Stub() {
+            @Override
+            public void onSensorChanged(List<CarSensorEvent> events) {
+                for (CarSensorEvent event : events) {
+                    mStatsHolder.onEventReceived(event.timestamp);
+                }
+            }
+        };
+        assertTrue(mCarSensorService.registerOrUpdateSensorListener(
+                CarSensorManager.SENSOR_TYPE_CAR_SPEED, CarSensorManager.SENSOR_RATE_FASTEST,
+                listener));
+        runBenchmark("sensor_car_speed", mStatsHolder);
+        mCarSensorService.unregisterSensorListener(CarSensorManager.SENSOR_TYPE_CAR_SPEED,
+                listener);
+    }
+}
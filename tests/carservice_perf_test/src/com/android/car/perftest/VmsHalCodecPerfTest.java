@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.perftest;
+
+import static com.android.car.CarServiceUtils.toByteArray;
+import static com.android.car.CarServiceUtils.toIntArray;
+
+import android.car.vms.VmsAssociatedLayer;
+import android.car.vms.VmsLayer;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.hardware.automotive.vehicle.V2_0.VmsMessageType;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.car.hal.VmsHalMessageCodec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Measures the time and the allocations of encoding and decoding VMS HAL messages with
+ * {@link VmsHalMessageCodec}. Allocations are counted for the calling thread only.
+ */
+@LargeTest
+public class VmsHalCodecPerfTest extends AndroidTestCase {
+    private static final String TAG = VmsHalCodecPerfTest.class.getSimpleName();
+
+    private static final int WARM_UP_MESSAGES = 1000;
+    private static final int MEASURED_MESSAGES = 10000;
+    private static final int PAYLOAD_SIZE = 256;
+    private static final int AVAILABLE_LAYERS = 16;
+
+    private static final VmsLayer LAYER = new VmsLayer(1, 2, 3);
+
+    /** One encoding or decoding of a message. */
+    private interface Operation {
+        /** Returns something derived from the result so that it cannot be optimized away. */
+        int run();
+    }
+
+    public void testEncodeDataMessage() throws Exception {
+        final byte[] payload = new byte[PAYLOAD_SIZE];
+        runBenchmark("vms_encode_data", new Operation() {
+            @Override
+            public int run() {
+                return VmsHalMessageCodec.encodeDataMessage(LAYER, payload).value.bytes.size();
+            }
+        });
+    }
+
+    public void testDecodeDataMessage() throws Exception {
+        final VehiclePropValue value =
+                VmsHalMessageCodec.encodeDataMessage(LAYER, new byte[PAYLOAD_SIZE]);
+        runBenchmark("vms_decode_data", new Operation() {
+            @Override
+            public int run() {
+                int[] integerValues = toIntArray(value.value.int32Values);
+                byte[] payload = toByteArray(value.value.bytes);
+                return VmsHalMessageCodec.decodeLayer(integerValues).getType() + payload.length;
+            }
+        });
+    }
+
+    public void testEncodeAvailabilityMessage() throws Exception {
+        final List<VmsAssociatedLayer> layers = new ArrayList<>();
+        for (int i = 0; i < AVAILABLE_LAYERS; i++) {
+            layers.add(new VmsAssociatedLayer(new VmsLayer(i, 0, 1),
+                    new HashSet<>(Arrays.asList(i, i + 1))));
+        }
+        runBenchmark("vms_encode_availability", new Operation() {
+            @Override
+            public int run() {
+                return VmsHalMessageCodec.encodeAvailabilityMessage(
+                        VmsMessageType.AVAILABILITY_CHANGE, layers).value.int32Values.size();
+            }
+        });
+    }
+
+    private void runBenchmark(String name, Operation operation) {
+        int checksum = 0;
+        for (int i = 0; i < WARM_UP_MESSAGES; i++) {
+            checksum += operation.run();
+        }
+
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long startTimeNs = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < MEASURED_MESSAGES; i++) {
+            checksum += operation.run();
+        }
+        long durationNs = SystemClock.elapsedRealtimeNanos() - startTimeNs;
+        Debug.stopAllocCounting();
+        long allocatedBytes = Debug.getThreadAllocSize();
+
+        Bundle results = new Bundle();
+        results.putLong(name + "_ns_per_message", durationNs / MEASURED_MESSAGES);
+        results.putLong(name + "_bytes_per_message", allocatedBytes / MEASURED_MESSAGES);
+        Log.i(TAG, name + ": " + results + ", checksum: " + checksum);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+}
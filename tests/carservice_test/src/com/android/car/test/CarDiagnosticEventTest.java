@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.test;
+
+import android.car.diagnostic.CarDiagnosticEvent;
+import android.car.diagnostic.CarDiagnosticManager;
+import android.car.diagnostic.FloatSensorIndex;
+import android.car.diagnostic.IntegerSensorIndex;
+import android.os.Parcel;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+/**
+ * Tests the dense sensor storage and the parceling of {@link CarDiagnosticEvent}.
+ */
+@MediumTest
+public class CarDiagnosticEventTest extends TestCase {
+    // Far enough after the system sensors to need more than one word of presence bitmap.
+    private static final int VENDOR_INT_SENSOR = IntegerSensorIndex.VENDOR_START + 100;
+    private static final int VENDOR_FLOAT_SENSOR = FloatSensorIndex.VENDOR_START + 100;
+
+    private static CarDiagnosticEvent buildLiveFrame() {
+        return CarDiagnosticEvent.Builder.newLiveFrameBuilder()
+                .atTimestamp(1234)
+                .withIntValue(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 30)
+                .withIntValue(VENDOR_INT_SENSOR, -5)
+                .withFloatValue(FloatSensorIndex.ENGINE_RPM, 2000f)
+                .withFloatValue(FloatSensorIndex.CALCULATED_ENGINE_LOAD, 0.5f)
+                .withFloatValue(VENDOR_FLOAT_SENSOR, 0.25f)
+                .build();
+    }
+
+    public void testSensorValues() {
+        CarDiagnosticEvent event = buildLiveFrame();
+
+        assertEquals(30, event.getSystemIntegerSensor(
+                IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 0));
+        assertEquals(Integer.valueOf(30),
+                event.getSystemIntegerSensor(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE));
+        assertNull(event.getSystemIntegerSensor(IntegerSensorIndex.FUEL_SYSTEM_STATUS));
+        assertEquals(7, event.getSystemIntegerSensor(IntegerSensorIndex.FUEL_SYSTEM_STATUS, 7));
+        assertEquals(Integer.valueOf(-5), event.getVendorIntegerSensor(VENDOR_INT_SENSOR));
+        assertNull(event.getVendorIntegerSensor(VENDOR_INT_SENSOR + 1000));
+
+        assertEquals(2000f, event.getSystemFloatSensor(FloatSensorIndex.ENGINE_RPM, 0f));
+        assertNull(event.getSystemFloatSensor(FloatSensorIndex.VEHICLE_SPEED));
+        assertEquals(Float.valueOf(0.25f), event.getVendorFloatSensor(VENDOR_FLOAT_SENSOR));
+        assertEquals(9f, event.getVendorFloatSensor(VENDOR_FLOAT_SENSOR - 1, 9f));
+        assertFalse(event.isEmptyFrame());
+    }
+
+    public void testOverwrittenValue() {
+        CarDiagnosticEvent event = CarDiagnosticEvent.Builder.newLiveFrameBuilder()
+                .withIntValue(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 30)
+                .withIntValue(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 31)
+                .build();
+        CarDiagnosticEvent expected = CarDiagnosticEvent.Builder.newLiveFrameBuilder()
+                .withIntValue(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 31)
+                .build();
+
+        assertEquals(expected, event);
+        assertEquals(expected.hashCode(), event.hashCode());
+    }
+
+    public void testEquals() {
+        CarDiagnosticEvent event = buildLiveFrame();
+
+        assertEquals(buildLiveFrame(), event);
+        assertEquals(buildLiveFrame().hashCode(), event.hashCode());
+        assertFalse(event.equals(CarDiagnosticEvent.Builder.newLiveFrameBuilder()
+                .atTimestamp(1234)
+                .withIntValue(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 30)
+                .withFloatValue(FloatSensorIndex.ENGINE_RPM, 2000f)
+                .withFloatValue(FloatSensorIndex.CALCULATED_ENGINE_LOAD, 0.5f)
+                .withFloatValue(VENDOR_FLOAT_SENSOR, 0.25f)
+                .build()));
+    }
+
+    public void testVendorSensorsRemoved() {
+        CarDiagnosticEvent event = buildLiveFrame().withVendorSensorsRemoved();
+
+        assertEquals(Integer.valueOf(30),
+                event.getSystemIntegerSensor(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE));
+        assertNull(event.getVendorIntegerSensor(VENDOR_INT_SENSOR));
+        assertNull(event.getVendorFloatSensor(VENDOR_FLOAT_SENSOR));
+        assertEquals(CarDiagnosticEvent.Builder.newLiveFrameBuilder()
+                .atTimestamp(1234)
+                .withIntValue(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 30)
+                .withFloatValue(FloatSensorIndex.ENGINE_RPM, 2000f)
+                .withFloatValue(FloatSensorIndex.CALCULATED_ENGINE_LOAD, 0.5f)
+                .build(), event);
+    }
+
+    public void testParcel() {
+        CarDiagnosticEvent event = buildLiveFrame();
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            event.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            CarDiagnosticEvent parceled = CarDiagnosticEvent.CREATOR.createFromParcel(parcel);
+            assertEquals(event, parceled);
+            assertEquals(parcel.dataSize(), parcel.dataPosition());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    public void testParcelFreezeFrame() {
+        CarDiagnosticEvent event = CarDiagnosticEvent.Builder.newFreezeFrameBuilder()
+                .atTimestamp(5678)
+                .withDtc("P0010")
+                .build();
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            event.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            CarDiagnosticEvent parceled = CarDiagnosticEvent.CREATOR.createFromParcel(parcel);
+            assertEquals(event, parceled);
+            assertTrue(parceled.isFreezeFrame());
+            assertEquals("P0010", parceled.dtc);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    public void testStableEncoding() throws Exception {
+        CarDiagnosticEvent liveFrame = buildLiveFrame();
+        CarDiagnosticEvent freezeFrame = CarDiagnosticEvent.Builder.newFreezeFrameBuilder()
+                .atTimestamp(5678)
+                .withFloatValue(FloatSensorIndex.VEHICLE_SPEED, 12.5f)
+                .withDtc("P0010")
+                .build();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        liveFrame.writeTo(out);
+        freezeFrame.writeTo(out);
+        DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(liveFrame, CarDiagnosticEvent.readFrom(in));
+        assertEquals(freezeFrame, CarDiagnosticEvent.readFrom(in));
+        assertEquals(0, in.available());
+    }
+
+    public void testNegativeSensorIndex() {
+        try {
+            CarDiagnosticEvent.Builder.newLiveFrameBuilder().withIntValue(-1, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testSensorIndexBeyondVendorSensors() {
+        CarDiagnosticEvent.Builder builder = CarDiagnosticEvent.Builder.newLiveFrameBuilder();
+        int lastIntSensor =
+                IntegerSensorIndex.VENDOR_START + CarDiagnosticEvent.MAX_VENDOR_SENSORS - 1;
+        builder.withIntValue(lastIntSensor, 1);
+        try {
+            builder.withIntValue(lastIntSensor + 1, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            builder.withFloatValue(Integer.MAX_VALUE, 0f);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(Integer.valueOf(1), builder.build().getVendorIntegerSensor(lastIntSensor));
+    }
+
+    public void testParcelWithOversizedBitmap() {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeInt(CarDiagnosticManager.FRAME_TYPE_LIVE);
+            parcel.writeLong(1234);
+            // A float bitmap claiming far more sensors than a frame can hold.
+            long[] floatPresent = new long[1 << 16];
+            floatPresent[floatPresent.length - 1] = 1L << 63;
+            parcel.writeLongArray(floatPresent);
+            parcel.setDataPosition(0);
+            CarDiagnosticEvent.CREATOR.createFromParcel(parcel);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
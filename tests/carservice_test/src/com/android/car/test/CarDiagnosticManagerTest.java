@@ -29,6 +29,7 @@ import android.car.diagnostic.CarDiagnosticEvent.SecondaryAirStatus;
 import android.car.diagnostic.CarDiagnosticManager;
 import android.car.diagnostic.FloatSensorIndex;
 import android.car.diagnostic.IntegerSensorIndex;
+import android.car.diagnostic.LiveFrameHistory;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
 import android.os.SystemClock;
@@ -45,6 +46,7 @@ import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /** Test the public entry points for the CarDiagnosticManager */
@@ -689,6 +691,127 @@ public class CarDiagnosticManagerTest extends MockedCarTestBase {
         assertNull(mCarDiagnosticManager.getFreezeFrame(injectedEvent.timestamp));
     }
 
+    public void testFreezeFramesInRange() throws Exception {
+        Listener listener = new Listener();
+        mCarDiagnosticManager.registerListener(
+                listener,
+                CarDiagnosticManager.FRAME_TYPE_FREEZE,
+                android.car.hardware.CarSensorManager.SENSOR_RATE_NORMAL);
+
+        VehiclePropValue firstEvent =
+                mFreezeFrameProperties.addNewEvent(mFreezeFrameEventBuilder);
+        getMockedVehicleHal().injectEvent(firstEvent);
+        assertTrue(listener.waitForEvent(firstEvent.timestamp));
+
+        mFreezeFrameEventBuilder.setDTC("U0100");
+        VehiclePropValue secondEvent =
+                mFreezeFrameProperties.addNewEvent(
+                        mFreezeFrameEventBuilder, firstEvent.timestamp + 1000);
+        getMockedVehicleHal().injectEvent(secondEvent);
+        assertTrue(listener.waitForEvent(secondEvent.timestamp));
+
+        List<CarDiagnosticEvent> freezeFrames = mCarDiagnosticManager.getFreezeFrames(
+                firstEvent.timestamp, secondEvent.timestamp, null);
+        assertEquals(2, freezeFrames.size());
+        assertEquals(firstEvent.timestamp, freezeFrames.get(0).timestamp);
+        assertEquals(secondEvent.timestamp, freezeFrames.get(1).timestamp);
+
+        freezeFrames = mCarDiagnosticManager.getFreezeFrames(
+                firstEvent.timestamp, secondEvent.timestamp, "U01");
+        assertEquals(1, freezeFrames.size());
+        assertEquals("U0100", freezeFrames.get(0).dtc);
+
+        freezeFrames = mCarDiagnosticManager.getFreezeFrames(
+                firstEvent.timestamp + 1, Long.MAX_VALUE, null);
+        assertEquals(1, freezeFrames.size());
+        assertEquals(secondEvent.timestamp, freezeFrames.get(0).timestamp);
+    }
+
+    public void testFreezeFramesPersisted() throws Exception {
+        Listener listener = new Listener();
+        mCarDiagnosticManager.registerListener(
+                listener,
+                CarDiagnosticManager.FRAME_TYPE_FREEZE,
+                android.car.hardware.CarSensorManager.SENSOR_RATE_NORMAL);
+
+        VehiclePropValue injectedEvent =
+                mFreezeFrameProperties.addNewEvent(mFreezeFrameEventBuilder);
+        getMockedVehicleHal().injectEvent(injectedEvent);
+        assertTrue(listener.waitForEvent(injectedEvent.timestamp));
+
+        // The frame is no longer in vehicle memory, but was persisted by the car service.
+        mFreezeFrameProperties.removeEvents();
+        reinitializeMockedHal();
+
+        CarDiagnosticEvent freezeFrame =
+                mCarDiagnosticManager.getFreezeFrame(injectedEvent.timestamp);
+        assertNotNull(freezeFrame);
+        assertEquals(DTC, freezeFrame.dtc);
+    }
+
+    public void testPersistedFreezeFrameReplacedAfterReboot() throws Exception {
+        Listener listener = new Listener();
+        mCarDiagnosticManager.registerListener(
+                listener,
+                CarDiagnosticManager.FRAME_TYPE_FREEZE,
+                android.car.hardware.CarSensorManager.SENSOR_RATE_NORMAL);
+
+        VehiclePropValue injectedEvent =
+                mFreezeFrameProperties.addNewEvent(mFreezeFrameEventBuilder);
+        getMockedVehicleHal().injectEvent(injectedEvent);
+        assertTrue(listener.waitForEvent(injectedEvent.timestamp));
+
+        // A frame of the next boot reuses the timestamp of the persisted frame.
+        mFreezeFrameProperties.removeEvents();
+        mFreezeFrameEventBuilder.setDTC("U0100");
+        mFreezeFrameProperties.addNewEvent(mFreezeFrameEventBuilder, injectedEvent.timestamp);
+        reinitializeMockedHal();
+
+        CarDiagnosticEvent freezeFrame =
+                mCarDiagnosticManager.getFreezeFrame(injectedEvent.timestamp);
+        assertNotNull(freezeFrame);
+        assertEquals("U0100", freezeFrame.dtc);
+    }
+
+    public void testLiveFrameHistory() throws Exception {
+        Listener listener = new Listener();
+        mCarDiagnosticManager.registerListener(
+                listener,
+                CarDiagnosticManager.FRAME_TYPE_LIVE,
+                android.car.hardware.CarSensorManager.SENSOR_RATE_NORMAL);
+
+        long time = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < 4; i++) {
+            mLiveFrameEventBuilder.addIntSensor(
+                    IntegerSensorIndex.RUNTIME_SINCE_ENGINE_START, 100 * i);
+            getMockedVehicleHal().injectEvent(mLiveFrameEventBuilder.build(time + 1000 * i));
+            assertTrue(listener.waitForEvent(time + 1000 * i));
+        }
+
+        int[] integerSensors = {IntegerSensorIndex.RUNTIME_SINCE_ENGINE_START};
+        int[] floatSensors = {FloatSensorIndex.VEHICLE_SPEED};
+        LiveFrameHistory history = mCarDiagnosticManager.getLiveFrameHistory(
+                time, Long.MAX_VALUE, integerSensors, floatSensors, 0);
+        assertNotNull(history);
+        assertEquals(4, history.size());
+        assertEquals(time + 3000, history.getTimestamp(3));
+        assertEquals(300.0, history.getIntegerSensorSeries(
+                IntegerSensorIndex.RUNTIME_SINCE_ENGINE_START).getAverage(3));
+        assertEquals(12.5, history.getFloatSensorSeries(
+                FloatSensorIndex.VEHICLE_SPEED).getAverage(0));
+
+        history = mCarDiagnosticManager.getLiveFrameHistory(
+                time, Long.MAX_VALUE, integerSensors, null, 2000);
+        assertTrue(history.isDownsampled());
+        assertEquals(2, history.size());
+        LiveFrameHistory.Series series = history.getIntegerSensorSeries(
+                IntegerSensorIndex.RUNTIME_SINCE_ENGINE_START);
+        assertEquals(2, series.getCount(1));
+        assertEquals(200.0, series.getMin(1));
+        assertEquals(300.0, series.getMax(1));
+        assertEquals(250.0, series.getAverage(1));
+    }
+
     public void testListenerUnregister() throws Exception {
         Listener listener1 = new Listener();
         Listener listener2 = new Listener();
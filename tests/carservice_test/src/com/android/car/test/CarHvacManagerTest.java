@@ -35,7 +35,9 @@ import android.util.MutableInt;
 import com.android.car.vehiclehal.VehiclePropValueBuilder;
 import com.android.car.vehiclehal.test.MockedVehicleHal.VehicleHalPropertyHandler;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -120,6 +122,30 @@ public class CarHvacManagerTest extends MockedCarTestBase {
         assertEquals(65.5, temp, 0);
     }
 
+    // Test setting and getting several properties in one batch
+    public void testHvacBatchedProperties() throws Exception {
+        mCarHvacManager.setProperties(Arrays.asList(
+                new CarPropertyValue<>(CarHvacManager.ID_WINDOW_DEFROSTER_ON,
+                        VehicleAreaWindow.FRONT_WINDSHIELD, true),
+                new CarPropertyValue<>(CarHvacManager.ID_ZONED_FAN_SPEED_SETPOINT,
+                        VehicleAreaZone.ROW_1_LEFT, 7),
+                new CarPropertyValue<>(CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+                        VehicleAreaZone.ROW_1_LEFT, 68.5f)));
+
+        List<CarPropertyValue> values = mCarHvacManager.getProperties(
+                new int[] {CarHvacManager.ID_WINDOW_DEFROSTER_ON,
+                        CarHvacManager.ID_ZONED_FAN_SPEED_SETPOINT,
+                        CarHvacManager.ID_ZONED_TEMP_SETPOINT},
+                new int[] {VehicleAreaWindow.FRONT_WINDSHIELD,
+                        VehicleAreaZone.ROW_1_LEFT,
+                        VehicleAreaZone.ROW_1_LEFT});
+        assertEquals(3, values.size());
+        assertEquals(true, values.get(0).getValue());
+        assertEquals(7, values.get(1).getValue());
+        assertEquals(68.5f, values.get(2).getValue());
+        assertEquals(VehicleAreaZone.ROW_1_LEFT, values.get(2).getAreaId());
+    }
+
     public void testError() throws Exception {
         final int PROP = VehicleProperty.HVAC_DEFROSTER;
         final int AREA = VehicleAreaWindow.FRONT_WINDSHIELD;
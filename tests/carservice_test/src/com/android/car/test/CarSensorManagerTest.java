@@ -30,6 +30,10 @@ import android.util.Log;
 
 import com.android.car.vehiclehal.VehiclePropValueBuilder;
 
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Test the public entry points for the CarSensorManager
  */
@@ -492,6 +496,54 @@ public class CarSensorManagerTest extends MockedCarTestBase {
         assertFalse(listener3.waitForSensorChange());
     }
 
+    /**
+     * Events are queued by the sensor service and dispatched from its own thread. A burst must
+     * still end with the most recent event and never deliver an older event after a newer one.
+     */
+    public void testBurstOfEventsDispatchedInOrder() throws Exception {
+        final int numEvents = 100;
+        final long intervalNs = 1000000000L;
+        final long lastTimestamp = numEvents * intervalNs;
+        final ArrayList<Long> timestamps = new ArrayList<>();
+        final Semaphore lastEventReceived = new Semaphore(0);
+        CarSensorManager.OnSensorChangedListener listener =
+                new CarSensorManager.OnSensorChangedListener() {
+                    @Override
+                    public void onSensorChanged(CarSensorEvent event) {
+                        synchronized (timestamps) {
+                            timestamps.add(event.timestamp);
+                        }
+                        if (event.timestamp == lastTimestamp) {
+                            lastEventReceived.release();
+                        }
+                    }
+                };
+        mCarSensorManager.registerListener(listener,
+                CarSensorManager.SENSOR_TYPE_CAR_SPEED,
+                CarSensorManager.SENSOR_RATE_FASTEST);
+
+        for (int i = 1; i <= numEvents; i++) {
+            getMockedVehicleHal().injectEvent(
+                    VehiclePropValueBuilder.newBuilder(VehicleProperty.PERF_VEHICLE_SPEED)
+                            .addFloatValue(i)
+                            .setTimestamp(i * intervalNs)
+                            .build());
+        }
+
+        assertTrue(lastEventReceived.tryAcquire(SHORT_WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        synchronized (timestamps) {
+            for (int i = 1; i < timestamps.size(); i++) {
+                assertTrue("Out of order at " + i + ": " + timestamps,
+                        timestamps.get(i) > timestamps.get(i - 1));
+            }
+        }
+        CarSensorEvent event =
+                mCarSensorManager.getLatestSensorEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED);
+        assertNotNull(event);
+        assertEquals(lastTimestamp, event.timestamp);
+        mCarSensorManager.unregisterListener(listener);
+    }
+
 
     /**
      * Callback function we register for sensor update notifications.
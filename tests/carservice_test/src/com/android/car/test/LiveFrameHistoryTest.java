@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.test;
+
+import android.car.diagnostic.LiveFrameHistory;
+import android.os.Parcel;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parceling of {@link LiveFrameHistory}.
+ */
+@MediumTest
+public class LiveFrameHistoryTest extends TestCase {
+    private static final int SENSOR = 3;
+
+    private static LiveFrameHistory parcel(LiveFrameHistory history) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            history.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            LiveFrameHistory parceled = LiveFrameHistory.CREATOR.createFromParcel(parcel);
+            assertEquals(parcel.dataSize(), parcel.dataPosition());
+            return parceled;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    public void testParcelRawHistory() {
+        LiveFrameHistory.Series series = new LiveFrameHistory.Series(SENSOR,
+                new int[] {1, 0}, new double[] {5, 0}, new double[] {5, 0}, new double[] {5, 0});
+        LiveFrameHistory history = new LiveFrameHistory(0, new long[] {10, 20},
+                new LiveFrameHistory.Series[] {series}, new LiveFrameHistory.Series[0]);
+
+        LiveFrameHistory parceled = parcel(history);
+
+        assertFalse(parceled.isDownsampled());
+        assertEquals(2, parceled.size());
+        assertEquals(20, parceled.getTimestamp(1));
+        LiveFrameHistory.Series parceledSeries = parceled.getIntegerSensorSeries(SENSOR);
+        assertTrue(parceledSeries.isPresent(0));
+        assertFalse(parceledSeries.isPresent(1));
+        assertEquals(5.0, parceledSeries.getMin(0));
+        assertEquals(5.0, parceledSeries.getMax(0));
+        assertNull(parceled.getFloatSensorSeries(SENSOR));
+    }
+
+    public void testParcelDownsampledHistory() {
+        LiveFrameHistory.Series series = new LiveFrameHistory.Series(SENSOR,
+                new int[] {3}, new double[] {1}, new double[] {4}, new double[] {2.5});
+        LiveFrameHistory history = new LiveFrameHistory(1000, new long[] {10},
+                new LiveFrameHistory.Series[0], new LiveFrameHistory.Series[] {series});
+
+        LiveFrameHistory parceled = parcel(history);
+
+        assertTrue(parceled.isDownsampled());
+        assertEquals(1000, parceled.getBucketDurationNanos());
+        LiveFrameHistory.Series parceledSeries = parceled.getFloatSensorSeries(SENSOR);
+        assertEquals(3, parceledSeries.getCount(0));
+        assertEquals(1.0, parceledSeries.getMin(0));
+        assertEquals(4.0, parceledSeries.getMax(0));
+        assertEquals(2.5, parceledSeries.getAverage(0));
+    }
+}
@@ -40,6 +40,7 @@ import com.android.car.vehiclehal.test.MockedVehicleHal.StaticPropertyHandler;
 import com.android.car.vehiclehal.test.MockedVehicleHal.VehicleHalPropertyHandler;
 import com.android.car.vehiclehal.test.VehiclePropConfigBuilder;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -87,7 +88,7 @@ public class MockedCarTestBase extends AndroidTestCase {
         mMockedVehicleHal = createMockedVehicleHal();
         configureMockedHal();
 
-        mFakeSystemInterface = new FakeSystemInterface();
+        mFakeSystemInterface = new FakeSystemInterface(createSystemCarDir());
         Context context = getCarServiceContext();
         mCarImpl = new ICarImpl(context, mMockedVehicleHal, mFakeSystemInterface,
                 null /* error notifier */);
@@ -105,6 +106,18 @@ public class MockedCarTestBase extends AndroidTestCase {
         mCarImpl.release();
     }
 
+    /** Returns an empty directory, so that data persisted by a test does not leak into others. */
+    private File createSystemCarDir() {
+        File dir = new File(getContext().getCacheDir(), "system_car");
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        return dir;
+    }
+
     protected Context getCarServiceContext() throws NameNotFoundException {
         return getContext()
                 .createPackageContext("com.android.car", Context.CONTEXT_IGNORE_SECURITY);
@@ -241,9 +254,14 @@ public class MockedCarTestBase extends AndroidTestCase {
 
     private static class FakeSystemInterface extends SystemInterface {
 
+        private final File mSystemCarDir;
         private boolean mDisplayOn = true;
         private final Semaphore mDisplayStateWait = new Semaphore(0);
 
+        FakeSystemInterface(File systemCarDir) {
+            mSystemCarDir = systemCarDir;
+        }
+
         @Override
         public synchronized void setDisplayState(boolean on) {
             mDisplayOn = on;
@@ -292,5 +310,10 @@ public class MockedCarTestBase extends AndroidTestCase {
 
         @Override
         public boolean isWakeupCausedByTimer() { return false; }
+
+        @Override
+        public File getSystemCarDir() {
+            return mSystemCarDir;
+        }
     }
 }
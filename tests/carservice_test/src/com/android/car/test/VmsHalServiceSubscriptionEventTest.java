@@ -16,6 +16,7 @@
 
 package com.android.car.test;
 
+import static com.android.car.CarServiceUtils.toIntArray;
 import static org.junit.Assume.assumeTrue;
 
 import android.car.VehicleAreaType;
@@ -25,12 +26,10 @@ import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyAccess;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyChangeMode;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
-import android.hardware.automotive.vehicle.V2_0.VmsMessageWithLayerIntegerValuesIndex;
 import android.hardware.automotive.vehicle.V2_0.VmsMessageType;
-import android.hardware.automotive.vehicle.V2_0.VmsSubscriptionsStateIntegerValuesIndex;
 import android.test.suitebuilder.annotation.MediumTest;
 
-import com.android.car.vehiclehal.VehiclePropValueBuilder;
+import com.android.car.hal.VmsHalMessageCodec;
 import com.android.car.vehiclehal.test.MockedVehicleHal;
 import com.android.car.vehiclehal.test.MockedVehicleHal.VehicleHalPropertyHandler;
 
@@ -110,23 +109,11 @@ public class VmsHalServiceSubscriptionEventTest extends MockedCarTestBase {
         // Wait for response.
         assertTrue(mHalHandlerSemaphore.tryAcquire(2L, TimeUnit.SECONDS));
         // Validate response.
-        ArrayList<Integer> v = mHalHandler.getValues();
-        int messageType = v.get(VmsSubscriptionsStateIntegerValuesIndex.MESSAGE_TYPE);
-        int sequenceNumber = v.get(VmsSubscriptionsStateIntegerValuesIndex.SEQUENCE_NUMBER);
-        int numberLayers = v.get(VmsSubscriptionsStateIntegerValuesIndex.NUMBER_OF_LAYERS);
-        assertEquals(VmsMessageType.SUBSCRIPTIONS_RESPONSE, messageType);
-        //TODO(asafro): This assertion makes no sense. need to fix.
-        //assertEquals(layers.size(), sequenceNumber);
-        assertEquals(layers.size(), numberLayers);
-        List<VmsLayer> receivedLayers = new ArrayList<>();
-        int start = VmsSubscriptionsStateIntegerValuesIndex.SUBSCRIPTIONS_START;
-        int end = VmsSubscriptionsStateIntegerValuesIndex.SUBSCRIPTIONS_START + 3 * numberLayers;
-        while (start < end) {
-            int type = v.get(start++);
-            int subtype = v.get(start++);
-            int version = v.get(start++);
-            receivedLayers.add(new VmsLayer(type, subtype, version));
-        }
+        int[] v = mHalHandler.getValues();
+        assertEquals(VmsMessageType.SUBSCRIPTIONS_RESPONSE, VmsHalMessageCodec.getMessageType(v));
+        //TODO(asafro): Also check the sequence number once it is defined.
+        List<VmsLayer> receivedLayers = VmsHalMessageCodec.decodeSubscriptionsResponseLayers(v);
+        assertEquals(layers.size(), receivedLayers.size());
         assertEquals(new HashSet<>(layers), new HashSet<>(receivedLayers));
     }
 
@@ -140,41 +127,29 @@ public class VmsHalServiceSubscriptionEventTest extends MockedCarTestBase {
         // Wait for response.
         assertTrue(mHalHandlerSemaphore.tryAcquire(2L, TimeUnit.SECONDS));
         // Validate response.
-        ArrayList<Integer> v = mHalHandler.getValues();
-        int messsageType = v.get(VmsMessageWithLayerIntegerValuesIndex.MESSAGE_TYPE);
-        int layerId = v.get(VmsMessageWithLayerIntegerValuesIndex.LAYER_TYPE);
-        int layerVersion = v.get(VmsMessageWithLayerIntegerValuesIndex.LAYER_VERSION);
-        int fused = v.get(VmsMessageWithLayerIntegerValuesIndex.LAYER_SUBTYPE);
-        assertEquals(VmsMessageType.SUBSCRIBE, messsageType);
-        assertEquals(layer.getType(), layerId);
-        assertEquals(layer.getVersion(), layerVersion);
+        int[] v = mHalHandler.getValues();
+        assertEquals(VmsMessageType.SUBSCRIBE, VmsHalMessageCodec.getMessageType(v));
+        assertEquals(layer, VmsHalMessageCodec.decodeLayer(v));
     }
 
     private VehiclePropValue createHalSubscribeRequest(VmsLayer layer) {
-        return VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .addIntValue(VmsMessageType.SUBSCRIBE)
-                .addIntValue(layer.getType())
-                .addIntValue(layer.getSubtype())
-                .addIntValue(layer.getVersion())
-                .build();
+        return VmsHalMessageCodec.encodeSubscriptionMessage(VmsMessageType.SUBSCRIBE, layer);
     }
 
     private VehiclePropValue createHalSubscriptionRequest() {
-        return VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .addIntValue(VmsMessageType.SUBSCRIPTIONS_REQUEST)
-                .build();
+        return VmsHalMessageCodec.encodeSubscriptionsRequest();
     }
 
     private class HalHandler implements VehicleHalPropertyHandler {
-        private ArrayList<Integer> mValues;
+        private int[] mValues;
 
         @Override
         public synchronized void onPropertySet(VehiclePropValue value) {
-            mValues = value.value.int32Values;
+            mValues = toIntArray(value.value.int32Values);
             mHalHandlerSemaphore.release();
         }
 
-        public ArrayList<Integer> getValues() {
+        public int[] getValues() {
             return mValues;
         }
     }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.test;
+
+import android.car.vms.VmsLayer;
+import android.car.vms.VmsOperationRingBuffer;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+@MediumTest
+public class VmsOperationRingBufferTest extends TestCase {
+    private static final VmsLayer LAYER = new VmsLayer(1, 2, 3);
+    private static final int PUBLISHER_ID = 1234;
+
+    public void testRecordFields() throws Exception {
+        VmsOperationRingBuffer buffer = new VmsOperationRingBuffer(4);
+        buffer.record(VmsOperationRingBuffer.OP_ADD_SUBSCRIPTION, 7, LAYER,
+                VmsOperationRingBuffer.NONE);
+        buffer.record(VmsOperationRingBuffer.OP_GET_PUBLISHER_ID, VmsOperationRingBuffer.NONE,
+                null, PUBLISHER_ID);
+
+        List<VmsOperationRingBuffer.Record> records = buffer.getRecords();
+        assertEquals(2, records.size());
+
+        VmsOperationRingBuffer.Record subscription = records.get(0);
+        assertEquals(VmsOperationRingBuffer.OP_ADD_SUBSCRIPTION, subscription.getOpCode());
+        assertEquals(7, subscription.getSequenceNumber());
+        assertEquals(LAYER, subscription.getLayer());
+        assertEquals(VmsOperationRingBuffer.NONE, subscription.getPublisherId());
+        assertEquals("addSubscription sequenceNumber=7 layer=" + LAYER,
+                subscription.toString().substring(subscription.toString().indexOf(' ') + 1));
+
+        VmsOperationRingBuffer.Record publisherId = records.get(1);
+        assertEquals(VmsOperationRingBuffer.OP_GET_PUBLISHER_ID, publisherId.getOpCode());
+        assertNull(publisherId.getLayer());
+        assertEquals(PUBLISHER_ID, publisherId.getPublisherId());
+        assertTrue(publisherId.getTimestampNs() >= subscription.getTimestampNs());
+    }
+
+    public void testKeepsNewestRecords() throws Exception {
+        VmsOperationRingBuffer buffer = new VmsOperationRingBuffer(3);
+        for (int i = 0; i < 10; i++) {
+            buffer.record(VmsOperationRingBuffer.OP_REMOVE_SUBSCRIPTION, i, LAYER,
+                    VmsOperationRingBuffer.NONE);
+        }
+
+        List<VmsOperationRingBuffer.Record> records = buffer.getRecords();
+        assertEquals(3, records.size());
+        assertEquals(7, records.get(0).getSequenceNumber());
+        assertEquals(8, records.get(1).getSequenceNumber());
+        assertEquals(9, records.get(2).getSequenceNumber());
+    }
+
+    public void testExport() throws Exception {
+        VmsOperationRingBuffer buffer = new VmsOperationRingBuffer(4);
+        buffer.record(VmsOperationRingBuffer.OP_SUBSCRIBE, VmsOperationRingBuffer.NONE, LAYER,
+                PUBLISHER_ID);
+        buffer.record(VmsOperationRingBuffer.OP_START_MONITORING, VmsOperationRingBuffer.NONE,
+                null, VmsOperationRingBuffer.NONE);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        buffer.writeTo(new DataOutputStream(bytes));
+        List<VmsOperationRingBuffer.Record> records = VmsOperationRingBuffer.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        List<VmsOperationRingBuffer.Record> expected = buffer.getRecords();
+        assertEquals(expected.size(), records.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), records.get(i).toString());
+        }
+    }
+
+    public void testExportRejectsOtherFiles() throws Exception {
+        try {
+            VmsOperationRingBuffer.readFrom(
+                    new DataInputStream(new ByteArrayInputStream(new byte[12])));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
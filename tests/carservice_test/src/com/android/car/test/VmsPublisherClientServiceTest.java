@@ -16,6 +16,9 @@
 
 package com.android.car.test;
 
+import static com.android.car.CarServiceUtils.toByteArray;
+import static com.android.car.CarServiceUtils.toIntArray;
+
 import android.annotation.ArrayRes;
 import android.car.VehicleAreaType;
 import android.car.annotation.FutureFeature;
@@ -28,18 +31,15 @@ import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyAccess;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyChangeMode;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
-import android.hardware.automotive.vehicle.V2_0.VmsBaseMessageIntegerValuesIndex;
-import android.hardware.automotive.vehicle.V2_0.VmsMessageWithLayerIntegerValuesIndex;
 import android.hardware.automotive.vehicle.V2_0.VmsMessageType;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.util.Log;
 
 import com.android.car.R;
-import com.android.car.vehiclehal.VehiclePropValueBuilder;
+import com.android.car.hal.VmsHalMessageCodec;
 import com.android.car.vehiclehal.test.MockedVehicleHal;
 import com.android.car.vehiclehal.test.MockedVehicleHal.VehicleHalPropertyHandler;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -100,12 +100,8 @@ public class VmsPublisherClientServiceTest extends MockedCarTestBase {
     }
 
     private VehiclePropValue getHalSubscriptionRequest() {
-        return VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .addIntValue(VmsMessageType.SUBSCRIBE)
-                .addIntValue(MOCK_PUBLISHER_LAYER_ID)
-                .addIntValue(MOCK_PUBLISHER_LAYER_SUBTYPE)
-                .addIntValue(MOCK_PUBLISHER_LAYER_VERSION)
-                .build();
+        return VmsHalMessageCodec.encodeSubscriptionMessage(VmsMessageType.SUBSCRIBE,
+                MOCK_PUBLISHER_LAYER);
     }
 
     @Override
@@ -145,17 +141,10 @@ public class VmsPublisherClientServiceTest extends MockedCarTestBase {
         //      the semaphore will not be released.
         assertTrue(mHalHandlerSemaphore.tryAcquire(2L, TimeUnit.SECONDS));
         VehiclePropValue.RawValue rawValue = mHalHandler.getValue().value;
-        int messageType = rawValue.int32Values.get(VmsMessageWithLayerIntegerValuesIndex.MESSAGE_TYPE);
-        int layerId = rawValue.int32Values.get(VmsMessageWithLayerIntegerValuesIndex.LAYER_TYPE);
-        int layerVersion = rawValue.int32Values.get(VmsMessageWithLayerIntegerValuesIndex.LAYER_VERSION);
-        byte[] payload = new byte[rawValue.bytes.size()];
-        for (int i = 0; i < rawValue.bytes.size(); ++i) {
-            payload[i] = rawValue.bytes.get(i);
-        }
-        assertEquals(VmsMessageType.DATA, messageType);
-        assertEquals(MOCK_PUBLISHER_LAYER_ID, layerId);
-        assertEquals(MOCK_PUBLISHER_LAYER_VERSION, layerVersion);
-        assertTrue(Arrays.equals(PAYLOAD, payload));
+        int[] integerValues = toIntArray(rawValue.int32Values);
+        assertEquals(VmsMessageType.DATA, VmsHalMessageCodec.getMessageType(integerValues));
+        assertEquals(MOCK_PUBLISHER_LAYER, VmsHalMessageCodec.decodeLayer(integerValues));
+        assertTrue(Arrays.equals(PAYLOAD, toByteArray(rawValue.bytes)));
     }
 
     private class HalHandler implements VehicleHalPropertyHandler {
@@ -166,9 +155,8 @@ public class VmsPublisherClientServiceTest extends MockedCarTestBase {
             mValue = value;
 
             // If this is the data message release the semaphone so the test can continue.
-            ArrayList<Integer> int32Values = value.value.int32Values;
-            if (int32Values.get(VmsBaseMessageIntegerValuesIndex.MESSAGE_TYPE) ==
-                    VmsMessageType.DATA) {
+            if (VmsHalMessageCodec.getMessageType(toIntArray(value.value.int32Values))
+                    == VmsMessageType.DATA) {
                 mHalHandlerSemaphore.release();
             }
         }
@@ -16,9 +16,12 @@
 
 package com.android.car.test;
 
+import static com.android.car.CarServiceUtils.toIntArray;
+
 import android.annotation.ArrayRes;
 import android.car.VehicleAreaType;
 import android.car.annotation.FutureFeature;
+import android.car.vms.VmsLayer;
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.content.pm.PackageManager;
@@ -27,16 +30,14 @@ import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyAccess;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyChangeMode;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
-import android.hardware.automotive.vehicle.V2_0.VmsBaseMessageIntegerValuesIndex;
 import android.hardware.automotive.vehicle.V2_0.VmsMessageType;
 import android.test.suitebuilder.annotation.MediumTest;
 
 import com.android.car.R;
-import com.android.car.vehiclehal.VehiclePropValueBuilder;
+import com.android.car.hal.VmsHalMessageCodec;
 import com.android.car.vehiclehal.test.MockedVehicleHal;
 import com.android.car.vehiclehal.test.MockedVehicleHal.VehicleHalPropertyHandler;
 
-import java.util.ArrayList;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -94,12 +95,9 @@ public class VmsPublisherPermissionsTest extends MockedCarTestBase {
     }
 
     private VehiclePropValue getHalSubscriptionRequest() {
-        return VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .addIntValue(VmsMessageType.SUBSCRIBE)
-                .addIntValue(MOCK_PUBLISHER_LAYER_ID)
-                .addIntValue(MOCK_PUBLISHER_LAYER_VERSION)
-                .addIntValue(MOCK_PUBLISHER_LAYER_FUSION_INT_VALUE)
-                .build();
+        return VmsHalMessageCodec.encodeSubscriptionMessage(VmsMessageType.SUBSCRIBE,
+                new VmsLayer(MOCK_PUBLISHER_LAYER_ID, MOCK_PUBLISHER_LAYER_FUSION_INT_VALUE,
+                        MOCK_PUBLISHER_LAYER_VERSION));
     }
 
     @Override
@@ -150,9 +148,8 @@ public class VmsPublisherPermissionsTest extends MockedCarTestBase {
         @Override
         public synchronized void onPropertySet(VehiclePropValue value) {
             // If this is the data message release the semaphore so the test can continue.
-            ArrayList<Integer> int32Values = value.value.int32Values;
-            if (int32Values.get(VmsBaseMessageIntegerValuesIndex.MESSAGE_TYPE) ==
-                    VmsMessageType.DATA) {
+            if (VmsHalMessageCodec.getMessageType(toIntArray(value.value.int32Values))
+                    == VmsMessageType.DATA) {
                 mHalHandlerSemaphore.release();
             }
         }
@@ -23,24 +23,31 @@ import android.car.VehicleAreaType;
 import android.car.annotation.FutureFeature;
 import android.car.vms.VmsAssociatedLayer;
 import android.car.vms.VmsLayer;
+import android.car.vms.VmsLayerDependency;
+import android.car.vms.VmsLayerTrafficStats;
+import android.car.vms.VmsLayersOffering;
+import android.car.vms.VmsMessageBatch;
+import android.car.vms.VmsPublisherTrafficStats;
 import android.car.vms.VmsSubscriberManager;
 import android.car.vms.VmsSubscriberManager.VmsSubscriberClientCallback;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyAccess;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyChangeMode;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
-import android.hardware.automotive.vehicle.V2_0.VmsMessageType;
-import android.os.SystemClock;
+import android.os.Looper;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.util.Log;
-import com.android.car.vehiclehal.VehiclePropValueBuilder;
+import com.android.car.hal.VmsHalMessageCodec;
 import com.android.car.vehiclehal.test.MockedVehicleHal.VehicleHalPropertyHandler;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -124,17 +131,8 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         vmsSubscriberManager.subscribe(SUBSCRIPTION_LAYER);
 
         // Inject a value and wait for its callback in TestClientCallback.onVmsMessageReceived.
-        VehiclePropValue v = VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .setAreaId(VehicleAreaType.VEHICLE_AREA_TYPE_NONE)
-                .setTimestamp(SystemClock.elapsedRealtimeNanos())
-                .build();
-        v.value.int32Values.add(VmsMessageType.DATA); // MessageType
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_ID);
-        v.value.int32Values.add(MOCK_PUBLISHER_LAYER_SUBTYPE);
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_VERSION);
-        v.value.int32Values.add(PUBLISHER_ID);
-        v.value.bytes.add((byte) 0xa);
-        v.value.bytes.add((byte) 0xb);
+        VehiclePropValue v = VmsHalMessageCodec.encodeDataMessage(
+                SUBSCRIPTION_LAYER, PUBLISHER_ID, new byte[] {(byte) 0xa, (byte) 0xb});
         assertEquals(0, mSubscriberSemaphore.availablePermits());
 
         getMockedVehicleHal().injectEvent(v);
@@ -144,6 +142,67 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         assertTrue(Arrays.equals(expectedPayload, clientCallback.getPayload()));
     }
 
+    // Test that a message injected in the HAL is counted in the traffic stats.
+    public void testTrafficStats() throws Exception {
+        if (!VmsTestUtils.canRunTest(TAG)) return;
+        VmsSubscriberManager vmsSubscriberManager = (VmsSubscriberManager) getCar().getCarManager(
+                Car.VMS_SUBSCRIBER_SERVICE);
+        TestClientCallback clientCallback = new TestClientCallback();
+        vmsSubscriberManager.registerClientCallback(clientCallback);
+        vmsSubscriberManager.subscribe(SUBSCRIPTION_LAYER);
+
+        VehiclePropValue v = VmsHalMessageCodec.encodeDataMessage(
+                SUBSCRIPTION_LAYER, PUBLISHER_ID, new byte[] {(byte) 0xa, (byte) 0xb});
+
+        getMockedVehicleHal().injectEvent(v);
+        assertTrue(mSubscriberSemaphore.tryAcquire(2L, TimeUnit.SECONDS));
+
+        VmsLayerTrafficStats layerStats = null;
+        for (VmsLayerTrafficStats stats : vmsSubscriberManager.getLayerTrafficStats()) {
+            if (stats.getLayer().equals(SUBSCRIPTION_LAYER)) {
+                layerStats = stats;
+            }
+        }
+        assertNotNull(layerStats);
+        assertTrue(layerStats.getMessages() >= 1);
+        assertTrue(layerStats.getBytes() >= 2);
+        assertTrue(layerStats.getFanOut() >= 1);
+
+        boolean foundPublisher = false;
+        for (VmsPublisherTrafficStats stats : vmsSubscriberManager.getPublisherTrafficStats()) {
+            if (stats.getPublisherId() == PUBLISHER_ID) {
+                foundPublisher = true;
+                assertTrue(stats.getMessages() >= 1);
+            }
+        }
+        assertTrue(foundPublisher);
+    }
+
+    // Test that messages are delivered in order through the executor of the client callback.
+    public void testSubscribeWithExecutor() throws Exception {
+        if (!VmsTestUtils.canRunTest(TAG)) return;
+        VmsSubscriberManager vmsSubscriberManager = (VmsSubscriberManager) getCar().getCarManager(
+                Car.VMS_SUBSCRIBER_SERVICE);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        TestBatchClientCallback clientCallback = new TestBatchClientCallback();
+        vmsSubscriberManager.registerClientCallback(executor, clientCallback);
+        vmsSubscriberManager.subscribe(SUBSCRIPTION_LAYER);
+
+        final int messages = 5;
+        for (int i = 0; i < messages; i++) {
+            VehiclePropValue v = VmsHalMessageCodec.encodeDataMessage(
+                    SUBSCRIPTION_LAYER, PUBLISHER_ID, new byte[] {(byte) i});
+            getMockedVehicleHal().injectEvent(v);
+        }
+
+        assertTrue(mSubscriberSemaphore.tryAcquire(messages, 2L, TimeUnit.SECONDS));
+        synchronized (clientCallback) {
+            assertEquals(Arrays.asList(0, 1, 2, 3, 4), clientCallback.mPayloads);
+            assertFalse(clientCallback.mCalledOutsideExecutor);
+        }
+        vmsSubscriberManager.unsubscribe(SUBSCRIPTION_LAYER);
+        executor.shutdown();
+    }
 
     // Test injecting a value in the HAL and verifying it propagates to a subscriber.
     public void testSubscribeToPublisher() throws Exception {
@@ -155,17 +214,8 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         vmsSubscriberManager.subscribe(SUBSCRIPTION_LAYER, PUBLISHER_ID);
 
         // Inject a value and wait for its callback in TestClientCallback.onVmsMessageReceived.
-        VehiclePropValue v = VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .setAreaId(VehicleAreaType.VEHICLE_AREA_TYPE_NONE)
-                .setTimestamp(SystemClock.elapsedRealtimeNanos())
-                .build();
-        v.value.int32Values.add(VmsMessageType.DATA); // MessageType
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_ID);
-        v.value.int32Values.add(MOCK_PUBLISHER_LAYER_SUBTYPE);
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_VERSION);
-        v.value.int32Values.add(WRONG_PUBLISHER_ID);
-        v.value.bytes.add((byte) 0xa);
-        v.value.bytes.add((byte) 0xb);
+        VehiclePropValue v = VmsHalMessageCodec.encodeDataMessage(
+                SUBSCRIPTION_LAYER, WRONG_PUBLISHER_ID, new byte[] {(byte) 0xa, (byte) 0xb});
         assertEquals(0, mSubscriberSemaphore.availablePermits());
 
         getMockedVehicleHal().injectEvent(v);
@@ -183,17 +233,8 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         vmsSubscriberManager.subscribe(SUBSCRIPTION_LAYER, PUBLISHER_ID);
 
         // Inject a value and wait for its callback in TestClientCallback.onVmsMessageReceived.
-        VehiclePropValue v = VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .setAreaId(VehicleAreaType.VEHICLE_AREA_TYPE_NONE)
-                .setTimestamp(SystemClock.elapsedRealtimeNanos())
-                .build();
-        v.value.int32Values.add(VmsMessageType.DATA); // MessageType
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_ID);
-        v.value.int32Values.add(MOCK_PUBLISHER_LAYER_SUBTYPE); //<-
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_VERSION);
-        v.value.int32Values.add(PUBLISHER_ID);
-        v.value.bytes.add((byte) 0xa);
-        v.value.bytes.add((byte) 0xb);
+        VehiclePropValue v = VmsHalMessageCodec.encodeDataMessage(
+                SUBSCRIPTION_LAYER, PUBLISHER_ID, new byte[] {(byte) 0xa, (byte) 0xb});
         assertEquals(0, mSubscriberSemaphore.availablePermits());
 
         getMockedVehicleHal().injectEvent(v);
@@ -214,17 +255,8 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         vmsSubscriberManager.unsubscribe(SUBSCRIPTION_LAYER);
 
         // Inject a value and wait for its callback in TestClientCallback.onVmsMessageReceived.
-        VehiclePropValue v = VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .setAreaId(VehicleAreaType.VEHICLE_AREA_TYPE_NONE)
-                .setTimestamp(SystemClock.elapsedRealtimeNanos())
-                .build();
-        v.value.int32Values.add(VmsMessageType.DATA); // MessageType
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_ID);
-        v.value.int32Values.add(MOCK_PUBLISHER_LAYER_SUBTYPE);
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_VERSION);
-        v.value.int32Values.add(PUBLISHER_ID);
-        v.value.bytes.add((byte) 0xa);
-        v.value.bytes.add((byte) 0xb);
+        VehiclePropValue v = VmsHalMessageCodec.encodeDataMessage(
+                SUBSCRIPTION_LAYER, PUBLISHER_ID, new byte[] {(byte) 0xa, (byte) 0xb});
         assertEquals(0, mSubscriberSemaphore.availablePermits());
 
         getMockedVehicleHal().injectEvent(v);
@@ -241,17 +273,8 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         vmsSubscriberManager.subscribe(SUBSCRIPTION_LAYER, PUBLISHER_ID);
 
         // Inject a value and wait for its callback in TestClientCallback.onVmsMessageReceived.
-        VehiclePropValue v = VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .setAreaId(VehicleAreaType.VEHICLE_AREA_TYPE_NONE)
-                .setTimestamp(SystemClock.elapsedRealtimeNanos())
-                .build();
-        v.value.int32Values.add(VmsMessageType.DATA); // MessageType
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_ID);
-        v.value.int32Values.add(MOCK_PUBLISHER_LAYER_SUBTYPE);
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_VERSION);
-        v.value.int32Values.add(WRONG_PUBLISHER_ID);
-        v.value.bytes.add((byte) 0xa);
-        v.value.bytes.add((byte) 0xb);
+        VehiclePropValue v = VmsHalMessageCodec.encodeDataMessage(
+                SUBSCRIPTION_LAYER, WRONG_PUBLISHER_ID, new byte[] {(byte) 0xa, (byte) 0xb});
         assertEquals(0, mSubscriberSemaphore.availablePermits());
 
         getMockedVehicleHal().injectEvent(v);
@@ -269,17 +292,8 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         vmsSubscriberManager.unsubscribe(SUBSCRIPTION_LAYER, PUBLISHER_ID);
 
         // Inject a value and wait for its callback in TestClientCallback.onVmsMessageReceived.
-        VehiclePropValue v = VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .setAreaId(VehicleAreaType.VEHICLE_AREA_TYPE_NONE)
-                .setTimestamp(SystemClock.elapsedRealtimeNanos())
-                .build();
-        v.value.int32Values.add(VmsMessageType.DATA); // MessageType
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_ID);
-        v.value.int32Values.add(MOCK_PUBLISHER_LAYER_SUBTYPE);
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_VERSION);
-        v.value.int32Values.add(PUBLISHER_ID);
-        v.value.bytes.add((byte) 0xa);
-        v.value.bytes.add((byte) 0xb);
+        VehiclePropValue v = VmsHalMessageCodec.encodeDataMessage(
+                SUBSCRIPTION_LAYER, PUBLISHER_ID, new byte[] {(byte) 0xa, (byte) 0xb});
         assertEquals(0, mSubscriberSemaphore.availablePermits());
 
         getMockedVehicleHal().injectEvent(v);
@@ -297,17 +311,8 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         vmsSubscriberManager.startMonitoring();
 
         // Inject a value and wait for its callback in TestClientCallback.onVmsMessageReceived.
-        VehiclePropValue v = VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .setAreaId(VehicleAreaType.VEHICLE_AREA_TYPE_NONE)
-                .setTimestamp(SystemClock.elapsedRealtimeNanos())
-                .build();
-        v.value.int32Values.add(VmsMessageType.DATA); // MessageType
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_ID);
-        v.value.int32Values.add(MOCK_PUBLISHER_LAYER_SUBTYPE);
-        v.value.int32Values.add(SUBSCRIPTION_LAYER_VERSION);
-        v.value.int32Values.add(PUBLISHER_ID);
-        v.value.bytes.add((byte) 0xa);
-        v.value.bytes.add((byte) 0xb);
+        VehiclePropValue v = VmsHalMessageCodec.encodeDataMessage(
+                SUBSCRIPTION_LAYER, PUBLISHER_ID, new byte[] {(byte) 0xa, (byte) 0xb});
         assertEquals(0, mSubscriberSemaphore.availablePermits());
 
         getMockedVehicleHal().injectEvent(v);
@@ -326,10 +331,6 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         vmsSubscriberManager.registerClientCallback(clientCallback);
 
         // Inject a value and wait for its callback in TestClientCallback.onLayersAvailabilityChanged.
-        VehiclePropValue v = VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .setAreaId(VehicleAreaType.VEHICLE_AREA_TYPE_NONE)
-                .setTimestamp(SystemClock.elapsedRealtimeNanos())
-                .build();
         /*
         Offering:
         Layer             | Dependency
@@ -339,18 +340,7 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         Expected availability:
         {(2, 3, 444 [17])}
          */
-        v.value.int32Values.addAll(
-                Arrays.asList(
-                        VmsMessageType.OFFERING, // MessageType
-                        PUBLISHER_ID,
-                        1, // Number of offered layers
-
-                        SUBSCRIPTION_LAYER_ID,
-                        MOCK_PUBLISHER_LAYER_SUBTYPE,
-                        SUBSCRIPTION_LAYER_VERSION,
-                        0 // number of dependencies for layer
-                )
-        );
+        VehiclePropValue v = createHalOffering(new VmsLayerDependency(SUBSCRIPTION_LAYER));
 
         assertEquals(0, mSubscriberSemaphore.availablePermits());
 
@@ -372,10 +362,6 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         vmsSubscriberManager.subscribe(SUBSCRIPTION_LAYER);
 
         // Inject a value and wait for its callback in TestClientCallback.onLayersAvailabilityChanged.
-        VehiclePropValue v = VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .setAreaId(VehicleAreaType.VEHICLE_AREA_TYPE_NONE)
-                .setTimestamp(SystemClock.elapsedRealtimeNanos())
-                .build();
         /*
         Offering:
         Layer             | Dependency
@@ -385,18 +371,7 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         Expected availability:
         {(2, 3, 444 [17])}
          */
-        v.value.int32Values.addAll(
-                Arrays.asList(
-                        VmsMessageType.OFFERING, // MessageType
-                        PUBLISHER_ID,
-                        1, // Number of offered layers
-
-                        SUBSCRIPTION_LAYER_ID,
-                        MOCK_PUBLISHER_LAYER_SUBTYPE,
-                        SUBSCRIPTION_LAYER_VERSION,
-                        0 // number of dependencies for layer
-                )
-        );
+        VehiclePropValue v = createHalOffering(new VmsLayerDependency(SUBSCRIPTION_LAYER));
 
         assertEquals(0, mSubscriberSemaphore.availablePermits());
 
@@ -419,10 +394,6 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
 
 
         // Inject a value and wait for its callback in TestClientCallback.onLayersAvailabilityChanged.
-        VehiclePropValue v = VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .setAreaId(VehicleAreaType.VEHICLE_AREA_TYPE_NONE)
-                .setTimestamp(SystemClock.elapsedRealtimeNanos())
-                .build();
         /*
         Offering:
         Layer             | Dependency
@@ -432,18 +403,7 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         Expected availability:
         {(2, 3, 444 [17])}
          */
-        v.value.int32Values.addAll(
-                Arrays.asList(
-                        VmsMessageType.OFFERING, // MessageType
-                        PUBLISHER_ID,
-                        1, // Number of offered layers
-
-                        SUBSCRIPTION_LAYER_ID,
-                        SUBSCRIPTION_LAYER_VERSION,
-                        MOCK_PUBLISHER_LAYER_SUBTYPE,
-                        0 // number of dependencies for layer
-                )
-        );
+        VehiclePropValue v = createHalOffering(new VmsLayerDependency(SUBSCRIPTION_LAYER));
 
         assertEquals(0, mSubscriberSemaphore.availablePermits());
         getMockedVehicleHal().injectEvent(v);
@@ -477,10 +437,6 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         vmsSubscriberManager.registerClientCallback(clientCallback);
 
         // Inject a value and wait for its callback in TestClientCallback.onLayersAvailabilityChanged.
-        VehiclePropValue v = VehiclePropValueBuilder.newBuilder(VehicleProperty.VEHICLE_MAP_SERVICE)
-                .setAreaId(VehicleAreaType.VEHICLE_AREA_TYPE_NONE)
-                .setTimestamp(SystemClock.elapsedRealtimeNanos())
-                .build();
         /*
         Offering:
         Layer  | Dependency
@@ -493,46 +449,17 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         Expected availability:
         {(2, 3, 444 [17]), (4, 5, 444 [17]), (6, 7, 444 [17])}
          */
-
-        v.value.int32Values.addAll(
-                Arrays.asList(
-                        VmsMessageType.OFFERING, // MessageType
-                        PUBLISHER_ID,
-                        4, // Number of offered layers
-
-                        SUBSCRIPTION_LAYER_ID,
-                        MOCK_PUBLISHER_LAYER_SUBTYPE,
-                        SUBSCRIPTION_LAYER_VERSION,
-                        0, // number of dependencies for layer
-
-                        SUBSCRIPTION_DEPENDANT_LAYER_ID_1,
-                        MOCK_PUBLISHER_LAYER_SUBTYPE,
-                        SUBSCRIPTION_DEPENDANT_LAYER_VERSION_1,
-                        1, // number of dependencies for layer
-                        SUBSCRIPTION_LAYER_ID,
-                        MOCK_PUBLISHER_LAYER_SUBTYPE,
-                        SUBSCRIPTION_LAYER_VERSION,
-
-                        SUBSCRIPTION_DEPENDANT_LAYER_ID_2,
-                        MOCK_PUBLISHER_LAYER_SUBTYPE,
-                        SUBSCRIPTION_DEPENDANT_LAYER_VERSION_2,
-                        2, // number of dependencies for layer
-                        SUBSCRIPTION_LAYER_ID,
-                        MOCK_PUBLISHER_LAYER_SUBTYPE,
-                        SUBSCRIPTION_LAYER_VERSION,
-                        SUBSCRIPTION_DEPENDANT_LAYER_ID_1,
-                        MOCK_PUBLISHER_LAYER_SUBTYPE,
-                        SUBSCRIPTION_DEPENDANT_LAYER_VERSION_1,
-
-                        SUBSCRIPTION_DEPENDANT_LAYER_ID_2,
-                        MOCK_PUBLISHER_LAYER_SUBTYPE,
-                        SUBSCRIPTION_DEPENDANT_LAYER_VERSION_2,
-                        1, // number of dependencies for layer
-                        SUBSCRIPTION_UNSUPPORTED_LAYER_ID,
-                        MOCK_PUBLISHER_LAYER_SUBTYPE,
-                        SUBSCRIPTION_UNSUPPORTED_LAYER_VERSION
-                )
-        );
+        VehiclePropValue v = createHalOffering(
+                new VmsLayerDependency(SUBSCRIPTION_LAYER),
+                new VmsLayerDependency(SUBSCRIPTION_DEPENDANT_LAYER_1,
+                        Collections.singleton(SUBSCRIPTION_LAYER)),
+                new VmsLayerDependency(SUBSCRIPTION_DEPENDANT_LAYER_2,
+                        new HashSet<>(Arrays.asList(
+                                SUBSCRIPTION_LAYER, SUBSCRIPTION_DEPENDANT_LAYER_1))),
+                new VmsLayerDependency(SUBSCRIPTION_DEPENDANT_LAYER_2,
+                        Collections.singleton(new VmsLayer(SUBSCRIPTION_UNSUPPORTED_LAYER_ID,
+                                MOCK_PUBLISHER_LAYER_SUBTYPE,
+                                SUBSCRIPTION_UNSUPPORTED_LAYER_VERSION))));
 
         assertEquals(0, mSubscriberSemaphore.availablePermits());
 
@@ -547,6 +474,11 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         assertEquals(expectedAvailableLayers.size(), clientCallback.getAvailableLayers().size());
     }
 
+    private static VehiclePropValue createHalOffering(VmsLayerDependency... offeredLayers) {
+        return VmsHalMessageCodec.encodeOffering(new VmsLayersOffering(
+                new HashSet<>(Arrays.asList(offeredLayers)), PUBLISHER_ID));
+    }
+
     private class HalHandler implements VehicleHalPropertyHandler {
         private VehiclePropValue mValue;
 
@@ -576,6 +508,32 @@ public class VmsSubscriberManagerTest extends MockedCarTestBase {
         }
     }
 
+    private class TestBatchClientCallback
+            implements VmsSubscriberManager.VmsSubscriberClientBatchCallback {
+        private final List<Integer> mPayloads = new ArrayList<>();
+        private boolean mCalledOutsideExecutor;
+
+        @Override
+        public synchronized void onVmsMessageReceived(VmsLayer layer, byte[] payload) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                mCalledOutsideExecutor = true;
+            }
+            mPayloads.add((int) payload[0]);
+            mSubscriberSemaphore.release();
+        }
+
+        @Override
+        public synchronized void onVmsMessagesReceived(VmsMessageBatch messages) {
+            for (int i = 0; i < messages.size(); i++) {
+                onVmsMessageReceived(messages.getLayer(i), messages.getPayload(i));
+            }
+        }
+
+        @Override
+        public void onLayersAvailabilityChanged(List<VmsLayer> availableLayers) {
+        }
+    }
+
     private class TestClientCallback implements VmsSubscriberClientCallback {
         private VmsLayer mLayer;
         private byte[] mPayload;
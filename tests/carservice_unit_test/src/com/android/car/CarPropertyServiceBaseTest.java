@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.car.hardware.CarPropertyValue;
+import android.car.hardware.property.CarPropertyEvent;
+import android.car.hardware.property.CarPropertyManagerBase;
+import android.car.hardware.property.ICarPropertyEventListener;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Binder;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.car.hal.PropertyHalServiceBase;
+
+/**
+ * Unit tests for the property and area filtering of {@link CarPropertyServiceBase}.
+ */
+@SmallTest
+public class CarPropertyServiceBaseTest extends AndroidTestCase {
+    private static final int PROP_A = 1;
+    private static final int PROP_B = 2;
+    private static final int AREA_1 = 0x1;
+    private static final int AREA_2 = 0x2;
+
+    private PropertyHalServiceBase mHal;
+    private CarPropertyServiceBase mService;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Context context = mock(Context.class);
+        when(context.checkCallingOrSelfPermission(anyString()))
+                .thenReturn(PackageManager.PERMISSION_GRANTED);
+        mHal = mock(PropertyHalServiceBase.class);
+        mService = new CarPropertyServiceBase(context, mHal, "permission", false, "test");
+    }
+
+    public void testUnfilteredListenerGetsAllEvents() throws Exception {
+        ICarPropertyEventListener listener = createListener();
+        mService.registerListener(listener);
+        verify(mHal).setListener(mService);
+
+        mService.onPropertyChange(createEvent(PROP_A, AREA_1));
+        mService.onPropertyChange(createEvent(PROP_B, AREA_2));
+        verify(listener, times(2)).onEvent(any(CarPropertyEvent.class));
+    }
+
+    public void testFilteredListenerGetsOnlyRegisteredPropertyAndArea() throws Exception {
+        ICarPropertyEventListener listener = createListener();
+        mService.registerListenerForProperty(listener, PROP_A, AREA_1);
+
+        CarPropertyEvent wanted = createEvent(PROP_A, AREA_1);
+        mService.onPropertyChange(wanted);
+        mService.onPropertyChange(createEvent(PROP_A, AREA_2));
+        mService.onPropertyChange(createEvent(PROP_B, AREA_1));
+        verify(listener).onEvent(wanted);
+        verify(listener, times(1)).onEvent(any(CarPropertyEvent.class));
+    }
+
+    public void testAllAreas() throws Exception {
+        ICarPropertyEventListener listener = createListener();
+        mService.registerListenerForProperty(listener, PROP_A, CarPropertyManagerBase.ALL_AREAS);
+
+        mService.onPropertyChange(createEvent(PROP_A, AREA_1));
+        mService.onPropertyChange(createEvent(PROP_A, AREA_2));
+        mService.onPropertySetError(PROP_A, AREA_2);
+        mService.onPropertyChange(createEvent(PROP_B, AREA_1));
+        verify(listener, times(3)).onEvent(any(CarPropertyEvent.class));
+    }
+
+    public void testUnregisterLastPropertyReleasesHalListener() throws Exception {
+        ICarPropertyEventListener listener = createListener();
+        mService.registerListenerForProperty(listener, PROP_A, AREA_1);
+        mService.registerListenerForProperty(listener, PROP_B, AREA_1);
+
+        mService.unregisterListenerForProperty(listener, PROP_A, AREA_1);
+        verify(mHal, never()).setListener(null);
+        mService.onPropertyChange(createEvent(PROP_A, AREA_1));
+        verify(listener, never()).onEvent(any(CarPropertyEvent.class));
+
+        mService.unregisterListenerForProperty(listener, PROP_B, AREA_1);
+        verify(mHal).setListener(null);
+    }
+
+    public void testRegisterForAllPropertiesDropsFilter() throws Exception {
+        ICarPropertyEventListener listener = createListener();
+        mService.registerListenerForProperty(listener, PROP_A, AREA_1);
+        mService.registerListener(listener);
+
+        mService.onPropertyChange(createEvent(PROP_B, AREA_2));
+        verify(listener).onEvent(any(CarPropertyEvent.class));
+    }
+
+    private static ICarPropertyEventListener createListener() {
+        ICarPropertyEventListener listener = mock(ICarPropertyEventListener.class);
+        when(listener.asBinder()).thenReturn(new Binder());
+        return listener;
+    }
+
+    private static CarPropertyEvent createEvent(int prop, int area) {
+        return new CarPropertyEvent(CarPropertyEvent.PROPERTY_EVENT_PROPERTY_CHANGE,
+                new CarPropertyValue<>(prop, area, 0));
+    }
+}
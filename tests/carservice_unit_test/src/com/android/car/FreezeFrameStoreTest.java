@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.diagnostic.CarDiagnosticEvent;
+import android.car.diagnostic.FloatSensorIndex;
+import android.car.diagnostic.IntegerSensorIndex;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for the persistence, the queries and the compaction of {@link FreezeFrameStore}.
+ */
+@SmallTest
+public class FreezeFrameStoreTest extends AndroidTestCase {
+    private static final int SMALL_CAPACITY = 1024;
+
+    private File mFile;
+    private FreezeFrameStore mStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), FreezeFrameStore.FILE_NAME);
+        mFile.delete();
+        mStore = new FreezeFrameStore(mFile);
+        mStore.open();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStore.close();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private static CarDiagnosticEvent createFreezeFrame(long timestamp, String dtc) {
+        return CarDiagnosticEvent.Builder.newFreezeFrameBuilder()
+                .atTimestamp(timestamp)
+                .withIntValue(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 30)
+                .withFloatValue(FloatSensorIndex.VEHICLE_SPEED, timestamp)
+                .withDtc(dtc)
+                .build();
+    }
+
+    public void testPersistedAcrossReopen() throws Exception {
+        CarDiagnosticEvent frame = createFreezeFrame(1000, "P0010");
+        assertTrue(mStore.add(frame));
+        mStore.add(createFreezeFrame(2000, "P0020"));
+
+        reopen(FreezeFrameStore.DEFAULT_CAPACITY);
+
+        assertTrue(Arrays.equals(new long[] {1000, 2000}, mStore.getTimestamps()));
+        assertEquals(frame, mStore.get(1000));
+        assertNull(mStore.get(3000));
+    }
+
+    public void testReplaceFrame() throws Exception {
+        mStore.add(createFreezeFrame(1000, "P0010"));
+        CarDiagnosticEvent frame = createFreezeFrame(1000, "P0011");
+        mStore.add(frame);
+
+        reopen(FreezeFrameStore.DEFAULT_CAPACITY);
+
+        assertEquals(1, mStore.size());
+        assertEquals(frame, mStore.get(1000));
+    }
+
+    public void testRangeQuery() throws Exception {
+        mStore.add(createFreezeFrame(1000, "P0010"));
+        mStore.add(createFreezeFrame(2000, "P0120"));
+        mStore.add(createFreezeFrame(3000, "P0121"));
+        mStore.add(createFreezeFrame(4000, "U0100"));
+
+        assertEquals(Arrays.asList(2000L, 3000L),
+                timestamps(mStore.getFreezeFrames(1500, 3000, null, 10)));
+        assertEquals(Arrays.asList(2000L, 3000L),
+                timestamps(mStore.getFreezeFrames(0, Long.MAX_VALUE, "P01", 10)));
+        assertEquals(Arrays.asList(1000L, 2000L),
+                timestamps(mStore.getFreezeFrames(0, Long.MAX_VALUE, null, 2)));
+        assertTrue(mStore.getFreezeFrames(3000, 1000, null, 10).isEmpty());
+    }
+
+    public void testRemove() throws Exception {
+        mStore.add(createFreezeFrame(1000, "P0010"));
+        mStore.add(createFreezeFrame(2000, "P0020"));
+        mStore.add(createFreezeFrame(3000, "P0030"));
+
+        mStore.remove(2000, 5000);
+        reopen(FreezeFrameStore.DEFAULT_CAPACITY);
+        assertTrue(Arrays.equals(new long[] {1000, 3000}, mStore.getTimestamps()));
+
+        mStore.remove();
+        reopen(FreezeFrameStore.DEFAULT_CAPACITY);
+        assertEquals(0, mStore.size());
+    }
+
+    public void testCompactionDropsOldestFrames() throws Exception {
+        reopen(SMALL_CAPACITY);
+        final int frames = 100;
+        for (int i = 1; i <= frames; i++) {
+            assertTrue(mStore.add(createFreezeFrame(i, "P0010")));
+        }
+
+        long[] timestamps = mStore.getTimestamps();
+        assertTrue(timestamps.length > 0);
+        assertTrue(timestamps.length < frames);
+        assertEquals(frames, timestamps[timestamps.length - 1]);
+        // The frames kept are the most recent ones.
+        assertEquals(frames - timestamps.length + 1, timestamps[0]);
+
+        reopen(SMALL_CAPACITY);
+        assertTrue(Arrays.equals(timestamps, mStore.getTimestamps()));
+        assertEquals(createFreezeFrame(frames, "P0010"), mStore.get(frames));
+    }
+
+    public void testBackgroundCompaction() throws Exception {
+        reopen(SMALL_CAPACITY);
+        long timestamp = 0;
+        while (mStore.getLogSize() <= SMALL_CAPACITY - SMALL_CAPACITY / 8) {
+            assertTrue(mStore.add(createFreezeFrame(++timestamp, "P0010")));
+        }
+        int logSize = mStore.getLogSize();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mStore.getLogSize() >= logSize && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(mStore.getLogSize() < logSize);
+        long[] timestamps = mStore.getTimestamps();
+        assertEquals(timestamp, timestamps[timestamps.length - 1]);
+        assertEquals(timestamp - timestamps.length + 1, timestamps[0]);
+
+        reopen(SMALL_CAPACITY);
+        assertTrue(Arrays.equals(timestamps, mStore.getTimestamps()));
+        assertEquals(createFreezeFrame(timestamp, "P0010"), mStore.get(timestamp));
+    }
+
+    public void testCorruptedRecordTruncatesLog() throws Exception {
+        mStore.add(createFreezeFrame(1000, "P0010"));
+        mStore.add(createFreezeFrame(2000, "P0020"));
+        mStore.close();
+
+        // Flip a byte of the last record.
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.seek(12);
+            int firstRecordSize = 9 + file.readInt();
+            long offset = 12 + firstRecordSize + 20;
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0xff);
+        }
+
+        mStore.open();
+        assertTrue(Arrays.equals(new long[] {1000}, mStore.getTimestamps()));
+        mStore.add(createFreezeFrame(3000, "P0030"));
+        reopen(FreezeFrameStore.DEFAULT_CAPACITY);
+        assertTrue(Arrays.equals(new long[] {1000, 3000}, mStore.getTimestamps()));
+    }
+
+    private void reopen(int capacity) {
+        mStore.close();
+        mStore = new FreezeFrameStore(mFile, capacity);
+        mStore.open();
+    }
+
+    private static List<Long> timestamps(List<CarDiagnosticEvent> events) {
+        Long[] timestamps = new Long[events.size()];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = events.get(i).timestamp;
+        }
+        return Arrays.asList(timestamps);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.hardware.CarSensorManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.car.Listeners.ClientWithRate;
+
+@SmallTest
+public class ListenersTest extends AndroidTestCase {
+    private static final long MS = 1000000L;
+
+    public void testFastestClientGetsEveryEvent() throws Exception {
+        ClientWithRate<TestListener> client = new ClientWithRate<>(new TestListener(),
+                CarSensorManager.SENSOR_RATE_FASTEST);
+        for (long t = 0; t < 100 * MS; t += 10 * MS) {
+            assertTrue(client.shouldDispatch(t));
+        }
+        assertEquals(0, client.getDecimatedEvents());
+    }
+
+    public void testUiClientIsDownsampled() throws Exception {
+        ClientWithRate<TestListener> client = new ClientWithRate<>(new TestListener(),
+                CarSensorManager.SENSOR_RATE_UI);
+        int dispatched = 0;
+        // 100Hz for one second.
+        for (long t = 0; t < 1000 * MS; t += 10 * MS) {
+            if (client.shouldDispatch(t)) {
+                dispatched++;
+            }
+        }
+        assertEquals(5, dispatched);
+        assertEquals(95, client.getDecimatedEvents());
+    }
+
+    public void testJitterDoesNotHalveRate() throws Exception {
+        ClientWithRate<TestListener> client = new ClientWithRate<>(new TestListener(),
+                CarSensorManager.SENSOR_RATE_FAST);
+        assertTrue(client.shouldDispatch(0));
+        assertTrue(client.shouldDispatch(98 * MS));
+        assertFalse(client.shouldDispatch(150 * MS));
+    }
+
+    public void testRateChangeResetsDownsampler() throws Exception {
+        ClientWithRate<TestListener> client = new ClientWithRate<>(new TestListener(),
+                CarSensorManager.SENSOR_RATE_NORMAL);
+        assertTrue(client.shouldDispatch(0));
+        assertFalse(client.shouldDispatch(10 * MS));
+        client.setRate(CarSensorManager.SENSOR_RATE_FASTEST);
+        assertTrue(client.shouldDispatch(20 * MS));
+    }
+
+    private static class TestListener implements Listeners.IListener {
+        @Override
+        public void release() {}
+
+        @Override
+        public void binderDied() {}
+    }
+}
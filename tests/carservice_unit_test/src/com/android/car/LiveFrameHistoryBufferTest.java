@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.diagnostic.CarDiagnosticEvent;
+import android.car.diagnostic.FloatSensorIndex;
+import android.car.diagnostic.IntegerSensorIndex;
+import android.car.diagnostic.LiveFrameHistory;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Unit tests for the recording and the queries of {@link LiveFrameHistoryBuffer}.
+ */
+@SmallTest
+public class LiveFrameHistoryBufferTest extends AndroidTestCase {
+    private static final int INT_SENSOR = IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE;
+    private static final int FLOAT_SENSOR = FloatSensorIndex.ENGINE_RPM;
+    private static final int[] INT_SENSORS = {INT_SENSOR};
+    private static final int[] FLOAT_SENSORS = {FLOAT_SENSOR};
+    private static final int[] NO_SENSORS = {};
+    private static final int MAX_VALUES = 1000;
+
+    private LiveFrameHistoryBuffer mBuffer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBuffer = new LiveFrameHistoryBuffer(8);
+    }
+
+    private static CarDiagnosticEvent createLiveFrame(long timestamp, int intValue,
+            float floatValue) {
+        return CarDiagnosticEvent.Builder.newLiveFrameBuilder()
+                .atTimestamp(timestamp)
+                .withIntValue(INT_SENSOR, intValue)
+                .withFloatValue(FLOAT_SENSOR, floatValue)
+                .build();
+    }
+
+    public void testRawQuery() throws Exception {
+        mBuffer.record(createLiveFrame(1000, 80, 0.5f));
+        mBuffer.record(createLiveFrame(2000, 81, 0.25f));
+        mBuffer.record(createLiveFrame(3000, 82, 0.125f));
+
+        LiveFrameHistory history =
+                mBuffer.query(1500, 3000, INT_SENSORS, FLOAT_SENSORS, 0, MAX_VALUES);
+
+        assertFalse(history.isDownsampled());
+        assertEquals(2, history.size());
+        assertEquals(2000, history.getTimestamp(0));
+        assertEquals(3000, history.getTimestamp(1));
+        LiveFrameHistory.Series ints = history.getIntegerSensorSeries(INT_SENSOR);
+        assertEquals(81.0, ints.getAverage(0));
+        assertEquals(82.0, ints.getMin(1));
+        assertEquals(0.25, history.getFloatSensorSeries(FLOAT_SENSOR).getAverage(0));
+        assertNull(history.getFloatSensorSeries(FLOAT_SENSOR + 1));
+    }
+
+    public void testMissingSensor() throws Exception {
+        mBuffer.record(createLiveFrame(1000, 80, 0.5f));
+        mBuffer.record(CarDiagnosticEvent.Builder.newLiveFrameBuilder()
+                .atTimestamp(2000)
+                .withFloatValue(FLOAT_SENSOR, 0.25f)
+                .build());
+
+        LiveFrameHistory history =
+                mBuffer.query(0, Long.MAX_VALUE, new int[] {INT_SENSOR, INT_SENSOR + 1},
+                        NO_SENSORS, 0, MAX_VALUES);
+
+        LiveFrameHistory.Series ints = history.getIntegerSensorSeries(INT_SENSOR);
+        assertTrue(ints.isPresent(0));
+        assertFalse(ints.isPresent(1));
+        assertFalse(history.getIntegerSensorSeries(INT_SENSOR + 1).isPresent(0));
+    }
+
+    public void testDownsampledQuery() throws Exception {
+        mBuffer.record(createLiveFrame(1000, 80, 0.5f));
+        mBuffer.record(createLiveFrame(1500, 90, 0.25f));
+        mBuffer.record(createLiveFrame(3200, 70, 0.125f));
+
+        LiveFrameHistory history =
+                mBuffer.query(1000, 4000, INT_SENSORS, NO_SENSORS, 1000, MAX_VALUES);
+
+        // The bucket starting at 2000 has no frame and is omitted.
+        assertTrue(history.isDownsampled());
+        assertEquals(2, history.size());
+        assertEquals(1000, history.getTimestamp(0));
+        assertEquals(3000, history.getTimestamp(1));
+        LiveFrameHistory.Series ints = history.getIntegerSensorSeries(INT_SENSOR);
+        assertEquals(2, ints.getCount(0));
+        assertEquals(80.0, ints.getMin(0));
+        assertEquals(90.0, ints.getMax(0));
+        assertEquals(85.0, ints.getAverage(0));
+        assertEquals(1, ints.getCount(1));
+        assertEquals(70.0, ints.getAverage(1));
+    }
+
+    public void testOverwritesOldestFrames() throws Exception {
+        for (int i = 1; i <= 20; i++) {
+            mBuffer.record(createLiveFrame(i * 1000, i, 0f));
+        }
+
+        LiveFrameHistory history =
+                mBuffer.query(0, Long.MAX_VALUE, INT_SENSORS, NO_SENSORS, 0, MAX_VALUES);
+
+        assertEquals(mBuffer.getCapacity(), history.size());
+        assertEquals(13000, history.getTimestamp(0));
+        assertEquals(20000, history.getTimestamp(history.size() - 1));
+        assertEquals(13.0, history.getIntegerSensorSeries(INT_SENSOR).getAverage(0));
+    }
+
+    public void testLongGapsBetweenFrames() throws Exception {
+        long gap = 10L * Integer.MAX_VALUE;
+        for (int i = 0; i < 12; i++) {
+            mBuffer.record(createLiveFrame(i * gap + (i % 2), i, 0f));
+        }
+
+        LiveFrameHistory history =
+                mBuffer.query(0, Long.MAX_VALUE, INT_SENSORS, NO_SENSORS, 0, MAX_VALUES);
+
+        assertEquals(8, history.size());
+        for (int row = 0; row < history.size(); row++) {
+            int i = row + 4;
+            assertEquals(i * gap + (i % 2), history.getTimestamp(row));
+        }
+    }
+
+    public void testOutOfOrderFrameIgnored() throws Exception {
+        assertTrue(mBuffer.record(createLiveFrame(2000, 1, 0f)));
+        assertFalse(mBuffer.record(createLiveFrame(1000, 2, 0f)));
+        assertFalse(mBuffer.record(createLiveFrame(2000, 3, 0f)));
+
+        assertEquals(1, mBuffer.size());
+    }
+
+    public void testDownsampledQueryFromMinValue() throws Exception {
+        mBuffer.record(createLiveFrame(1000, 80, 0.5f));
+        mBuffer.record(createLiveFrame(1500, 90, 0.25f));
+        mBuffer.record(createLiveFrame(3200, 70, 0.125f));
+
+        LiveFrameHistory history = mBuffer.query(Long.MIN_VALUE, Long.MAX_VALUE, INT_SENSORS,
+                NO_SENSORS, 1000, MAX_VALUES);
+
+        // The buckets start at the oldest frame.
+        assertEquals(2, history.size());
+        assertEquals(1000, history.getTimestamp(0));
+        assertEquals(3000, history.getTimestamp(1));
+        assertEquals(2, history.getIntegerSensorSeries(INT_SENSOR).getCount(0));
+    }
+
+    public void testMaxColumns() throws Exception {
+        mBuffer = new LiveFrameHistoryBuffer(8, 2);
+        mBuffer.record(CarDiagnosticEvent.Builder.newLiveFrameBuilder()
+                .atTimestamp(1000)
+                .withIntValue(INT_SENSOR, 80)
+                .withIntValue(INT_SENSOR + 1, 81)
+                .withFloatValue(FLOAT_SENSOR, 0.5f)
+                .build());
+        mBuffer.record(createLiveFrame(2000, 82, 0.25f));
+
+        LiveFrameHistory history = mBuffer.query(0, Long.MAX_VALUE,
+                new int[] {INT_SENSOR, INT_SENSOR + 1}, FLOAT_SENSORS, 0, MAX_VALUES);
+
+        assertEquals(2, history.size());
+        assertEquals(82.0, history.getIntegerSensorSeries(INT_SENSOR).getAverage(1));
+        assertEquals(81.0, history.getIntegerSensorSeries(INT_SENSOR + 1).getAverage(0));
+        LiveFrameHistory.Series floats = history.getFloatSensorSeries(FLOAT_SENSOR);
+        assertFalse(floats.isPresent(0));
+        assertFalse(floats.isPresent(1));
+    }
+
+    public void testMaxValues() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            mBuffer.record(createLiveFrame(i * 1000, i, 0f));
+        }
+
+        LiveFrameHistory history =
+                mBuffer.query(0, Long.MAX_VALUE, INT_SENSORS, FLOAT_SENSORS, 0, 6);
+
+        assertEquals(3, history.size());
+        assertEquals(1000, history.getTimestamp(0));
+    }
+}
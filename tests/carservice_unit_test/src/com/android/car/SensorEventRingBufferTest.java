@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.hardware.CarSensorEvent;
+import android.car.hardware.CarSensorManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+@SmallTest
+public class SensorEventRingBufferTest extends AndroidTestCase {
+    private final ArrayList<CarSensorEvent> mDrained = new ArrayList<>();
+
+    public void testCapacityIsRoundedUpToPowerOfTwo() throws Exception {
+        assertEquals(8, new SensorEventRingBuffer(5, false).getCapacity());
+        assertEquals(8, new SensorEventRingBuffer(8, false).getCapacity());
+    }
+
+    public void testDrainKeepsOrder() throws Exception {
+        SensorEventRingBuffer queue = new SensorEventRingBuffer(4, false);
+        CarSensorEvent first = createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, 1);
+        CarSensorEvent second = createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, 2);
+        assertTrue(queue.offer(first));
+        assertTrue(queue.offer(second));
+        assertEquals(2, queue.drainTo(mDrained));
+        assertSame(first, mDrained.get(0));
+        assertSame(second, mDrained.get(1));
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.drainTo(mDrained));
+    }
+
+    public void testOverflowRejectsNewEvents() throws Exception {
+        SensorEventRingBuffer queue = new SensorEventRingBuffer(2, false);
+        assertTrue(queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, 1)));
+        assertTrue(queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, 2)));
+        assertFalse(queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, 3)));
+        assertEquals(1, queue.getOverflowedEvents());
+
+        queue.drainTo(mDrained);
+        assertTrue(queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, 4)));
+    }
+
+    public void testWrapAround() throws Exception {
+        SensorEventRingBuffer queue = new SensorEventRingBuffer(2, false);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, i)));
+            mDrained.clear();
+            assertEquals(1, queue.drainTo(mDrained));
+            assertEquals(i, mDrained.get(0).timestamp);
+        }
+    }
+
+    public void testCompactLatestKeepsLastEventPerSensor() throws Exception {
+        SensorEventRingBuffer queue = new SensorEventRingBuffer(8, true);
+        queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, 1));
+        queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_GEAR, 2));
+        queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, 3));
+        queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_RPM, 4));
+        queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, 5));
+
+        assertEquals(3, queue.drainTo(mDrained));
+        assertEquals(2, queue.getCompactedEvents());
+        assertEquals(2, mDrained.get(0).timestamp);
+        assertEquals(4, mDrained.get(1).timestamp);
+        assertEquals(5, mDrained.get(2).timestamp);
+    }
+
+    public void testCompactLatestKeepsOnChangeEvents() throws Exception {
+        SensorEventRingBuffer queue = new SensorEventRingBuffer(8, true);
+        queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_GEAR, 1));
+        queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, 2));
+        queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_GEAR, 3));
+        queue.offer(createEvent(CarSensorManager.SENSOR_TYPE_CAR_SPEED, 4));
+
+        assertEquals(3, queue.drainTo(mDrained));
+        assertEquals(1, queue.getCompactedEvents());
+        assertEquals(1, mDrained.get(0).timestamp);
+        assertEquals(3, mDrained.get(1).timestamp);
+        assertEquals(4, mDrained.get(2).timestamp);
+    }
+
+    private static CarSensorEvent createEvent(int sensorType, long timestamp) {
+        return new CarSensorEvent(sensorType, timestamp, 1, 0, 0);
+    }
+}
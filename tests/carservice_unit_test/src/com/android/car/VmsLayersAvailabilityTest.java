@@ -263,4 +263,101 @@ public class VmsLayersAvailabilityTest extends AndroidTestCase {
         assertEquals(expectedUnavailableAssociatedLayers,
                 new HashSet<VmsAssociatedLayer>(mLayersAvailability.getUnavailableLayers()));
     }
-}
\ No newline at end of file
+
+    public void testIncrementalOfferingAddsDependentLayers() throws Exception {
+        Object publisher1 = new Object();
+        Object publisher2 = new Object();
+
+        VmsLayersAvailability.AvailabilityChange change =
+                mLayersAvailability.setPublisherOffering(publisher1, new VmsLayersOffering(
+                        new HashSet<>(Arrays.asList(X_DEPENDS_ON_Y, Y_DEPENDS_ON_Z)),
+                        PUBLISHER_ID_1));
+        assertTrue(change.isEmpty());
+
+        change = mLayersAvailability.setPublisherOffering(publisher2, new VmsLayersOffering(
+                new HashSet<>(Arrays.asList(Z_DEPENDS_ON_NOTHING)), PUBLISHER_ID_2));
+
+        Set<VmsAssociatedLayer> expectedAddedLayers = new HashSet<>();
+        expectedAddedLayers.add(new VmsAssociatedLayer(LAYER_X, PUBLISHERS_1));
+        expectedAddedLayers.add(new VmsAssociatedLayer(LAYER_Y, PUBLISHERS_1));
+        expectedAddedLayers.add(new VmsAssociatedLayer(LAYER_Z, PUBLISHERS_2));
+        assertEquals(expectedAddedLayers, change.getAddedLayers());
+        assertTrue(change.getRemovedLayers().isEmpty());
+        assertEquals(expectedAddedLayers, mLayersAvailability.getAvailableLayers());
+    }
+
+    public void testIncrementalOfferingRemovalRemovesDependentLayers() throws Exception {
+        Object publisher1 = new Object();
+        Object publisher2 = new Object();
+        mLayersAvailability.setPublisherOffering(publisher1, new VmsLayersOffering(
+                new HashSet<>(Arrays.asList(X_DEPENDS_ON_Y, Y_DEPENDS_ON_Z)), PUBLISHER_ID_1));
+        mLayersAvailability.setPublisherOffering(publisher2, new VmsLayersOffering(
+                new HashSet<>(Arrays.asList(Z_DEPENDS_ON_NOTHING)), PUBLISHER_ID_2));
+
+        VmsLayersAvailability.AvailabilityChange change =
+                mLayersAvailability.setPublisherOffering(publisher2, null);
+
+        Set<VmsAssociatedLayer> expectedRemovedLayers = new HashSet<>();
+        expectedRemovedLayers.add(new VmsAssociatedLayer(LAYER_X, PUBLISHERS_1));
+        expectedRemovedLayers.add(new VmsAssociatedLayer(LAYER_Y, PUBLISHERS_1));
+        expectedRemovedLayers.add(new VmsAssociatedLayer(LAYER_Z, PUBLISHERS_2));
+        assertEquals(expectedRemovedLayers, change.getRemovedLayers());
+        assertTrue(change.getAddedLayers().isEmpty());
+        assertTrue(mLayersAvailability.getAvailableLayers().isEmpty());
+
+        Set<VmsAssociatedLayer> expectedUnavailableLayers = new HashSet<>();
+        expectedUnavailableLayers.add(new VmsAssociatedLayer(LAYER_X, PUBLISHERS_1));
+        expectedUnavailableLayers.add(new VmsAssociatedLayer(LAYER_Y, PUBLISHERS_1));
+        assertEquals(expectedUnavailableLayers, mLayersAvailability.getUnavailableLayers());
+    }
+
+    public void testIncrementalOfferingChangesPublishers() throws Exception {
+        Object publisher1 = new Object();
+        Object publisher2 = new Object();
+        mLayersAvailability.setPublisherOffering(publisher1, new VmsLayersOffering(
+                new HashSet<>(Arrays.asList(Z_DEPENDS_ON_NOTHING)), PUBLISHER_ID_1));
+
+        VmsLayersAvailability.AvailabilityChange change =
+                mLayersAvailability.setPublisherOffering(publisher2, new VmsLayersOffering(
+                        new HashSet<>(Arrays.asList(Z_DEPENDS_ON_NOTHING)), PUBLISHER_ID_2));
+
+        assertEquals(Collections.singleton(new VmsAssociatedLayer(LAYER_Z, PUBLISHERS_1)),
+                change.getRemovedLayers());
+        assertEquals(Collections.singleton(new VmsAssociatedLayer(LAYER_Z, PUBLISHERS_1_AND_2)),
+                change.getAddedLayers());
+    }
+
+    public void testIncrementalOfferingUnchanged() throws Exception {
+        Object publisher = new Object();
+        VmsLayersOffering offering = new VmsLayersOffering(
+                new HashSet<>(Arrays.asList(X_DEPENDS_ON_Z, Z_DEPENDS_ON_NOTHING)),
+                PUBLISHER_ID_1);
+        assertFalse(mLayersAvailability.setPublisherOffering(publisher, offering).isEmpty());
+        assertTrue(mLayersAvailability.setPublisherOffering(publisher, offering).isEmpty());
+        assertEquals(2, mLayersAvailability.getAvailableLayers().size());
+    }
+
+    public void testIncrementalOfferingBreaksCycle() throws Exception {
+        Object publisher1 = new Object();
+        Object publisher2 = new Object();
+        mLayersAvailability.setPublisherOffering(publisher1, new VmsLayersOffering(
+                new HashSet<>(Arrays.asList(X_DEPENDS_ON_Y, Y_DEPENDS_ON_X)), PUBLISHER_ID_1));
+        assertTrue(mLayersAvailability.getAvailableLayers().isEmpty());
+
+        // Y is also available on its own, which makes X available as well.
+        VmsLayersAvailability.AvailabilityChange change =
+                mLayersAvailability.setPublisherOffering(publisher2, new VmsLayersOffering(
+                        new HashSet<>(Arrays.asList(new VmsLayerDependency(LAYER_Y))),
+                        PUBLISHER_ID_2));
+
+        Set<VmsAssociatedLayer> expectedAddedLayers = new HashSet<>();
+        expectedAddedLayers.add(new VmsAssociatedLayer(LAYER_X, PUBLISHERS_1));
+        expectedAddedLayers.add(new VmsAssociatedLayer(LAYER_Y, PUBLISHERS_1_AND_2));
+        assertEquals(expectedAddedLayers, change.getAddedLayers());
+
+        // Removing it makes both unavailable again.
+        change = mLayersAvailability.setPublisherOffering(publisher2, null);
+        assertEquals(expectedAddedLayers, change.getRemovedLayers());
+        assertTrue(mLayersAvailability.getAvailableLayers().isEmpty());
+    }
+}
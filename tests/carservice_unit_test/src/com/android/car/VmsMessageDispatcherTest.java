@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.vms.IVmsSubscriberClient;
+import android.car.vms.VmsAssociatedLayer;
+import android.car.vms.VmsLayer;
+import android.car.vms.VmsMessageBatch;
+import android.car.vms.VmsSharedPayload;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the overflow policies and batching of {@link VmsMessageDispatcher}.
+ */
+@SmallTest
+public class VmsMessageDispatcherTest extends AndroidTestCase {
+    private static final VmsLayer LAYER_A = new VmsLayer(1, 1, 1);
+    private static final VmsLayer LAYER_B = new VmsLayer(2, 1, 1);
+    private static final int QUEUE_SIZE = 2;
+    private static final long TIMEOUT_MS = 5000;
+
+    public void testDropOldest() throws Exception {
+        assertEquals(Arrays.asList(0, 2, 3), deliverWithOverflow(
+                VmsMessageDispatcher.OVERFLOW_DROP_OLDEST, LAYER_A, LAYER_A, LAYER_A));
+    }
+
+    public void testDropNewest() throws Exception {
+        assertEquals(Arrays.asList(0, 1, 2), deliverWithOverflow(
+                VmsMessageDispatcher.OVERFLOW_DROP_NEWEST, LAYER_A, LAYER_A, LAYER_A));
+    }
+
+    public void testKeepLatestPerLayer() throws Exception {
+        assertEquals(Arrays.asList(0, 1, 3), deliverWithOverflow(
+                VmsMessageDispatcher.OVERFLOW_KEEP_LATEST_PER_LAYER, LAYER_B, LAYER_A, LAYER_A));
+    }
+
+    public void testQueuedMessagesDeliveredInBatch() throws Exception {
+        VmsMessageDispatcher dispatcher = new VmsMessageDispatcher(QUEUE_SIZE,
+                VmsMessageDispatcher.OVERFLOW_DROP_OLDEST, new VmsSharedPayloadTracker(),
+                new VmsTrafficMetrics());
+        BlockingSubscriber subscriber = new BlockingSubscriber(4);
+
+        dispatcher.dispatch(subscriber, LAYER_A, new byte[] {0});
+        assertTrue(subscriber.mBlocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        dispatcher.dispatch(subscriber, Arrays.asList(LAYER_A, LAYER_B),
+                Arrays.asList(new byte[] {1}, new byte[] {2}));
+        subscriber.mUnblock.countDown();
+
+        assertTrue(subscriber.mDelivered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        synchronized (subscriber) {
+            assertEquals(Arrays.asList(0, 1, 2), subscriber.mMessages);
+            assertEquals(1, subscriber.mBatches);
+        }
+    }
+
+    public void testBatchesCappedByPayloadSize() throws Exception {
+        VmsMessageDispatcher dispatcher = new VmsMessageDispatcher(8,
+                VmsMessageDispatcher.OVERFLOW_DROP_OLDEST, new VmsSharedPayloadTracker(),
+                new VmsTrafficMetrics());
+        BlockingSubscriber subscriber = new BlockingSubscriber(7);
+
+        dispatcher.dispatch(subscriber, LAYER_A, new byte[] {0});
+        assertTrue(subscriber.mBlocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        int[] sizes = {30 * 1024, 30 * 1024, 30 * 1024, 30 * 1024, 100 * 1024};
+        for (int i = 0; i < sizes.length; i++) {
+            byte[] payload = new byte[sizes[i]];
+            payload[0] = (byte) (i + 1);
+            dispatcher.dispatch(subscriber, LAYER_A, payload);
+        }
+        subscriber.mUnblock.countDown();
+
+        assertTrue(subscriber.mDelivered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        synchronized (subscriber) {
+            assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), subscriber.mMessages);
+            // Two messages fit in a batch, the large one goes alone.
+            assertEquals(2, subscriber.mBatches);
+        }
+    }
+
+    public void testParseOverflowPolicy() throws Exception {
+        for (int policy : new int[] {
+                VmsMessageDispatcher.OVERFLOW_DROP_OLDEST,
+                VmsMessageDispatcher.OVERFLOW_DROP_NEWEST,
+                VmsMessageDispatcher.OVERFLOW_KEEP_LATEST_PER_LAYER}) {
+            assertEquals(policy, VmsMessageDispatcher.parseOverflowPolicy(
+                    VmsMessageDispatcher.overflowPolicyToString(policy)));
+        }
+        assertEquals(VmsMessageDispatcher.OVERFLOW_DROP_OLDEST,
+                VmsMessageDispatcher.parseOverflowPolicy("invalid"));
+    }
+
+    /**
+     * Sends message 0 and blocks the subscriber while it receives it, then sends a message for
+     * each of the given layers, one more than fit into the queue.
+     *
+     * @return the numbers of the delivered messages.
+     */
+    private List<Integer> deliverWithOverflow(int policy, VmsLayer... layers) throws Exception {
+        VmsMessageDispatcher dispatcher = new VmsMessageDispatcher(QUEUE_SIZE, policy,
+                new VmsSharedPayloadTracker(), new VmsTrafficMetrics());
+        BlockingSubscriber subscriber = new BlockingSubscriber(layers.length + 1);
+
+        dispatcher.dispatch(subscriber, LAYER_A, new byte[] {0});
+        assertTrue(subscriber.mBlocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < layers.length; i++) {
+            dispatcher.dispatch(subscriber, layers[i], new byte[] {(byte) (i + 1)});
+        }
+        subscriber.mUnblock.countDown();
+
+        assertTrue(subscriber.mDelivered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        synchronized (subscriber) {
+            return new ArrayList<>(subscriber.mMessages);
+        }
+    }
+
+    private static class BlockingSubscriber extends IVmsSubscriberClient.Stub {
+        final CountDownLatch mBlocked = new CountDownLatch(1);
+        final CountDownLatch mUnblock = new CountDownLatch(1);
+        // Counted down for every message, the last message is dropped.
+        final CountDownLatch mDelivered;
+        final List<Integer> mMessages = new ArrayList<>();
+        int mBatches;
+
+        BlockingSubscriber(int messages) {
+            mDelivered = new CountDownLatch(messages - 1);
+        }
+
+        @Override
+        public void onVmsMessageReceived(VmsLayer layer, byte[] payload) {
+            synchronized (this) {
+                mMessages.add((int) payload[0]);
+            }
+            if (payload[0] == 0) {
+                mBlocked.countDown();
+                try {
+                    mUnblock.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mDelivered.countDown();
+        }
+
+        @Override
+        public void onLayersAvailabilityChanged(List<VmsAssociatedLayer> availableLayers) {
+        }
+
+        @Override
+        public void onVmsSharedMessageReceived(VmsLayer layer, VmsSharedPayload payload) {
+        }
+
+        @Override
+        public void onVmsMessagesReceived(VmsMessageBatch batch) {
+            synchronized (this) {
+                mBatches++;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                onVmsMessageReceived(batch.getLayer(i), batch.getPayload(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.vms.VmsLayer;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.SparseArray;
+
+/**
+ * Unit tests for the limits and eviction of {@link VmsRetainedMessages}.
+ */
+@SmallTest
+public class VmsRetainedMessagesTest extends AndroidTestCase {
+    private static final VmsLayer LAYER_A = new VmsLayer(1, 1, 1);
+    private static final VmsLayer LAYER_B = new VmsLayer(2, 1, 1);
+    private static final int PUBLISHER_ID_1 = 12;
+    private static final int PUBLISHER_ID_2 = 34;
+
+    private VmsRetainedMessages mMessages;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMessages = new VmsRetainedMessages();
+    }
+
+    public void testDisabledByDefault() throws Exception {
+        mMessages.retain(LAYER_A, PUBLISHER_ID_1, new byte[] {1});
+        assertNull(mMessages.get(LAYER_A, PUBLISHER_ID_1));
+        assertEquals(0, mMessages.get(LAYER_A).size());
+    }
+
+    public void testKeepsLatestMessagePerPublisher() throws Exception {
+        mMessages.setLimits(10, 100);
+        mMessages.retain(LAYER_A, PUBLISHER_ID_1, new byte[] {1});
+        mMessages.retain(LAYER_A, PUBLISHER_ID_1, new byte[] {2});
+        mMessages.retain(LAYER_A, PUBLISHER_ID_2, new byte[] {3});
+        mMessages.retain(LAYER_B, PUBLISHER_ID_1, new byte[] {4});
+
+        assertEquals(2, mMessages.get(LAYER_A, PUBLISHER_ID_1)[0]);
+        SparseArray<byte[]> layerMessages = mMessages.get(LAYER_A);
+        assertEquals(2, layerMessages.size());
+        assertEquals(2, layerMessages.get(PUBLISHER_ID_1)[0]);
+        assertEquals(3, layerMessages.get(PUBLISHER_ID_2)[0]);
+    }
+
+    public void testEvictsLeastRecentlyUsedMessage() throws Exception {
+        mMessages.setLimits(2, 100);
+        mMessages.retain(LAYER_A, PUBLISHER_ID_1, new byte[] {1});
+        mMessages.retain(LAYER_B, PUBLISHER_ID_1, new byte[] {2});
+        // Reading the message of layer A makes the one of layer B the least recently used.
+        assertNotNull(mMessages.get(LAYER_A, PUBLISHER_ID_1));
+        mMessages.retain(LAYER_A, PUBLISHER_ID_2, new byte[] {3});
+
+        assertNotNull(mMessages.get(LAYER_A, PUBLISHER_ID_1));
+        assertNull(mMessages.get(LAYER_B, PUBLISHER_ID_1));
+        assertNotNull(mMessages.get(LAYER_A, PUBLISHER_ID_2));
+    }
+
+    public void testEvictsToFitTotalSize() throws Exception {
+        mMessages.setLimits(10, 10);
+        mMessages.retain(LAYER_A, PUBLISHER_ID_1, new byte[6]);
+        mMessages.retain(LAYER_B, PUBLISHER_ID_1, new byte[6]);
+
+        assertNull(mMessages.get(LAYER_A, PUBLISHER_ID_1));
+        assertNotNull(mMessages.get(LAYER_B, PUBLISHER_ID_1));
+    }
+
+    public void testTooLargeMessageRemovesPreviousMessage() throws Exception {
+        mMessages.setLimits(10, 10);
+        mMessages.retain(LAYER_A, PUBLISHER_ID_1, new byte[1]);
+        mMessages.retain(LAYER_B, PUBLISHER_ID_1, new byte[1]);
+        mMessages.retain(LAYER_A, PUBLISHER_ID_1, new byte[11]);
+
+        assertNull(mMessages.get(LAYER_A, PUBLISHER_ID_1));
+        assertNotNull(mMessages.get(LAYER_B, PUBLISHER_ID_1));
+    }
+
+    public void testRemovePublisher() throws Exception {
+        mMessages.setLimits(10, 10);
+        mMessages.retain(LAYER_A, PUBLISHER_ID_1, new byte[4]);
+        mMessages.retain(LAYER_B, PUBLISHER_ID_1, new byte[4]);
+        mMessages.retain(LAYER_A, PUBLISHER_ID_2, new byte[1]);
+        mMessages.remove(PUBLISHER_ID_1);
+
+        assertNull(mMessages.get(LAYER_A, PUBLISHER_ID_1));
+        assertNull(mMessages.get(LAYER_B, PUBLISHER_ID_1));
+        assertNotNull(mMessages.get(LAYER_A, PUBLISHER_ID_2));
+        // The removed messages no longer count towards the size limit.
+        mMessages.retain(LAYER_B, PUBLISHER_ID_2, new byte[9]);
+        assertNotNull(mMessages.get(LAYER_A, PUBLISHER_ID_2));
+    }
+
+    public void testDisablingClearsMessages() throws Exception {
+        mMessages.setLimits(10, 10);
+        mMessages.retain(LAYER_A, PUBLISHER_ID_1, new byte[1]);
+        mMessages.setLimits(0, 10);
+        mMessages.setLimits(10, 10);
+        assertNull(mMessages.get(LAYER_A, PUBLISHER_ID_1));
+    }
+}
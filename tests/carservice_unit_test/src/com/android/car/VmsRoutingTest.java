@@ -19,6 +19,8 @@ package com.android.car;
 import android.car.vms.IVmsSubscriberClient;
 import android.car.vms.VmsAssociatedLayer;
 import android.car.vms.VmsLayer;
+import android.car.vms.VmsMessageBatch;
+import android.car.vms.VmsSharedPayload;
 import android.car.vms.VmsSubscriptionState;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
@@ -297,6 +299,47 @@ public class VmsRoutingTest extends AndroidTestCase {
                         LAYER_WITH_SUBSCRIPTION_1, PUBLISHER_ID_1).size());
     }
 
+    public void testRoutedSubscribersMergeAllSubscriptionTypes() throws Exception {
+        MockVmsSubscriber subscriber = new MockVmsSubscriber();
+        MockVmsSubscriber publisherSubscriber = new MockVmsSubscriber();
+        MockVmsSubscriber promiscuousSubscriber = new MockVmsSubscriber();
+        mRouting.addSubscription(subscriber, LAYER_WITH_SUBSCRIPTION_1);
+        mRouting.addSubscription(subscriber, LAYER_WITH_SUBSCRIPTION_1, PUBLISHER_ID_1);
+        mRouting.addSubscription(publisherSubscriber, LAYER_WITH_SUBSCRIPTION_1, PUBLISHER_ID_1);
+        mRouting.addSubscription(promiscuousSubscriber);
+
+        assertEquals(new HashSet<>(Arrays.asList(
+                        subscriber, publisherSubscriber, promiscuousSubscriber)),
+                new HashSet<>(Arrays.asList(
+                        mRouting.getRoutedSubscribers(LAYER_WITH_SUBSCRIPTION_1, PUBLISHER_ID_1))));
+        assertEquals(3,
+                mRouting.getRoutedSubscribers(LAYER_WITH_SUBSCRIPTION_1, PUBLISHER_ID_1).length);
+        assertEquals(new HashSet<>(Arrays.asList(subscriber, promiscuousSubscriber)),
+                new HashSet<>(Arrays.asList(
+                        mRouting.getRoutedSubscribers(LAYER_WITH_SUBSCRIPTION_1, PUBLISHER_ID_2))));
+        assertEquals(Arrays.asList(promiscuousSubscriber),
+                Arrays.asList(mRouting.getRoutedSubscribers(
+                        LAYER_WITHOUT_SUBSCRIPTION, PUBLISHER_ID_UNLISTED)));
+    }
+
+    public void testRoutedSubscribersReusedUntilSubscriptionsChange() throws Exception {
+        MockVmsSubscriber subscriber = new MockVmsSubscriber();
+        mRouting.addSubscription(subscriber, LAYER_WITH_SUBSCRIPTION_1);
+
+        IVmsSubscriberClient[] subscribers =
+                mRouting.getRoutedSubscribers(LAYER_WITH_SUBSCRIPTION_1, PUBLISHER_ID_1);
+        assertSame(subscribers,
+                mRouting.getRoutedSubscribers(LAYER_WITH_SUBSCRIPTION_1, PUBLISHER_ID_1));
+
+        mRouting.removeSubscription(subscriber, LAYER_WITH_SUBSCRIPTION_1);
+        assertEquals(0,
+                mRouting.getRoutedSubscribers(LAYER_WITH_SUBSCRIPTION_1, PUBLISHER_ID_1).length);
+        assertFalse(mRouting.isHalSubscribed(LAYER_WITH_SUBSCRIPTION_1));
+
+        mRouting.addHalSubscription(LAYER_WITH_SUBSCRIPTION_1);
+        assertTrue(mRouting.isHalSubscribed(LAYER_WITH_SUBSCRIPTION_1));
+    }
+
     class MockVmsSubscriber extends IVmsSubscriberClient.Stub {
         @Override
         public void onVmsMessageReceived(VmsLayer layer, byte[] payload) {
@@ -305,5 +348,13 @@ public class VmsRoutingTest extends AndroidTestCase {
         @Override
         public void onLayersAvailabilityChanged(List<VmsAssociatedLayer> availableLayers) {
         }
+
+        @Override
+        public void onVmsSharedMessageReceived(VmsLayer layer, VmsSharedPayload payload) {
+        }
+
+        @Override
+        public void onVmsMessagesReceived(VmsMessageBatch batch) {
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.car.vms.IVmsPublisherClient;
+import android.car.vms.VmsSharedPayload;
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Unit tests for the reference counting of {@link VmsSharedPayloadTracker}.
+ */
+@SmallTest
+public class VmsSharedPayloadTrackerTest extends AndroidTestCase {
+    private static final long PAYLOAD_ID = 42;
+
+    private VmsSharedPayloadTracker mTracker;
+    private IVmsPublisherClient mPublisher;
+    private final IBinder mSubscriber1 = new Binder();
+    private final IBinder mSubscriber2 = new Binder();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTracker = new VmsSharedPayloadTracker();
+        mPublisher = mock(IVmsPublisherClient.class);
+    }
+
+    public void testEnableSharedPayloads() throws Exception {
+        assertFalse(mTracker.isSharedPayloadsEnabled(mSubscriber1));
+        mTracker.setSharedPayloadsEnabled(mSubscriber1, true);
+        assertTrue(mTracker.isSharedPayloadsEnabled(mSubscriber1));
+        assertFalse(mTracker.isSharedPayloadsEnabled(mSubscriber2));
+        mTracker.setSharedPayloadsEnabled(mSubscriber1, false);
+        assertFalse(mTracker.isSharedPayloadsEnabled(mSubscriber1));
+    }
+
+    public void testReleasedWithoutReceivers() throws Exception {
+        VmsSharedPayloadTracker.Delivery delivery =
+                mTracker.startDelivery(mPublisher, createPayload());
+        mTracker.finishDelivery(delivery);
+        verify(mPublisher).onSharedPayloadReleased(PAYLOAD_ID);
+    }
+
+    public void testReleasedOnceAllReceiversReleased() throws Exception {
+        VmsSharedPayloadTracker.Delivery delivery =
+                mTracker.startDelivery(mPublisher, createPayload());
+        long deliveryId = delivery.getSubscriberPayload().getId();
+        mTracker.addReceiver(delivery, mSubscriber1);
+        mTracker.addReceiver(delivery, mSubscriber2);
+
+        // Released by a receiver while still being sent to others.
+        mTracker.release(mSubscriber1, deliveryId);
+        mTracker.finishDelivery(delivery);
+        verify(mPublisher, never()).onSharedPayloadReleased(anyLong());
+
+        // Releasing twice does not count.
+        mTracker.release(mSubscriber1, deliveryId);
+        verify(mPublisher, never()).onSharedPayloadReleased(anyLong());
+
+        mTracker.release(mSubscriber2, deliveryId);
+        verify(mPublisher).onSharedPayloadReleased(PAYLOAD_ID);
+    }
+
+    public void testReleasedWhenReceiverDies() throws Exception {
+        mTracker.setSharedPayloadsEnabled(mSubscriber1, true);
+        VmsSharedPayloadTracker.Delivery delivery =
+                mTracker.startDelivery(mPublisher, createPayload());
+        mTracker.addReceiver(delivery, mSubscriber1);
+        mTracker.finishDelivery(delivery);
+        verify(mPublisher, never()).onSharedPayloadReleased(anyLong());
+
+        mTracker.removeSubscriber(mSubscriber1);
+        verify(mPublisher).onSharedPayloadReleased(PAYLOAD_ID);
+        assertFalse(mTracker.isSharedPayloadsEnabled(mSubscriber1));
+    }
+
+    public void testInProcessPayloadNotClosed() throws Exception {
+        VmsSharedPayload payload = createPayload();
+        VmsSharedPayloadTracker.Delivery delivery = mTracker.startDelivery(mPublisher, payload);
+        mTracker.addReceiver(delivery, mSubscriber1);
+        VmsSharedPayload subscriberPayload = delivery.getSubscriberPayload();
+        mTracker.finishDelivery(delivery);
+
+        // Neither the in-process receiver nor the release close the publisher's descriptor.
+        subscriberPayload.close();
+        mTracker.release(mSubscriber1, subscriberPayload.getId());
+        verify(mPublisher).onSharedPayloadReleased(PAYLOAD_ID);
+        assertTrue(payload.getFileDescriptor().getFileDescriptor().valid());
+    }
+
+    private static VmsSharedPayload createPayload() throws Exception {
+        ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        pipe[1].close();
+        return new VmsSharedPayload(PAYLOAD_ID, 128, pipe[0]);
+    }
+}
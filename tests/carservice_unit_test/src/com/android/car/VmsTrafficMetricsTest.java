@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import android.car.vms.VmsLayer;
+import android.car.vms.VmsLayerTrafficStats;
+import android.car.vms.VmsPublisherTrafficStats;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the counters of {@link VmsTrafficMetrics}.
+ */
+@SmallTest
+public class VmsTrafficMetricsTest extends AndroidTestCase {
+    private static final VmsLayer LAYER_A = new VmsLayer(1, 1, 1);
+    private static final VmsLayer LAYER_B = new VmsLayer(2, 1, 1);
+    private static final int PUBLISHER_ID_1 = 12;
+    private static final int PUBLISHER_ID_2 = 34;
+
+    private VmsTrafficMetrics mMetrics;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMetrics = new VmsTrafficMetrics();
+    }
+
+    public void testLayerCounters() throws Exception {
+        mMetrics.recordPublished(LAYER_A, PUBLISHER_ID_1, 10, 2);
+        mMetrics.recordPublished(LAYER_A, PUBLISHER_ID_2, 20, 1);
+        mMetrics.recordPublished(LAYER_B, PUBLISHER_ID_1, 5, 0);
+        mMetrics.recordDelivered(LAYER_A, 0);
+        mMetrics.recordDropped(LAYER_A);
+        mMetrics.recordFailed(LAYER_A);
+
+        VmsLayerTrafficStats stats = getLayerStats(LAYER_A);
+        assertEquals(2, stats.getMessages());
+        assertEquals(30, stats.getBytes());
+        assertEquals(3, stats.getFanOut());
+        assertEquals(1.5, stats.getAverageFanOut());
+        assertEquals(1, stats.getDelivered());
+        assertEquals(1, stats.getDropped());
+        assertEquals(1, stats.getFailed());
+        assertEquals(1, getLayerStats(LAYER_B).getMessages());
+    }
+
+    public void testPublisherCounters() throws Exception {
+        mMetrics.recordPublished(LAYER_A, PUBLISHER_ID_1, 10, 2);
+        mMetrics.recordPublished(LAYER_B, PUBLISHER_ID_1, 5, 1);
+        mMetrics.recordPublished(LAYER_B, -1, 7, 1);
+
+        List<VmsPublisherTrafficStats> stats = mMetrics.getPublisherStats();
+        assertEquals(1, stats.size());
+        assertEquals(PUBLISHER_ID_1, stats.get(0).getPublisherId());
+        assertEquals(2, stats.get(0).getMessages());
+        assertEquals(15, stats.get(0).getBytes());
+        assertEquals(3, stats.get(0).getFanOut());
+    }
+
+    public void testLatencyHistogram() throws Exception {
+        long[] bounds = VmsLayerTrafficStats.LATENCY_BUCKET_BOUNDS_MS;
+        mMetrics.recordDelivered(LAYER_A, 0);
+        mMetrics.recordDelivered(LAYER_A, TimeUnit.MILLISECONDS.toNanos(bounds[0]));
+        mMetrics.recordDelivered(LAYER_A, TimeUnit.MILLISECONDS.toNanos(bounds[0]) + 1);
+        mMetrics.recordDelivered(LAYER_A,
+                TimeUnit.MILLISECONDS.toNanos(bounds[bounds.length - 1]));
+
+        long[] histogram = getLayerStats(LAYER_A).getLatencyHistogram();
+        assertEquals(bounds.length + 1, histogram.length);
+        assertEquals(1, histogram[0]);
+        assertEquals(2, histogram[1]);
+        assertEquals(1, histogram[bounds.length]);
+    }
+
+    private VmsLayerTrafficStats getLayerStats(VmsLayer layer) {
+        for (VmsLayerTrafficStats stats : mMetrics.getLayerStats()) {
+            if (stats.getLayer().equals(layer)) {
+                return stats;
+            }
+        }
+        fail("No stats for " + layer);
+        return null;
+    }
+}
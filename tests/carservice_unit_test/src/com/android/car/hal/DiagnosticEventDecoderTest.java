@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.hal;
+
+import android.car.diagnostic.CarDiagnosticEvent;
+import android.car.diagnostic.FloatSensorIndex;
+import android.car.diagnostic.IntegerSensorIndex;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+@SmallTest
+public class DiagnosticEventDecoderTest extends AndroidTestCase {
+    private static final int NUM_VENDOR_INTEGER_SENSORS = 1;
+    private static final int NUM_VENDOR_FLOAT_SENSORS = 2;
+
+    private DiagnosticEventDecoder mLiveFrameDecoder;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLiveFrameDecoder = DiagnosticEventDecoder.create(createConfig(
+                VehicleProperty.OBD2_LIVE_FRAME,
+                NUM_VENDOR_INTEGER_SENSORS, NUM_VENDOR_FLOAT_SENSORS));
+    }
+
+    public void testSensorCounts() throws Exception {
+        assertEquals(VehicleProperty.OBD2_LIVE_FRAME, mLiveFrameDecoder.getProperty());
+        assertEquals(IntegerSensorIndex.VENDOR_START + NUM_VENDOR_INTEGER_SENSORS,
+                mLiveFrameDecoder.getNumIntegerSensors());
+        assertEquals(FloatSensorIndex.VENDOR_START + NUM_VENDOR_FLOAT_SENSORS,
+                mLiveFrameDecoder.getNumFloatSensors());
+    }
+
+    public void testMissingVendorSensorCounts() throws Exception {
+        DiagnosticEventDecoder decoder =
+                DiagnosticEventDecoder.create(createConfig(VehicleProperty.OBD2_LIVE_FRAME));
+
+        assertEquals(IntegerSensorIndex.VENDOR_START, decoder.getNumIntegerSensors());
+        assertEquals(FloatSensorIndex.VENDOR_START, decoder.getNumFloatSensors());
+    }
+
+    public void testDecodeLiveFrame() throws Exception {
+        VehiclePropValue value = new FrameBuilder(mLiveFrameDecoder, 1234)
+                .addIntSensor(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 30)
+                .addIntSensor(IntegerSensorIndex.VENDOR_START, -5)
+                .addFloatSensor(FloatSensorIndex.ENGINE_RPM, 2000f)
+                .addFloatSensor(FloatSensorIndex.VENDOR_START + 1, 0.25f)
+                .build();
+
+        CarDiagnosticEvent event = mLiveFrameDecoder.decode(value);
+
+        assertTrue(event.isLiveFrame());
+        assertEquals(1234, event.timestamp);
+        assertEquals(CarDiagnosticEvent.Builder.newLiveFrameBuilder()
+                .atTimestamp(1234)
+                .withIntValue(IntegerSensorIndex.AMBIENT_AIR_TEMPERATURE, 30)
+                .withIntValue(IntegerSensorIndex.VENDOR_START, -5)
+                .withFloatValue(FloatSensorIndex.ENGINE_RPM, 2000f)
+                .withFloatValue(FloatSensorIndex.VENDOR_START + 1, 0.25f)
+                .withDtc(value.value.stringValue)
+                .build(), event);
+        assertNull(event.getSystemIntegerSensor(IntegerSensorIndex.FUEL_SYSTEM_STATUS));
+        assertNull(event.getVendorFloatSensor(FloatSensorIndex.VENDOR_START));
+    }
+
+    public void testDecodeFreezeFrame() throws Exception {
+        DiagnosticEventDecoder decoder = DiagnosticEventDecoder.create(createConfig(
+                VehicleProperty.OBD2_FREEZE_FRAME, 0, 0));
+        VehiclePropValue value = new FrameBuilder(decoder, 5678)
+                .addFloatSensor(FloatSensorIndex.VEHICLE_SPEED, 12.5f)
+                .build();
+        value.value.stringValue = "P0010";
+
+        CarDiagnosticEvent event = decoder.decode(value);
+
+        assertTrue(event.isFreezeFrame());
+        assertEquals("P0010", event.dtc);
+        assertEquals(12.5f, event.getSystemFloatSensor(FloatSensorIndex.VEHICLE_SPEED, 0f));
+    }
+
+    public void testDecodeEmptyFrame() throws Exception {
+        CarDiagnosticEvent event =
+                mLiveFrameDecoder.decode(new FrameBuilder(mLiveFrameDecoder, 0).build());
+
+        assertTrue(event.isEmptyFrame());
+    }
+
+    private static VehiclePropConfig createConfig(int property, Integer... configArray) {
+        VehiclePropConfig config = new VehiclePropConfig();
+        config.prop = property;
+        config.configArray.addAll(Arrays.asList(configArray));
+        return config;
+    }
+
+    /** Lays out a frame the way the vehicle HAL does: every sensor, plus a presence bitmap. */
+    private static class FrameBuilder {
+        private final VehiclePropValue mValue = new VehiclePropValue();
+        private final int mNumIntegerSensors;
+        private final BitSet mBitmap = new BitSet();
+
+        FrameBuilder(DiagnosticEventDecoder decoder, long timestamp) {
+            mValue.prop = decoder.getProperty();
+            mValue.timestamp = timestamp;
+            mNumIntegerSensors = decoder.getNumIntegerSensors();
+            for (int i = 0; i < decoder.getNumIntegerSensors(); i++) {
+                mValue.value.int32Values.add(0);
+            }
+            for (int i = 0; i < decoder.getNumFloatSensors(); i++) {
+                mValue.value.floatValues.add(0f);
+            }
+        }
+
+        FrameBuilder addIntSensor(int index, int value) {
+            mValue.value.int32Values.set(index, value);
+            mBitmap.set(index);
+            return this;
+        }
+
+        FrameBuilder addFloatSensor(int index, float value) {
+            mValue.value.floatValues.set(index, value);
+            mBitmap.set(mNumIntegerSensors + index);
+            return this;
+        }
+
+        VehiclePropValue build() {
+            for (byte b : mBitmap.toByteArray()) {
+                mValue.value.bytes.add(b);
+            }
+            return mValue;
+        }
+    }
+}
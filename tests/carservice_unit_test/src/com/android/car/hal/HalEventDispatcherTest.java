@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.hal;
+
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the overflow policies of {@link HalEventDispatcher}.
+ */
+@SmallTest
+public class HalEventDispatcherTest extends AndroidTestCase {
+    private static final int PROP_1 = 0x1234;
+    private static final int PROP_2 = 0x5678;
+    private static final long TIMEOUT_MS = 5000;
+    private static final long BLOCKED_WAIT_MS = 100;
+
+    private BlockingService mService;
+    private HalEventDispatcher mDispatcher;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mService != null) {
+            mService.mUnblock.countDown();
+        }
+        if (mDispatcher != null) {
+            mDispatcher.release();
+        }
+        super.tearDown();
+    }
+
+    public void testDropOldest() throws Exception {
+        startBlocked(HalEventDispatcher.POLICY_DROP_OLDEST, 2, 3);
+        mDispatcher.enqueue(createValue(PROP_1, 1));
+        mDispatcher.enqueue(createValue(PROP_1, 2));
+        mDispatcher.enqueue(createValue(PROP_1, 3));
+
+        assertEquals(Arrays.asList(0L, 2L, 3L), unblockAndGetReceived());
+    }
+
+    public void testCoalesce() throws Exception {
+        startBlocked(HalEventDispatcher.POLICY_COALESCE, 2, 3);
+        mDispatcher.enqueue(createValue(PROP_1, 1));
+        mDispatcher.enqueue(createValue(PROP_2, 2));
+        // Replaces the queued event of the same property in place.
+        mDispatcher.enqueue(createValue(PROP_1, 3));
+
+        assertEquals(Arrays.asList(0L, 3L, 2L), unblockAndGetReceived());
+    }
+
+    public void testBlock() throws Exception {
+        startBlocked(HalEventDispatcher.POLICY_BLOCK, 1, 3);
+        mDispatcher.enqueue(createValue(PROP_1, 1));
+        Thread producer = new Thread(() -> mDispatcher.enqueue(createValue(PROP_1, 2)));
+        producer.start();
+        producer.join(BLOCKED_WAIT_MS);
+        assertTrue(producer.isAlive());
+
+        assertEquals(Arrays.asList(0L, 1L, 2L), unblockAndGetReceived());
+        producer.join(TIMEOUT_MS);
+        assertFalse(producer.isAlive());
+    }
+
+    public void testReleaseWakesBlockedProducer() throws Exception {
+        startBlocked(HalEventDispatcher.POLICY_BLOCK, 1, 2);
+        mDispatcher.enqueue(createValue(PROP_1, 1));
+        Thread producer = new Thread(() -> mDispatcher.enqueue(createValue(PROP_1, 2)));
+        producer.start();
+        producer.join(BLOCKED_WAIT_MS);
+        assertTrue(producer.isAlive());
+
+        mDispatcher.release();
+        producer.join(TIMEOUT_MS);
+        assertFalse(producer.isAlive());
+    }
+
+    /**
+     * Creates a dispatcher and sends it an event with timestamp 0, which blocks the service until
+     * {@link #unblockAndGetReceived()}.
+     */
+    private void startBlocked(int policy, int capacity, int expectedEvents) throws Exception {
+        mService = new BlockingService(expectedEvents);
+        mDispatcher = new HalEventDispatcher(mService,
+                new HalEventDispatcher.Config("TEST", capacity, policy));
+        mDispatcher.enqueue(createValue(PROP_1, 0));
+        assertTrue(mService.mBlocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /** Returns the timestamps of the events received, in order. */
+    private List<Long> unblockAndGetReceived() throws Exception {
+        mService.mUnblock.countDown();
+        assertTrue(mService.mReceived.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        synchronized (mService) {
+            return new ArrayList<>(mService.mTimestamps);
+        }
+    }
+
+    private static VehiclePropValue createValue(int prop, long timestamp) {
+        VehiclePropValue value = new VehiclePropValue();
+        value.prop = prop;
+        value.timestamp = timestamp;
+        return value;
+    }
+
+    private static class BlockingService extends HalServiceBase {
+        final CountDownLatch mBlocked = new CountDownLatch(1);
+        final CountDownLatch mUnblock = new CountDownLatch(1);
+        final CountDownLatch mReceived;
+        final List<Long> mTimestamps = new ArrayList<>();
+
+        BlockingService(int expectedEvents) {
+            mReceived = new CountDownLatch(expectedEvents);
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public void handleHalEvents(List<VehiclePropValue> values) {
+            for (VehiclePropValue value : values) {
+                synchronized (this) {
+                    mTimestamps.add(value.timestamp);
+                }
+                if (value.timestamp == 0) {
+                    mBlocked.countDown();
+                    try {
+                        mUnblock.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                mReceived.countDown();
+            }
+        }
+
+        @Override
+        public void dump(PrintWriter writer) {
+        }
+    }
+}
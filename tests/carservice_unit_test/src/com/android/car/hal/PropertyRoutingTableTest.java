@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.hal;
+
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+
+@SmallTest
+public class PropertyRoutingTableTest extends AndroidTestCase {
+    private final HalServiceBase mServiceA = new TestHalService();
+    private final HalServiceBase mServiceB = new TestHalService();
+
+    public void testEmpty() throws Exception {
+        assertEquals(0, PropertyRoutingTable.EMPTY.size());
+        assertNull(PropertyRoutingTable.EMPTY.getHandler(1));
+    }
+
+    public void testRoutesAreSortedAndResolved() throws Exception {
+        PropertyRoutingTable table = PropertyRoutingTable.EMPTY
+                .withProperties(mServiceA, Arrays.asList(30, 10))
+                .withProperties(mServiceB, Arrays.asList(20));
+
+        assertEquals(3, table.size());
+        assertEquals(10, table.propertyAt(0));
+        assertEquals(20, table.propertyAt(1));
+        assertEquals(30, table.propertyAt(2));
+        assertSame(mServiceA, table.getHandler(10));
+        assertSame(mServiceB, table.getHandler(20));
+        assertSame(mServiceA, table.getHandler(30));
+        assertNull(table.getHandler(40));
+    }
+
+    public void testOriginalTableIsNotModified() throws Exception {
+        PropertyRoutingTable first = PropertyRoutingTable.EMPTY
+                .withProperties(mServiceA, Arrays.asList(10));
+        PropertyRoutingTable second = first.withProperties(mServiceB, Arrays.asList(10, 20));
+
+        assertEquals(1, first.size());
+        assertSame(mServiceA, first.getHandler(10));
+        assertEquals(2, second.size());
+        assertSame(mServiceB, second.getHandler(10));
+    }
+
+    public void testEventInfoIsCarriedOver() throws Exception {
+        PropertyRoutingTable first = PropertyRoutingTable.EMPTY
+                .withProperties(mServiceA, Arrays.asList(10));
+        VehiclePropValue value = new VehiclePropValue();
+        value.prop = 10;
+        first.eventInfoAt(first.indexOf(10)).addNewEvent(value);
+
+        PropertyRoutingTable second = first.withProperties(mServiceB, Arrays.asList(5));
+        PropertyRoutingTable.EventInfo info = second.eventInfoAt(second.indexOf(10));
+        assertEquals(1, info.eventCount);
+        assertSame(value, info.lastEvent);
+        assertNull(second.eventInfoAt(second.indexOf(5)).lastEvent);
+    }
+
+    private static class TestHalService extends HalServiceBase {
+        @Override
+        public void init() {}
+
+        @Override
+        public void release() {}
+
+        @Override
+        public void handleHalEvents(List<VehiclePropValue> values) {}
+
+        @Override
+        public void dump(PrintWriter writer) {}
+    }
+}
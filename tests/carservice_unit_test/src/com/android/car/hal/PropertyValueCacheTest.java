@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.hal;
+
+import android.hardware.automotive.vehicle.V2_0.VehicleAreaConfig;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+@SmallTest
+public class PropertyValueCacheTest extends AndroidTestCase {
+    private static final int PROP = 0x1234;
+    private static final int AREA_1 = 0x1;
+    private static final int AREA_2 = 0x4;
+    private static final int UNKNOWN_AREA = 0x10;
+
+    public void testDisabledCacheReturnsNothing() throws Exception {
+        PropertyValueCache cache = new PropertyValueCache(createConfig(AREA_1));
+        cache.put(createValue(AREA_1));
+        assertNull(cache.get(AREA_1));
+    }
+
+    public void testZonedValues() throws Exception {
+        PropertyValueCache cache = new PropertyValueCache(createConfig(AREA_1, AREA_2));
+        cache.setEnabled(true);
+        VehiclePropValue value1 = createValue(AREA_1);
+        VehiclePropValue value2 = createValue(AREA_2);
+        cache.put(value1);
+        cache.put(value2);
+        cache.put(createValue(UNKNOWN_AREA));
+
+        assertSame(value1, cache.get(AREA_1));
+        assertSame(value2, cache.get(AREA_2));
+        assertNull(cache.get(UNKNOWN_AREA));
+
+        cache.invalidate(AREA_1);
+        assertNull(cache.get(AREA_1));
+        assertSame(value2, cache.get(AREA_2));
+    }
+
+    public void testGlobalPropertyAcceptsNoArea() throws Exception {
+        PropertyValueCache cache = new PropertyValueCache(createConfig());
+        cache.setEnabled(true);
+        VehiclePropValue value = createValue(0);
+        cache.put(value);
+        assertSame(value, cache.get(VehicleHal.NO_AREA));
+    }
+
+    public void testPutIfAbsentKeepsEventValue() throws Exception {
+        PropertyValueCache cache = new PropertyValueCache(createConfig(AREA_1));
+        cache.setEnabled(true);
+        VehiclePropValue event = createValue(AREA_1);
+        cache.put(event);
+        cache.putIfAbsent(AREA_1, createValue(AREA_1));
+        assertSame(event, cache.get(AREA_1));
+    }
+
+    public void testDisableClearsValues() throws Exception {
+        PropertyValueCache cache = new PropertyValueCache(createConfig(AREA_1));
+        cache.setEnabled(true);
+        cache.put(createValue(AREA_1));
+        cache.setEnabled(false);
+        cache.setEnabled(true);
+        assertNull(cache.get(AREA_1));
+    }
+
+    private static VehiclePropConfig createConfig(int... areas) {
+        VehiclePropConfig config = new VehiclePropConfig();
+        config.prop = PROP;
+        for (int area : areas) {
+            VehicleAreaConfig areaConfig = new VehicleAreaConfig();
+            areaConfig.areaId = area;
+            config.areaConfigs.add(areaConfig);
+            config.supportedAreas |= area;
+        }
+        return config;
+    }
+
+    private static VehiclePropValue createValue(int area) {
+        VehiclePropValue value = new VehiclePropValue();
+        value.prop = PROP;
+        value.areaId = area;
+        return value;
+    }
+}
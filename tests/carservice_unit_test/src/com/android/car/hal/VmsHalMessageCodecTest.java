@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.hal;
+
+import static com.android.car.CarServiceUtils.toByteArray;
+import static com.android.car.CarServiceUtils.toIntArray;
+
+import android.car.vms.VmsAssociatedLayer;
+import android.car.vms.VmsLayer;
+import android.car.vms.VmsLayerDependency;
+import android.car.vms.VmsLayersOffering;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
+import android.hardware.automotive.vehicle.V2_0.VmsMessageType;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+@SmallTest
+public class VmsHalMessageCodecTest extends AndroidTestCase {
+    private static final VmsLayer LAYER_X = new VmsLayer(1, 2, 3);
+    private static final VmsLayer LAYER_Y = new VmsLayer(4, 5, 6);
+    private static final int PUBLISHER_ID = 300;
+
+    public void testDataMessage() throws Exception {
+        byte[] payload = new byte[] {-1, 0, 127};
+        VehiclePropValue value = VmsHalMessageCodec.encodeDataMessage(LAYER_X, payload);
+
+        assertEquals(VehicleProperty.VEHICLE_MAP_SERVICE, value.prop);
+        assertEquals(Arrays.asList(VmsMessageType.DATA, 1, 2, 3), value.value.int32Values);
+        assertTrue(Arrays.equals(payload, toByteArray(value.value.bytes)));
+        assertEquals(LAYER_X,
+                VmsHalMessageCodec.decodeLayer(toIntArray(value.value.int32Values)));
+    }
+
+    public void testDataMessageWithPublisherId() throws Exception {
+        byte[] payload = new byte[] {1, 2};
+        VehiclePropValue value =
+                VmsHalMessageCodec.encodeDataMessage(LAYER_X, PUBLISHER_ID, payload);
+
+        int[] integerValues = toIntArray(value.value.int32Values);
+        assertEquals(VmsMessageType.DATA, VmsHalMessageCodec.getMessageType(integerValues));
+        assertEquals(LAYER_X, VmsHalMessageCodec.decodeLayer(integerValues));
+        assertEquals(PUBLISHER_ID, VmsHalMessageCodec.decodePublisherId(integerValues));
+        assertTrue(Arrays.equals(payload, toByteArray(value.value.bytes)));
+    }
+
+    public void testSubscriptionToPublisherMessage() throws Exception {
+        VehiclePropValue value = VmsHalMessageCodec.encodeSubscriptionToPublisherMessage(
+                VmsMessageType.SUBSCRIBE_TO_PUBLISHER, LAYER_Y, PUBLISHER_ID);
+
+        int[] integerValues = toIntArray(value.value.int32Values);
+        assertEquals(VmsMessageType.SUBSCRIBE_TO_PUBLISHER,
+                VmsHalMessageCodec.getMessageType(integerValues));
+        assertEquals(LAYER_Y, VmsHalMessageCodec.decodeLayer(integerValues));
+        assertEquals(PUBLISHER_ID, VmsHalMessageCodec.decodePublisherId(integerValues));
+        assertTrue(value.value.bytes.isEmpty());
+    }
+
+    public void testAvailabilityMessage() throws Exception {
+        VehiclePropValue value = VmsHalMessageCodec.encodeAvailabilityMessage(
+                VmsMessageType.AVAILABILITY_CHANGE, Collections.singleton(
+                        new VmsAssociatedLayer(LAYER_X, Collections.singleton(PUBLISHER_ID))));
+
+        assertEquals(Arrays.asList(VmsMessageType.AVAILABILITY_CHANGE, 1, 1, 2, 3, 1,
+                PUBLISHER_ID), value.value.int32Values);
+    }
+
+    public void testAvailabilityMessageRejectsOtherTypes() throws Exception {
+        try {
+            VmsHalMessageCodec.encodeAvailabilityMessage(VmsMessageType.DATA,
+                    Collections.<VmsAssociatedLayer>emptySet());
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testSubscriptionsResponse() throws Exception {
+        VehiclePropValue value = VmsHalMessageCodec.encodeSubscriptionsResponse(7,
+                Collections.singleton(LAYER_Y));
+
+        assertEquals(Arrays.asList(VmsMessageType.SUBSCRIPTIONS_RESPONSE, 7, 1, 0, 4, 5, 6),
+                value.value.int32Values);
+        assertEquals(Collections.singletonList(LAYER_Y),
+                VmsHalMessageCodec.decodeSubscriptionsResponseLayers(
+                        toIntArray(value.value.int32Values)));
+    }
+
+    public void testSubscriptionsRequest() throws Exception {
+        VehiclePropValue value = VmsHalMessageCodec.encodeSubscriptionsRequest();
+
+        assertEquals(Collections.singletonList(VmsMessageType.SUBSCRIPTIONS_REQUEST),
+                value.value.int32Values);
+    }
+
+    public void testDecodeOffering() throws Exception {
+        int[] integerValues = new int[] {
+                VmsMessageType.OFFERING, PUBLISHER_ID,
+                2, // Number of offerings.
+                1, 2, 3, 1, 4, 5, 6, // LAYER_X depends on LAYER_Y.
+                4, 5, 6, 0}; // LAYER_Y has no dependencies.
+
+        VmsLayersOffering offering = VmsHalMessageCodec.decodeOffering(integerValues);
+        checkOffering(offering);
+    }
+
+    public void testOfferingRoundTrip() throws Exception {
+        VmsLayersOffering offering = new VmsLayersOffering(new HashSet<>(Arrays.asList(
+                new VmsLayerDependency(LAYER_X, Collections.singleton(LAYER_Y)),
+                new VmsLayerDependency(LAYER_Y))), PUBLISHER_ID);
+
+        VehiclePropValue value = VmsHalMessageCodec.encodeOffering(offering);
+
+        assertEquals(14, value.value.int32Values.size());
+        checkOffering(VmsHalMessageCodec.decodeOffering(toIntArray(value.value.int32Values)));
+    }
+
+    private static void checkOffering(VmsLayersOffering offering) {
+        assertEquals(PUBLISHER_ID, offering.getPublisherId());
+        assertEquals(2, offering.getDependencies().size());
+        for (VmsLayerDependency dependency : offering.getDependencies()) {
+            if (dependency.getLayer().equals(LAYER_X)) {
+                assertEquals(Collections.singleton(LAYER_Y), dependency.getDependencies());
+            } else {
+                assertEquals(LAYER_Y, dependency.getLayer());
+                assertTrue(dependency.getDependencies().isEmpty());
+            }
+        }
+    }
+}
@@ -56,23 +56,56 @@ public class Obd2LiveFrameGeneratorTest {
     private static final String[] EXPECTED_DISCOVERY_RESPONSES =
             new String[] {"00 00 00 18 00 00", OBD2_PROMPT, OBD2_PROMPT, OBD2_PROMPT, OBD2_PROMPT};
 
-    private static final String[] EXPECTED_FRAME_COMMANDS = new String[] {"010C\r", "010D\r"};
+    private static final String[] EXPECTED_FRAME_COMMANDS = new String[] {"010C0D\r"};
 
     private static final String[] EXPECTED_FRAME_RESPONSES =
-            new String[] {"41 0C 12 0F", OBD2_PROMPT, "41 0D 82", OBD2_PROMPT};
+            new String[] {"41 0C 12 0F 0D 82", OBD2_PROMPT};
+
+    private static final String[] EXPECTED_SINGLE_PID_FRAME_COMMANDS =
+            new String[] {"010C0D\r", "010C\r", "010D\r"};
+
+    private static final String[] EXPECTED_SINGLE_PID_FRAME_RESPONSES =
+            new String[] {"?", OBD2_PROMPT, "41 0C 12 0F", OBD2_PROMPT, "41 0D 82", OBD2_PROMPT};
+
+    private static final String[] EXPECTED_RETRIED_FRAME_RESPONSES =
+            new String[] {
+                "41 0C 12 0F", OBD2_PROMPT, "41 0C 12 0F", OBD2_PROMPT, "41 0D 82", OBD2_PROMPT
+            };
 
     @Test
     public void testObd2LiveFrameGeneration() throws Exception {
+        checkObd2LiveFrameGeneration(EXPECTED_FRAME_COMMANDS, EXPECTED_FRAME_RESPONSES);
+    }
+
+    @Test
+    public void testObd2LiveFrameGenerationWithoutMultiPidRequests() throws Exception {
+        Obd2Connection obd2Connection =
+                checkObd2LiveFrameGeneration(
+                        EXPECTED_SINGLE_PID_FRAME_COMMANDS, EXPECTED_SINGLE_PID_FRAME_RESPONSES);
+        assertFalse(obd2Connection.supportsMultiPidRequests());
+    }
+
+    @Test
+    public void testObd2LiveFrameGenerationRetriesPartialAnswer() throws Exception {
+        Obd2Connection obd2Connection =
+                checkObd2LiveFrameGeneration(
+                        EXPECTED_SINGLE_PID_FRAME_COMMANDS, EXPECTED_RETRIED_FRAME_RESPONSES);
+        // a single partial answer does not disable multi-PID requests
+        assertTrue(obd2Connection.supportsMultiPidRequests());
+    }
+
+    private Obd2Connection checkObd2LiveFrameGeneration(
+            String[] frameCommands, String[] frameResponses) throws Exception {
         MockObd2UnderlyingTransport transport =
                 new MockObd2UnderlyingTransport(
                         concatIntArrays(
                                 stringsToIntArray(EXPECTED_INIT_COMMANDS),
                                 stringsToIntArray(EXPECTED_DISCOVERY_COMMANDS),
-                                stringsToIntArray(EXPECTED_FRAME_COMMANDS)),
+                                stringsToIntArray(frameCommands)),
                         concatIntArrays(
                                 stringsToIntArray(EXPECTED_INIT_RESPONSES),
                                 stringsToIntArray(EXPECTED_DISCOVERY_RESPONSES),
-                                stringsToIntArray(EXPECTED_FRAME_RESPONSES)));
+                                stringsToIntArray(frameResponses)));
         Obd2Connection obd2Connection = new Obd2Connection(transport);
         Obd2LiveFrameGenerator obd2Generator = new Obd2LiveFrameGenerator(obd2Connection);
         StringWriter stringWriter = new StringWriter(1024);
@@ -84,5 +117,6 @@ public class Obd2LiveFrameGeneratorTest {
         assertEquals(OBD2_LIVE_FRAME, vehiclePropValue.prop);
         assertEquals(1155, (long) vehiclePropValue.value.int32Values.get(0xC));
         assertEquals(130, (long) vehiclePropValue.value.int32Values.get(0xD));
+        return obd2Connection;
     }
 }